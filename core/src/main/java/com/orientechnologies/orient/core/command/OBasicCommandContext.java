@@ -19,6 +19,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import com.orientechnologies.common.concur.OTimeoutException;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.record.impl.ODocumentHelper;
 import com.orientechnologies.orient.core.serialization.serializer.OStringSerializerHelper;
 
@@ -44,6 +45,10 @@ public class OBasicCommandContext implements OCommandContext {
   private long                                                                       timeoutMs;
   private com.orientechnologies.orient.core.command.OCommandContext.TIMEOUT_STRATEGY timeoutStrategy;
 
+  // MANAGES THE MEMORY
+  private long                                                                       memoryBudget     = -1;
+  private long                                                                       memoryUsed;
+
   public OBasicCommandContext() {
   }
 
@@ -231,4 +236,28 @@ public class OBasicCommandContext implements OCommandContext {
     return true;
   }
 
+  public OCommandContext setMemoryBudget(final long iBytes) {
+    memoryBudget = iBytes;
+    return this;
+  }
+
+  public long getMemoryBudget() {
+    if (memoryBudget < 0)
+      memoryBudget = OGlobalConfiguration.COMMAND_MEMORY_BUDGET.getValueAsLong() * 1024 * 1024;
+    return memoryBudget;
+  }
+
+  public boolean reserveMemory(final long iBytes) {
+    final long budget = getMemoryBudget();
+    if (budget > 0 && memoryUsed + iBytes > budget)
+      return false;
+
+    memoryUsed += iBytes;
+    return true;
+  }
+
+  public void releaseMemory(final long iBytes) {
+    memoryUsed = Math.max(memoryUsed - iBytes, 0);
+  }
+
 }
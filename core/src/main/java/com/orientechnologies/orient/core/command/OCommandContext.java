@@ -17,6 +17,8 @@ package com.orientechnologies.orient.core.command;
 
 import java.util.Map;
 
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+
 /**
  * Basic interface for commands. Manages the context variables during execution.
  * 
@@ -58,4 +60,30 @@ public interface OCommandContext {
   public void beginExecution(long timeoutMs, TIMEOUT_STRATEGY iStrategy);
 
   public boolean checkTimeout();
+
+  /**
+   * Sets the memory the command can use to keep records and groups before writing them in temporary files.
+   * 
+   * @param iBytes
+   *          Maximum bytes, 0 means unlimited
+   */
+  public OCommandContext setMemoryBudget(long iBytes);
+
+  /**
+   * Returns the memory the command can use, by default the value of {@link OGlobalConfiguration#COMMAND_MEMORY_BUDGET}.
+   * 
+   * @return Maximum bytes, 0 means unlimited
+   */
+  public long getMemoryBudget();
+
+  /**
+   * Reserves memory from the budget of the command.
+   * 
+   * @param iBytes
+   *          Estimated bytes to keep in memory
+   * @return true if the memory has been reserved, false if the budget would be exceeded and nothing has been reserved
+   */
+  public boolean reserveMemory(long iBytes);
+
+  public void releaseMemory(long iBytes);
 }
\ No newline at end of file
@@ -56,6 +56,15 @@ public enum OGlobalConfiguration {
   // STORAGE
   DISK_CACHE_SIZE("storage.diskCache.bufferSize", "Size of disk buffer in megabytes", Integer.class, 2 * 1024),
 
+  DISK_CACHE_DIRECT_IO("storage.diskCache.directIO",
+      "Read and write pages of paginated clusters bypassing OS file cache (Linux only), pages of indexes are still cached by OS. "
+          + "See storage.diskCache.authoritative to bypass OS file cache for all pages", Boolean.class, false),
+
+  DISK_CACHE_AUTHORITATIVE("storage.diskCache.authoritative",
+      "Disk cache is the single cache of pages of paginated storage: pages of all its files (clusters and indexes) are read and "
+          + "written bypassing OS file cache (Linux only), so storage.diskCache.bufferSize should be set to the whole amount of "
+          + "memory dedicated to data instead of leaving it to OS", Boolean.class, false),
+
   USE_WAL("storage.useWAL", "Whether WAL should be used in paginated storage", Boolean.class, true),
 
   WAL_CACHE_SIZE("storage.wal.cacheSize",
@@ -68,6 +77,18 @@ public enum OGlobalConfiguration {
 
   WAL_COMMIT_TIMEOUT("storage.wal.commitTimeout", "Maximum interval between WAL commits (in ms.)", Integer.class, 1000),
 
+  WAL_SYNC_ON_COMMIT("storage.wal.syncOnCommit",
+      "Wait till WAL records of operation are flushed to the disk before operation is completed, concurrent operations "
+          + "are flushed by single fsync (group commit)", Boolean.class, false),
+
+  WAL_RESTORE_THREADS("storage.wal.restoreThreads",
+      "Number of threads which apply page changes in parallel during restore of storage from WAL, 1 means single threaded restore",
+      Integer.class, 1),
+
+  WAL_COMPRESSION("storage.wal.compression",
+      "Compress changes of pages stored in WAL using Snappy codec, compressed content is used only if it is smaller than original one",
+      Boolean.class, false),
+
   WAL_FUZZY_CHECKPOINT_INTERVAL("storage.wal.fuzzyCheckpointInterval", "Interval between fuzzy checkpoints (in seconds)",
       Integer.class, 36000),
 
@@ -87,7 +108,30 @@ public enum OGlobalConfiguration {
 
   DISK_CACHE_WRITE_QUEUE_LENGTH("storage.diskCache.writeQueueLength", "Length of write queue (in pages), "
       + "this queue is used to accumulate all pages that "
-      + "should be written to the disk and then flush them in batch mode to minimize random IO overhead.", Integer.class, 15000),
+      + "should be written to the disk and then flush them in batch mode to minimize random IO overhead. "
+      + "If write behind is enabled it is the high-water mark after which threads flush evicted pages by themselves.",
+      Integer.class, 15000),
+
+  DISK_CACHE_WRITE_BEHIND_INTERVAL("storage.diskCache.writeBehindInterval", "Interval between runs of background task (in ms.) "
+      + "which writes dirty pages of disk cache to the disk, 0 means that pages are written by threads which evict them from cache.",
+      Integer.class, 0),
+
+  DISK_CACHE_CONCURRENCY_LEVEL("storage.diskCache.concurrencyLevel", "Amount of segments of disk cache, "
+      + "each segment is locked independently so pages which belong to different segments can be accessed concurrently. "
+      + "Value will be rounded up to the nearest power of two.", Integer.class, 16),
+
+  DISK_CACHE_READ_AHEAD("storage.diskCache.readAhead", "Amount of pages which are read from the disk by single operation ahead of "
+      + "sequential scan of file. Pages loaded by sequential scans are kept only in the queue of recently loaded pages "
+      + "and do not displace frequently used pages, 0 switches off both read ahead and detection of sequential scans.",
+      Integer.class, 16),
+
+  DISK_CACHE_VERIFY_PAGES("storage.diskCache.verifyPages",
+      "Verify magic number and checksum of each page which is read from the disk, broken pages are reported to the log and profiler",
+      Boolean.class, false),
+
+  DISK_CACHE_SCRUBBER_RATE("storage.diskCache.scrubberRate", "Amount of pages per second which are read and verified by "
+      + "background scrubber, scrubber walks over all files of storage and reports broken pages to the log and profiler, "
+      + "0 means that scrubber is switched off.", Integer.class, 0),
 
   DISK_PAGE_CACHE_LOCK_TIMEOUT("storage.diskPageCache.lockTimeOut",
       "Timeout till page lock will wait in case of multi threading operations", Integer.class, 1000),
@@ -186,6 +230,10 @@ public enum OGlobalConfiguration {
       + "that were splited but not flushed to the disk are kept. This buffer is used to minimize random IO overhead.",
       Integer.class, 1500),
 
+  HASH_TABLE_BLOOM_FILTER_BITS_PER_KEY("hashTable.bloomFilter.bitsPerKey", "Number of bits per key of bloom filter which is kept "
+      + "in memory for every hash index, so lookups of absent keys are answered without loading of bucket pages. Filter is rebuilt "
+      + "when index is loaded. 10 bits give about 1% of false positives. 0 means that bloom filter is not used", Integer.class, 0),
+
   INDEX_AUTO_REBUILD_AFTER_NOTSOFTCLOSE("index.auto.rebuildAfterNotSoftClose",
       "Auto rebuild all automatic indexes after upon database open when wasn't closed properly", Boolean.class, true),
 
@@ -198,6 +246,22 @@ public enum OGlobalConfiguration {
       "Configure the TreeMaps for manual indexes as buffered or not. -1 means buffered until tx.commit() or db.close() are called",
       Integer.class, 1),
 
+  INDEX_CREATE_ONLINE("index.create.online", "Builds automatic indexes without locking of index manager and index itself, so "
+      + "records of indexed class can be changed during build. Concurrent changes are captured and applied to the index before "
+      + "it is used by queries", Boolean.class, false),
+
+  INDEX_REBUILD_THREADS("index.rebuild.threads", "Number of threads which scan clusters during index rebuild. If greater than 0 "
+      + "index is rebuilt in bulk mode: extracted keys are sorted and loaded into a new tree which replaces the current one when "
+      + "rebuild is finished, so the index can be read during rebuild. 0 means that index is rebuilt by the current thread "
+      + "and is locked till rebuild is finished", Integer.class, 0),
+
+  INDEX_REBUILD_SORT_BUFFER("index.rebuild.sortBuffer", "Number of index entries which are sorted in memory by each thread during "
+      + "bulk index rebuild. Sorted entries which do not fit into the buffer are flushed to temporary files", Integer.class, 100000),
+
+  INDEX_FULLTEXT_TERM_FREQUENCIES("index.fullText.termFrequencies", "Full-text indexes which are created keep frequencies of "
+      + "words and lengths of records, so results of search() function are ranked by BM25. Such indexes are not rebuilt in bulk "
+      + "mode", Boolean.class, false),
+
   // TREEMAP
   MVRBTREE_TIMEOUT("mvrbtree.timeout", "Maximum timeout to get lock against the OMVRB-Tree", Integer.class, 5000),
 
@@ -390,6 +454,26 @@ public enum OGlobalConfiguration {
   // COMMAND
   COMMAND_TIMEOUT("command.timeout", "Default timeout for commands expressed in milliseconds", Long.class, 0),
 
+  COMMAND_STATEMENT_CACHE_SIZE("command.statementCache.size",
+      "Maximum number of parsed conditions and index plans kept to be reused by next executions of the same statement. 0 = disabled",
+      Integer.class, 0),
+
+  COMMAND_COMPILE_CONDITIONS("command.compileConditions",
+      "Evaluates conditions through a tree specialized by operators and value types instead of the generic interpreter",
+      Boolean.class, false),
+
+  COMMAND_PARALLEL_SCAN("command.parallelScan",
+      "Scans clusters of SELECT commands which do not use indexes by several threads. It can be enabled for a single command by "
+          + "the PARALLEL keyword", Boolean.class, false),
+
+  COMMAND_PARALLEL_SCAN_THREADS("command.parallelScan.threads", "Maximum number of threads which scan clusters of a single command, "
+      + "it is also the size of the pool of threads shared by all the commands", Integer.class,
+      Runtime.getRuntime().availableProcessors()),
+
+  COMMAND_MEMORY_BUDGET("command.memoryBudget",
+      "Maximum memory in MB which a single command can use to sort records and aggregate groups, beyond it they are written in "
+          + "temporary files. 0 = unlimited", Integer.class, 0),
+
   // CLIENT
   CLIENT_CHANNEL_MIN_POOL("client.channel.minPool", "Minimum pool size", Integer.class, 1),
 
@@ -111,19 +111,45 @@ public abstract class ODatabaseRecordAbstract extends ODatabaseWrapperAbstract<O
 
   @Override
   public <DB extends ODatabase> DB open(final String iUserName, final String iUserPassword) {
+    return (DB) open(iUserName, iUserPassword, false);
+  }
+
+  /**
+   * Opens the database on behalf of a user already authenticated by another instance of the same embedded database, for example by
+   * the database of a command which is executed by several threads. The user is loaded again, so its status and roles are checked
+   * as on login.
+   * 
+   * @param iUser
+   *          User authenticated by the other database instance
+   */
+  public <DB extends ODatabase> DB open(final OUser iUser) {
+    return (DB) open(iUser.getName(), null, true);
+  }
+
+  private ODatabaseRecordAbstract open(final String iUserName, final String iUserPassword, final boolean iAuthenticated) {
     setCurrentDatabaseinThreadLocal();
 
     try {
       super.open(iUserName, iUserPassword);
       level1Cache.startup();
 
+      if (iAuthenticated && getStorage() instanceof OStorageProxy)
+        throw new ODatabaseException("Remote database '" + getName() + "' cannot be opened without password");
+
       metadata = new OMetadata();
       metadata.load();
 
       recordFormat = DEF_RECORD_FORMAT;
 
       if (!(getStorage() instanceof OStorageProxy)) {
-        user = getMetadata().getSecurity().authenticate(iUserName, iUserPassword);
+        if (iAuthenticated) {
+          user = getMetadata().getSecurity().getUser(iUserName);
+          if (user == null)
+            throw new OSecurityAccessException(getName(), "User '" + iUserName + "' not found in database: '" + getName() + "'");
+          if (user.getAccountStatus() != OUser.STATUSES.ACTIVE)
+            throw new OSecurityAccessException(getName(), "User '" + iUserName + "' is not active");
+        } else
+          user = getMetadata().getSecurity().authenticate(iUserName, iUserPassword);
         if (user != null) {
           final Set<ORole> roles = user.getRoles();
           if (roles == null || roles.isEmpty() || roles.iterator().next() == null) {
@@ -162,7 +188,7 @@ public abstract class ODatabaseRecordAbstract extends ODatabaseWrapperAbstract<O
       close();
       throw new ODatabaseException("Cannot open database", e);
     }
-    return (DB) this;
+    return this;
   }
 
   @Override
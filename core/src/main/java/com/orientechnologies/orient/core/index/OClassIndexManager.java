@@ -25,6 +25,7 @@ import java.util.Collection;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -50,6 +51,7 @@ import com.orientechnologies.orient.core.metadata.OMetadata;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.storage.impl.local.OStorageLocalAbstract;
+import com.orientechnologies.orient.core.tx.OTransactionIndexChanges.OPERATION;
 import com.orientechnologies.orient.core.version.ORecordVersion;
 
 /**
@@ -58,6 +60,12 @@ import com.orientechnologies.orient.core.version.ORecordVersion;
  * @author Andrey Lomakin, Artem Orobets
  */
 public class OClassIndexManager extends ODocumentHookAbstract {
+  /**
+   * Indexes which modification lock is held for the record between before and after hooks. The set of indexes of class can be
+   * changed in between (index is created online), so exactly the locked indexes are released.
+   */
+  private final Map<ODocument, List<Collection<OIndex<?>>>> lockedIndexes = new IdentityHashMap<ODocument, List<Collection<OIndex<?>>>>();
+
   public OClassIndexManager() {
     // rebuild indexes if index cluster wasn't closed properly
     if (autoRebuildAllIndexes())
@@ -86,27 +94,29 @@ public class OClassIndexManager extends ODocumentHookAbstract {
     addIndexesEntriesAndReleaseLock(iDocument);
   }
 
-  private void addIndexesEntriesAndReleaseLock(ODocument document) {
-    document = checkForLoading(document);
+  private void addIndexesEntriesAndReleaseLock(final ODocument iDocument) {
+    try {
+      final ODocument document = checkForLoading(iDocument);
 
-    // STORE THE RECORD IF NEW, OTHERWISE ITS RID
-    final OIdentifiable rid = document.getIdentity().isPersistent() ? document.placeholder() : document;
+      // STORE THE RECORD IF NEW, OTHERWISE ITS RID
+      final OIdentifiable rid = document.getIdentity().isPersistent() ? document.placeholder() : document;
 
-    final OClass cls = document.getSchemaClass();
-    if (cls != null) {
-      final Collection<OIndex<?>> indexes = cls.getIndexes();
-      for (final OIndex<?> index : indexes) {
-        final Object key = index.getDefinition().getDocumentValueToIndex(document);
-        // SAVE A COPY TO AVOID PROBLEM ON RECYCLING OF THE RECORD
-        if (key instanceof Collection) {
-          for (final Object keyItem : (Collection<?>) key)
-            if (keyItem != null)
-              index.put(keyItem, rid);
-        } else if (key != null)
-          index.put(key, rid);
+      final OClass cls = document.getSchemaClass();
+      if (cls != null) {
+        final Collection<OIndex<?>> indexes = cls.getIndexes();
+        for (final OIndex<?> index : indexes) {
+          final Object key = index.getDefinition().getDocumentValueToIndex(document);
+          // SAVE A COPY TO AVOID PROBLEM ON RECYCLING OF THE RECORD
+          if (key instanceof Collection) {
+            for (final Object keyItem : (Collection<?>) key)
+              if (keyItem != null)
+                putIndexEntry(index, keyItem, rid);
+          } else if (key != null)
+            putIndexEntry(index, key, rid);
+        }
       }
-
-      releaseModificationLock(document, indexes);
+    } finally {
+      releaseModificationLock(iDocument);
     }
   }
 
@@ -147,33 +157,36 @@ public class OClassIndexManager extends ODocumentHookAbstract {
     updateIndexEntries(iDocument);
   }
 
-  private void updateIndexEntries(ODocument iDocument) {
-    iDocument = checkForLoading(iDocument);
+  private void updateIndexEntries(final ODocument iDocument) {
+    final ODocument document;
+    try {
+      document = checkForLoading(iDocument);
 
-    final OClass cls = iDocument.getSchemaClass();
-    if (cls == null)
-      return;
+      final OClass cls = document.getSchemaClass();
+      if (cls == null)
+        return;
 
-    final Collection<OIndex<?>> indexes = cls.getIndexes();
+      final Collection<OIndex<?>> indexes = cls.getIndexes();
 
-    if (!indexes.isEmpty()) {
-      final Set<String> dirtyFields = new HashSet<String>(Arrays.asList(iDocument.getDirtyFields()));
+      if (!indexes.isEmpty()) {
+        final Set<String> dirtyFields = new HashSet<String>(Arrays.asList(document.getDirtyFields()));
 
-      if (!dirtyFields.isEmpty()) {
-        for (final OIndex<?> index : indexes) {
-          if (index.getDefinition() instanceof OCompositeIndexDefinition)
-            processCompositeIndexUpdate(index, dirtyFields, iDocument);
-          else
-            processSingleIndexUpdate(index, dirtyFields, iDocument);
+        if (!dirtyFields.isEmpty()) {
+          for (final OIndex<?> index : indexes) {
+            if (index.getDefinition() instanceof OCompositeIndexDefinition)
+              processCompositeIndexUpdate(index, dirtyFields, document);
+            else
+              processSingleIndexUpdate(index, dirtyFields, document);
+          }
         }
       }
+    } finally {
+      releaseModificationLock(iDocument);
     }
 
-    releaseModificationLock(iDocument, indexes);
-
-    if (iDocument.isTrackingChanges()) {
-      iDocument.setTrackingChanges(false);
-      iDocument.setTrackingChanges(true);
+    if (document.isTrackingChanges()) {
+      document.setTrackingChanges(false);
+      document.setTrackingChanges(true);
     }
   }
 
@@ -228,42 +241,44 @@ public class OClassIndexManager extends ODocumentHookAbstract {
   }
 
   private void deleteIndexEntries(ODocument iDocument) {
-    final OClass cls = iDocument.getSchemaClass();
-    if (cls == null)
-      return;
+    try {
+      final OClass cls = iDocument.getSchemaClass();
+      if (cls == null)
+        return;
 
-    final Collection<OIndex<?>> indexes = new ArrayList<OIndex<?>>(cls.getIndexes());
+      final Collection<OIndex<?>> indexes = new ArrayList<OIndex<?>>(cls.getIndexes());
 
-    if (!indexes.isEmpty()) {
-      final Set<String> dirtyFields = new HashSet<String>(Arrays.asList(iDocument.getDirtyFields()));
+      if (!indexes.isEmpty()) {
+        final Set<String> dirtyFields = new HashSet<String>(Arrays.asList(iDocument.getDirtyFields()));
 
-      if (!dirtyFields.isEmpty()) {
-        // REMOVE INDEX OF ENTRIES FOR THE OLD VALUES
-        final Iterator<OIndex<?>> indexIterator = indexes.iterator();
+        if (!dirtyFields.isEmpty()) {
+          // REMOVE INDEX OF ENTRIES FOR THE OLD VALUES
+          final Iterator<OIndex<?>> indexIterator = indexes.iterator();
 
-        while (indexIterator.hasNext()) {
-          final OIndex<?> index = indexIterator.next();
+          while (indexIterator.hasNext()) {
+            final OIndex<?> index = indexIterator.next();
 
-          final boolean result;
-          if (index.getDefinition() instanceof OCompositeIndexDefinition)
-            result = processCompositeIndexDelete(index, dirtyFields, iDocument);
-          else
-            result = processSingleIndexDelete(index, dirtyFields, iDocument);
+            final boolean result;
+            if (index.getDefinition() instanceof OCompositeIndexDefinition)
+              result = processCompositeIndexDelete(index, dirtyFields, iDocument);
+            else
+              result = processSingleIndexDelete(index, dirtyFields, iDocument);
 
-          if (result)
-            indexIterator.remove();
+            if (result)
+              indexIterator.remove();
+          }
         }
-      }
 
-      // REMOVE INDEX OF ENTRIES FOR THE NON CHANGED ONLY VALUES
-      for (final OIndex<?> index : indexes) {
-        final Object key = index.getDefinition().getDocumentValueToIndex(iDocument);
-        deleteIndexKey(index, iDocument, key);
+        // REMOVE INDEX OF ENTRIES FOR THE NON CHANGED ONLY VALUES
+        for (final OIndex<?> index : indexes) {
+          final Object key = index.getDefinition().getDocumentValueToIndex(iDocument);
+          deleteIndexKey(index, iDocument, key);
+        }
       }
+    } finally {
+      releaseModificationLock(iDocument);
     }
 
-    releaseModificationLock(iDocument, indexes);
-
     if (iDocument.isTrackingChanges()) {
       iDocument.setTrackingChanges(false);
       iDocument.setTrackingChanges(true);
@@ -316,10 +331,10 @@ public class OClassIndexManager extends ODocumentHookAbstract {
           final Object newValue = indexDefinition.getDocumentValueToIndex(iRecord);
 
           if (origValue != null)
-            index.remove(origValue, iRecord);
+            removeIndexEntry(index, origValue, iRecord);
 
           if (newValue != null)
-            index.put(newValue, iRecord.placeholder());
+            putIndexEntry(index, newValue, iRecord.placeholder());
         } else {
           final OMultiValueChangeTimeLine<?, ?> multiValueChangeTimeLine = iRecord.getCollectionTimeLine(multiValueField);
           if (multiValueChangeTimeLine == null) {
@@ -342,10 +357,10 @@ public class OClassIndexManager extends ODocumentHookAbstract {
               }
 
               for (final Object keyToRemove : keysToRemove.keySet())
-                index.remove(keyToRemove, iRecord);
+                removeIndexEntry(index, keyToRemove, iRecord);
 
               for (final Object keyToAdd : keysToAdd.keySet())
-                index.put(keyToAdd, iRecord.placeholder());
+                putIndexEntry(index, keyToAdd, iRecord.placeholder());
             } else {
               final OTrackedMultiValue fieldValue = iRecord.field(multiValueField);
               final Object restoredMultiValue = fieldValue
@@ -387,10 +402,10 @@ public class OClassIndexManager extends ODocumentHookAbstract {
       }
 
       for (final Object keyToRemove : keysToRemove.keySet())
-        index.remove(keyToRemove, iRecord);
+        removeIndexEntry(index, keyToRemove, iRecord);
 
       for (final Object keyToAdd : keysToAdd.keySet())
-        index.put(keyToAdd, iRecord.placeholder());
+        putIndexEntry(index, keyToAdd, iRecord.placeholder());
 
     } else {
       final Object origValue = indexDefinition.createValue(iRecord.getOriginalValue(indexField));
@@ -411,13 +426,13 @@ public class OClassIndexManager extends ODocumentHookAbstract {
 
       for (final Object valueToRemove : valuesToRemove) {
         if (valueToRemove != null) {
-          index.remove(valueToRemove, iRecord);
+          removeIndexEntry(index, valueToRemove, iRecord);
         }
       }
 
       for (final Object valueToAdd : valuesToAdd) {
         if (valueToAdd != null) {
-          index.put(valueToAdd, iRecord);
+          putIndexEntry(index, valueToAdd, iRecord);
         }
       }
     } else {
@@ -425,10 +440,10 @@ public class OClassIndexManager extends ODocumentHookAbstract {
 
       if (newValue instanceof Collection) {
         for (final Object newValueItem : (Collection<?>) newValue) {
-          index.put(newValueItem, iRecord.placeholder());
+          putIndexEntry(index, newValueItem, iRecord.placeholder());
         }
       } else if (newValue != null) {
-        index.put(newValue, iRecord.placeholder());
+        putIndexEntry(index, newValue, iRecord.placeholder());
       }
     }
   }
@@ -477,10 +492,10 @@ public class OClassIndexManager extends ODocumentHookAbstract {
     if (origValue instanceof Collection) {
       for (final Object valueItem : (Collection<?>) origValue) {
         if (valueItem != null)
-          index.remove(valueItem, iRecord);
+          removeIndexEntry(index, valueItem, iRecord);
       }
     } else if (origValue != null) {
-      index.remove(origValue, iRecord);
+      removeIndexEntry(index, origValue, iRecord);
     }
   }
 
@@ -511,8 +526,8 @@ public class OClassIndexManager extends ODocumentHookAbstract {
     return false;
   }
 
-  private void checkIndexesAndAquireLock(ODocument document, TYPE hookType) {
-    document = checkForLoading(document);
+  private void checkIndexesAndAquireLock(final ODocument iDocument, TYPE hookType) {
+    final ODocument document = checkForLoading(iDocument);
 
     final OClass cls = document.getSchemaClass();
     if (cls != null) {
@@ -527,7 +542,7 @@ public class OClassIndexManager extends ODocumentHookAbstract {
       default:
         throw new IllegalArgumentException("Invalid hook type: " + hookType);
       }
-      acquireModificationLock(document, indexes);
+      acquireModificationLock(iDocument, indexes);
     }
   }
 
@@ -546,7 +561,7 @@ public class OClassIndexManager extends ODocumentHookAbstract {
     }
   }
 
-  private static void acquireModificationLock(final ODocument iRecord, final Collection<OIndex<?>> iIndexes) {
+  private void acquireModificationLock(final ODocument iRecord, final Collection<OIndex<?>> iIndexes) {
     if (iIndexes == null)
       return;
 
@@ -558,27 +573,36 @@ public class OClassIndexManager extends ODocumentHookAbstract {
 
     indexesToLock.addAll(iIndexes);
 
-    for (final OIndex<?> index : indexesToLock) {
-      index.getInternal().acquireModificationLock();
+    final List<OIndex<?>> lockedIndexesOfRecord = new ArrayList<OIndex<?>>(indexesToLock.size());
+    try {
+      for (final OIndex<?> index : indexesToLock) {
+        index.getInternal().acquireModificationLock();
+        lockedIndexesOfRecord.add(index);
+      }
+    } finally {
+      List<Collection<OIndex<?>>> recordLocks = lockedIndexes.get(iRecord);
+      if (recordLocks == null) {
+        recordLocks = new ArrayList<Collection<OIndex<?>>>(1);
+        lockedIndexes.put(iRecord, recordLocks);
+      }
+      recordLocks.add(lockedIndexesOfRecord);
     }
   }
 
   /**
-   * Releases the index modification lock. Incurs overhead of index retrieval: if you already have a list of indexes for the schema
-   * class of this record, use the overloaded method that takes a collection.
+   * Releases the index modification locks which were acquired for the record by the last before hook. Nothing is released if the
+   * locks are already released by after hook.
    */
-  private static void releaseModificationLock(final ODocument iRecord) {
-    final OClass cls = iRecord.getSchemaClass();
-    if (cls != null) {
-      releaseModificationLock(iRecord, cls.getIndexes());
-    }
-  }
+  private void releaseModificationLock(final ODocument iRecord) {
+    final List<Collection<OIndex<?>>> recordLocks = lockedIndexes.get(iRecord);
+    if (recordLocks == null)
+      return;
 
-  /**
-   * Releases the index modification lock. Avoids overhead of retrieving the schema class' indexes.
-   */
-  private static void releaseModificationLock(final ODocument iRecord, final Collection<OIndex<?>> iIndexes) {
-    for (final OIndex<?> index : iIndexes) {
+    final Collection<OIndex<?>> indexes = recordLocks.remove(recordLocks.size() - 1);
+    if (recordLocks.isEmpty())
+      lockedIndexes.remove(iRecord);
+
+    for (final OIndex<?> index : indexes) {
       index.getInternal().releaseModificationLock();
     }
   }
@@ -609,6 +633,28 @@ public class OClassIndexManager extends ODocumentHookAbstract {
     }
   }
 
+  private static void putIndexEntry(final OIndex<?> index, final Object key, final OIdentifiable value) {
+    if (!captureIndexChange(index, OPERATION.PUT, key, value))
+      index.put(key, value);
+  }
+
+  private static void removeIndexEntry(final OIndex<?> index, final Object key, final OIdentifiable value) {
+    if (!captureIndexChange(index, OPERATION.REMOVE, key, value))
+      index.remove(key, value);
+  }
+
+  /**
+   * Changes of index which is built online are put into its side log and applied at the end of build. Changes made inside of
+   * transaction are captured when transaction is committed.
+   */
+  private static boolean captureIndexChange(final OIndex<?> index, final OPERATION operation, final Object key,
+      final OIdentifiable value) {
+    final OIndexInternal<?> indexInternal = index.getInternal();
+    return indexInternal instanceof OIndexMVRBTreeAbstract
+        && !ODatabaseRecordThreadLocal.INSTANCE.get().getTransaction().isActive()
+        && ((OIndexMVRBTreeAbstract<?>) indexInternal).captureChange(operation, key, value);
+  }
+
   private static ODocument checkForLoading(final ODocument iRecord) {
     if (iRecord.getInternalStatus() == ORecordElement.STATUS.NOT_LOADED) {
       try {
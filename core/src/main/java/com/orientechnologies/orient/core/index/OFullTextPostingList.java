@@ -0,0 +1,641 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.index;
+
+import java.io.ByteArrayOutputStream;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.exception.OSerializationException;
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+
+/**
+ * Sorted set of RIDs of records which contain the same word of {@link OIndexFullText}. RIDs are kept in blocks of up to
+ * {@link #BLOCK_SIZE} entries. Inside of block each RID is stored as difference from the previous one in variable length format,
+ * so RIDs of the same cluster take one or two bytes instead of full RID and whole list is loaded as a set of byte arrays.
+ *
+ * The last RID of each block is kept outside of encoded data and is used as skip pointer, so {@link #intersect(List)} decodes
+ * only blocks which may contain RIDs which are present in all lists.
+ *
+ * List may also keep frequency of word in each record and length of record in words, which are used to rank records of
+ * {@link OIndexFullText#search(String, int)}. Sums of lengths of blocks are kept outside of encoded data too, so average length of
+ * records which contain the word is known without decoding of list.
+ *
+ * Only RIDs with long cluster positions are supported.
+ */
+public class OFullTextPostingList extends AbstractSet<OIdentifiable> {
+  public static final int   BLOCK_SIZE     = 128;
+
+  private static final byte FORMAT_VERSION             = 1;
+  private static final byte FREQUENCIES_FORMAT_VERSION = 2;
+
+  private final List<Block> blocks                     = new ArrayList<Block>();
+  private int               size;
+  private boolean           withFrequencies;
+
+  public OFullTextPostingList() {
+  }
+
+  /**
+   * @param withFrequencies
+   *          Whether frequencies of word and lengths of records are kept together with RIDs.
+   */
+  public OFullTextPostingList(final boolean withFrequencies) {
+    this.withFrequencies = withFrequencies;
+  }
+
+  public boolean isWithFrequencies() {
+    return withFrequencies;
+  }
+
+  /**
+   * @return Sum of lengths of all records of list, or <code>0</code> if frequencies are not kept.
+   */
+  public long getLengthSum() {
+    long lengthSum = 0;
+    for (Block block : blocks)
+      lengthSum += block.lengthSum;
+
+    return lengthSum;
+  }
+
+  /**
+   * @return Frequency of word in passed in record, or <code>0</code> if record is absent. Records of list which does not keep
+   *         frequencies have frequency <code>1</code>.
+   */
+  public int getFrequency(final OIdentifiable identifiable) {
+    final ORID rid = identifiable.getIdentity();
+    final int clusterId = rid.getClusterId();
+    final long position = rid.getClusterPosition().longValue();
+
+    final int blockIndex = findBlock(0, clusterId, position);
+    if (blockIndex >= blocks.size())
+      return 0;
+
+    final DecodedBlock decoded = decode(blocks.get(blockIndex), withFrequencies);
+    final int index = decoded.search(0, clusterId, position);
+    if (index < 0)
+      return 0;
+
+    return withFrequencies ? decoded.frequencies[index] : 1;
+  }
+
+  @Override
+  public int size() {
+    return size;
+  }
+
+  @Override
+  public boolean contains(final Object o) {
+    if (!(o instanceof OIdentifiable))
+      return false;
+
+    final ORID rid = ((OIdentifiable) o).getIdentity();
+    final int clusterId = rid.getClusterId();
+    final long position = rid.getClusterPosition().longValue();
+
+    final int blockIndex = findBlock(0, clusterId, position);
+    if (blockIndex >= blocks.size())
+      return false;
+
+    return decode(blocks.get(blockIndex), withFrequencies).search(0, clusterId, position) >= 0;
+  }
+
+  @Override
+  public boolean add(final OIdentifiable identifiable) {
+    return add(identifiable, 1, 0);
+  }
+
+  /**
+   * Adds record together with frequency of word in it and length of record in words. Frequency and length of record which is
+   * already present are replaced. Both values are ignored if list does not keep frequencies.
+   * 
+   * @return <code>true</code> if record was not present in list.
+   */
+  public boolean add(final OIdentifiable identifiable, final int frequency, final int length) {
+    final ORID rid = identifiable.getIdentity();
+    final int clusterId = rid.getClusterId();
+    final long position = rid.getClusterPosition().longValue();
+
+    if (blocks.isEmpty()) {
+      final DecodedBlock decoded = new DecodedBlock(1);
+      decoded.insert(0, clusterId, position, frequency, length);
+
+      blocks.add(decoded.encode(withFrequencies, 0, 1));
+      size++;
+      return true;
+    }
+
+    final int blockIndex = Math.min(findBlock(0, clusterId, position), blocks.size() - 1);
+    final DecodedBlock decoded = decode(blocks.get(blockIndex), withFrequencies);
+
+    int index = decoded.search(0, clusterId, position);
+    if (index >= 0) {
+      if (withFrequencies && (decoded.frequencies[index] != frequency || decoded.lengths[index] != length)) {
+        decoded.frequencies[index] = frequency;
+        decoded.lengths[index] = length;
+        blocks.set(blockIndex, decoded.encode(withFrequencies, 0, decoded.size));
+      }
+
+      return false;
+    }
+
+    index = -index - 1;
+    decoded.insert(index, clusterId, position, frequency, length);
+
+    if (decoded.size <= BLOCK_SIZE)
+      blocks.set(blockIndex, decoded.encode(withFrequencies, 0, decoded.size));
+    else {
+      // RIDS WHICH ARE APPENDED TO THE END OF LIST LEAVE FULL BLOCK BEHIND, OTHER BLOCKS ARE SPLIT IN HALVES
+      final int splitIndex;
+      if (blockIndex == blocks.size() - 1 && index == decoded.size - 1)
+        splitIndex = BLOCK_SIZE;
+      else
+        splitIndex = decoded.size / 2;
+
+      blocks.set(blockIndex, decoded.encode(withFrequencies, 0, splitIndex));
+      blocks.add(blockIndex + 1, decoded.encode(withFrequencies, splitIndex, decoded.size));
+    }
+
+    size++;
+    return true;
+  }
+
+  @Override
+  public boolean remove(final Object o) {
+    if (!(o instanceof OIdentifiable))
+      return false;
+
+    final ORID rid = ((OIdentifiable) o).getIdentity();
+    final int clusterId = rid.getClusterId();
+    final long position = rid.getClusterPosition().longValue();
+
+    final int blockIndex = findBlock(0, clusterId, position);
+    if (blockIndex >= blocks.size())
+      return false;
+
+    final DecodedBlock decoded = decode(blocks.get(blockIndex), withFrequencies);
+    final int index = decoded.search(0, clusterId, position);
+    if (index < 0)
+      return false;
+
+    decoded.remove(index);
+    if (decoded.size == 0)
+      blocks.remove(blockIndex);
+    else
+      blocks.set(blockIndex, decoded.encode(withFrequencies, 0, decoded.size));
+
+    size--;
+    return true;
+  }
+
+  @Override
+  public void clear() {
+    blocks.clear();
+    size = 0;
+  }
+
+  @Override
+  public Iterator<OIdentifiable> iterator() {
+    return new Iterator<OIdentifiable>() {
+      private Cursor cursor = new Cursor();
+      private ORID   lastReturned;
+
+      public boolean hasNext() {
+        return cursor.isValid();
+      }
+
+      public OIdentifiable next() {
+        if (!cursor.isValid())
+          throw new NoSuchElementException();
+
+        lastReturned = cursor.getIdentity();
+        cursor.next();
+
+        return lastReturned;
+      }
+
+      public void remove() {
+        if (lastReturned == null)
+          throw new IllegalStateException();
+
+        OFullTextPostingList.this.remove(lastReturned);
+
+        // BLOCKS ARE RE-ENCODED AFTER REMOVAL, SO CURSOR IS POSITIONED AGAIN ON THE RID WHICH FOLLOWS REMOVED ONE
+        cursor = new Cursor();
+        cursor.advanceTo(lastReturned.getClusterId(), lastReturned.getClusterPosition().longValue());
+        lastReturned = null;
+      }
+    };
+  }
+
+  /**
+   * Returns RIDs which are contained in all passed in lists, in ascending order. Lists are merged starting from the shortest one.
+   * Other lists are moved forward to the candidate RID by skip pointers of their blocks, so blocks which can not contain common
+   * RIDs are not decoded at all.
+   */
+  public static Set<OIdentifiable> intersect(final List<OFullTextPostingList> lists) {
+    final Set<OIdentifiable> result = new LinkedHashSet<OIdentifiable>();
+    if (lists.isEmpty())
+      return result;
+
+    final List<OFullTextPostingList> sortedLists = new ArrayList<OFullTextPostingList>(lists);
+    Collections.sort(sortedLists, new Comparator<OFullTextPostingList>() {
+      public int compare(OFullTextPostingList listOne, OFullTextPostingList listTwo) {
+        return listOne.size < listTwo.size ? -1 : (listOne.size == listTwo.size ? 0 : 1);
+      }
+    });
+
+    final Cursor[] cursors = new Cursor[sortedLists.size()];
+    for (int i = 0; i < cursors.length; i++)
+      cursors[i] = sortedLists.get(i).new Cursor();
+
+    final Cursor lead = cursors[0];
+    while (lead.isValid()) {
+      final int clusterId = lead.getClusterId();
+      final long position = lead.getPosition();
+
+      boolean found = true;
+      for (int i = 1; i < cursors.length; i++) {
+        final Cursor cursor = cursors[i];
+        cursor.advanceTo(clusterId, position);
+        if (!cursor.isValid())
+          return result;
+
+        if (compare(cursor.getClusterId(), cursor.getPosition(), clusterId, position) != 0) {
+          lead.advanceTo(cursor.getClusterId(), cursor.getPosition());
+          found = false;
+          break;
+        }
+      }
+
+      if (found) {
+        result.add(lead.getIdentity());
+        lead.next();
+      }
+    }
+
+    return result;
+  }
+
+  public byte[] toStream() {
+    final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+    stream.write(withFrequencies ? FREQUENCIES_FORMAT_VERSION : FORMAT_VERSION);
+    writeUnsigned(stream, blocks.size());
+    for (Block block : blocks) {
+      writeUnsigned(stream, block.size);
+      writeSigned(stream, block.lastClusterId);
+      writeSigned(stream, block.lastPosition);
+      if (withFrequencies)
+        writeUnsigned(stream, block.lengthSum);
+      writeUnsigned(stream, block.data.length);
+      stream.write(block.data, 0, block.data.length);
+    }
+
+    return stream.toByteArray();
+  }
+
+  public OFullTextPostingList fromStream(final byte[] stream) {
+    final Reader reader = new Reader(stream, 0);
+    final byte version = stream[reader.position++];
+    if (version != FORMAT_VERSION && version != FREQUENCIES_FORMAT_VERSION)
+      throw new OSerializationException("Unsupported version " + version + " of format of full-text posting list");
+
+    clear();
+    withFrequencies = version == FREQUENCIES_FORMAT_VERSION;
+
+    final int blocksCount = (int) reader.readUnsigned();
+    for (int i = 0; i < blocksCount; i++) {
+      final int blockSize = (int) reader.readUnsigned();
+      final int lastClusterId = (int) reader.readSigned();
+      final long lastPosition = reader.readSigned();
+      final long lengthSum = withFrequencies ? reader.readUnsigned() : 0;
+
+      final byte[] data = new byte[(int) reader.readUnsigned()];
+      System.arraycopy(stream, reader.position, data, 0, data.length);
+      reader.position += data.length;
+
+      blocks.add(new Block(blockSize, lastClusterId, lastPosition, lengthSum, data));
+      size += blockSize;
+    }
+
+    return this;
+  }
+
+  /**
+   * @return Index of the first block, starting from <code>fromBlock</code>, which last RID is greater than or equal to passed in
+   *         one, or amount of blocks if there is no such block.
+   */
+  private int findBlock(final int fromBlock, final int clusterId, final long position) {
+    int low = fromBlock;
+    int high = blocks.size() - 1;
+
+    while (low <= high) {
+      final int middle = (low + high) >>> 1;
+      final Block block = blocks.get(middle);
+
+      if (compare(block.lastClusterId, block.lastPosition, clusterId, position) < 0)
+        low = middle + 1;
+      else
+        high = middle - 1;
+    }
+
+    return low;
+  }
+
+  private static int compare(final int clusterIdOne, final long positionOne, final int clusterIdTwo, final long positionTwo) {
+    if (clusterIdOne != clusterIdTwo)
+      return clusterIdOne < clusterIdTwo ? -1 : 1;
+
+    return positionOne < positionTwo ? -1 : (positionOne == positionTwo ? 0 : 1);
+  }
+
+  private static DecodedBlock decode(final Block block, final boolean withFrequencies) {
+    final DecodedBlock decoded = new DecodedBlock(block.size + 1);
+    final Reader reader = new Reader(block.data, 0);
+
+    int clusterId = 0;
+    long position = 0;
+    for (int i = 0; i < block.size; i++) {
+      if (i == 0) {
+        clusterId = (int) reader.readSigned();
+        position = reader.readSigned();
+      } else {
+        final int clusterIdDelta = (int) reader.readUnsigned();
+        if (clusterIdDelta == 0)
+          position += reader.readUnsigned();
+        else {
+          clusterId += clusterIdDelta;
+          position = reader.readSigned();
+        }
+      }
+
+      decoded.clusterIds[i] = clusterId;
+      decoded.positions[i] = position;
+
+      if (withFrequencies) {
+        decoded.frequencies[i] = (int) reader.readUnsigned();
+        decoded.lengths[i] = (int) reader.readUnsigned();
+      }
+    }
+
+    decoded.size = block.size;
+    return decoded;
+  }
+
+  private static void writeUnsigned(final ByteArrayOutputStream stream, long value) {
+    while ((value & ~0x7FL) != 0) {
+      stream.write((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+
+    stream.write((int) value);
+  }
+
+  private static void writeSigned(final ByteArrayOutputStream stream, final long value) {
+    writeUnsigned(stream, (value << 1) ^ (value >> 63));
+  }
+
+  /**
+   * Position of cursor over RIDs of list. Cursor moves only forward and decodes block only when one of its RIDs is requested.
+   */
+  final class Cursor {
+    private int          blockIndex;
+    private DecodedBlock decoded;
+    private int          index;
+
+    boolean isValid() {
+      return blockIndex < blocks.size();
+    }
+
+    int getClusterId() {
+      return decoded().clusterIds[index];
+    }
+
+    long getPosition() {
+      return decoded().positions[index];
+    }
+
+    int getFrequency() {
+      return withFrequencies ? decoded().frequencies[index] : 1;
+    }
+
+    int getLength() {
+      return decoded().lengths[index];
+    }
+
+    ORID getIdentity() {
+      return new ORecordId(getClusterId(), OClusterPositionFactory.INSTANCE.valueOf(getPosition()));
+    }
+
+    void next() {
+      index++;
+      if (index >= decoded().size) {
+        blockIndex++;
+        decoded = null;
+        index = 0;
+      }
+    }
+
+    /**
+     * Moves cursor to the first RID which is greater than or equal to passed in one. Blocks which last RID is less than passed in
+     * one are skipped without decoding.
+     */
+    void advanceTo(final int clusterId, final long position) {
+      if (!isValid())
+        return;
+
+      final Block block = blocks.get(blockIndex);
+      if (compare(block.lastClusterId, block.lastPosition, clusterId, position) < 0) {
+        blockIndex = findBlock(blockIndex + 1, clusterId, position);
+        decoded = null;
+        index = 0;
+
+        if (!isValid())
+          return;
+      }
+
+      final int found = decoded().search(index, clusterId, position);
+      index = found >= 0 ? found : -found - 1;
+    }
+
+    private DecodedBlock decoded() {
+      if (decoded == null)
+        decoded = decode(blocks.get(blockIndex), withFrequencies);
+
+      return decoded;
+    }
+  }
+
+  private static final class Block {
+    private final int    size;
+    private final int    lastClusterId;
+    private final long   lastPosition;
+    private final long   lengthSum;
+    private final byte[] data;
+
+    private Block(int size, int lastClusterId, long lastPosition, long lengthSum, byte[] data) {
+      this.size = size;
+      this.lastClusterId = lastClusterId;
+      this.lastPosition = lastPosition;
+      this.lengthSum = lengthSum;
+      this.data = data;
+    }
+  }
+
+  private static final class DecodedBlock {
+    private int[]  clusterIds;
+    private long[] positions;
+    private int[]  frequencies;
+    private int[]  lengths;
+    private int    size;
+
+    private DecodedBlock(int capacity) {
+      clusterIds = new int[capacity];
+      positions = new long[capacity];
+      frequencies = new int[capacity];
+      lengths = new int[capacity];
+    }
+
+    /**
+     * @return Index of RID if it is found, otherwise <code>-(insertion point) - 1</code>.
+     */
+    private int search(final int fromIndex, final int clusterId, final long position) {
+      int low = fromIndex;
+      int high = size - 1;
+
+      while (low <= high) {
+        final int middle = (low + high) >>> 1;
+        final int cmp = compare(clusterIds[middle], positions[middle], clusterId, position);
+
+        if (cmp < 0)
+          low = middle + 1;
+        else if (cmp > 0)
+          high = middle - 1;
+        else
+          return middle;
+      }
+
+      return -(low + 1);
+    }
+
+    private void insert(final int index, final int clusterId, final long position, final int frequency, final int length) {
+      if (size == clusterIds.length) {
+        final int[] newClusterIds = new int[size + 1];
+        final long[] newPositions = new long[size + 1];
+        final int[] newFrequencies = new int[size + 1];
+        final int[] newLengths = new int[size + 1];
+
+        System.arraycopy(clusterIds, 0, newClusterIds, 0, size);
+        System.arraycopy(positions, 0, newPositions, 0, size);
+        System.arraycopy(frequencies, 0, newFrequencies, 0, size);
+        System.arraycopy(lengths, 0, newLengths, 0, size);
+
+        clusterIds = newClusterIds;
+        positions = newPositions;
+        frequencies = newFrequencies;
+        lengths = newLengths;
+      }
+
+      System.arraycopy(clusterIds, index, clusterIds, index + 1, size - index);
+      System.arraycopy(positions, index, positions, index + 1, size - index);
+      System.arraycopy(frequencies, index, frequencies, index + 1, size - index);
+      System.arraycopy(lengths, index, lengths, index + 1, size - index);
+
+      clusterIds[index] = clusterId;
+      positions[index] = position;
+      frequencies[index] = frequency;
+      lengths[index] = length;
+      size++;
+    }
+
+    private void remove(final int index) {
+      System.arraycopy(clusterIds, index + 1, clusterIds, index, size - index - 1);
+      System.arraycopy(positions, index + 1, positions, index, size - index - 1);
+      System.arraycopy(frequencies, index + 1, frequencies, index, size - index - 1);
+      System.arraycopy(lengths, index + 1, lengths, index, size - index - 1);
+      size--;
+    }
+
+    private Block encode(final boolean withFrequencies, final int from, final int to) {
+      final ByteArrayOutputStream stream = new ByteArrayOutputStream();
+      long lengthSum = 0;
+
+      for (int i = from; i < to; i++) {
+        if (i == from) {
+          writeSigned(stream, clusterIds[i]);
+          writeSigned(stream, positions[i]);
+        } else {
+          final int clusterIdDelta = clusterIds[i] - clusterIds[i - 1];
+          writeUnsigned(stream, clusterIdDelta);
+
+          if (clusterIdDelta == 0)
+            writeUnsigned(stream, positions[i] - positions[i - 1]);
+          else
+            writeSigned(stream, positions[i]);
+        }
+
+        if (withFrequencies) {
+          writeUnsigned(stream, frequencies[i]);
+          writeUnsigned(stream, lengths[i]);
+          lengthSum += lengths[i];
+        }
+      }
+
+      return new Block(to - from, clusterIds[to - 1], positions[to - 1], lengthSum, stream.toByteArray());
+    }
+  }
+
+  private static final class Reader {
+    private final byte[] data;
+    private int          position;
+
+    private Reader(byte[] data, int position) {
+      this.data = data;
+      this.position = position;
+    }
+
+    private long readUnsigned() {
+      long value = 0;
+      int shift = 0;
+
+      while (true) {
+        final byte b = data[position++];
+        value |= ((long) (b & 0x7F)) << shift;
+        if ((b & 0x80) == 0)
+          return value;
+
+        shift += 7;
+      }
+    }
+
+    private long readSigned() {
+      final long value = readUnsigned();
+      return (value >>> 1) ^ -(value & 1);
+    }
+  }
+}
@@ -1,262 +1,694 @@
-/*
- * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
- *
- * Licensed under the Apache License, Version 2.0 (the "License");
- * you may not use this file except in compliance with the License.
- * You may obtain a copy of the License at
- *
- *     http://www.apache.org/licenses/LICENSE-2.0
- *
- * Unless required by applicable law or agreed to in writing, software
- * distributed under the License is distributed on an "AS IS" BASIS,
- * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
- * See the License for the specific language governing permissions and
- * limitations under the License.
- */
-package com.orientechnologies.orient.core.index;
-
-import java.util.ArrayList;
-import java.util.HashSet;
-import java.util.List;
-import java.util.Set;
-
-import com.orientechnologies.common.listener.OProgressListener;
-import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
-import com.orientechnologies.orient.core.db.record.OIdentifiable;
-import com.orientechnologies.orient.core.db.record.ORecordElement;
-import com.orientechnologies.orient.core.metadata.schema.OClass;
-import com.orientechnologies.orient.core.record.impl.ODocument;
-import com.orientechnologies.orient.core.serialization.serializer.OStringSerializerHelper;
-import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializer;
-import com.orientechnologies.orient.core.type.tree.OMVRBTreeRIDSet;
-
-/**
- * Fast index for full-text searches.
- * 
- * @author Luca Garulli
- * 
- */
-public class OIndexFullText extends OIndexMultiValues {
-
-  public static final String  TYPE_ID                = OClass.INDEX_TYPE.FULLTEXT.toString();
-
-  private static final String CONFIG_STOP_WORDS      = "stopWords";
-  private static final String CONFIG_SEPARATOR_CHARS = "separatorChars";
-  private static final String CONFIG_IGNORE_CHARS    = "ignoreChars";
-
-  private static String       DEF_SEPARATOR_CHARS    = " \r\n\t:;,.|+*/\\=!?[]()";
-  private static String       DEF_IGNORE_CHARS       = "'\"";
-  private static String       DEF_STOP_WORDS         = "the in a at as and or for his her " + "him this that what which while "
-                                                         + "up with be was is";
-  private final String        separatorChars         = DEF_SEPARATOR_CHARS;
-  private final String        ignoreChars            = DEF_IGNORE_CHARS;
-  private final Set<String>   stopWords;
-
-  public OIndexFullText() {
-    super(TYPE_ID);
-    stopWords = new HashSet<String>(OStringSerializerHelper.split(DEF_STOP_WORDS, ' '));
-  }
-
-  /**
-   * Index an entire document field by field and save the index at the end.
-   * 
-   * @param iDocument
-   *          The document to index
-   */
-  public void indexDocument(final ODocument iDocument) {
-    modificationLock.requestModificationLock();
-
-    try {
-      Object fieldValue;
-
-      for (final String fieldName : iDocument.fieldNames()) {
-        fieldValue = iDocument.field(fieldName);
-        put(fieldValue, iDocument);
-      }
-
-      acquireExclusiveLock();
-      try {
-
-        map.save();
-
-      } finally {
-        releaseExclusiveLock();
-      }
-    } finally {
-      modificationLock.releaseModificationLock();
-    }
-  }
-
-  /**
-   * Indexes a value and save the index. Splits the value in single words and index each one. Save of the index is responsibility of
-   * the caller.
-   */
-  @Override
-  public OIndexFullText put(final Object iKey, final OIdentifiable iSingleValue) {
-    if (iKey == null)
-      return this;
-
-    modificationLock.requestModificationLock();
-
-    try {
-      final List<String> words = splitIntoWords(iKey.toString());
-
-      // FOREACH WORD CREATE THE LINK TO THE CURRENT DOCUMENT
-      for (final String word : words) {
-        acquireExclusiveLock();
-
-        try {
-          Set<OIdentifiable> refs;
-
-          // SEARCH FOR THE WORD
-          refs = map.get(word);
-
-          if (refs == null) {
-            // WORD NOT EXISTS: CREATE THE KEYWORD CONTAINER THE FIRST TIME THE WORD IS FOUND
-            refs = new OMVRBTreeRIDSet();
-            ((OMVRBTreeRIDSet) refs).setAutoConvertToRecord(false);
-          }
-
-          // ADD THE CURRENT DOCUMENT AS REF FOR THAT WORD
-          refs.add(iSingleValue);
-
-          // SAVE THE INDEX ENTRY
-          map.put(word, refs);
-
-        } finally {
-          releaseExclusiveLock();
-        }
-      }
-      return this;
-    } finally {
-      modificationLock.releaseModificationLock();
-    }
-  }
-
-  /**
-   * Splits passed in key on several words and remove records with keys equals to any item of split result and values equals to
-   * passed in value.
-   * 
-   * @param iKey
-   *          Key to remove.
-   * @param value
-   *          Value to remove.
-   * @return <code>true</code> if at least one record is removed.
-   */
-  @Override
-  public boolean remove(final Object iKey, final OIdentifiable value) {
-
-    modificationLock.requestModificationLock();
-
-    try {
-      final List<String> words = splitIntoWords(iKey.toString());
-      boolean removed = false;
-
-      for (final String word : words) {
-        acquireExclusiveLock();
-        try {
-
-          final Set<OIdentifiable> recs = map.get(word);
-          if (recs != null && !recs.isEmpty()) {
-            if (recs.remove(value)) {
-              if (recs.isEmpty())
-                map.remove(word);
-              else
-                map.put(word, recs);
-              removed = true;
-            }
-          }
-        } finally {
-          releaseExclusiveLock();
-        }
-      }
-
-      return removed;
-    } finally {
-      modificationLock.releaseModificationLock();
-    }
-  }
-
-  @Override
-  public OIndexInternal<?> create(String iName, OIndexDefinition iIndexDefinition, ODatabaseRecord iDatabase,
-      String iClusterIndexName, int[] iClusterIdsToIndex, OProgressListener iProgressListener, OStreamSerializer iValueSerializer) {
-
-    if (iIndexDefinition.getFields().size() > 1) {
-      throw new OIndexException(TYPE_ID + " indexes cannot be used as composite ones.");
-    }
-
-    return super.create(iName, iIndexDefinition, iDatabase, iClusterIndexName, iClusterIdsToIndex, iProgressListener,
-        iValueSerializer);
-  }
-
-  @Override
-  public OIndexMultiValues create(String iName, OIndexDefinition indexDefinition, ODatabaseRecord iDatabase,
-      String iClusterIndexName, int[] iClusterIdsToIndex, OProgressListener iProgressListener) {
-    if (indexDefinition.getFields().size() > 1) {
-      throw new OIndexException(TYPE_ID + " indexes cannot be used as composite ones.");
-    }
-    return super.create(iName, indexDefinition, iDatabase, iClusterIndexName, iClusterIdsToIndex, iProgressListener);
-  }
-
-  @Override
-  public ODocument updateConfiguration() {
-    super.updateConfiguration();
-    configuration.setInternalStatus(ORecordElement.STATUS.UNMARSHALLING);
-
-    try {
-      configuration.field(CONFIG_SEPARATOR_CHARS, separatorChars);
-      configuration.field(CONFIG_IGNORE_CHARS, ignoreChars);
-      configuration.field(CONFIG_STOP_WORDS, stopWords);
-
-    } finally {
-      configuration.setInternalStatus(ORecordElement.STATUS.LOADED);
-    }
-    return configuration;
-  }
-
-  private List<String> splitIntoWords(final String iKey) {
-    final List<String> result = new ArrayList<String>();
-
-    final List<String> words = (List<String>) OStringSerializerHelper.split(new ArrayList<String>(), iKey, 0, -1, separatorChars);
-
-    final StringBuilder buffer = new StringBuilder();
-    // FOREACH WORD CREATE THE LINK TO THE CURRENT DOCUMENT
-
-    char c;
-    boolean ignore;
-    for (String word : words) {
-      buffer.setLength(0);
-
-      for (int i = 0; i < word.length(); ++i) {
-        c = word.charAt(i);
-        ignore = false;
-        for (int k = 0; k < ignoreChars.length(); ++k)
-          if (c == ignoreChars.charAt(k)) {
-            ignore = true;
-            break;
-          }
-
-        if (!ignore)
-          buffer.append(c);
-      }
-
-      word = buffer.toString();
-
-      // CHECK IF IT'S A STOP WORD
-      if (stopWords.contains(word))
-        continue;
-
-      result.add(word);
-    }
-
-    return result;
-  }
-
-  public boolean canBeUsedInEqualityOperators() {
-    return false;
-  }
-
-  public boolean supportsOrderedIterations() {
-    return false;
-  }
-}
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+import com.orientechnologies.common.listener.OProgressListener;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.db.record.ORecordElement;
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.record.ORecord;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.serialization.serializer.OStringSerializerHelper;
+import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializer;
+import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializerListRID;
+import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializerPostingList;
+import com.orientechnologies.orient.core.tx.OTransaction;
+import com.orientechnologies.orient.core.tx.OTransactionIndexChanges.OPERATION;
+import com.orientechnologies.orient.core.type.tree.OMVRBTreeDatabaseLazySave;
+import com.orientechnologies.orient.core.type.tree.OMVRBTreeRIDSet;
+import com.orientechnologies.orient.core.type.tree.provider.OMVRBTreeMapProvider;
+import com.orientechnologies.orient.core.type.tree.provider.OMVRBTreeProviderAbstract;
+
+/**
+ * Fast index for full-text searches.
+ * 
+ * Records which contain the same word are kept as {@link OFullTextPostingList}, lists of indexes which were created before it was
+ * introduced keep using {@link OMVRBTreeRIDSet}. If {@link OGlobalConfiguration#INDEX_FULLTEXT_TERM_FREQUENCIES} is set when index
+ * is created, posting lists keep also frequencies of words and lengths of records, so {@link #search(String, int)} ranks records
+ * by BM25 without loading them. Such index keeps also the amount of indexed values and the sum of their lengths in a separate
+ * record, which gives the average length of values of the whole index.
+ * 
+ * @author Luca Garulli
+ * 
+ */
+public class OIndexFullText extends OIndexMultiValues {
+
+  public static final String  TYPE_ID                = OClass.INDEX_TYPE.FULLTEXT.toString();
+
+  private static final String CONFIG_STOP_WORDS      = "stopWords";
+  private static final String CONFIG_SEPARATOR_CHARS = "separatorChars";
+  private static final String CONFIG_IGNORE_CHARS    = "ignoreChars";
+  private static final String CONFIG_STATISTICS_RID  = "statisticsRid";
+
+  private static final String STATISTICS_DOCUMENTS   = "documents";
+  private static final String STATISTICS_LENGTH_SUM  = "lengthSum";
+
+  private static final double BM25_K1                = 1.2;
+  private static final double BM25_B                 = 0.75;
+
+  private static String       DEF_SEPARATOR_CHARS    = " \r\n\t:;,.|+*/\\=!?[]()";
+  private static String       DEF_IGNORE_CHARS       = "'\"";
+  private static String       DEF_STOP_WORDS         = "the in a at as and or for his her " + "him this that what which while "
+                                                         + "up with be was is";
+  private final String        separatorChars         = DEF_SEPARATOR_CHARS;
+  private final String        ignoreChars            = DEF_IGNORE_CHARS;
+  private final Set<String>   stopWords;
+  private ODocument           statistics;
+
+  public OIndexFullText() {
+    super(TYPE_ID);
+    stopWords = new HashSet<String>(OStringSerializerHelper.split(DEF_STOP_WORDS, ' '));
+  }
+
+  /**
+   * Index an entire document field by field and save the index at the end.
+   * 
+   * @param iDocument
+   *          The document to index
+   */
+  public void indexDocument(final ODocument iDocument) {
+    modificationLock.requestModificationLock();
+
+    try {
+      Object fieldValue;
+
+      for (final String fieldName : iDocument.fieldNames()) {
+        fieldValue = iDocument.field(fieldName);
+        put(fieldValue, iDocument);
+      }
+
+      acquireExclusiveLock();
+      try {
+
+        map.save();
+
+      } finally {
+        releaseExclusiveLock();
+      }
+    } finally {
+      modificationLock.releaseModificationLock();
+    }
+  }
+
+  /**
+   * Splits the value in single words, each word is put in the index during bulk rebuild.
+   */
+  @Override
+  protected void addKeysToIndex(final Object iKey, final Collection<Object> iKeys) {
+    if (iKey != null)
+      iKeys.addAll(splitIntoWords(iKey.toString()));
+  }
+
+  @Override
+  protected void putSortedValues(final OMVRBTreeDatabaseLazySave<Object, Set<OIdentifiable>> iTree, final Object iKey,
+      final List<ORID> iValues) {
+    final Set<OIdentifiable> values = createValues(iTree);
+    values.addAll(iValues);
+
+    iTree.put(iKey, values);
+  }
+
+  /**
+   * Returns records which contain all words of the passed in text. Posting lists of words are intersected by skip pointers of
+   * their blocks, so records of frequent words are not loaded as a whole.
+   */
+  @Override
+  public Set<OIdentifiable> get(final Object iKey) {
+    if (iKey == null)
+      return super.get(iKey);
+
+    final List<String> words = splitIntoWords(iKey.toString());
+    if (words.size() < 2)
+      return super.get(iKey);
+
+    acquireExclusiveLock();
+    try {
+      final List<Set<OIdentifiable>> wordsValues = new ArrayList<Set<OIdentifiable>>(words.size());
+      final List<OFullTextPostingList> postingLists = new ArrayList<OFullTextPostingList>(words.size());
+
+      for (final String word : words) {
+        final Set<OIdentifiable> values = map.get(word);
+        if (values == null || values.isEmpty())
+          return Collections.emptySet();
+
+        wordsValues.add(values);
+        if (values instanceof OFullTextPostingList)
+          postingLists.add((OFullTextPostingList) values);
+      }
+
+      if (postingLists.size() == wordsValues.size())
+        return OFullTextPostingList.intersect(postingLists);
+
+      // SETS OF RECORDS OF OLD FORMAT: FILTER THE SMALLEST SET BY THE OTHER ONES
+      Collections.sort(wordsValues, new Comparator<Set<OIdentifiable>>() {
+        public int compare(Set<OIdentifiable> valuesOne, Set<OIdentifiable> valuesTwo) {
+          return valuesOne.size() - valuesTwo.size();
+        }
+      });
+
+      final Set<OIdentifiable> result = new HashSet<OIdentifiable>(wordsValues.get(0));
+      for (int i = 1; i < wordsValues.size() && !result.isEmpty(); i++)
+        result.retainAll(wordsValues.get(i));
+
+      return result;
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  /**
+   * Returns up to <code>iLimit</code> records which contain any word of passed in text, ranked by BM25 score. Posting lists of words
+   * are merged record by record and only the best records are kept in bounded heap, so neither records nor scores of all matching
+   * records are loaded. Index should be created with {@link OGlobalConfiguration#INDEX_FULLTEXT_TERM_FREQUENCIES} set.
+   * 
+   * @return Documents with <code>rid</code> and <code>score</code> fields ordered by descending score.
+   */
+  public List<ODocument> search(final String iText, final int iLimit) {
+    if (iLimit < 1)
+      throw new IllegalArgumentException("Limit of full-text search should be positive, found " + iLimit);
+
+    final Set<String> words = new HashSet<String>(splitIntoWords(iText));
+
+    acquireExclusiveLock();
+    try {
+      if (!isWithFrequencies())
+        throw new OIndexException("Index '" + name + "' does not keep frequencies of words, recreate it with "
+            + OGlobalConfiguration.INDEX_FULLTEXT_TERM_FREQUENCIES.getKey() + " enabled");
+
+      final List<OFullTextPostingList> postingLists = new ArrayList<OFullTextPostingList>(words.size());
+      long postingsCount = 0;
+      long lengthSum = 0;
+      for (final String word : words) {
+        final Set<OIdentifiable> values = map.get(word);
+        if (values != null && !values.isEmpty()) {
+          final OFullTextPostingList postingList = (OFullTextPostingList) values;
+          postingLists.add(postingList);
+
+          postingsCount += postingList.size();
+          lengthSum += postingList.getLengthSum();
+        }
+      }
+
+      if (postingLists.isEmpty())
+        return Collections.emptyList();
+
+      long documentsCount;
+      final double averageLength;
+      if (statistics != null) {
+        documentsCount = statistics.<Long> field(STATISTICS_DOCUMENTS);
+        averageLength = Math.max((double) statistics.<Long> field(STATISTICS_LENGTH_SUM) / Math.max(documentsCount, 1), 1);
+      } else {
+        // INDEX WAS CREATED WITHOUT STATISTICS: AVERAGE LENGTH IS TAKEN OVER RECORDS OF QUERIED WORDS
+        documentsCount = 0;
+        for (final String clusterName : clustersToIndex)
+          documentsCount += getDatabase().countClusterElements(clusterName);
+
+        averageLength = Math.max((double) lengthSum / postingsCount, 1);
+      }
+
+      final OFullTextPostingList.Cursor[] cursors = new OFullTextPostingList.Cursor[postingLists.size()];
+      final double[] idfs = new double[cursors.length];
+      for (int i = 0; i < cursors.length; i++) {
+        final OFullTextPostingList postingList = postingLists.get(i);
+        final long documentFrequency = postingList.size();
+
+        cursors[i] = postingList.new Cursor();
+        idfs[i] = Math.log(1 + (Math.max(documentsCount, documentFrequency) - documentFrequency + 0.5) / (documentFrequency + 0.5));
+      }
+
+      final PriorityQueue<ScoredRecord> topRecords = new PriorityQueue<ScoredRecord>(Math.min(iLimit, 1024));
+      while (true) {
+        // RECORD WITH THE LOWEST RID AMONG CURSORS IS SCORED BY ALL WORDS WHICH IT CONTAINS
+        int clusterId = Integer.MAX_VALUE;
+        long position = Long.MAX_VALUE;
+        boolean found = false;
+
+        for (final OFullTextPostingList.Cursor cursor : cursors)
+          if (cursor.isValid()
+              && (cursor.getClusterId() < clusterId || (cursor.getClusterId() == clusterId && cursor.getPosition() < position))) {
+            clusterId = cursor.getClusterId();
+            position = cursor.getPosition();
+            found = true;
+          }
+
+        if (!found)
+          break;
+
+        double score = 0;
+        for (int i = 0; i < cursors.length; i++) {
+          final OFullTextPostingList.Cursor cursor = cursors[i];
+          if (cursor.isValid() && cursor.getClusterId() == clusterId && cursor.getPosition() == position) {
+            final int frequency = cursor.getFrequency();
+            score += idfs[i] * frequency * (BM25_K1 + 1)
+                / (frequency + BM25_K1 * (1 - BM25_B + BM25_B * cursor.getLength() / averageLength));
+
+            cursor.next();
+          }
+        }
+
+        if (topRecords.size() < iLimit)
+          topRecords.add(new ScoredRecord(clusterId, position, score));
+        else if (topRecords.peek().score < score) {
+          topRecords.poll();
+          topRecords.add(new ScoredRecord(clusterId, position, score));
+        }
+      }
+
+      final ODocument[] result = new ODocument[topRecords.size()];
+      for (int i = result.length - 1; i >= 0; i--) {
+        final ScoredRecord scoredRecord = topRecords.poll();
+
+        final ODocument document = new ODocument().setOrdered(true);
+        document.field("rid", new ORecordId(scoredRecord.clusterId, OClusterPositionFactory.INSTANCE.valueOf(scoredRecord.position)));
+        document.field("score", scoredRecord.score);
+        document.unsetDirty();
+
+        result[i] = document;
+      }
+
+      return Arrays.asList(result);
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  /**
+   * Indexes a value and save the index. Splits the value in single words and index each one. Save of the index is responsibility of
+   * the caller.
+   */
+  @Override
+  public OIndexFullText put(final Object iKey, final OIdentifiable iSingleValue) {
+    if (iKey == null)
+      return this;
+
+    if (isWithPostingLists() && !iSingleValue.getIdentity().isPersistent()) {
+      if (!iSingleValue.getIdentity().isValid())
+        ((ORecord<?>) iSingleValue).save();
+
+      // POSTING LISTS KEEP CLUSTER POSITIONS: RECORD CREATED IN TRANSACTION IS INDEXED ON COMMIT, WHEN ITS RID IS PERSISTENT
+      if (!iSingleValue.getIdentity().isPersistent()) {
+        final OTransaction transaction = getDatabase().getTransaction();
+        if (!transaction.isActive())
+          throw new OIndexException("Cannot index record " + iSingleValue.getIdentity() + " in full-text index '" + name
+              + "' because it is not persistent");
+
+        transaction.addIndexEntry(this, name, OPERATION.PUT, iKey, iSingleValue);
+        return this;
+      }
+    }
+
+    modificationLock.requestModificationLock();
+
+    try {
+      final List<String> words = splitIntoWords(iKey.toString());
+      boolean added = false;
+
+      final Map<String, Integer> frequencies = new LinkedHashMap<String, Integer>();
+      for (final String word : words) {
+        final Integer frequency = frequencies.get(word);
+        frequencies.put(word, frequency == null ? 1 : frequency + 1);
+      }
+
+      // FOREACH WORD CREATE THE LINK TO THE CURRENT DOCUMENT
+      for (final Map.Entry<String, Integer> entry : frequencies.entrySet()) {
+        final String word = entry.getKey();
+        acquireExclusiveLock();
+
+        try {
+          Set<OIdentifiable> refs;
+
+          // SEARCH FOR THE WORD
+          refs = map.get(word);
+
+          if (refs == null)
+            // WORD NOT EXISTS: CREATE THE KEYWORD CONTAINER THE FIRST TIME THE WORD IS FOUND
+            refs = createValues(map);
+
+          // ADD THE CURRENT DOCUMENT AS REF FOR THAT WORD
+          if (refs instanceof OFullTextPostingList)
+            added |= ((OFullTextPostingList) refs).add(iSingleValue.getIdentity(), entry.getValue(), words.size());
+          else
+            refs.add(iSingleValue);
+
+          // SAVE THE INDEX ENTRY
+          map.put(word, refs);
+
+        } finally {
+          releaseExclusiveLock();
+        }
+      }
+
+      if (added)
+        updateStatistics(+1, words.size());
+
+      return this;
+    } finally {
+      modificationLock.releaseModificationLock();
+    }
+  }
+
+  /**
+   * Splits passed in key on several words and remove records with keys equals to any item of split result and values equals to
+   * passed in value.
+   * 
+   * @param iKey
+   *          Key to remove.
+   * @param value
+   *          Value to remove.
+   * @return <code>true</code> if at least one record is removed.
+   */
+  @Override
+  public boolean remove(final Object iKey, final OIdentifiable value) {
+
+    modificationLock.requestModificationLock();
+
+    try {
+      final List<String> words = splitIntoWords(iKey.toString());
+      boolean removed = false;
+
+      for (final String word : words) {
+        acquireExclusiveLock();
+        try {
+
+          final Set<OIdentifiable> recs = map.get(word);
+          if (recs != null && !recs.isEmpty()) {
+            if (recs.remove(value)) {
+              if (recs.isEmpty())
+                map.remove(word);
+              else
+                map.put(word, recs);
+              removed = true;
+            }
+          }
+        } finally {
+          releaseExclusiveLock();
+        }
+      }
+
+      if (removed)
+        updateStatistics(-1, -words.size());
+
+      return removed;
+    } finally {
+      modificationLock.releaseModificationLock();
+    }
+  }
+
+  @Override
+  public OIndexInternal<?> create(String iName, OIndexDefinition iIndexDefinition, ODatabaseRecord iDatabase,
+      String iClusterIndexName, int[] iClusterIdsToIndex, OProgressListener iProgressListener, OStreamSerializer iValueSerializer) {
+
+    if (iIndexDefinition.getFields().size() > 1) {
+      throw new OIndexException(TYPE_ID + " indexes cannot be used as composite ones.");
+    }
+
+    statistics = createStatistics(iValueSerializer);
+    return super.create(iName, iIndexDefinition, iDatabase, iClusterIndexName, iClusterIdsToIndex, iProgressListener,
+        iValueSerializer);
+  }
+
+  @Override
+  public OIndexMultiValues create(String iName, OIndexDefinition indexDefinition, ODatabaseRecord iDatabase,
+      String iClusterIndexName, int[] iClusterIdsToIndex, OProgressListener iProgressListener) {
+    if (indexDefinition.getFields().size() > 1) {
+      throw new OIndexException(TYPE_ID + " indexes cannot be used as composite ones.");
+    }
+
+    final OStreamSerializer valuesSerializer = createValuesSerializer();
+    statistics = createStatistics(valuesSerializer);
+    return (OIndexMultiValues) super.create(iName, indexDefinition, iDatabase, iClusterIndexName, iClusterIdsToIndex,
+        iProgressListener, valuesSerializer);
+  }
+
+  @Override
+  public boolean loadFromConfiguration(final ODocument iConfig) {
+    final boolean result = super.loadFromConfiguration(iConfig);
+
+    acquireExclusiveLock();
+    try {
+      final ORID statisticsRid = iConfig.field(CONFIG_STATISTICS_RID, ORID.class);
+      statistics = statisticsRid != null ? (ODocument) getDatabase().load(statisticsRid) : null;
+    } finally {
+      releaseExclusiveLock();
+    }
+
+    return result;
+  }
+
+  @Override
+  public long rebuild(final OProgressListener iProgressListener) {
+    resetStatistics();
+    return super.rebuild(iProgressListener);
+  }
+
+  @Override
+  public OIndex<Set<OIdentifiable>> clear() {
+    modificationLock.requestModificationLock();
+    try {
+      super.clear();
+      resetStatistics();
+      return this;
+    } finally {
+      modificationLock.releaseModificationLock();
+    }
+  }
+
+  @Override
+  public OIndexInternal<Set<OIdentifiable>> delete() {
+    modificationLock.requestModificationLock();
+    try {
+      super.delete();
+
+      acquireExclusiveLock();
+      try {
+        if (statistics != null && statistics.getIdentity().isValid())
+          statistics.delete();
+        statistics = null;
+      } finally {
+        releaseExclusiveLock();
+      }
+
+      return this;
+    } finally {
+      modificationLock.releaseModificationLock();
+    }
+  }
+
+  @Override
+  public OIndexInternal<Set<OIdentifiable>> lazySave() {
+    acquireExclusiveLock();
+    try {
+      super.lazySave();
+      saveStatistics();
+      return this;
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  @Override
+  public ODocument updateConfiguration() {
+    super.updateConfiguration();
+    configuration.setInternalStatus(ORecordElement.STATUS.UNMARSHALLING);
+
+    try {
+      configuration.field(CONFIG_SEPARATOR_CHARS, separatorChars);
+      configuration.field(CONFIG_IGNORE_CHARS, ignoreChars);
+      configuration.field(CONFIG_STOP_WORDS, stopWords);
+
+      if (statistics != null) {
+        if (!statistics.getIdentity().isValid())
+          saveStatistics();
+        configuration.field(CONFIG_STATISTICS_RID, statistics.getIdentity());
+      }
+
+    } finally {
+      configuration.setInternalStatus(ORecordElement.STATUS.LOADED);
+    }
+    return configuration;
+  }
+
+  /**
+   * Records are put into the tree of bulk rebuild without frequencies of words, so indexes which keep them are rebuilt record by
+   * record.
+   */
+  @Override
+  protected boolean isBulkRebuildSupported() {
+    return super.isBulkRebuildSupported() && !isWithFrequencies();
+  }
+
+  /**
+   * Posting lists keep cluster positions as long values, so they are not used if cluster positions are node ids.
+   */
+  private static OStreamSerializer createValuesSerializer() {
+    if (OGlobalConfiguration.USE_NODE_ID_CLUSTER_POSITION.getValueAsBoolean())
+      return OStreamSerializerListRID.INSTANCE;
+
+    if (OGlobalConfiguration.INDEX_FULLTEXT_TERM_FREQUENCIES.getValueAsBoolean())
+      return OStreamSerializerPostingList.FREQUENCIES_INSTANCE;
+
+    return OStreamSerializerPostingList.INSTANCE;
+  }
+
+  /**
+   * Statistics of lengths of indexed values are kept only by posting lists with frequencies, which are used by BM25.
+   */
+  private static ODocument createStatistics(final OStreamSerializer iValuesSerializer) {
+    if (!(iValuesSerializer instanceof OStreamSerializerPostingList)
+        || !((OStreamSerializerPostingList) iValuesSerializer).isWithFrequencies())
+      return null;
+
+    final ODocument document = new ODocument();
+    document.field(STATISTICS_DOCUMENTS, 0L);
+    document.field(STATISTICS_LENGTH_SUM, 0L);
+    return document;
+  }
+
+  private void updateStatistics(final long iDocumentsDelta, final long iLengthDelta) {
+    acquireExclusiveLock();
+    try {
+      if (statistics != null) {
+        statistics.field(STATISTICS_DOCUMENTS, statistics.<Long> field(STATISTICS_DOCUMENTS) + iDocumentsDelta);
+        statistics.field(STATISTICS_LENGTH_SUM, statistics.<Long> field(STATISTICS_LENGTH_SUM) + iLengthDelta);
+      }
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  private void resetStatistics() {
+    acquireExclusiveLock();
+    try {
+      if (statistics != null) {
+        statistics.field(STATISTICS_DOCUMENTS, 0L);
+        statistics.field(STATISTICS_LENGTH_SUM, 0L);
+      }
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  /**
+   * Statistics are saved in the cluster of index together with the tree, so they are saved lazily as the tree is.
+   */
+  private void saveStatistics() {
+    if (statistics != null && statistics.isDirty())
+      statistics.save(((OMVRBTreeProviderAbstract<Object, ?>) map.getProvider()).getClusterName());
+  }
+
+  private boolean isWithPostingLists() {
+    final OStreamSerializer valueSerializer = ((OMVRBTreeMapProvider<Object, Set<OIdentifiable>>) map.getProvider())
+        .getValueSerializer();
+    return valueSerializer instanceof OStreamSerializerPostingList;
+  }
+
+  private boolean isWithFrequencies() {
+    final OStreamSerializer valueSerializer = ((OMVRBTreeMapProvider<Object, Set<OIdentifiable>>) map.getProvider())
+        .getValueSerializer();
+    return valueSerializer instanceof OStreamSerializerPostingList
+        && ((OStreamSerializerPostingList) valueSerializer).isWithFrequencies();
+  }
+
+  private static Set<OIdentifiable> createValues(final OMVRBTreeDatabaseLazySave<Object, Set<OIdentifiable>> iTree) {
+    final OMVRBTreeMapProvider<Object, Set<OIdentifiable>> provider = (OMVRBTreeMapProvider<Object, Set<OIdentifiable>>) iTree
+        .getProvider();
+    if (provider.getValueSerializer() instanceof OStreamSerializerPostingList)
+      return new OFullTextPostingList(((OStreamSerializerPostingList) provider.getValueSerializer()).isWithFrequencies());
+
+    final OMVRBTreeRIDSet values = new OMVRBTreeRIDSet();
+    values.setAutoConvertToRecord(false);
+    return values;
+  }
+
+  private List<String> splitIntoWords(final String iKey) {
+    final List<String> result = new ArrayList<String>();
+
+    final List<String> words = (List<String>) OStringSerializerHelper.split(new ArrayList<String>(), iKey, 0, -1, separatorChars);
+
+    final StringBuilder buffer = new StringBuilder();
+    // FOREACH WORD CREATE THE LINK TO THE CURRENT DOCUMENT
+
+    char c;
+    boolean ignore;
+    for (String word : words) {
+      buffer.setLength(0);
+
+      for (int i = 0; i < word.length(); ++i) {
+        c = word.charAt(i);
+        ignore = false;
+        for (int k = 0; k < ignoreChars.length(); ++k)
+          if (c == ignoreChars.charAt(k)) {
+            ignore = true;
+            break;
+          }
+
+        if (!ignore)
+          buffer.append(c);
+      }
+
+      word = buffer.toString();
+
+      // CHECK IF IT'S A STOP WORD
+      if (stopWords.contains(word))
+        continue;
+
+      result.add(word);
+    }
+
+    return result;
+  }
+
+  public boolean canBeUsedInEqualityOperators() {
+    return false;
+  }
+
+  public boolean supportsOrderedIterations() {
+    return false;
+  }
+
+  private static final class ScoredRecord implements Comparable<ScoredRecord> {
+    private final int    clusterId;
+    private final long   position;
+    private final double score;
+
+    private ScoredRecord(int clusterId, long position, double score) {
+      this.clusterId = clusterId;
+      this.position = position;
+      this.score = score;
+    }
+
+    public int compareTo(ScoredRecord other) {
+      return Double.compare(score, other.score);
+    }
+  }
+}
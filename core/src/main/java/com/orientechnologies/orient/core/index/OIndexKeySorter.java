@@ -0,0 +1,361 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import com.orientechnologies.common.comparator.ODefaultComparator;
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.common.serialization.types.OBinarySerializer;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+
+/**
+ * Sorts pairs of index key and record id which are extracted from records during bulk rebuild of index. Pairs are accumulated in
+ * memory, when buffer is full they are sorted and flushed to temporary file as sorted run. At the end of rebuild runs of all sorters
+ * are merged by {@link #merge(Collection)}, so the index tree is filled in ascending order of keys.
+ *
+ * Sorter is not thread safe, every thread which scans records should use its own instance.
+ */
+public class OIndexKeySorter {
+  /**
+   * Maximum amount of temporary files which are read at the same time during merge.
+   */
+  private static final int                MAX_MERGED_RUNS  = 64;
+
+  private static final Comparator<Entry>  ENTRY_COMPARATOR = new Comparator<Entry>() {
+                                                             public int compare(final Entry entryOne, final Entry entryTwo) {
+                                                               final int result = ODefaultComparator.INSTANCE.compare(entryOne.key,
+                                                                   entryTwo.key);
+                                                               if (result != 0)
+                                                                 return result;
+
+                                                               return entryOne.rid.compareTo(entryTwo.rid);
+                                                             }
+                                                           };
+
+  private final OBinarySerializer<Object> keySerializer;
+  private final int                       bufferSize;
+  private final File                      directory;
+
+  private final List<Entry>               buffer           = new ArrayList<Entry>();
+  private final List<File>                runs             = new ArrayList<File>();
+
+  /**
+   * @param iKeySerializer
+   *          Serializer which is used to write keys into temporary files.
+   * @param iBufferSize
+   *          Number of entries which are sorted in memory.
+   * @param iDirectory
+   *          Directory where temporary files are created, <code>null</code> means default temporary directory.
+   */
+  public OIndexKeySorter(final OBinarySerializer<Object> iKeySerializer, final int iBufferSize, final File iDirectory) {
+    keySerializer = iKeySerializer;
+    bufferSize = Math.max(iBufferSize, 1);
+    directory = iDirectory;
+  }
+
+  public void add(final Object iKey, final ORID iRid) throws IOException {
+    buffer.add(new Entry(iKey, iRid.copy()));
+
+    if (buffer.size() >= bufferSize)
+      flushBuffer();
+  }
+
+  /**
+   * Removes temporary files of sorter.
+   */
+  public void delete() {
+    buffer.clear();
+
+    for (final File run : runs)
+      if (run.exists() && !run.delete())
+        OLogManager.instance().warn(this, "Can not delete temporary file %s", run.getAbsolutePath());
+
+    runs.clear();
+  }
+
+  /**
+   * Merges content of passed in sorters. Entries are returned in ascending order of keys, entries with the same key are ordered by
+   * record id. If sorters contain more than {@link #MAX_MERGED_RUNS} runs, runs are merged into bigger ones first, so the amount of
+   * files opened at the same time is bounded.
+   */
+  public static Merger merge(final Collection<OIndexKeySorter> iSorters) throws IOException {
+    reduceRuns(iSorters);
+
+    final Merger merger = new Merger();
+
+    try {
+      for (final OIndexKeySorter sorter : iSorters) {
+        if (!sorter.buffer.isEmpty()) {
+          Collections.sort(sorter.buffer, ENTRY_COMPARATOR);
+          merger.addRun(new MemoryRun(sorter.buffer));
+        }
+
+        for (final File run : sorter.runs)
+          merger.addRun(new FileRun(run, sorter.keySerializer));
+      }
+    } catch (IOException e) {
+      merger.close();
+      throw e;
+    }
+
+    return merger;
+  }
+
+  /**
+   * Merges runs of sorters by groups of {@link #MAX_MERGED_RUNS} till their total amount fits the limit. Merged run replaces the
+   * group in runs of the sorter which owned its first run, so it is removed by {@link #delete()}.
+   */
+  private static void reduceRuns(final Collection<OIndexKeySorter> iSorters) throws IOException {
+    final List<File> files = new ArrayList<File>();
+    final List<OIndexKeySorter> owners = new ArrayList<OIndexKeySorter>();
+    for (final OIndexKeySorter sorter : iSorters)
+      for (final File run : sorter.runs) {
+        files.add(run);
+        owners.add(sorter);
+      }
+
+    while (files.size() > MAX_MERGED_RUNS) {
+      final List<File> mergedFiles = new ArrayList<File>();
+      final List<OIndexKeySorter> mergedOwners = new ArrayList<OIndexKeySorter>();
+
+      for (int i = 0; i < files.size(); i += MAX_MERGED_RUNS) {
+        final List<File> group = files.subList(i, Math.min(i + MAX_MERGED_RUNS, files.size()));
+        final OIndexKeySorter owner = owners.get(i);
+
+        final Merger merger = new Merger();
+        final File run;
+        try {
+          for (final File file : group)
+            merger.addRun(new FileRun(file, owner.keySerializer));
+
+          run = owner.writeRun(merger);
+        } finally {
+          merger.close();
+        }
+
+        for (int n = i; n < i + group.size(); n++) {
+          owners.get(n).runs.remove(files.get(n));
+          if (!files.get(n).delete())
+            OLogManager.instance().warn(owner, "Can not delete temporary file %s", files.get(n).getAbsolutePath());
+        }
+
+        mergedFiles.add(run);
+        mergedOwners.add(owner);
+      }
+
+      files.clear();
+      files.addAll(mergedFiles);
+      owners.clear();
+      owners.addAll(mergedOwners);
+    }
+  }
+
+  private void flushBuffer() throws IOException {
+    Collections.sort(buffer, ENTRY_COMPARATOR);
+
+    final Merger merger = new Merger();
+    merger.addRun(new MemoryRun(buffer));
+    writeRun(merger);
+
+    buffer.clear();
+  }
+
+  /**
+   * Writes entries of merger into new temporary file.
+   */
+  private File writeRun(final Merger iMerger) throws IOException {
+    final File run = File.createTempFile("index-rebuild-", ".run", directory);
+    runs.add(run);
+
+    final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(run)));
+    try {
+      Entry entry;
+      while ((entry = iMerger.next()) != null) {
+        final byte[] key = new byte[keySerializer.getObjectSize(entry.key)];
+        keySerializer.serialize(entry.key, key, 0);
+
+        out.writeInt(key.length);
+        out.write(key);
+
+        final byte[] rid = ((ORecordId) entry.rid).toStream();
+        out.writeInt(rid.length);
+        out.write(rid);
+      }
+    } finally {
+      out.close();
+    }
+
+    return run;
+  }
+
+  /**
+   * Index key and identity of record which contains it.
+   */
+  public static final class Entry {
+    private final Object key;
+    private final ORID   rid;
+
+    private Entry(final Object iKey, final ORID iRid) {
+      key = iKey;
+      rid = iRid;
+    }
+
+    public Object getKey() {
+      return key;
+    }
+
+    public ORID getRid() {
+      return rid;
+    }
+  }
+
+  /**
+   * Merges sorted runs using heap of their current entries.
+   */
+  public static final class Merger {
+    private final PriorityQueue<Run> queue = new PriorityQueue<Run>(16, new Comparator<Run>() {
+                                             public int compare(final Run runOne, final Run runTwo) {
+                                               return ENTRY_COMPARATOR.compare(runOne.current, runTwo.current);
+                                             }
+                                           });
+
+    private Merger() {
+    }
+
+    /**
+     * @return next entry in order of keys or <code>null</code> if all entries were returned.
+     */
+    public Entry next() throws IOException {
+      final Run run = queue.poll();
+      if (run == null)
+        return null;
+
+      final Entry entry = run.current;
+      if (run.advance())
+        queue.add(run);
+      else
+        run.close();
+
+      return entry;
+    }
+
+    public void close() {
+      for (final Run run : queue)
+        run.close();
+
+      queue.clear();
+    }
+
+    private void addRun(final Run iRun) throws IOException {
+      if (iRun.advance())
+        queue.add(iRun);
+      else
+        iRun.close();
+    }
+  }
+
+  private static abstract class Run {
+    protected Entry current;
+
+    /**
+     * Moves run to the next entry.
+     *
+     * @return <code>false</code> if run does not contain entries any more.
+     */
+    public abstract boolean advance() throws IOException;
+
+    public abstract void close();
+  }
+
+  private static final class MemoryRun extends Run {
+    private final List<Entry> entries;
+    private int               position = 0;
+
+    private MemoryRun(final List<Entry> iEntries) {
+      entries = iEntries;
+    }
+
+    @Override
+    public boolean advance() {
+      if (position >= entries.size()) {
+        current = null;
+        return false;
+      }
+
+      current = entries.get(position++);
+      return true;
+    }
+
+    @Override
+    public void close() {
+    }
+  }
+
+  private static final class FileRun extends Run {
+    private final DataInputStream           in;
+    private final OBinarySerializer<Object> keySerializer;
+
+    private FileRun(final File iFile, final OBinarySerializer<Object> iKeySerializer) throws IOException {
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(iFile)));
+      keySerializer = iKeySerializer;
+    }
+
+    @Override
+    public boolean advance() throws IOException {
+      final int keyLength;
+      try {
+        keyLength = in.readInt();
+      } catch (EOFException e) {
+        current = null;
+        return false;
+      }
+
+      final byte[] key = new byte[keyLength];
+      in.readFully(key);
+
+      final byte[] rid = new byte[in.readInt()];
+      in.readFully(rid);
+
+      current = new Entry(keySerializer.deserialize(key, 0), new ORecordId().fromStream(rid));
+      return true;
+    }
+
+    @Override
+    public void close() {
+      try {
+        in.close();
+      } catch (IOException e) {
+        OLogManager.instance().warn(this, "Can not close temporary file of index rebuild", e);
+      }
+    }
+  }
+}
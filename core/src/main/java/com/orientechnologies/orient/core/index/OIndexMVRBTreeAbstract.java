@@ -15,8 +15,10 @@
  */
 package com.orientechnologies.orient.core.index;
 
+import java.io.File;
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
@@ -25,10 +27,20 @@ import java.util.List;
 import java.util.Locale;
 import java.util.Map.Entry;
 import java.util.NoSuchElementException;
+import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicLong;
 
 import com.orientechnologies.common.collection.OCompositeKey;
 import com.orientechnologies.common.collection.OMVRBTree;
+import com.orientechnologies.common.comparator.ODefaultComparator;
 import com.orientechnologies.common.concur.lock.OModificationLock;
 import com.orientechnologies.common.concur.resource.OSharedResourceAdaptiveExternal;
 import com.orientechnologies.common.listener.OProgressListener;
@@ -41,12 +53,15 @@ import com.orientechnologies.orient.core.annotation.ODocumentInstance;
 import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.db.ODatabase;
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
 import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
 import com.orientechnologies.orient.core.db.record.ORecordElement;
 import com.orientechnologies.orient.core.exception.OCommandExecutionException;
 import com.orientechnologies.orient.core.exception.OConfigurationException;
 import com.orientechnologies.orient.core.exception.OTransactionException;
+import com.orientechnologies.orient.core.id.OClusterPosition;
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.intent.OIntentMassiveInsert;
 import com.orientechnologies.orient.core.memory.OMemoryWatchDog.Listener;
@@ -60,8 +75,12 @@ import com.orientechnologies.orient.core.serialization.serializer.binary.impl.in
 import com.orientechnologies.orient.core.serialization.serializer.binary.impl.index.OSimpleKeySerializer;
 import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializer;
 import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializerAnyStreamable;
+import com.orientechnologies.orient.core.storage.ORecordDuplicatedException;
+import com.orientechnologies.orient.core.storage.OStorageEmbedded;
+import com.orientechnologies.orient.core.storage.impl.local.OStorageLocalAbstract;
 import com.orientechnologies.orient.core.tx.OTransactionIndexChanges.OPERATION;
 import com.orientechnologies.orient.core.type.tree.OMVRBTreeDatabaseLazySave;
+import com.orientechnologies.orient.core.type.tree.provider.OMVRBTreeMapProvider;
 import com.orientechnologies.orient.core.type.tree.provider.OMVRBTreeProviderAbstract;
 
 /**
@@ -71,6 +90,9 @@ import com.orientechnologies.orient.core.type.tree.provider.OMVRBTreeProviderAbs
  * 
  */
 public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveExternal implements OIndexInternal<T> {
+  private static final int                       ONLINE_CHANGES_LOCKED_PORTION = 1000;
+  private static final int                       ONLINE_CHANGES_UNLOCKED_ROUNDS = 10;
+
   protected final OModificationLock              modificationLock = new OModificationLock();
 
   protected static final String                  CONFIG_MAP_RID   = "mapRid";
@@ -86,7 +108,9 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
   @ODocumentInstance
   protected ODocument                            configuration;
   private final Listener                         watchDog;
-  private boolean                                rebuilding       = false;
+  private volatile boolean                       rebuilding       = false;
+  private volatile List<OIndexChange>            onlineChanges;
+  private volatile List<OIndexChange>            rebuildChanges;
 
   public OIndexMVRBTreeAbstract(final String iType) {
     super(OGlobalConfiguration.ENVIRONMENT_CONCURRENT.getValueAsBoolean(), OGlobalConfiguration.MVRBTREE_TIMEOUT
@@ -152,7 +176,9 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
 
       installHooks(iDatabase);
 
-      rebuild(iProgressListener);
+      // INDEX WHICH IS BUILT ONLINE IS FILLED BY buildOnline() AFTER IT IS REGISTERED IN INDEX MANAGER
+      if (onlineChanges == null)
+        rebuild(iProgressListener);
       updateConfiguration();
     } catch (Exception e) {
       if (map != null)
@@ -365,8 +391,14 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
 
   /**
    * Populates the index with all the existent records. Uses the massive insert intent to speed up and keep the consumed memory low.
+   * If {@link OGlobalConfiguration#INDEX_REBUILD_THREADS} is greater than 0 index is rebuilt in bulk mode, see
+   * {@link #bulkRebuild(OProgressListener, int)}.
    */
   public long rebuild(final OProgressListener iProgressListener) {
+    final int threads = OGlobalConfiguration.INDEX_REBUILD_THREADS.getValueAsInteger();
+    if (threads > 0 && isBulkRebuildSupported())
+      return bulkRebuild(iProgressListener, threads);
+
     long documentIndexed = 0;
 
     final boolean intentInstalled = getDatabase().declareIntent(new OIntentMassiveInsert());
@@ -454,6 +486,584 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
     return documentIndexed;
   }
 
+  /**
+   * Rebuilds the index without blocking of readers and writers. Records of indexed clusters are scanned by several threads, each
+   * thread uses its own database instance. Extracted keys are sorted by {@link OIndexKeySorter} and loaded in ascending order into
+   * the new tree which replaces the current one at the end of rebuild, till that moment the current tree is used and kept up to
+   * date. Changes of the index made during rebuild are captured by {@link #captureChange(OPERATION, Object, OIdentifiable)} and
+   * replayed on the new tree in portions, only the last portion is replayed under exclusive lock together with replacement of the
+   * tree.
+   */
+  @SuppressWarnings("unchecked")
+  protected long bulkRebuild(final OProgressListener iProgressListener, final int iThreads) {
+    final ODatabaseRecord database = getDatabase();
+    final OMVRBTreeMapProvider<Object, T> provider = (OMVRBTreeMapProvider<Object, T>) map.getProvider();
+
+    acquireExclusiveLock();
+    try {
+      rebuildChanges = new ArrayList<OIndexChange>();
+    } finally {
+      releaseExclusiveLock();
+    }
+
+    final boolean intentInstalled = database.declareIntent(new OIntentMassiveInsert());
+
+    final List<OIndexKeySorter> sorters = new ArrayList<OIndexKeySorter>();
+    OMVRBTreeDatabaseLazySave<Object, T> newMap = null;
+    try {
+      long documentTotal = 0;
+      for (final String cluster : clustersToIndex)
+        documentTotal += database.countClusterElements(cluster);
+
+      if (iProgressListener != null)
+        iProgressListener.onBegin(this, documentTotal);
+
+      final long documentIndexed = scanClusters(database, provider.getKeySerializer(), iThreads, documentTotal,
+          iProgressListener, sorters);
+
+      newMap = new OMVRBTreeDatabaseLazySave<Object, T>(provider.getClusterName(), provider.getKeySerializer(),
+          provider.getValueSerializer(), provider.getKeySize(), maxUpdatesBeforeSave);
+      loadSortedEntries(newMap, sorters);
+
+      final OMVRBTreeDatabaseLazySave<Object, T> oldMap = replayRebuildChanges(database, newMap);
+      newMap = null;
+
+      // IF INDEX IS NOT CREATED YET ITS CONFIGURATION IS SAVED BY INDEX MANAGER
+      if (database.getMetadata().getIndexManager().getIndex(name) != null) {
+        final ODocument indexManagerConfiguration = database.getMetadata().getIndexManager().getConfiguration();
+        indexManagerConfiguration.setDirty();
+        indexManagerConfiguration.save();
+      }
+
+      try {
+        oldMap.delete();
+      } catch (Exception e) {
+        OLogManager.instance().warn(this, "Cannot delete previous content of index '%s'", e, name);
+      }
+
+      if (iProgressListener != null)
+        iProgressListener.onCompletition(this, true);
+
+      return documentIndexed;
+
+    } catch (final Exception e) {
+      if (iProgressListener != null)
+        iProgressListener.onCompletition(this, false);
+
+      if (newMap != null)
+        try {
+          newMap.delete();
+        } catch (Exception e2) {
+          // IGNORE EXCEPTION: CURRENT CONTENT OF INDEX IS NOT CHANGED
+        }
+
+      throw new OIndexException("Error on rebuilding the index for clusters: " + clustersToIndex, e);
+
+    } finally {
+      for (final OIndexKeySorter sorter : sorters)
+        sorter.delete();
+
+      if (intentInstalled)
+        database.declareIntent(null);
+
+      if (rebuildChanges != null) {
+        acquireExclusiveLock();
+        try {
+          rebuildChanges = null;
+        } finally {
+          releaseExclusiveLock();
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies changes captured during bulk rebuild to the new tree and replaces the current tree by it. Changes are applied by the
+   * usual put and remove operations, so the new tree is installed as current one while a portion is applied, all operations of the
+   * index hold exclusive lock, so nobody else sees the new tree till the last portion is applied. Number of portions is bounded in
+   * the same way as for online build, see {@link #isLastChangesPortion(int, int, int)}.
+   * 
+   * @return Replaced tree.
+   */
+  private OMVRBTreeDatabaseLazySave<Object, T> replayRebuildChanges(final ODatabaseRecord iDatabase,
+      final OMVRBTreeDatabaseLazySave<Object, T> iNewMap) {
+    final List<OIndexChange> duplicates = new ArrayList<OIndexChange>();
+
+    int previousPortion = Integer.MAX_VALUE;
+    for (int round = 0;; round++) {
+      acquireExclusiveLock();
+      final OMVRBTreeDatabaseLazySave<Object, T> currentMap = map;
+      try {
+        final List<OIndexChange> changes = rebuildChanges;
+        final boolean last = isLastChangesPortion(changes.size(), previousPortion, round);
+        if (!last) {
+          previousPortion = changes.size();
+          rebuildChanges = new ArrayList<OIndexChange>();
+        }
+
+        map = iNewMap;
+        try {
+          for (final OIndexChange change : changes)
+            applyChange(change, duplicates);
+
+          if (last) {
+            for (final OIndexChange duplicate : duplicates)
+              recheckDuplicate(iDatabase, duplicate);
+
+            map.lazySave();
+            updateConfiguration();
+            rebuildChanges = null;
+            return currentMap;
+          }
+        } finally {
+          if (rebuildChanges != null)
+            map = currentMap;
+        }
+      } finally {
+        releaseExclusiveLock();
+      }
+    }
+  }
+
+  /**
+   * Bulk rebuild needs key serializer of the current tree and can not see records which are created in the current transaction.
+   */
+  @SuppressWarnings("unchecked")
+  protected boolean isBulkRebuildSupported() {
+    if (map == null || indexDefinition == null || indexDefinition instanceof ORuntimeKeyIndexDefinition || clustersToIndex.isEmpty())
+      return false;
+
+    final ODatabaseRecord database = getDatabase();
+    if (database.getTransaction().isActive() || !(database.getStorage() instanceof OStorageEmbedded))
+      return false;
+
+    final OMVRBTreeMapProvider<Object, T> provider = (OMVRBTreeMapProvider<Object, T>) map.getProvider();
+    return provider.getKeySerializer() != null && provider.getValueSerializer() != null;
+  }
+
+  private long scanClusters(final ODatabaseRecord iDatabase, final OBinarySerializer<Object> iKeySerializer, final int iThreads,
+      final long iDocumentTotal, final OProgressListener iProgressListener, final List<OIndexKeySorter> iSorters) throws Exception {
+    final Queue<OClusterRange> ranges = splitClusters(iDatabase, iThreads);
+
+    final File sortDirectory = iDatabase.getStorage() instanceof OStorageLocalAbstract ? new File(
+        ((OStorageLocalAbstract) iDatabase.getStorage()).getStoragePath()) : null;
+    final int sortBufferSize = OGlobalConfiguration.INDEX_REBUILD_SORT_BUFFER.getValueAsInteger();
+
+    final String url = iDatabase.getURL();
+    final AtomicLong documentNum = new AtomicLong();
+
+    final ExecutorService executor = Executors.newFixedThreadPool(iThreads, new ThreadFactory() {
+      public Thread newThread(final Runnable r) {
+        final Thread thread = new Thread(r, "Rebuild of index " + name);
+        thread.setDaemon(true);
+        return thread;
+      }
+    });
+
+    try {
+      final List<Future<Long>> futures = new ArrayList<Future<Long>>();
+      for (int i = 0; i < Math.min(iThreads, ranges.size()); i++) {
+        final OIndexKeySorter sorter = new OIndexKeySorter(iKeySerializer, sortBufferSize, sortDirectory);
+        iSorters.add(sorter);
+
+        futures.add(executor.submit(new Callable<Long>() {
+          public Long call() throws Exception {
+            return scanClusterRanges(url, ranges, sorter, documentNum, iDocumentTotal, iProgressListener);
+          }
+        }));
+      }
+
+      long documentIndexed = 0;
+      for (final Future<Long> future : futures)
+        try {
+          documentIndexed += future.get();
+        } catch (ExecutionException e) {
+          if (e.getCause() instanceof Exception)
+            throw (Exception) e.getCause();
+
+          throw e;
+        }
+
+      return documentIndexed;
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  /**
+   * Splits clusters on ranges of positions, so even content of single cluster is scanned by several threads.
+   */
+  private Queue<OClusterRange> splitClusters(final ODatabaseRecord iDatabase, final int iParts) {
+    final Queue<OClusterRange> ranges = new ConcurrentLinkedQueue<OClusterRange>();
+
+    for (final String clusterName : clustersToIndex) {
+      final int clusterId = iDatabase.getClusterIdByName(clusterName);
+      if (clusterId < 0)
+        continue;
+
+      final OClusterPosition[] range = iDatabase.getStorage().getClusterDataRange(clusterId);
+      if (range.length < 2 || !range[0].isValid() || !range[1].isValid())
+        continue;
+
+      // POSITIONS BASED ON NODE ID CAN NOT BE SPLIT BY LONG VALUES
+      if (OGlobalConfiguration.USE_NODE_ID_CLUSTER_POSITION.getValueAsBoolean() || iParts == 1) {
+        ranges.add(new OClusterRange(clusterName, range[0], range[1]));
+        continue;
+      }
+
+      final long first = range[0].longValue();
+      final long last = range[1].longValue();
+      final long step = Math.max((last - first) / iParts + 1, 1);
+
+      for (long from = first; from <= last; from += step)
+        ranges.add(new OClusterRange(clusterName, OClusterPositionFactory.INSTANCE.valueOf(from),
+            OClusterPositionFactory.INSTANCE.valueOf(Math.min(from + step - 1, last))));
+    }
+
+    return ranges;
+  }
+
+  private long scanClusterRanges(final String iURL, final Queue<OClusterRange> iRanges, final OIndexKeySorter iSorter,
+      final AtomicLong iDocumentNum, final long iDocumentTotal, final OProgressListener iProgressListener) throws IOException {
+    final ODatabaseDocumentTx database = new ODatabaseDocumentTx(iURL);
+    database.setProperty(ODatabase.OPTIONS.SECURITY.toString(), Boolean.FALSE);
+    database.open("admin", "nopass");
+
+    try {
+      database.getLevel1Cache().setEnable(false);
+
+      final List<Object> keys = new ArrayList<Object>();
+      long documentIndexed = 0;
+
+      OClusterRange range;
+      while ((range = iRanges.poll()) != null)
+        try {
+          for (final ORecord<?> record : database.browseCluster(range.clusterName, range.from, range.to, false)) {
+            if (Thread.interrupted())
+              throw new OCommandExecutionException("The index rebuild has been interrupted");
+
+            if (record instanceof ODocument) {
+              final Object fieldValue = indexDefinition.getDocumentValueToIndex((ODocument) record);
+
+              if (fieldValue != null) {
+                keys.clear();
+                if (fieldValue instanceof Collection) {
+                  for (final Object fieldValueItem : (Collection<?>) fieldValue)
+                    addKeysToIndex(fieldValueItem, keys);
+                } else
+                  addKeysToIndex(fieldValue, keys);
+
+                for (final Object key : keys)
+                  iSorter.add(key, record.getIdentity());
+
+                ++documentIndexed;
+              }
+            }
+
+            final long documentNum = iDocumentNum.incrementAndGet();
+            if (iProgressListener != null && documentNum % 1000 == 0)
+              synchronized (iProgressListener) {
+                iProgressListener.onProgress(this, documentNum, documentNum * 100f / iDocumentTotal);
+              }
+          }
+        } catch (NoSuchElementException e) {
+          // END OF CLUSTER REACHED, IGNORE IT
+        }
+
+      return documentIndexed;
+    } finally {
+      database.close();
+    }
+  }
+
+  private void loadSortedEntries(final OMVRBTreeDatabaseLazySave<Object, T> iTree, final List<OIndexKeySorter> iSorters)
+      throws IOException {
+    final OIndexKeySorter.Merger merger = OIndexKeySorter.merge(iSorters);
+    try {
+      final List<ORID> values = new ArrayList<ORID>();
+      Object key = null;
+
+      OIndexKeySorter.Entry entry;
+      while ((entry = merger.next()) != null) {
+        if (!values.isEmpty() && ODefaultComparator.INSTANCE.compare(key, entry.getKey()) != 0) {
+          putSortedValues(iTree, key, values);
+          values.clear();
+        }
+
+        key = entry.getKey();
+        // THE SAME RECORD CAN CONTAIN THE SAME KEY SEVERAL TIMES
+        if (values.isEmpty() || !values.get(values.size() - 1).equals(entry.getRid()))
+          values.add(entry.getRid());
+      }
+
+      if (!values.isEmpty())
+        putSortedValues(iTree, key, values);
+    } finally {
+      merger.close();
+    }
+  }
+
+  /**
+   * Collects keys which are put in the index for the value extracted from the record during bulk rebuild.
+   */
+  protected void addKeysToIndex(final Object iKey, final Collection<Object> iKeys) {
+    if (iKey != null)
+      iKeys.add(iKey);
+  }
+
+  /**
+   * Puts all records which contain the key into the tree which is built during bulk rebuild. Keys are passed in ascending order,
+   * records are ordered by identity.
+   */
+  protected abstract void putSortedValues(final OMVRBTreeDatabaseLazySave<Object, T> iTree, final Object iKey,
+      final List<ORID> iValues);
+
+  /**
+   * Prepares the index to be built by {@link #buildOnline(OProgressListener)}. Index created after this call is empty, changes of
+   * indexed records which are made till the end of online build are captured by {@link #captureChange(OPERATION, Object,
+   * OIdentifiable)} and applied when all records are scanned. Till that moment index is marked as rebuilding, so it is not used by
+   * queries.
+   */
+  public void startOnlineBuild() {
+    acquireExclusiveLock();
+    try {
+      onlineChanges = new ArrayList<OIndexChange>();
+      rebuilding = true;
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  /**
+   * Fills the index which was created after {@link #startOnlineBuild()} call. Exclusive lock is held only during single put, so
+   * records of indexed clusters can be changed concurrently. Captured changes are applied in portions after the scan, the last
+   * portion is applied under exclusive lock together with end of capture. Number of portions applied without lock is bounded, see
+   * {@link #isLastChangesPortion(int, int, int)}.
+   *
+   * Scan does not see consistent snapshot of records, so key which seems to be duplicated for unique index is rechecked against
+   * current content of the record at the end of build.
+   */
+  public long buildOnline(final OProgressListener iProgressListener) {
+    final ODatabaseRecord database = getDatabase();
+    final List<OIndexChange> duplicates = new ArrayList<OIndexChange>();
+
+    long documentIndexed = 0;
+    try {
+      if (indexDefinition == null)
+        throw new OConfigurationException("Index '" + name + "' cannot be built because has no a valid definition");
+
+      int documentNum = 0;
+      long documentTotal = 0;
+
+      for (final String cluster : clustersToIndex)
+        documentTotal += database.countClusterElements(cluster);
+
+      if (iProgressListener != null)
+        iProgressListener.onBegin(this, documentTotal);
+
+      for (final String clusterName : clustersToIndex)
+        try {
+          for (final ORecord<?> record : database.browseCluster(clusterName)) {
+            if (Thread.interrupted())
+              throw new OCommandExecutionException("The index build has been interrupted");
+
+            if (record instanceof ODocument) {
+              final Object fieldValue = indexDefinition.getDocumentValueToIndex((ODocument) record);
+
+              if (fieldValue != null) {
+                if (fieldValue instanceof Collection) {
+                  for (final Object fieldValueItem : (Collection<?>) fieldValue)
+                    applyChange(new OIndexChange(OPERATION.PUT, fieldValueItem, record.getIdentity()), duplicates);
+                } else
+                  applyChange(new OIndexChange(OPERATION.PUT, fieldValue, record.getIdentity()), duplicates);
+
+                ++documentIndexed;
+              }
+            }
+            documentNum++;
+
+            if (iProgressListener != null)
+              iProgressListener.onProgress(this, documentNum, documentNum * 100f / documentTotal);
+          }
+        } catch (NoSuchElementException e) {
+          // END OF CLUSTER REACHED, IGNORE IT
+        }
+
+      int previousPortion = Integer.MAX_VALUE;
+      for (int round = 0;; round++) {
+        final List<OIndexChange> changes;
+
+        acquireExclusiveLock();
+        try {
+          changes = onlineChanges;
+
+          if (isLastChangesPortion(changes.size(), previousPortion, round)) {
+            for (final OIndexChange change : changes)
+              applyChange(change, duplicates);
+
+            for (final OIndexChange duplicate : duplicates)
+              recheckDuplicate(database, duplicate);
+
+            lazySave();
+
+            onlineChanges = null;
+            rebuilding = false;
+            break;
+          }
+
+          previousPortion = changes.size();
+          onlineChanges = new ArrayList<OIndexChange>();
+        } finally {
+          releaseExclusiveLock();
+        }
+
+        for (final OIndexChange change : changes)
+          applyChange(change, duplicates);
+      }
+
+      if (iProgressListener != null)
+        iProgressListener.onCompletition(this, true);
+
+    } catch (final Exception e) {
+      acquireExclusiveLock();
+      try {
+        onlineChanges = null;
+        rebuilding = false;
+      } finally {
+        releaseExclusiveLock();
+      }
+
+      if (iProgressListener != null)
+        iProgressListener.onCompletition(this, false);
+
+      if (e instanceof OIndexException)
+        throw (OIndexException) e;
+
+      throw new OIndexException("Error on building the index for clusters: " + clustersToIndex, e);
+    }
+
+    return documentIndexed;
+  }
+
+  /**
+   * Captures change of the index which is made by {@link OClassIndexManager} hooks or by transaction commit while the index is built
+   * online or rebuilt in bulk mode.
+   *
+   * @param iKey
+   *          Changed key, <code>null</code> if value is removed from all keys.
+   * @param iValue
+   *          Changed value, <code>null</code> if all values of the key are removed.
+   * @return <code>false</code> if the index is not built online and change should be applied to the index. Changes captured during
+   *         bulk rebuild are applied to the index too.
+   */
+  public boolean captureChange(final OPERATION iOperation, final Object iKey, final OIdentifiable iValue) {
+    if (onlineChanges == null && rebuildChanges == null)
+      return false;
+
+    acquireExclusiveLock();
+    try {
+      final OIndexChange change = new OIndexChange(iOperation, iKey, iValue != null ? iValue.getIdentity() : null);
+
+      if (onlineChanges != null) {
+        onlineChanges.add(change);
+        return true;
+      }
+
+      // DURING BULK REBUILD CURRENT TREE IS STILL USED, SO CHANGE IS APPLIED TO IT TOO
+      if (rebuildChanges != null)
+        rebuildChanges.add(change);
+      return false;
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  /**
+   * Decides whether captured changes are applied under exclusive lock together with end of capture. Writers which are as fast as
+   * replay keep portions from becoming small, so the rest is applied under lock also when portion does not shrink any more or after
+   * {@link #ONLINE_CHANGES_UNLOCKED_ROUNDS} portions were applied without lock.
+   */
+  private static boolean isLastChangesPortion(final int iPortion, final int iPreviousPortion, final int iRound) {
+    return iPortion <= ONLINE_CHANGES_LOCKED_PORTION || iPortion >= iPreviousPortion || iRound >= ONLINE_CHANGES_UNLOCKED_ROUNDS;
+  }
+
+  protected boolean isBuildingOnline() {
+    return onlineChanges != null;
+  }
+
+  private void applyChange(final OIndexChange iChange, final List<OIndexChange> iDuplicates) {
+    switch (iChange.operation) {
+    case PUT:
+      if (iChange.key == null)
+        return;
+
+      try {
+        put(iChange.key, iChange.value);
+      } catch (ORecordDuplicatedException e) {
+        // CHANGE WHICH RELEASES THE KEY CAN BE APPLIED LATER
+        iDuplicates.add(iChange);
+      }
+      break;
+
+    case REMOVE:
+      if (iChange.key == null)
+        remove(iChange.value);
+      else if (iChange.value == null)
+        remove(iChange.key);
+      else
+        removeCapturedValue(iChange.key, iChange.value);
+      break;
+
+    case CLEAR:
+      clear();
+      break;
+    }
+  }
+
+  /**
+   * Applies captured removal of the value from the key. Scan of online build could already put other value for the same key, so
+   * implementations which keep single value per key remove the key only if it still points to the removed value.
+   */
+  protected void removeCapturedValue(final Object iKey, final OIdentifiable iValue) {
+    remove(iKey, iValue);
+  }
+
+  private void recheckDuplicate(final ODatabaseRecord iDatabase, final OIndexChange iDuplicate) {
+    if (!isKeyOfRecord(iDatabase, iDuplicate.value, iDuplicate.key))
+      return;
+
+    try {
+      put(iDuplicate.key, iDuplicate.value);
+    } catch (ORecordDuplicatedException e) {
+      // RECORD WHICH HOLDS THE KEY COULD BE CHANGED AFTER IT WAS SCANNED
+      if (e.getiRid() != null && isKeyOfRecord(iDatabase, e.getiRid(), iDuplicate.key))
+        throw e;
+
+      remove(iDuplicate.key);
+      put(iDuplicate.key, iDuplicate.value);
+    }
+  }
+
+  private boolean isKeyOfRecord(final ODatabaseRecord iDatabase, final OIdentifiable iRecord, final Object iKey) {
+    final ORecord<?> record = iDatabase.load(iRecord.getIdentity(), null, true);
+    if (!(record instanceof ODocument))
+      return false;
+
+    final Object fieldValue = indexDefinition.getDocumentValueToIndex((ODocument) record);
+    if (fieldValue == null)
+      return false;
+
+    if (fieldValue instanceof Collection) {
+      for (final Object fieldValueItem : (Collection<?>) fieldValue)
+        if (fieldValueItem != null && ODefaultComparator.INSTANCE.compare(fieldValueItem, iKey) == 0)
+          return true;
+
+      return false;
+    }
+
+    return ODefaultComparator.INSTANCE.compare(fieldValue, iKey) == 0;
+  }
+
   public boolean remove(final Object iKey, final OIdentifiable iValue) {
     modificationLock.requestModificationLock();
     try {
@@ -683,7 +1293,7 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
       map.setRunningTransaction(true);
 
       final Boolean clearAll = (Boolean) iDocument.field("clear");
-      if (clearAll != null && clearAll)
+      if (clearAll != null && clearAll && !captureChange(OPERATION.CLEAR, null, null))
         clear();
 
       final Collection<ODocument> entries = iDocument.field("entries");
@@ -720,9 +1330,13 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
             final int operation = (Integer) op.rawField("o");
             final OIdentifiable value = op.field("v", OType.LINK);
 
-            if (operation == OPERATION.PUT.ordinal())
-              put(key, value);
-            else if (operation == OPERATION.REMOVE.ordinal()) {
+            if (operation == OPERATION.PUT.ordinal()) {
+              if (!captureChange(OPERATION.PUT, key, value))
+                put(key, value);
+            } else if (operation == OPERATION.REMOVE.ordinal()) {
+              if (captureChange(OPERATION.REMOVE, key.equals("*") ? null : key, value))
+                continue;
+
               if (key.equals("*"))
                 remove(value);
               else if (value == null)
@@ -971,4 +1585,28 @@ public abstract class OIndexMVRBTreeAbstract<T> extends OSharedResourceAdaptiveE
   public boolean isRebuiding() {
     return rebuilding;
   }
+
+  private static final class OIndexChange {
+    private final OPERATION     operation;
+    private final Object        key;
+    private final OIdentifiable value;
+
+    private OIndexChange(final OPERATION iOperation, final Object iKey, final OIdentifiable iValue) {
+      operation = iOperation;
+      key = iKey;
+      value = iValue;
+    }
+  }
+
+  private static final class OClusterRange {
+    private final String           clusterName;
+    private final OClusterPosition from;
+    private final OClusterPosition to;
+
+    private OClusterRange(final String iClusterName, final OClusterPosition iFrom, final OClusterPosition iTo) {
+      clusterName = iClusterName;
+      from = iFrom;
+      to = iTo;
+    }
+  }
 }
@@ -36,6 +36,8 @@ import com.orientechnologies.orient.core.db.record.OIdentifiable;
 import com.orientechnologies.orient.core.dictionary.ODictionary;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.index.sbtree.local.ONotUniqueSBTreeIndex;
+import com.orientechnologies.orient.core.index.sbtree.local.OUniqueSBTreeIndex;
 import com.orientechnologies.orient.core.metadata.OMetadata;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OType;
@@ -381,11 +383,11 @@ public abstract class OIndexManagerAbstract extends ODocumentWrapperNoClass impl
 
   protected OIndex<?> preProcessBeforeReturn(final OIndexInternal<?> index) {
     getDatabase().registerListener(index);
-    if (index instanceof OIndexMultiValues)
+    if (index instanceof OIndexMultiValues || index instanceof ONotUniqueSBTreeIndex)
       return new OIndexTxAwareMultiValue(getDatabase(), (OIndex<Collection<OIdentifiable>>) getIndexInstance(index));
     else if (index instanceof OIndexDictionary)
       return new OIndexTxAwareDictionary(getDatabase(), (OIndex<OIdentifiable>) getIndexInstance(index));
-    else if (index instanceof OIndexOneValue)
+    else if (index instanceof OIndexOneValue || index instanceof OUniqueSBTreeIndex)
       return new OIndexTxAwareOneValue(getDatabase(), (OIndex<OIdentifiable>) getIndexInstance(index));
     return index;
   }
@@ -25,6 +25,7 @@ import java.util.Set;
 import com.orientechnologies.common.listener.OProgressListener;
 import com.orientechnologies.common.log.OLogManager;
 import com.orientechnologies.common.util.OMultiKey;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.db.ODatabase;
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
@@ -83,9 +84,10 @@ public class OIndexManagerShared extends OIndexManagerAbstract implements OIndex
     if (c != null)
       throw new IllegalArgumentException("Invalid index name '" + iName + "'. Character '" + c + "' is invalid");
 
+    final OIndexInternal<?> index;
     acquireExclusiveLock();
     try {
-      final OIndexInternal<?> index = OIndexes.createIndex(getDatabase(), iType);
+      index = OIndexes.createIndex(getDatabase(), iType);
 
       // decide which cluster to use ("index" - for automatic and "manindex" for manual)
       final String clusterName = indexDefinition != null && indexDefinition.getClassName() != null ? defaultClusterName
@@ -95,9 +97,34 @@ public class OIndexManagerShared extends OIndexManagerAbstract implements OIndex
         // ASSIGN DEFAULT PROGRESS LISTENER
         iProgressListener = new OIndexRebuildOutputListener(index);
 
+      final boolean buildOnline = OGlobalConfiguration.INDEX_CREATE_ONLINE.getValueAsBoolean()
+          && index instanceof OIndexMVRBTreeAbstract && clusterName.equals(defaultClusterName);
+      if (buildOnline)
+        ((OIndexMVRBTreeAbstract<?>) index).startOnlineBuild();
+
       index.create(iName, indexDefinition, getDatabase(), clusterName, iClusterIdsToIndex, iProgressListener);
       addIndexInternal(index);
 
+      if (!buildOnline) {
+        setDirty();
+        save();
+
+        return getIndexInstance(index);
+      }
+    } finally {
+      releaseExclusiveLock();
+    }
+
+    // CONTENT OF INDEX IS BUILT WITHOUT LOCK OF INDEX MANAGER, SO RECORDS OF INDEXED CLASS CAN BE CHANGED MEANWHILE
+    try {
+      ((OIndexMVRBTreeAbstract<?>) index).buildOnline(iProgressListener);
+    } catch (RuntimeException e) {
+      dropIndex(iName);
+      throw e;
+    }
+
+    acquireExclusiveLock();
+    try {
       setDirty();
       save();
 
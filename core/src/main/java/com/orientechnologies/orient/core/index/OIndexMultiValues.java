@@ -31,10 +31,12 @@ import com.orientechnologies.common.comparator.ODefaultComparator;
 import com.orientechnologies.common.listener.OProgressListener;
 import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.metadata.schema.OType;
 import com.orientechnologies.orient.core.record.ORecord;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializerListRID;
+import com.orientechnologies.orient.core.type.tree.OMVRBTreeDatabaseLazySave;
 import com.orientechnologies.orient.core.type.tree.OMVRBTreeRIDSet;
 
 /**
@@ -48,12 +50,22 @@ public abstract class OIndexMultiValues extends OIndexMVRBTreeAbstract<Set<OIden
     super(iType);
   }
 
+  @Override
+  protected void putSortedValues(final OMVRBTreeDatabaseLazySave<Object, Set<OIdentifiable>> iTree, final Object iKey,
+      final List<ORID> iValues) {
+    final OMVRBTreeRIDSet values = new OMVRBTreeRIDSet();
+    values.setAutoConvertToRecord(false);
+    values.addAll(iValues);
+
+    iTree.put(iKey, values);
+  }
+
   public Set<OIdentifiable> get(final Object iKey) {
 
     acquireExclusiveLock();
     try {
 
-      final OMVRBTreeRIDSet values = (OMVRBTreeRIDSet) map.get(iKey);
+      final Set<OIdentifiable> values = map.get(iKey);
 
       if (values == null)
         return Collections.emptySet();
@@ -69,7 +81,7 @@ public abstract class OIndexMultiValues extends OIndexMVRBTreeAbstract<Set<OIden
     acquireExclusiveLock();
     try {
 
-      final OMVRBTreeRIDSet values = (OMVRBTreeRIDSet) map.get(iKey);
+      final Set<OIdentifiable> values = map.get(iKey);
 
       if (values == null)
         return 0;
@@ -209,7 +221,7 @@ public abstract class OIndexMultiValues extends OIndexMVRBTreeAbstract<Set<OIden
       final Set<OIdentifiable> result = new HashSet<OIdentifiable>();
 
       while (entry != null && !(entry == lastEntry && map.getPageIndex() == lastEntryIndex)) {
-        final OMVRBTreeRIDSet values = (OMVRBTreeRIDSet) entry.getValue();
+        final Set<OIdentifiable> values = entry.getValue();
         if (values.isEmpty())
           continue;
 
@@ -247,7 +259,7 @@ public abstract class OIndexMultiValues extends OIndexMVRBTreeAbstract<Set<OIden
       final Set<OIdentifiable> result = new HashSet<OIdentifiable>();
 
       while (entry != null) {
-        final OMVRBTreeRIDSet values = (OMVRBTreeRIDSet) entry.getValue();
+        final Set<OIdentifiable> values = entry.getValue();
 
         if (values.isEmpty())
           continue;
@@ -287,7 +299,7 @@ public abstract class OIndexMultiValues extends OIndexMVRBTreeAbstract<Set<OIden
       final Set<OIdentifiable> result = new HashSet<OIdentifiable>();
 
       while (entry != null) {
-        final OMVRBTreeRIDSet values = (OMVRBTreeRIDSet) entry.getValue();
+        final Set<OIdentifiable> values = entry.getValue();
         if (values.isEmpty())
           continue;
 
@@ -316,7 +328,7 @@ public abstract class OIndexMultiValues extends OIndexMVRBTreeAbstract<Set<OIden
       final Set<OIdentifiable> result = new HashSet<OIdentifiable>();
 
       for (final Object key : sortedKeys) {
-        final OMVRBTreeRIDSet values = (OMVRBTreeRIDSet) map.get(key);
+        final Set<OIdentifiable> values = map.get(key);
 
         if (values == null)
           continue;
@@ -356,7 +368,7 @@ public abstract class OIndexMultiValues extends OIndexMVRBTreeAbstract<Set<OIden
 
       while (entry != null) {
         final Object key = entry.getKey();
-        final OMVRBTreeRIDSet values = (OMVRBTreeRIDSet) entry.getValue();
+        final Set<OIdentifiable> values = entry.getValue();
 
         if (values.isEmpty())
           continue;
@@ -402,7 +414,7 @@ public abstract class OIndexMultiValues extends OIndexMVRBTreeAbstract<Set<OIden
 
       while (entry != null) {
         final Object key = entry.getKey();
-        final OMVRBTreeRIDSet values = (OMVRBTreeRIDSet) entry.getValue();
+        final Set<OIdentifiable> values = entry.getValue();
 
         if (values.isEmpty())
           continue;
@@ -472,7 +484,7 @@ public abstract class OIndexMultiValues extends OIndexMVRBTreeAbstract<Set<OIden
 
       while (entry != null && !(entry == lastEntry && map.getPageIndex() == lastEntryIndex)) {
         final Object key = entry.getKey();
-        final OMVRBTreeRIDSet values = (OMVRBTreeRIDSet) entry.getValue();
+        final Set<OIdentifiable> values = entry.getValue();
 
         if (values.isEmpty())
           continue;
@@ -508,7 +520,7 @@ public abstract class OIndexMultiValues extends OIndexMVRBTreeAbstract<Set<OIden
       final Set<ODocument> result = new ODocumentFieldsHashSet();
 
       for (final Object key : sortedKeys) {
-        final OMVRBTreeRIDSet values = (OMVRBTreeRIDSet) map.get(key);
+        final Set<OIdentifiable> values = map.get(key);
 
         if (values == null)
           continue;
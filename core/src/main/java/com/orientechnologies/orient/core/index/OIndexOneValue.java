@@ -32,12 +32,14 @@ import com.orientechnologies.common.log.OLogManager;
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
 import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.record.impl.ODocument;
 import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializerRID;
 import com.orientechnologies.orient.core.tx.OTransactionIndexChanges;
 import com.orientechnologies.orient.core.tx.OTransactionIndexChanges.OPERATION;
 import com.orientechnologies.orient.core.tx.OTransactionIndexChangesPerKey;
 import com.orientechnologies.orient.core.tx.OTransactionIndexChangesPerKey.OTransactionIndexEntry;
+import com.orientechnologies.orient.core.type.tree.OMVRBTreeDatabaseLazySave;
 
 /**
  * Abstract Index implementation that allows only one value for a key.
@@ -50,6 +52,15 @@ public abstract class OIndexOneValue extends OIndexMVRBTreeAbstract<OIdentifiabl
     super(iType);
   }
 
+  /**
+   * Keeps the last record, as {@link #put(Object, OIdentifiable)} of dictionary does.
+   */
+  @Override
+  protected void putSortedValues(final OMVRBTreeDatabaseLazySave<Object, OIdentifiable> iTree, final Object iKey,
+      final List<ORID> iValues) {
+    iTree.put(iKey, iValues.get(iValues.size() - 1));
+  }
+
   public OIdentifiable get(final Object iKey) {
     acquireExclusiveLock();
     try {
@@ -72,6 +83,13 @@ public abstract class OIndexOneValue extends OIndexMVRBTreeAbstract<OIdentifiabl
     }
   }
 
+  @Override
+  protected void removeCapturedValue(final Object iKey, final OIdentifiable iValue) {
+    final OIdentifiable value = get(iKey);
+    if (value != null && value.getIdentity().equals(iValue.getIdentity()))
+      remove(iKey);
+  }
+
   public int remove(final OIdentifiable iRecord) {
     modificationLock.requestModificationLock();
 
@@ -98,6 +116,10 @@ public abstract class OIndexOneValue extends OIndexMVRBTreeAbstract<OIdentifiabl
 
   @Override
   public void checkEntry(final OIdentifiable iRecord, final Object iKey) {
+    if (isBuildingOnline())
+      // CONTENT OF INDEX IS NOT COMPLETE, DUPLICATES ARE CHECKED WHEN CAPTURED CHANGES ARE APPLIED
+      return;
+
     // CHECK IF ALREADY EXIST
     final OIdentifiable indexedRID = get(iKey);
     if (indexedRID != null && !indexedRID.getIdentity().equals(iRecord.getIdentity())) {
@@ -15,10 +15,14 @@
  */
 package com.orientechnologies.orient.core.index;
 
+import java.util.List;
+
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.record.ORecord;
 import com.orientechnologies.orient.core.storage.ORecordDuplicatedException;
+import com.orientechnologies.orient.core.type.tree.OMVRBTreeDatabaseLazySave;
 
 /**
  * Index implementation that allows only one value for a key.
@@ -68,6 +72,16 @@ public class OIndexUnique extends OIndexOneValue {
     }
   }
 
+  @Override
+  protected void putSortedValues(final OMVRBTreeDatabaseLazySave<Object, OIdentifiable> iTree, final Object iKey,
+      final List<ORID> iValues) {
+    if (iValues.size() > 1)
+      throw new ORecordDuplicatedException("Found duplicated key '" + iKey + "' on unique index '" + name + "' for record "
+          + iValues.get(1) + ". The record already present in the index is " + iValues.get(0), iValues.get(0));
+
+    iTree.put(iKey, iValues.get(0));
+  }
+
   public boolean canBeUsedInEqualityOperators() {
     return true;
   }
@@ -18,12 +18,15 @@ package com.orientechnologies.orient.core.index.hashindex.local;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
 
+import com.orientechnologies.common.concur.lock.OModificationLock;
 import com.orientechnologies.common.concur.resource.OCloseable;
 import com.orientechnologies.common.concur.resource.OSharedResourceAdaptive;
 import com.orientechnologies.common.listener.OProgressListener;
@@ -37,6 +40,7 @@ import com.orientechnologies.orient.core.db.record.ORecordElement;
 import com.orientechnologies.orient.core.exception.OConfigurationException;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.index.ODocumentFieldsHashSet;
 import com.orientechnologies.orient.core.index.OIndexDefinition;
 import com.orientechnologies.orient.core.index.OIndexException;
 import com.orientechnologies.orient.core.index.OIndexInternal;
@@ -65,6 +69,7 @@ public abstract class OAbstractLocalHashIndex<T> extends OSharedResourceAdaptive
   public static final String               TREE_STATE_FILE_EXTENSION             = ".tsc";
 
   private final OLocalHashTable<Object, T> localHashTable;
+  private final OModificationLock          modificationLock                      = new OModificationLock();
   private OStorageLocalAbstract            storage;
 
   private String                           name;
@@ -76,7 +81,12 @@ public abstract class OAbstractLocalHashIndex<T> extends OSharedResourceAdaptive
   private ODocument                        configuration;
   private ORID                             identity;
   private OMurmurHash3HashFunction<Object> keyHashFunction;
-  private boolean                          rebuiding                             = false;
+
+  /**
+   * Incremented when rebuild starts and when it ends, so odd value means that index is rebuilt. Lookups which are made without
+   * index lock are accepted only if the version is even and is not changed during the lookup.
+   */
+  private volatile long                    rebuildVersion                        = 0;
 
   public OAbstractLocalHashIndex(String type) {
     super(OGlobalConfiguration.ENVIRONMENT_CONCURRENT.getValueAsBoolean());
@@ -170,6 +180,14 @@ public abstract class OAbstractLocalHashIndex<T> extends OSharedResourceAdaptive
 
   @Override
   public T get(Object key) {
+    final long version = rebuildVersion;
+    if ((version & 1) == 0) {
+      // HASH TABLE SUPPORTS CONCURRENT READS ITSELF, LOCK IS NEEDED ONLY TO WAIT FOR THE END OF REBUILD
+      final T value = localHashTable.get(key);
+      if (rebuildVersion == version)
+        return value;
+    }
+
     acquireSharedLock();
     try {
       return localHashTable.get(key);
@@ -180,22 +198,32 @@ public abstract class OAbstractLocalHashIndex<T> extends OSharedResourceAdaptive
 
   @Override
   public OIndex<T> put(Object key, OIdentifiable value) {
-    acquireExclusiveLock();
+    modificationLock.requestModificationLock();
     try {
-      localHashTable.put(key, (T) value);
-      return this;
+      acquireExclusiveLock();
+      try {
+        localHashTable.put(key, (T) value);
+        return this;
+      } finally {
+        releaseExclusiveLock();
+      }
     } finally {
-      releaseExclusiveLock();
+      modificationLock.releaseModificationLock();
     }
   }
 
   @Override
   public boolean remove(Object key) {
-    acquireExclusiveLock();
+    modificationLock.requestModificationLock();
     try {
-      return localHashTable.remove(key) != null;
+      acquireExclusiveLock();
+      try {
+        return localHashTable.remove(key) != null;
+      } finally {
+        releaseExclusiveLock();
+      }
     } finally {
-      releaseExclusiveLock();
+      modificationLock.releaseModificationLock();
     }
   }
 
@@ -211,13 +239,18 @@ public abstract class OAbstractLocalHashIndex<T> extends OSharedResourceAdaptive
 
   @Override
   public OIndex<T> clear() {
-    acquireExclusiveLock();
+    modificationLock.requestModificationLock();
     try {
-      localHashTable.clear();
+      acquireExclusiveLock();
+      try {
+        localHashTable.clear();
 
-      return this;
+        return this;
+      } finally {
+        releaseExclusiveLock();
+      }
     } finally {
-      releaseExclusiveLock();
+      modificationLock.releaseModificationLock();
     }
   }
 
@@ -352,7 +385,7 @@ public abstract class OAbstractLocalHashIndex<T> extends OSharedResourceAdaptive
 
     acquireExclusiveLock();
     try {
-      rebuiding = true;
+      rebuildVersion++;
 
       try {
         clear();
@@ -418,7 +451,7 @@ public abstract class OAbstractLocalHashIndex<T> extends OSharedResourceAdaptive
       throw new OIndexException("Error on rebuilding the index for clusters: " + clustersToIndex, e);
 
     } finally {
-      rebuiding = false;
+      rebuildVersion++;
 
       if (intentInstalled)
         getDatabase().declareIntent(null);
@@ -473,22 +506,52 @@ public abstract class OAbstractLocalHashIndex<T> extends OSharedResourceAdaptive
 
   @Override
   public Collection<OIdentifiable> getValues(Collection<?> iKeys) {
-    throw new UnsupportedOperationException("getValues()");
+    return getValues(iKeys, -1);
   }
 
   @Override
   public Collection<OIdentifiable> getValues(Collection<?> iKeys, int maxValuesToFetch) {
-    throw new UnsupportedOperationException("getValues()");
+    final Set<OIdentifiable> result = new HashSet<OIdentifiable>();
+    for (OHashIndexBucket.Entry<Object, T> entry : getHashTableEntries(iKeys, maxValuesToFetch))
+      result.add((OIdentifiable) entry.value);
+
+    return result;
   }
 
   @Override
   public Collection<ODocument> getEntries(Collection<?> iKeys) {
-    throw new UnsupportedOperationException("getEntries()");
+    return getEntries(iKeys, -1);
   }
 
   @Override
   public Collection<ODocument> getEntries(Collection<?> iKeys, int maxEntriesToFetch) {
-    throw new UnsupportedOperationException("getEntries()");
+    final Set<ODocument> result = new ODocumentFieldsHashSet();
+    for (OHashIndexBucket.Entry<Object, T> entry : getHashTableEntries(iKeys, maxEntriesToFetch)) {
+      final ODocument document = new ODocument();
+      document.field("key", entry.key);
+      document.field("rid", ((OIdentifiable) entry.value).getIdentity());
+      document.unsetDirty();
+
+      result.add(document);
+    }
+
+    return result;
+  }
+
+  private List<OHashIndexBucket.Entry<Object, T>> getHashTableEntries(Collection<?> keys, int maxEntriesToFetch) {
+    final long version = rebuildVersion;
+    if ((version & 1) == 0) {
+      final List<OHashIndexBucket.Entry<Object, T>> entries = localHashTable.getEntries(keys, maxEntriesToFetch);
+      if (rebuildVersion == version)
+        return entries;
+    }
+
+    acquireSharedLock();
+    try {
+      return localHashTable.getEntries(keys, maxEntriesToFetch);
+    } finally {
+      releaseSharedLock();
+    }
   }
 
   @Override
@@ -651,22 +714,22 @@ public abstract class OAbstractLocalHashIndex<T> extends OSharedResourceAdaptive
 
   @Override
   public void freeze(boolean throwException) {
-    throw new UnsupportedOperationException("freeze");
+    modificationLock.prohibitModifications(throwException);
   }
 
   @Override
   public void release() {
-    throw new UnsupportedOperationException("release");
+    modificationLock.allowModifications();
   }
 
   @Override
   public void acquireModificationLock() {
-    throw new UnsupportedOperationException("acquireModificationLock");
+    modificationLock.requestModificationLock();
   }
 
   @Override
   public void releaseModificationLock() {
-    throw new UnsupportedOperationException("releaseModificationLock");
+    modificationLock.releaseModificationLock();
   }
 
   @Override
@@ -726,6 +789,6 @@ public abstract class OAbstractLocalHashIndex<T> extends OSharedResourceAdaptive
   }
 
   public boolean isRebuiding() {
-    return rebuiding;
+    return (rebuildVersion & 1) != 0;
   }
 }
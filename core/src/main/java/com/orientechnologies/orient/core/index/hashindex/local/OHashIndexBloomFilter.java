@@ -0,0 +1,98 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.index.hashindex.local;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bloom filter over hash codes of keys of {@link OLocalHashTable}. Positions of bits are calculated from two halves of 64 bit
+ * hash code of key, so key is not hashed again.
+ *
+ * Keys can not be removed from filter, so removed keys are reported as possibly present until filter is rebuilt. Filter is
+ * populated by single thread which holds exclusive lock of hash table, but may be read concurrently without lock.
+ */
+public class OHashIndexBloomFilter {
+  private final AtomicLongArray bits;
+  private final long            bitsCount;
+  private final int             hashFunctionsCount;
+  private final long            capacity;
+
+  private long                  keysCount;
+
+  /**
+   * @param capacity
+   *          Amount of keys which filter is calculated for, false positive rate grows when more keys are added.
+   * @param bitsPerKey
+   *          Amount of bits which are allocated for each key, 10 bits give about 1% of false positives.
+   */
+  public OHashIndexBloomFilter(long capacity, int bitsPerKey) {
+    final long words = Math.max((capacity * bitsPerKey + 63) / 64, 1);
+    if (words > Integer.MAX_VALUE)
+      throw new IllegalArgumentException("Bloom filter for " + capacity + " keys is too large.");
+
+    this.bits = new AtomicLongArray((int) words);
+    this.bitsCount = words * 64;
+    this.hashFunctionsCount = Math.max((int) Math.round(bitsPerKey * Math.log(2)), 1);
+    this.capacity = capacity;
+  }
+
+  public void add(long hashCode) {
+    final int hashOne = (int) hashCode;
+    final int hashTwo = (int) (hashCode >>> 32);
+
+    for (int i = 0; i < hashFunctionsCount; i++) {
+      final long bitIndex = bitIndex(hashOne, hashTwo, i);
+      final int wordIndex = (int) (bitIndex >>> 6);
+
+      bits.set(wordIndex, bits.get(wordIndex) | (1L << bitIndex));
+    }
+
+    keysCount++;
+  }
+
+  /**
+   * @return <code>false</code> if key with given hash code definitely was not added to the filter.
+   */
+  public boolean mightContain(long hashCode) {
+    final int hashOne = (int) hashCode;
+    final int hashTwo = (int) (hashCode >>> 32);
+
+    for (int i = 0; i < hashFunctionsCount; i++) {
+      final long bitIndex = bitIndex(hashOne, hashTwo, i);
+      if ((bits.get((int) (bitIndex >>> 6)) & (1L << bitIndex)) == 0)
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * @return <code>true</code> if amount of added keys exceeds capacity of filter, so filter should be rebuilt with bigger
+   *         capacity.
+   */
+  public boolean isFull() {
+    return keysCount > capacity;
+  }
+
+  public long getCapacity() {
+    return capacity;
+  }
+
+  private long bitIndex(int hashOne, int hashTwo, int functionIndex) {
+    final long combinedHash = hashOne + (long) functionIndex * hashTwo;
+    return (combinedHash & Long.MAX_VALUE) % bitsCount;
+  }
+}
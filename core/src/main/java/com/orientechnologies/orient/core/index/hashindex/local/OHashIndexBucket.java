@@ -26,6 +26,7 @@ import com.orientechnologies.common.serialization.types.OByteSerializer;
 import com.orientechnologies.common.serialization.types.OIntegerSerializer;
 import com.orientechnologies.common.serialization.types.OLongSerializer;
 import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OLogSequenceNumber;
 
 /**
  * @author Andrey Lomakin
@@ -82,6 +83,68 @@ public class OHashIndexBucket<K, V> implements Iterable<OHashIndexBucket.Entry<K
     return getEntry(index);
   }
 
+  /**
+   * Version of {@link #find(Object)} which can be called while bucket is changed by other thread. Positions and sizes of entries
+   * are checked against bucket bounds before content of entry is copied, and copy is deserialized only if passed in validator
+   * confirms that bucket was not changed during the copy, so inconsistent state of bucket never causes reads outside of bucket
+   * page. Result may be calculated from inconsistent state, so caller has to validate it too.
+   *
+   * @throws IllegalStateException
+   *           if inconsistent state of bucket was detected.
+   */
+  public Entry<K, V> findConcurrently(final K key, final ReadValidator validator) {
+    final int size = size();
+    if (size < 0 || size > (MAX_BUCKET_SIZE_BYTES - POSITIONS_ARRAY_OFFSET) / OIntegerSerializer.INT_SIZE)
+      throw new IllegalStateException("Bucket is modified concurrently.");
+
+    int low = 0;
+    int high = size - 1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+
+      final int entryPosition = OIntegerSerializer.INSTANCE.deserializeFromDirectMemory(directMemory, bufferPointer
+          + POSITIONS_ARRAY_OFFSET + mid * OIntegerSerializer.INT_SIZE);
+      final int keySize = checkedObjectSize(keySerializer, entryPosition);
+
+      final K midVal = keySerializer.deserializeNative(validatedCopy(entryPosition, keySize, validator), 0);
+      int cmp = comparator.compare(midVal, key);
+
+      if (cmp < 0)
+        low = mid + 1;
+      else if (cmp > 0)
+        high = mid - 1;
+      else {
+        final int valuePosition = entryPosition + keySize;
+        final int valueSize = checkedObjectSize(valueSerializer, valuePosition);
+
+        final V value = valueSerializer.deserializeNative(validatedCopy(valuePosition, valueSize, validator), 0);
+        return new Entry<K, V>(midVal, value);
+      }
+    }
+
+    return null;
+  }
+
+  private int checkedObjectSize(OBinarySerializer<?> serializer, int position) {
+    if (position < POSITIONS_ARRAY_OFFSET || position > MAX_BUCKET_SIZE_BYTES - OLongSerializer.LONG_SIZE)
+      throw new IllegalStateException("Bucket is modified concurrently.");
+
+    final int objectSize = serializer.getObjectSizeInDirectMemory(directMemory, bufferPointer + position);
+    if (objectSize <= 0 || objectSize > MAX_BUCKET_SIZE_BYTES - position)
+      throw new IllegalStateException("Bucket is modified concurrently.");
+
+    return objectSize;
+  }
+
+  private byte[] validatedCopy(int position, int size, ReadValidator validator) {
+    final byte[] content = directMemory.get(bufferPointer + position, size);
+    if (!validator.isValid())
+      throw new IllegalStateException("Bucket is modified concurrently.");
+
+    return content;
+  }
+
   private int binarySearch(K key) {
     int low = 0;
     int high = size() - 1;
@@ -295,6 +358,22 @@ public class OHashIndexBucket<K, V> implements Iterable<OHashIndexBucket.Entry<K
         + OLongSerializer.LONG_SIZE * level);
   }
 
+  /**
+   * Buckets are not logged to the WAL, LSN of page is used only by incremental backup to find pages which were changed after
+   * previous backup.
+   */
+  public void setLsn(OLogSequenceNumber lsn) {
+    OIntegerSerializer.INSTANCE.serializeInDirectMemory(lsn.getSegment(), directMemory, bufferPointer + WAL_SEGMENT_OFFSET);
+    OLongSerializer.INSTANCE.serializeInDirectMemory(lsn.getPosition(), directMemory, bufferPointer + WAL_POSITION_OFFSET);
+  }
+
+  /**
+   * Checks that bucket was not changed since read without lock was started.
+   */
+  public interface ReadValidator {
+    boolean isValid();
+  }
+
   public static class Entry<K, V> {
     public final K key;
     public final V value;
@@ -16,15 +16,24 @@
 package com.orientechnologies.orient.core.index.hashindex.local;
 
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
 
 import com.orientechnologies.common.comparator.ODefaultComparator;
 import com.orientechnologies.common.concur.resource.OSharedResourceAdaptive;
 import com.orientechnologies.common.directmemory.ODirectMemory;
 import com.orientechnologies.common.directmemory.ODirectMemoryFactory;
 import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.common.profiler.OProfiler.METRIC_TYPE;
+import com.orientechnologies.common.profiler.OProfiler.OProfilerHookValue;
 import com.orientechnologies.common.serialization.types.OBinarySerializer;
+import com.orientechnologies.orient.core.Orient;
 import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.config.OStorageFileConfiguration;
 import com.orientechnologies.orient.core.config.OStorageSegmentConfiguration;
@@ -34,6 +43,9 @@ import com.orientechnologies.orient.core.serialization.serializer.binary.OBinary
 import com.orientechnologies.orient.core.storage.fs.OFileFactory;
 import com.orientechnologies.orient.core.storage.impl.local.OStorageLocalAbstract;
 import com.orientechnologies.orient.core.storage.impl.local.OStorageVariableParser;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.OLocalPaginatedStorage;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OLogSequenceNumber;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OWriteAheadLog;
 
 /**
  * @author Andrey Lomakin
@@ -42,6 +54,19 @@ import com.orientechnologies.orient.core.storage.impl.local.OStorageVariablePars
 public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
   private static final double           MERGE_THRESHOLD        = 0.2;
 
+  /**
+   * Amount of attempts to read value without lock before shared lock is acquired.
+   */
+  private static final int              OPTIMISTIC_READ_TRIES  = 3;
+
+  /**
+   * Amount of versions of buckets, buckets share version if their pointers have the same remainder.
+   */
+  private static final int              BUCKET_VERSIONS        = 1024;
+  private static final int              READER_COUNTERS        = 64;
+
+  private static final long             MIN_BLOOM_FILTER_SIZE  = 1024;
+
   private static final long             HASH_CODE_MIN_VALUE    = 0;
   private static final long             HASH_CODE_MAX_VALUE    = 0xFFFFFFFFFFFFFFFFL;
 
@@ -75,6 +100,7 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
   private final ODirectMemory           directMemory           = ODirectMemoryFactory.INSTANCE.directMemory();
 
   private ODiskCache                    buffer;
+  private OWriteAheadLog                writeAheadLog;
   private final OHashFunction<K>        keyHashFunction;
 
   private OBinarySerializer<K>          keySerializer;
@@ -85,6 +111,30 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
 
   private final Comparator<? super K>   comparator             = ODefaultComparator.INSTANCE;
 
+  /**
+   * Incremented when modification of the directory or of the files starts and when it ends, so odd value means that buckets can be
+   * moved at the moment. Readers use it together with {@link #bucketVersions} to validate results which were fetched without lock.
+   */
+  private volatile long                 structureVersion       = 0;
+  private boolean                       structureModified      = false;
+  private int                           exclusiveLockHolds     = 0;
+
+  /**
+   * Versions of buckets which are incremented before and after content of the bucket is changed by put or remove.
+   */
+  private final AtomicLongArray         bucketVersions         = new AtomicLongArray(BUCKET_VERSIONS);
+
+  /**
+   * Counters of readers which load page without lock, modification of the structure waits till they release pages.
+   */
+  private final AtomicIntegerArray      optimisticReaders      = new AtomicIntegerArray(READER_COUNTERS);
+
+  private final OHashIndexBucket.Entry<K, V> optimisticReadFailed = new OHashIndexBucket.Entry<K, V>(null, null);
+
+  private final int                     bloomFilterBitsPerKey;
+  private volatile OHashIndexBloomFilter bloomFilter;
+  private String                        profilerPrefix;
+
   public OLocalHashTable(String metadataConfigurationFileExtension, String treeStateFileExtension, String bucketFileExtension,
       OHashFunction<K> keyHashFunction) {
     super(OGlobalConfiguration.ENVIRONMENT_CONCURRENT.getValueAsBoolean());
@@ -92,6 +142,7 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
     this.treeStateFileExtension = treeStateFileExtension;
     this.bucketFileExtension = bucketFileExtension;
     this.keyHashFunction = keyHashFunction;
+    this.bloomFilterBitsPerKey = OGlobalConfiguration.HASH_TABLE_BLOOM_FILTER_BITS_PER_KEY.getValueAsInteger();
   }
 
   private void initStores(String metadataConfigurationFileExtension, String treeStateFileExtension) throws IOException {
@@ -115,6 +166,8 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
       if (this.buffer == null)
         throw new IllegalStateException("Disk cache was not initialized on storage level");
 
+      this.writeAheadLog = getWriteAheadLog(storage);
+
       this.name = name;
       this.keySerializer = keySerializer;
       this.valueSerializer = valueSerializer;
@@ -133,6 +186,7 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
       filesMetadata[0] = createFileMetadata(0);
 
       initHashTreeState();
+      initBloomFilter();
     } catch (IOException e) {
       throw new OIndexException("Error during local hash table creation.", e);
     } finally {
@@ -157,6 +211,13 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
     this.valueSerializer = valueSerializer;
   }
 
+  private static OWriteAheadLog getWriteAheadLog(OStorageLocalAbstract storage) {
+    if (storage instanceof OLocalPaginatedStorage)
+      return ((OLocalPaginatedStorage) storage).getWALInstance();
+
+    return null;
+  }
+
   private OHashIndexFileLevelMetadata createFileMetadata(int i) throws IOException {
     final OStorageSegmentConfiguration fileConfiguration = new OStorageSegmentConfiguration(storage.getConfiguration(), name + i, i);
     fileConfiguration.fileType = OFileFactory.CLASSIC;
@@ -168,10 +229,128 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
   }
 
   public V get(K key) {
+    final long hashCode = keyHashFunction.hashCode(key);
+
+    final OHashIndexBloomFilter filter = bloomFilter;
+    if (filter == null)
+      return doGet(key, hashCode);
+
+    if (!filter.mightContain(hashCode)) {
+      Orient.instance().getProfiler()
+          .updateCounter(profilerPrefix + "filtered", "Lookups of absent keys answered by bloom filter", 1,
+              "db.*.hashTable.*.bloomFilter.filtered");
+      return null;
+    }
+
+    final V value = doGet(key, hashCode);
+    if (value == null)
+      Orient.instance().getProfiler()
+          .updateCounter(profilerPrefix + "falsePositives", "Lookups of absent keys not filtered by bloom filter", 1,
+              "db.*.hashTable.*.bloomFilter.falsePositives");
+
+    return value;
+  }
+
+  /**
+   * Fetches entries of several keys at once. Keys are sorted by hash code, so keys which are stored in the same bucket are
+   * looked up during single load of bucket page, and the whole batch is read under single lock instead of a lock per key.
+   *
+   * @param maxEntriesToFetch
+   *          Maximum amount of entries to return, <code>-1</code> means no limit.
+   * @return Entries of keys which are present in hash table, in order of hash codes of keys.
+   */
+  public List<OHashIndexBucket.Entry<K, V>> getEntries(Collection<? extends K> keys, int maxEntriesToFetch) {
+    final OHashIndexBloomFilter filter = bloomFilter;
+
+    final List<HashedKey<K>> hashedKeys = new ArrayList<HashedKey<K>>(keys.size());
+    int filtered = 0;
+    for (K key : keys) {
+      final long hashCode = keyHashFunction.hashCode(key);
+      if (filter != null && !filter.mightContain(hashCode))
+        filtered++;
+      else
+        hashedKeys.add(new HashedKey<K>(key, hashCode));
+    }
+
+    Collections.sort(hashedKeys);
+
+    final List<OHashIndexBucket.Entry<K, V>> result = new ArrayList<OHashIndexBucket.Entry<K, V>>();
+
     acquireSharedLock();
     try {
-      final long hashCode = keyHashFunction.hashCode(key);
+      long loadedBucketPointer = 0;
+      long pageIndex = -1;
+      int fileLevel = -1;
+      OHashIndexBucket<K, V> bucket = null;
+
+      try {
+        for (HashedKey<K> hashedKey : hashedKeys) {
+          if (maxEntriesToFetch > -1 && result.size() == maxEntriesToFetch)
+            break;
+
+          final BucketPath bucketPath = getBucket(hashedKey.hashCode);
+          final long bucketPointer = hashTree[bucketPath.nodeIndex][bucketPath.itemIndex + bucketPath.hashMapOffset];
+          if (bucketPointer == 0)
+            continue;
+
+          if (bucketPointer != loadedBucketPointer) {
+            if (bucket != null) {
+              releasePage(pageIndex, fileLevel);
+              bucket = null;
+            }
+
+            pageIndex = getPageIndex(bucketPointer);
+            fileLevel = getFileLevel(bucketPointer);
+
+            final long dataPointer = loadPage(pageIndex, fileLevel);
+            bucket = new OHashIndexBucket<K, V>(dataPointer, directMemory, keySerializer, valueSerializer);
+            loadedBucketPointer = bucketPointer;
+          }
+
+          final OHashIndexBucket.Entry<K, V> entry = bucket.find(hashedKey.key);
+          if (entry != null)
+            result.add(entry);
+        }
+      } finally {
+        if (bucket != null)
+          releasePage(pageIndex, fileLevel);
+      }
+    } catch (IOException e) {
+      throw new OIndexException("Exception during retrieval of index values", e);
+    } finally {
+      releaseSharedLock();
+    }
+
+    if (filter != null) {
+      if (filtered > 0)
+        Orient.instance().getProfiler()
+            .updateCounter(profilerPrefix + "filtered", "Lookups of absent keys answered by bloom filter", filtered,
+                "db.*.hashTable.*.bloomFilter.filtered");
+
+      if (maxEntriesToFetch == -1 && hashedKeys.size() > result.size())
+        Orient.instance().getProfiler()
+            .updateCounter(profilerPrefix + "falsePositives", "Lookups of absent keys not filtered by bloom filter",
+                hashedKeys.size() - result.size(), "db.*.hashTable.*.bloomFilter.falsePositives");
+    }
 
+    return result;
+  }
+
+  private V doGet(K key, long hashCode) {
+    if (isConcurrent())
+      for (int i = 0; i < OPTIMISTIC_READ_TRIES; i++) {
+        final long version = structureVersion;
+        if ((version & 1) != 0)
+          // BUCKETS ARE MOVED, WAIT FOR THE END OF MODIFICATION ON THE LOCK
+          break;
+
+        final OHashIndexBucket.Entry<K, V> entry = optimisticGet(key, hashCode, version);
+        if (entry != optimisticReadFailed)
+          return entry != null ? entry.value : null;
+      }
+
+    acquireSharedLock();
+    try {
       BucketPath bucketPath = getBucket(hashCode);
       final long bucketPointer = hashTree[bucketPath.nodeIndex][bucketPath.itemIndex + bucketPath.hashMapOffset];
       if (bucketPointer == 0)
@@ -200,12 +379,68 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
     }
   }
 
+  /**
+   * Fetches entry without lock. Directory and bucket are read as is and result is accepted only if buckets were not moved and the
+   * found bucket was not modified during the read, any inconsistency which is caused by concurrent modification is detected by
+   * version check or by exception. Page is loaded only while the reader is registered in {@link #optimisticReaders}, so files are
+   * not truncated or closed under it.
+   *
+   * @return {@link #optimisticReadFailed} if hash table was modified during the read.
+   */
+  private OHashIndexBucket.Entry<K, V> optimisticGet(K key, long hashCode, final long version) {
+    final int readerCounter = (int) (Thread.currentThread().getId() % READER_COUNTERS);
+    optimisticReaders.incrementAndGet(readerCounter);
+    try {
+      final BucketPath bucketPath = getBucket(hashCode);
+      final long bucketPointer = hashTree[bucketPath.nodeIndex][bucketPath.itemIndex + bucketPath.hashMapOffset];
+
+      // PAGE IS LOADED ONLY IF POINTER TO IT IS VALID
+      if (structureVersion != version)
+        return optimisticReadFailed;
+
+      if (bucketPointer == 0)
+        return null;
+
+      final int bucketVersionIndex = getBucketVersionIndex(bucketPointer);
+      final long bucketVersion = bucketVersions.get(bucketVersionIndex);
+      if ((bucketVersion & 1) != 0)
+        return optimisticReadFailed;
+
+      final long pageIndex = getPageIndex(bucketPointer);
+      final int fileLevel = getFileLevel(bucketPointer);
+
+      final OHashIndexBucket.Entry<K, V> entry;
+      final long dataPointer = loadPage(pageIndex, fileLevel);
+      try {
+        final OHashIndexBucket<K, V> bucket = new OHashIndexBucket<K, V>(dataPointer, directMemory, keySerializer, valueSerializer);
+        entry = bucket.findConcurrently(key, new OHashIndexBucket.ReadValidator() {
+          public boolean isValid() {
+            return structureVersion == version && bucketVersions.get(bucketVersionIndex) == bucketVersion;
+          }
+        });
+      } finally {
+        releasePage(pageIndex, fileLevel);
+      }
+
+      if (structureVersion != version || bucketVersions.get(bucketVersionIndex) != bucketVersion)
+        return optimisticReadFailed;
+
+      return entry;
+    } catch (IOException e) {
+      return optimisticReadFailed;
+    } catch (RuntimeException e) {
+      return optimisticReadFailed;
+    } finally {
+      optimisticReaders.decrementAndGet(readerCounter);
+    }
+  }
+
   public void put(K key, V value) {
     doPut(key, value);
   }
 
   public V remove(K key) {
-    acquireExclusiveLock();
+    acquireBucketsLock();
     try {
       final long hashCode = keyHashFunction.hashCode(key);
 
@@ -223,11 +458,16 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
         if (positionIndex < 0)
           return null;
 
-        removed = bucket.deleteEntry(positionIndex).value;
+        startBucketModification(bucketPointer);
+        try {
+          removed = bucket.deleteEntry(positionIndex).value;
+        } finally {
+          endBucketModification(bucketPointer);
+        }
         size--;
 
         if (!mergeBucketsAfterDeletion(nodePath, bucket))
-          markPageAsDirty(pageIndex, fileLevel);
+          markBucketAsDirty(bucket, pageIndex, fileLevel);
 
       } finally {
         releasePage(pageIndex, fileLevel);
@@ -238,8 +478,10 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
 
         final long[] node = hashTree[nodePath.nodeIndex];
         final boolean allMapsContainSameBucket = checkAllMapsContainSameBucket(node, hashMapSize);
-        if (allMapsContainSameBucket)
+        if (allMapsContainSameBucket) {
+          startStructureModification();
           mergeNodeToParent(node, nodePath);
+        }
       }
 
       return removed;
@@ -264,6 +506,9 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
       treeStateStore.truncate();
 
       initHashTreeState();
+
+      if (bloomFilter != null)
+        bloomFilter = new OHashIndexBloomFilter(MIN_BLOOM_FILTER_SIZE, bloomFilterBitsPerKey);
     } catch (IOException e) {
       throw new OIndexException("Error during hash table clear", e);
     } finally {
@@ -348,6 +593,7 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
       this.storage = storageLocal;
 
       buffer = storage.getDiskCache();
+      writeAheadLog = getWriteAheadLog(storage);
 
       this.name = name;
       initStores(metadataConfigurationFileExtension, treeStateFileExtension);
@@ -386,6 +632,8 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
           fileLevelIds[i] = buffer.openFile(fileLevelMetadata.getFileConfiguration(), bucketFileExtension);
 
       }
+
+      initBloomFilter();
     } catch (IOException e) {
       throw new OIndexException("Exception during hash table loading", e);
     } finally {
@@ -858,6 +1106,7 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
         if (filesMetadata[i] != null)
           buffer.closeFile(fileLevelIds[i]);
 
+      releaseBloomFilter();
     } catch (IOException e) {
       throw new OIndexException("Error during hash table close", e);
     } finally {
@@ -875,6 +1124,8 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
 
       metadataStore.delete();
       treeStateStore.delete();
+
+      releaseBloomFilter();
     } catch (IOException e) {
       throw new OIndexException("Exception during index deletion", e);
     } finally {
@@ -982,6 +1233,8 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
       if (bucket.mergedSize(buddyBucket) >= OHashIndexBucket.MAX_BUCKET_SIZE_BYTES)
         return false;
 
+      startStructureModification();
+
       filesMetadata[buddyLevel].setBucketsCount(filesMetadata[buddyLevel].getBucketsCount() - 2);
 
       int newBuddyLevel = buddyLevel - 1;
@@ -990,17 +1243,16 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
       filesMetadata[buddyLevel].setBucketsCount(filesMetadata[buddyLevel].getBucketsCount() + 1);
 
       final long newBuddyPagePointer = loadPage(newBuddyIndex, newBuddyLevel);
+      final OHashIndexBucket<K, V> newBuddyBucket = new OHashIndexBucket<K, V>(bucketDepth - 1, newBuddyPagePointer, directMemory,
+          keySerializer, valueSerializer);
       try {
-        final OHashIndexBucket<K, V> newBuddyBucket = new OHashIndexBucket<K, V>(bucketDepth - 1, newBuddyPagePointer,
-            directMemory, keySerializer, valueSerializer);
-
         for (OHashIndexBucket.Entry<K, V> entry : buddyBucket)
           newBuddyBucket.appendEntry(entry.key, entry.value);
 
         for (OHashIndexBucket.Entry<K, V> entry : bucket)
           newBuddyBucket.addEntry(entry.key, entry.value);
       } finally {
-        buffer.markDirty(fileLevelIds[newBuddyLevel], newBuddyIndex);
+        markBucketAsDirty(newBuddyBucket, newBuddyIndex, newBuddyLevel);
         releasePage(newBuddyIndex, newBuddyLevel);
       }
 
@@ -1018,12 +1270,12 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
         final long newTombstoneIndex;
         if (bucketIndex < buddyIndex) {
           bucket.setNextRemovedBucketPair(oldBuddyFileMetadata.getTombstoneIndex());
-          buffer.markDirty(fileLevelIds[bucketLevel], bucketIndex);
+          markBucketAsDirty(bucket, bucketIndex, bucketLevel);
 
           newTombstoneIndex = bucketIndex;
         } else {
           buddyBucket.setNextRemovedBucketPair(oldBuddyFileMetadata.getTombstoneIndex());
-          buffer.markDirty(fileLevelIds[buddyLevel], buddyIndex);
+          markBucketAsDirty(buddyBucket, buddyIndex, buddyLevel);
 
           newTombstoneIndex = buddyIndex;
         }
@@ -1097,7 +1349,7 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
   }
 
   private void doPut(K key, V value) {
-    acquireExclusiveLock();
+    acquireBucketsLock();
     try {
       final long hashCode = keyHashFunction.hashCode(key);
 
@@ -1115,20 +1367,28 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
 
       try {
         final OHashIndexBucket<K, V> bucket = new OHashIndexBucket<K, V>(pagePointer, directMemory, keySerializer, valueSerializer);
-        final int index = bucket.getIndex(key);
-        if (index > -1) {
-          bucket.updateEntry(index, value);
-          return;
-        }
+        startBucketModification(bucketPointer);
+        try {
+          final int index = bucket.getIndex(key);
+          if (index > -1) {
+            bucket.updateEntry(index, value);
+            markBucketAsDirty(bucket, pageIndex, fileLevel);
+            return;
+          }
 
-        if (bucket.addEntry(key, value)) {
-          assert bucket.getEntry(bucket.getIndex(key)).value.equals(value);
-          markPageAsDirty(pageIndex, fileLevel);
+          if (bucket.addEntry(key, value)) {
+            assert bucket.getEntry(bucket.getIndex(key)).value.equals(value);
+            markBucketAsDirty(bucket, pageIndex, fileLevel);
 
-          size++;
-          return;
+            size++;
+            addToBloomFilter(hashCode);
+            return;
+          }
+        } finally {
+          endBucketModification(bucketPointer);
         }
 
+        startStructureModification();
         final BucketSplitResult splitResult = splitBucket(bucket, fileLevel, pageIndex, pagePointer);
 
         final long updatedBucketPointer = splitResult.updatedBucketPointer;
@@ -1573,14 +1833,13 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
     final long newBucketIndex = updatedBucketIndex + 1;
 
     final long updatedBucketDataPointer = loadPage(updatedBucketIndex, newFileLevel);
+    final OHashIndexBucket<K, V> updatedBucket = new OHashIndexBucket<K, V>(newBucketDepth, updatedBucketDataPointer, directMemory,
+        keySerializer, valueSerializer);
     try {
       final long newBucketDataPointer = loadPage(newBucketIndex, newFileLevel);
+      final OHashIndexBucket<K, V> newBucket = new OHashIndexBucket<K, V>(newBucketDepth, newBucketDataPointer, directMemory,
+          keySerializer, valueSerializer);
       try {
-        final OHashIndexBucket<K, V> updatedBucket = new OHashIndexBucket<K, V>(newBucketDepth, updatedBucketDataPointer,
-            directMemory, keySerializer, valueSerializer);
-        final OHashIndexBucket<K, V> newBucket = new OHashIndexBucket<K, V>(newBucketDepth, newBucketDataPointer, directMemory,
-            keySerializer, valueSerializer);
-
         splitBucketContent(bucket, updatedBucket, newBucket, newBucketDepth);
 
         assert bucket.getDepth() == bucketDepth;
@@ -1600,11 +1859,11 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
 
         return new BucketSplitResult(updatedBucketPointer, newBucketPointer, newBucketDepth);
       } finally {
-        markPageAsDirty(newBucketIndex, newFileLevel);
+        markBucketAsDirty(newBucket, newBucketIndex, newFileLevel);
         releasePage(newBucketIndex, newFileLevel);
       }
     } finally {
-      markPageAsDirty(updatedBucketIndex, newFileLevel);
+      markBucketAsDirty(updatedBucket, updatedBucketIndex, newFileLevel);
       releasePage(updatedBucketIndex, newFileLevel);
     }
   }
@@ -1650,8 +1909,8 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
       try {
         final OHashIndexBucket<K, V> emptyBucket = new OHashIndexBucket<K, V>(MAX_LEVEL_DEPTH, pagePointer, directMemory,
             keySerializer, valueSerializer);
+        markBucketAsDirty(emptyBucket, pageIndex, 0);
       } finally {
-        markPageAsDirty(pageIndex, 0);
         releasePage(pageIndex, 0);
       }
     }
@@ -1672,6 +1931,141 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
     hashTreeSize = 1;
   }
 
+  private void initBloomFilter() {
+    if (bloomFilterBitsPerKey <= 0)
+      return;
+
+    profilerPrefix = "db." + storage.getName() + ".hashTable." + name + ".bloomFilter.";
+    rebuildBloomFilter(Math.max(size * 2, MIN_BLOOM_FILTER_SIZE));
+
+    Orient
+        .instance()
+        .getProfiler()
+        .registerHookValue(profilerPrefix + "falsePositiveRate",
+            "Share of lookups of absent keys which were not filtered by bloom filter of hash index", METRIC_TYPE.STAT,
+            new OProfilerHookValue() {
+              public Object getValue() {
+                final long filtered = Orient.instance().getProfiler().getCounter(profilerPrefix + "filtered");
+                final long falsePositives = Orient.instance().getProfiler().getCounter(profilerPrefix + "falsePositives");
+
+                if (filtered < 0 || falsePositives <= 0)
+                  return 0.0;
+
+                return ((double) falsePositives) / (filtered + falsePositives);
+              }
+            }, "db.*.hashTable.*.bloomFilter.falsePositiveRate");
+  }
+
+  private void releaseBloomFilter() {
+    if (bloomFilter == null)
+      return;
+
+    bloomFilter = null;
+    Orient.instance().getProfiler().unregisterHookValue(profilerPrefix + "falsePositiveRate");
+  }
+
+  private void addToBloomFilter(long hashCode) {
+    final OHashIndexBloomFilter filter = bloomFilter;
+    if (filter == null)
+      return;
+
+    filter.add(hashCode);
+    if (filter.isFull())
+      rebuildBloomFilter(Math.max(size * 2, filter.getCapacity() * 2));
+  }
+
+  /**
+   * Creates new bloom filter from keys which are contained in buckets, so keys which were removed since last rebuild are not
+   * reported as possibly present any more. Buckets are walked in order of hash codes, because keys are not sorted by natural
+   * order if hash function does not preserve it.
+   */
+  private void rebuildBloomFilter(long capacity) {
+    final OHashIndexBloomFilter filter = new OHashIndexBloomFilter(capacity, bloomFilterBitsPerKey);
+
+    try {
+      BucketPath bucketPath = getBucket(HASH_CODE_MIN_VALUE);
+      while (bucketPath != null) {
+        final long bucketPointer = hashTree[bucketPath.nodeIndex][bucketPath.itemIndex + bucketPath.hashMapOffset];
+
+        final int fileLevel = getFileLevel(bucketPointer);
+        final long pageIndex = getPageIndex(bucketPointer);
+
+        final long pagePointer = loadPage(pageIndex, fileLevel);
+        try {
+          final OHashIndexBucket<K, V> bucket = new OHashIndexBucket<K, V>(pagePointer, directMemory, keySerializer,
+              valueSerializer);
+          for (int i = 0; i < bucket.size(); i++)
+            filter.add(keyHashFunction.hashCode(bucket.getKey(i)));
+
+          bucketPath = nextBucketToFind(bucketPath, bucket.getDepth());
+        } finally {
+          releasePage(pageIndex, fileLevel);
+        }
+      }
+    } catch (IOException ioe) {
+      throw new OIndexException("Error during rebuild of bloom filter", ioe);
+    }
+
+    bloomFilter = filter;
+  }
+
+  /**
+   * Acquires exclusive lock for operation which can move buckets or change files, so all optimistic reads started before are
+   * failed.
+   */
+  @Override
+  protected void acquireExclusiveLock() {
+    acquireBucketsLock();
+    startStructureModification();
+  }
+
+  /**
+   * Acquires exclusive lock for put or remove. Optimistic reads are failed only for the changed bucket, unless the operation
+   * splits or merges buckets and calls {@link #startStructureModification()}.
+   */
+  private void acquireBucketsLock() {
+    super.acquireExclusiveLock();
+    exclusiveLockHolds++;
+  }
+
+  @Override
+  protected void releaseExclusiveLock() {
+    if (--exclusiveLockHolds == 0 && structureModified) {
+      structureModified = false;
+      structureVersion++;
+    }
+
+    super.releaseExclusiveLock();
+  }
+
+  /**
+   * Marks structure of hash table as modified till the exclusive lock is released and waits till optimistic readers release pages
+   * they have loaded.
+   */
+  private void startStructureModification() {
+    if (structureModified)
+      return;
+
+    structureModified = true;
+    structureVersion++;
+
+    for (int i = 0; i < READER_COUNTERS; i++)
+      while (optimisticReaders.get(i) > 0)
+        Thread.yield();
+  }
+
+  private void startBucketModification(long bucketPointer) {
+    bucketVersions.incrementAndGet(getBucketVersionIndex(bucketPointer));
+  }
+
+  private void endBucketModification(long bucketPointer) {
+    bucketVersions.incrementAndGet(getBucketVersionIndex(bucketPointer));
+  }
+
+  private int getBucketVersionIndex(long bucketPointer) {
+    return (int) ((getPageIndex(bucketPointer) * 31 + getFileLevel(bucketPointer)) & (BUCKET_VERSIONS - 1));
+  }
+
   private long createBucketPointer(long pageIndex, int fileLevel) {
     return ((pageIndex + 1) << 8) | fileLevel;
   }
@@ -1688,7 +2082,16 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
     buffer.release(fileLevelIds[fileLevel], pageIndex);
   }
 
-  private void markPageAsDirty(long pageIndex, int fileLevel) {
+  /**
+   * Changed buckets get LSN of the last record flushed to the WAL, so incremental backup finds them like pages of other files.
+   */
+  private void markBucketAsDirty(OHashIndexBucket<K, V> bucket, long pageIndex, int fileLevel) {
+    if (writeAheadLog != null) {
+      final OLogSequenceNumber flushedLsn = writeAheadLog.getFlushedLSN();
+      if (flushedLsn != null)
+        bucket.setLsn(flushedLsn);
+    }
+
     buffer.markDirty(fileLevelIds[fileLevel], pageIndex);
   }
 
@@ -1714,6 +2117,9 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
       offset = (int) (position & 0xFF);
 
       localNodeDepth = nodesMetadata[nodeIndex].getNodeLocalDepth();
+      if (localNodeDepth == 0)
+        break;
+
       nodeDepth += localNodeDepth;
 
       index = (int) ((hashCode >>> (HASH_CODE_SIZE - nodeDepth)) & (LEVEL_MASK >>> (MAX_LEVEL_DEPTH - localNodeDepth)));
@@ -1725,6 +2131,24 @@ public class OLocalHashTable<K, V> extends OSharedResourceAdaptive {
     throw new IllegalStateException("Extendible hashing tree in corrupted state.");
   }
 
+  private static final class HashedKey<K> implements Comparable<HashedKey<K>> {
+    private final K    key;
+    private final long hashCode;
+
+    private HashedKey(K key, long hashCode) {
+      this.key = key;
+      this.hashCode = hashCode;
+    }
+
+    public int compareTo(HashedKey<K> other) {
+      // HASH CODES ARE COMPARED AS UNSIGNED VALUES, THE SAME WAY AS THEY ARE DISTRIBUTED BETWEEN BUCKETS
+      final long first = hashCode ^ Long.MIN_VALUE;
+      final long second = other.hashCode ^ Long.MIN_VALUE;
+
+      return first < second ? -1 : (first == second ? 0 : 1);
+    }
+  }
+
   private static final class BucketPath {
     private final BucketPath parent;
     private final int        hashMapOffset;
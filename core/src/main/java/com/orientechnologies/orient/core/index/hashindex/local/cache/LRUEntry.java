@@ -34,6 +34,11 @@ class LRUEntry {
 
   int                usageCounter = 0;
 
+  /**
+   * Page was loaded by sequential scan of file and was not accessed by other operations since then.
+   */
+  boolean            scanned;
+
   LRUEntry           next;
 
   LRUEntry           after;
@@ -34,6 +34,7 @@ class LRUList implements Iterable<LRUEntry> {
 
   private int              nextThreshold;
   private int              size;
+  private int              unusedSize;
 
   private LRUEntry         entries[];
 
@@ -74,6 +75,9 @@ class LRUList implements Iterable<LRUEntry> {
 
     removeFromLRUList(lruEntry);
 
+    if (lruEntry.usageCounter == 0)
+      unusedSize--;
+
     if (prevEntry == null)
       entries[index] = lruEntry.next;
     else
@@ -130,6 +134,7 @@ class LRUList implements Iterable<LRUEntry> {
         prevEntry.next = lruEntry;
 
       size++;
+      unusedSize++;
     }
 
     lruEntry.dataPointer = dataPointer;
@@ -167,6 +172,7 @@ class LRUList implements Iterable<LRUEntry> {
 
     head = tail = null;
     size = 0;
+    unusedSize = 0;
   }
 
   private void rehash() {
@@ -218,6 +224,33 @@ class LRUList implements Iterable<LRUEntry> {
     return size;
   }
 
+  /**
+   * Marks entry of this list as used by one more thread.
+   */
+  public void incrementUsageCounter(LRUEntry lruEntry) {
+    if (lruEntry.usageCounter == 0)
+      unusedSize--;
+
+    lruEntry.usageCounter++;
+  }
+
+  /**
+   * Marks entry of this list as released by one of threads which use it.
+   */
+  public void decrementUsageCounter(LRUEntry lruEntry) {
+    lruEntry.usageCounter--;
+
+    if (lruEntry.usageCounter == 0)
+      unusedSize++;
+  }
+
+  /**
+   * @return <code>true</code> if list contains entries which are not used by any thread and can be removed by {@link #removeLRU()}.
+   */
+  public boolean hasUnusedEntries() {
+    return unusedSize > 0;
+  }
+
   public LRUEntry removeLRU() {
     LRUEntry entryToRemove = head;
     while (entryToRemove.usageCounter != 0) {
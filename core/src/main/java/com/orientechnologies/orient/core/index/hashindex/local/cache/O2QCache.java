@@ -28,13 +28,30 @@ import java.util.Map;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.CRC32;
 
 import com.orientechnologies.common.directmemory.ODirectMemory;
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.common.profiler.OProfiler.METRIC_TYPE;
+import com.orientechnologies.common.profiler.OProfiler.OProfilerHookValue;
 import com.orientechnologies.common.serialization.types.OIntegerSerializer;
 import com.orientechnologies.common.serialization.types.OLongSerializer;
+import com.orientechnologies.orient.core.Orient;
 import com.orientechnologies.orient.core.command.OCommandOutputListener;
 import com.orientechnologies.orient.core.config.OStorageSegmentConfiguration;
+import com.orientechnologies.orient.core.exception.OStorageException;
+import com.orientechnologies.orient.core.storage.fs.OFileFactory;
 import com.orientechnologies.orient.core.storage.impl.local.OMultiFileSegment;
 import com.orientechnologies.orient.core.storage.impl.local.OStorageLocalAbstract;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.ODirtyPage;
@@ -42,54 +59,134 @@ import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OLogSe
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OWriteAheadLog;
 
 /**
+ * 2Q disk cache. Pages are distributed between independently locked segments by (fileId, pageIndex) hash, each segment has its
+ * own 2Q queues, so page operations which hit different segments do not contend with each other. Operations which work with
+ * whole file (flush, close, truncate and so on) lock all segments.
+ * 
+ * If write-behind interval is set, dirty pages are written to the disk by background flusher. Pages evicted from the cache are
+ * written on each flusher run, dirty pages which are still in cache are written only if WAL is already flushed up to their LSN.
+ * Threads which load pages flush evicted pages by themselves only if write queue of segment is full.
+ *
+ * If read ahead is switched on, cache tracks access to the pages of each file, once several consecutive pages are loaded, pages
+ * which follow them are read from the disk by single operation. Pages loaded by such sequential scan are put only in a1in queue,
+ * they are not remembered in a1out queue after eviction and are never promoted to am queue, so scans do not displace frequently
+ * used pages.
+ *
+ * Magic number and checksum of pages read from the disk may be verified on each load, and background scrubber may check all
+ * pages of opened files at given rate, so broken pages are detected before they are requested. Broken pages are reported to the
+ * log and to the profiler.
+ *
  * @author Artem Loginov
  * @since 14.03.13
  */
 public class O2QCache implements ODiskCache {
-  public static final long                                     MAGIC_NUMBER = 0xFACB03FEL;
+  public static final long                          MAGIC_NUMBER     = 0xFACB03FEL;
+
+  /**
+   * Minimum amount of pages which should be held by single segment, if cache is too small to be split on requested amount of
+   * segments, amount of segments will be decreased.
+   */
+  private static final int                          MIN_SEGMENT_SIZE = 64;
+
+  /**
+   * Amount of consecutive pages which should be loaded before access to the file is treated as sequential scan.
+   */
+  private static final int                          SEQUENTIAL_ACCESS_THRESHOLD = 3;
+
+  public final int                                  writeQueueLength;
+
+  private final int                                 maxSize;
+
+  private final int                                 pageSize;
 
-  public final int                                             writeQueueLength;
+  private final ODirectMemory                       directMemory;
 
-  private final int                                            maxSize;
-  private final int                                            K_IN;
-  private final int                                            K_OUT;
+  private final ConcurrentMap<Long, OMultiFileSegment> files;
 
-  private final int                                            pageSize;
+  private final Segment[]                           segments;
+  private final int                                 segmentMask;
 
-  private LRUList                                              am;
-  private LRUList                                              a1out;
-  private LRUList                                              a1in;
+  private final OStorageLocalAbstract               storageLocal;
 
-  private final ODirectMemory                                  directMemory;
+  private final OWriteAheadLog                      writeAheadLog;
 
-  private final Map<Long, OMultiFileSegment>                   files;
+  private final boolean                             syncOnPageFlush;
+  private long                                      fileCounter      = 1;
 
   /**
-   * List of pages which were flushed out of the buffer but were not written to the disk.
+   * Prevents background flusher and operations on whole files from running at the same time.
    */
-  private final Map<FileLockKey, Long>                         evictedPages;
+  private final ReentrantLock                       flushLock        = new ReentrantLock();
 
   /**
-   * Contains all pages in cache for given file, not only dirty onces.
+   * Pages which are currently written by background flusher.
    */
-  private final Map<Long, Set<Long>>                           filePages;
+  private final ConcurrentMap<FileLockKey, PageFlushTask> flushingPages;
 
   /**
-   * Keys is a file id. Values is a sorted set of dirty pages.
+   * Amount of evicted pages in all segments, when it reaches {@link #writeQueueLength} threads which evict pages write them
+   * by themselves.
    */
-  private final Map<Long, SortedMap<Long, OLogSequenceNumber>> dirtyPages;
+  private final AtomicInteger                       writeQueueSize   = new AtomicInteger();
 
-  private final Object                                         syncObject;
-  private final OStorageLocalAbstract                          storageLocal;
+  private final ScheduledExecutorService            writeBehindExecutor;
+  private final AtomicBoolean                       writeBehindScheduled = new AtomicBoolean();
+  private final String                              profilerPrefix;
 
-  private final OWriteAheadLog                                 writeAheadLog;
+  private final int                                 readAheadPages;
+  private final ConcurrentMap<Long, FileAccessState> fileAccessStates;
 
-  private final boolean                                        syncOnPageFlush;
-  private long                                                 fileCounter  = 1;
-  private int                                                  crcOffset;
+  private final boolean                             verifyPagesOnLoad;
+  private final boolean                             directIO;
+  private final ScheduledExecutorService            scrubberExecutor;
+  private final Set<OPageDataVerificationError>     brokenPages;
 
   public O2QCache(long maxMemory, int writeQueueLength, ODirectMemory directMemory, OWriteAheadLog writeAheadLog, int pageSize,
       OStorageLocalAbstract storageLocal, boolean syncOnPageFlush) {
+    this(maxMemory, writeQueueLength, directMemory, writeAheadLog, pageSize, storageLocal, syncOnPageFlush, 1, 0, 0);
+  }
+
+  public O2QCache(long maxMemory, int writeQueueLength, ODirectMemory directMemory, OWriteAheadLog writeAheadLog, int pageSize,
+      OStorageLocalAbstract storageLocal, boolean syncOnPageFlush, int concurrencyLevel, int writeBehindInterval) {
+    this(maxMemory, writeQueueLength, directMemory, writeAheadLog, pageSize, storageLocal, syncOnPageFlush, concurrencyLevel,
+        writeBehindInterval, 0);
+  }
+
+  public O2QCache(long maxMemory, int writeQueueLength, ODirectMemory directMemory, OWriteAheadLog writeAheadLog, int pageSize,
+      OStorageLocalAbstract storageLocal, boolean syncOnPageFlush, int concurrencyLevel, int writeBehindInterval,
+      int readAheadPages) {
+    this(maxMemory, writeQueueLength, directMemory, writeAheadLog, pageSize, storageLocal, syncOnPageFlush, concurrencyLevel,
+        writeBehindInterval, readAheadPages, false, 0);
+  }
+
+  public O2QCache(long maxMemory, int writeQueueLength, ODirectMemory directMemory, OWriteAheadLog writeAheadLog, int pageSize,
+      OStorageLocalAbstract storageLocal, boolean syncOnPageFlush, int concurrencyLevel, int writeBehindInterval,
+      int readAheadPages, boolean verifyPagesOnLoad, int scrubberPagesPerSecond) {
+    this(maxMemory, writeQueueLength, directMemory, writeAheadLog, pageSize, storageLocal, syncOnPageFlush, concurrencyLevel,
+        writeBehindInterval, readAheadPages, verifyPagesOnLoad, scrubberPagesPerSecond, false);
+  }
+
+  /**
+   * @param concurrencyLevel
+   *          Amount of independently locked segments, rounded up to power of two.
+   * @param writeBehindInterval
+   *          Interval between runs of background flusher in ms., if it is not positive, background flusher is not started and
+   *          evicted pages are written by threads which load pages.
+   * @param readAheadPages
+   *          Amount of pages which are read ahead of sequential scan of file, if it is not positive, sequential scans are not
+   *          detected.
+   * @param verifyPagesOnLoad
+   *          Whether magic number and checksum of pages are verified when pages are read from the disk.
+   * @param scrubberPagesPerSecond
+   *          Amount of pages which are verified by background scrubber each second, if it is not positive, scrubber is not
+   *          started.
+   * @param directIO
+   *          Whether all files of cache are read and written bypassing OS file cache, so cache is the only cache of pages and its
+   *          size is the whole amount of memory used for pages.
+   */
+  public O2QCache(long maxMemory, int writeQueueLength, ODirectMemory directMemory, OWriteAheadLog writeAheadLog, int pageSize,
+      OStorageLocalAbstract storageLocal, boolean syncOnPageFlush, int concurrencyLevel, int writeBehindInterval,
+      int readAheadPages, boolean verifyPagesOnLoad, int scrubberPagesPerSecond, boolean directIO) {
 
     this.writeQueueLength = writeQueueLength;
     this.writeAheadLog = writeAheadLog;
@@ -97,11 +194,13 @@ public class O2QCache implements ODiskCache {
     this.pageSize = pageSize;
     this.storageLocal = storageLocal;
     this.syncOnPageFlush = syncOnPageFlush;
-    this.files = new HashMap<Long, OMultiFileSegment>();
-    this.filePages = new HashMap<Long, Set<Long>>();
-    this.dirtyPages = new HashMap<Long, SortedMap<Long, OLogSequenceNumber>>();
-
-    this.evictedPages = new HashMap<FileLockKey, Long>();
+    this.files = new ConcurrentHashMap<Long, OMultiFileSegment>();
+    this.readAheadPages = readAheadPages;
+    this.fileAccessStates = new ConcurrentHashMap<Long, FileAccessState>();
+    this.verifyPagesOnLoad = verifyPagesOnLoad;
+    this.directIO = directIO;
+    this.brokenPages = Collections.newSetFromMap(new ConcurrentHashMap<OPageDataVerificationError, Boolean>());
+    this.profilerPrefix = "db." + (storageLocal != null ? storageLocal.getName() + "." : "") + "diskCache.";
 
     long tmpMaxSize = maxMemory / pageSize;
     if (tmpMaxSize >= Integer.MAX_VALUE) {
@@ -110,75 +209,174 @@ public class O2QCache implements ODiskCache {
       maxSize = (int) tmpMaxSize;
     }
 
-    K_IN = maxSize >> 2;
-    K_OUT = maxSize >> 1;
+    int segmentsCount = 1;
+    while (segmentsCount < concurrencyLevel)
+      segmentsCount <<= 1;
+
+    while (segmentsCount > 1 && maxSize / segmentsCount < MIN_SEGMENT_SIZE)
+      segmentsCount >>= 1;
+
+    segmentMask = segmentsCount - 1;
+    segments = new Segment[segmentsCount];
+    for (int i = 0; i < segmentsCount; i++)
+      segments[i] = new Segment(maxSize / segmentsCount);
+
+    flushingPages = new ConcurrentHashMap<FileLockKey, PageFlushTask>();
+
+    if (writeBehindInterval > 0) {
+      writeBehindExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r);
+          thread.setDaemon(true);
+          thread.setName("Disk Cache Write Behind Task");
+          return thread;
+        }
+      });
+
+      writeBehindExecutor.scheduleWithFixedDelay(new WriteBehindTask(false), writeBehindInterval, writeBehindInterval,
+          TimeUnit.MILLISECONDS);
+
+      registerProfilerHooks();
+    } else {
+      writeBehindExecutor = null;
+    }
+
+    if (scrubberPagesPerSecond > 0) {
+      scrubberExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r);
+          thread.setDaemon(true);
+          thread.setPriority(Thread.MIN_PRIORITY);
+          thread.setName("Disk Cache Scrubber");
+          return thread;
+        }
+      });
+
+      scrubberExecutor.scheduleWithFixedDelay(new ScrubberTask(scrubberPagesPerSecond), 1, 1, TimeUnit.SECONDS);
+    } else
+      scrubberExecutor = null;
+  }
+
+  private void registerProfilerHooks() {
+    Orient.instance().getProfiler()
+        .registerHookValue(profilerPrefix + "writeQueue", "Number of evicted pages which wait to be written to the disk",
+            METRIC_TYPE.SIZE, new OProfilerHookValue() {
+              public Object getValue() {
+                return getWriteQueueSize();
+              }
+            }, "db.*.diskCache.writeQueue");
+
+    Orient.instance().getProfiler()
+        .registerHookValue(profilerPrefix + "dirtyPages", "Number of dirty pages", METRIC_TYPE.SIZE, new OProfilerHookValue() {
+          public Object getValue() {
+            return getDirtyPagesCount();
+          }
+        }, "db.*.diskCache.dirtyPages");
+  }
+
+  /**
+   * @return Amount of pages which were evicted from the cache but are not written to the disk yet.
+   */
+  public int getWriteQueueSize() {
+    return writeQueueSize.get();
+  }
+
+  /**
+   * @return Amount of pages which were changed but are not written to the disk yet, including evicted pages.
+   */
+  public long getDirtyPagesCount() {
+    long count = 0;
+    for (Segment segment : segments) {
+      segment.lock.lock();
+      try {
+        for (SortedMap<Long, OLogSequenceNumber> fileDirtyPages : segment.dirtyPages.values())
+          count += fileDirtyPages.size();
+      } finally {
+        segment.lock.unlock();
+      }
+    }
 
-    am = new LRUList();
-    a1out = new LRUList();
-    a1in = new LRUList();
+    return count;
+  }
 
-    syncObject = new Object();
+  /**
+   * Runs background flusher and waits till it is finished. Used in tests.
+   */
+  void flushWriteBehind() throws Exception {
+    writeBehindExecutor.submit(new WriteBehindTask(false)).get();
   }
 
+  /**
+   * Used in tests only, for caches which consist of single segment.
+   */
   LRUList getAm() {
-    return am;
+    return segments[0].am;
   }
 
   LRUList getA1out() {
-    return a1out;
+    return segments[0].a1out;
   }
 
   LRUList getA1in() {
-    return a1in;
+    return segments[0].a1in;
+  }
+
+  int getSegmentsCount() {
+    return segments.length;
   }
 
   @Override
   public long openFile(OStorageSegmentConfiguration fileConfiguration, String fileExtension) throws IOException {
-    synchronized (syncObject) {
+    lockAllSegments();
+    try {
       long fileId = fileCounter++;
 
-      final OMultiFileSegment multiFileSegment = new OMultiFileSegment(storageLocal, fileConfiguration, fileExtension, pageSize);
+      final OMultiFileSegment multiFileSegment = new OMultiFileSegment(storageLocal, fileConfiguration, fileExtension, pageSize,
+          directIO ? OFileFactory.DIRECT : fileConfiguration.fileType);
       if (multiFileSegment.exists())
         multiFileSegment.open();
       else
         multiFileSegment.create(pageSize);
 
       files.put(fileId, multiFileSegment);
+      fileAccessStates.put(fileId, new FileAccessState());
 
-      filePages.put(fileId, new HashSet<Long>());
-      dirtyPages.put(fileId, new TreeMap<Long, OLogSequenceNumber>());
+      for (Segment segment : segments) {
+        segment.filePages.put(fileId, new HashSet<Long>());
+        segment.dirtyPages.put(fileId, new TreeMap<Long, OLogSequenceNumber>());
+      }
 
       return fileId;
+    } finally {
+      unlockAllSegments();
     }
   }
 
   @Override
   public void markDirty(long fileId, long pageIndex) {
-    synchronized (syncObject) {
-      LRUEntry lruEntry = a1in.get(fileId, pageIndex);
+    final Segment segment = segmentFor(fileId, pageIndex);
+    segment.lock.lock();
+    try {
+      LRUEntry lruEntry = segment.a1in.get(fileId, pageIndex);
 
       if (lruEntry != null) {
-        doMarkDirty(fileId, pageIndex, lruEntry);
+        segment.doMarkDirty(fileId, pageIndex, lruEntry);
         return;
       }
 
-      lruEntry = am.get(fileId, pageIndex);
+      lruEntry = segment.am.get(fileId, pageIndex);
       if (lruEntry != null) {
-        doMarkDirty(fileId, pageIndex, lruEntry);
+        segment.doMarkDirty(fileId, pageIndex, lruEntry);
       } else
         throw new IllegalStateException("Requested page number " + pageIndex + " for file " + files.get(fileId).getName()
             + " is not in cache");
+    } finally {
+      segment.lock.unlock();
     }
   }
 
-  private void doMarkDirty(long fileId, long pageIndex, LRUEntry lruEntry) {
-    if (lruEntry.isDirty)
-      return;
-
-    dirtyPages.get(fileId).put(pageIndex, lruEntry.loadedLSN);
-    lruEntry.isDirty = true;
-  }
-
   private OLogSequenceNumber getLogSequenceNumberFromPage(long dataPointer) {
     final long position = OLongSerializer.INSTANCE.deserializeFromDirectMemory(directMemory, dataPointer
         + OLongSerializer.LONG_SIZE + (2 * OIntegerSerializer.INT_SIZE));
@@ -188,104 +386,93 @@ public class O2QCache implements ODiskCache {
     return new OLogSequenceNumber(segment, position);
   }
 
+  private OLogSequenceNumber getLogSequenceNumberFromPage(byte[] content) {
+    final long position = OLongSerializer.INSTANCE.deserializeNative(content, OLongSerializer.LONG_SIZE
+        + (2 * OIntegerSerializer.INT_SIZE));
+    final int segment = OIntegerSerializer.INSTANCE.deserializeNative(content, OLongSerializer.LONG_SIZE
+        + OIntegerSerializer.INT_SIZE);
+
+    return new OLogSequenceNumber(segment, position);
+  }
+
   @Override
   public long load(long fileId, long pageIndex) throws IOException {
-    synchronized (syncObject) {
-      final LRUEntry lruEntry = updateCache(fileId, pageIndex);
-      lruEntry.usageCounter++;
+    final boolean sequential = readAheadPages > 0 && detectSequentialAccess(fileId, pageIndex);
+
+    final Segment segment = segmentFor(fileId, pageIndex);
+    segment.lock.lock();
+    try {
+      final LRUEntry lruEntry = segment.updateCache(fileId, pageIndex, sequential);
       return lruEntry.dataPointer;
+    } finally {
+      segment.lock.unlock();
     }
   }
 
   @Override
   public void release(long fileId, long pageIndex) {
-    synchronized (syncObject) {
-      LRUEntry lruEntry = get(fileId, pageIndex);
+    final Segment segment = segmentFor(fileId, pageIndex);
+    segment.lock.lock();
+    try {
+      LRUEntry lruEntry = segment.am.get(fileId, pageIndex);
+      if (lruEntry != null) {
+        segment.am.decrementUsageCounter(lruEntry);
+        return;
+      }
+
+      lruEntry = segment.a1in.get(fileId, pageIndex);
       if (lruEntry != null)
-        lruEntry.usageCounter--;
+        segment.a1in.decrementUsageCounter(lruEntry);
       else
         throw new IllegalStateException("record should be released is already free!");
+    } finally {
+      segment.lock.unlock();
     }
   }
 
   @Override
   public long getFilledUpTo(long fileId) throws IOException {
-    synchronized (syncObject) {
-      return files.get(fileId).getFilledUpTo() / pageSize;
-    }
+    return files.get(fileId).getFilledUpTo() / pageSize;
   }
 
   @Override
   public void flushFile(long fileId) throws IOException {
-    synchronized (syncObject) {
-
-      final SortedMap<Long, OLogSequenceNumber> dirtyPages = this.dirtyPages.get(fileId);
-
-      for (Iterator<Long> iterator = dirtyPages.keySet().iterator(); iterator.hasNext();) {
-        Long pageIndex = iterator.next();
-        LRUEntry lruEntry = get(fileId, pageIndex);
+    lockAllSegments();
+    try {
+      awaitFileFlush(fileId);
 
-        if (lruEntry == null) {
-          final Long dataPointer = evictedPages.remove(new FileLockKey(fileId, pageIndex));
-          if (dataPointer != null) {
-            flushData(fileId, pageIndex, dataPointer);
-            iterator.remove();
-          }
-        } else {
-          if (lruEntry.usageCounter == 0) {
-            flushData(fileId, lruEntry.pageIndex, lruEntry.dataPointer);
-            iterator.remove();
-            lruEntry.isDirty = false;
-          } else {
-            throw new OBlockedPageException("Unable to perform flush file because some pages is in use.");
-          }
-        }
-      }
+      for (Segment segment : segments)
+        segment.flushFile(fileId);
 
       files.get(fileId).synch();
+    } finally {
+      unlockAllSegments();
     }
   }
 
   @Override
   public void closeFile(long fileId) throws IOException {
-    synchronized (syncObject) {
+    lockAllSegments();
+    try {
       if (!files.containsKey(fileId))
         return;
 
-      final Set<Long> pageIndexes = filePages.get(fileId);
-      Long[] sortedPageIndexes = new Long[pageIndexes.size()];
-      sortedPageIndexes = pageIndexes.toArray(sortedPageIndexes);
-      Arrays.sort(sortedPageIndexes);
-
-      for (Long pageIndex : sortedPageIndexes) {
-        LRUEntry lruEntry = get(fileId, pageIndex);
-        if (lruEntry != null) {
-          if (lruEntry.usageCounter == 0) {
-            lruEntry = remove(fileId, pageIndex);
-
-            flushData(fileId, pageIndex, lruEntry.dataPointer);
-            dirtyPages.get(fileId).remove(pageIndex);
-
-            directMemory.free(lruEntry.dataPointer);
-          }
-        } else {
-          Long dataPointer = evictedPages.remove(new FileLockKey(fileId, pageIndex));
-          if (dataPointer != null) {
-            flushData(fileId, pageIndex, dataPointer);
-            dirtyPages.get(fileId).remove(pageIndex);
-          }
-        }
-      }
+      awaitFileFlush(fileId);
 
-      pageIndexes.clear();
+      fileContentChanged(fileId);
+      for (Segment segment : segments)
+        segment.closeFile(fileId);
 
       files.get(fileId).close();
+    } finally {
+      unlockAllSegments();
     }
   }
 
   @Override
   public void deleteFile(long fileId) throws IOException {
-    synchronized (syncObject) {
+    lockAllSegments();
+    try {
       if (!files.containsKey(fileId))
         return;
 
@@ -293,183 +480,220 @@ public class O2QCache implements ODiskCache {
       files.get(fileId).delete();
 
       files.remove(fileId);
-      filePages.remove(fileId);
-      dirtyPages.remove(fileId);
+      fileAccessStates.remove(fileId);
+      for (Segment segment : segments) {
+        segment.filePages.remove(fileId);
+        segment.dirtyPages.remove(fileId);
+      }
+    } finally {
+      unlockAllSegments();
     }
-
   }
 
   @Override
   public void truncateFile(long fileId) throws IOException {
-    synchronized (syncObject) {
+    lockAllSegments();
+    try {
       if (!files.containsKey(fileId))
         return;
 
-      final Set<Long> pageEntries = filePages.get(fileId);
-      for (Long pageIndex : pageEntries) {
-        LRUEntry lruEntry = get(fileId, pageIndex);
-        if (lruEntry != null) {
-          if (lruEntry.usageCounter == 0) {
-            lruEntry = remove(fileId, pageIndex);
-            if (lruEntry.dataPointer != ODirectMemory.NULL_POINTER)
-              directMemory.free(lruEntry.dataPointer);
-          }
-        } else {
-          Long dataPointer = evictedPages.remove(new FileLockKey(fileId, pageIndex));
-          if (dataPointer != null)
-            directMemory.free(dataPointer);
-        }
-      }
+      awaitFileFlush(fileId);
 
-      dirtyPages.get(fileId).clear();
+      fileContentChanged(fileId);
+      for (Segment segment : segments)
+        segment.truncateFile(fileId);
 
-      pageEntries.clear();
       files.get(fileId).truncate();
+    } finally {
+      unlockAllSegments();
     }
   }
 
   @Override
   public void renameFile(long fileId, String oldFileName, String newFileName) throws IOException {
-    synchronized (syncObject) {
+    lockAllSegments();
+    try {
       if (!files.containsKey(fileId))
         return;
 
+      awaitFileFlush(fileId);
+
       files.get(fileId).rename(oldFileName, newFileName);
+    } finally {
+      unlockAllSegments();
     }
-
   }
 
   @Override
   public void flushBuffer() throws IOException {
-    synchronized (syncObject) {
+    lockAllSegments();
+    try {
       for (long fileId : files.keySet())
         flushFile(fileId);
+    } finally {
+      unlockAllSegments();
+    }
+  }
+
+  /**
+   * Writes dirty pages which are not in use and whose LSN is already flushed to the WAL. Unlike {@link #flushBuffer()} cache
+   * remains accessible while pages are written.
+   */
+  @Override
+  public void writeDirtyPages() throws IOException {
+    writeBehind();
+  }
+
+  /**
+   * Writes evicted pages and dirty pages of all segments which are not in use and have LSN which is already flushed to the WAL.
+   * Content of pages is copied under segment locks, pages of all segments are written together in file/page order without any
+   * lock, so neither loads of pages nor operations on whole files are blocked by IO.
+   * 
+   * @return Amount of written pages.
+   */
+  private long writeBehind() throws IOException {
+    final List<List<PageFlushTask>> segmentsFlushTasks = new ArrayList<List<PageFlushTask>>(segments.length);
+    final List<PageFlushTask> flushTasks = new ArrayList<PageFlushTask>();
+
+    flushLock.lock();
+    try {
+      for (Segment segment : segments) {
+        final List<PageFlushTask> segmentFlushTasks = segment.prepareWriteBehind();
+        segmentsFlushTasks.add(segmentFlushTasks);
+        flushTasks.addAll(segmentFlushTasks);
+      }
+    } finally {
+      flushLock.unlock();
+    }
+
+    if (flushTasks.isEmpty())
+      return 0;
+
+    Collections.sort(flushTasks, new Comparator<PageFlushTask>() {
+      @Override
+      public int compare(PageFlushTask taskOne, PageFlushTask taskTwo) {
+        return taskOne.key.compareTo(taskTwo.key);
+      }
+    });
+
+    long writtenPages = 0;
+    try {
+      for (PageFlushTask flushTask : flushTasks) {
+        writePage(flushTask.key.fileId, flushTask.key.pageIndex, flushTask.content);
+        flushTask.written = true;
+        writtenPages++;
+      }
+    } finally {
+      // threads which wait for page flush may hold segment locks
+      for (PageFlushTask flushTask : flushTasks)
+        flushTask.latch.countDown();
+
+      for (int i = 0; i < segments.length; i++)
+        segments[i].completeWriteBehind(segmentsFlushTasks.get(i));
     }
+
+    return writtenPages;
   }
 
   @Override
   public void clear() throws IOException {
-    synchronized (syncObject) {
+    lockAllSegments();
+    try {
       flushBuffer();
 
-      am.clear();
-      a1in.clear();
-      a1out.clear();
-      for (Set<Long> fileEntries : filePages.values())
-        fileEntries.clear();
-      for (SortedMap<Long, OLogSequenceNumber> fileDirtyPages : dirtyPages.values())
-        fileDirtyPages.clear();
+      for (Segment segment : segments)
+        segment.clear();
+    } finally {
+      unlockAllSegments();
     }
   }
 
+  /**
+   * @return Pages which were found broken during load or by background scrubber.
+   */
+  public OPageDataVerificationError[] getBrokenPages() {
+    return brokenPages.toArray(new OPageDataVerificationError[0]);
+  }
+
   @Override
   public void close() throws IOException {
-    synchronized (syncObject) {
+    if (scrubberExecutor != null && !scrubberExecutor.isShutdown()) {
+      // scrubber is not interrupted because interruption of IO operation closes file channel
+      scrubberExecutor.shutdown();
+      try {
+        if (!scrubberExecutor.awaitTermination(10000, TimeUnit.MILLISECONDS))
+          throw new OStorageException("Scrubber of disk cache can not be stopped.");
+      } catch (InterruptedException e) {
+        Thread.interrupted();
+        throw new OStorageException("Thread was interrupted during stop of scrubber", e);
+      }
+    }
+
+    if (writeBehindExecutor != null && !writeBehindExecutor.isShutdown()) {
+      writeBehindExecutor.shutdown();
+      try {
+        if (!writeBehindExecutor.awaitTermination(10000, TimeUnit.MILLISECONDS))
+          throw new OStorageException("Write behind task of disk cache can not be stopped.");
+      } catch (InterruptedException e) {
+        Thread.interrupted();
+        throw new OStorageException("Thread was interrupted during stop of write behind task", e);
+      }
+
+      Orient.instance().getProfiler().unregisterHookValue(profilerPrefix + "writeQueue");
+      Orient.instance().getProfiler().unregisterHookValue(profilerPrefix + "dirtyPages");
+    }
+
+    lockAllSegments();
+    try {
       clear();
       for (OMultiFileSegment multiFileSegment : files.values()) {
         multiFileSegment.synch();
         multiFileSegment.close();
       }
+    } finally {
+      unlockAllSegments();
     }
-
   }
 
   @Override
   public boolean wasSoftlyClosed(long fileId) throws IOException {
-    synchronized (syncObject) {
+    lockAllSegments();
+    try {
       OMultiFileSegment multiFileSegment = files.get(fileId);
       if (multiFileSegment == null)
         return false;
 
       return multiFileSegment.wasSoftlyClosedAtPreviousTime();
+    } finally {
+      unlockAllSegments();
     }
-
   }
 
   @Override
   public void setSoftlyClosed(long fileId, boolean softlyClosed) throws IOException {
-    synchronized (syncObject) {
+    lockAllSegments();
+    try {
       OMultiFileSegment multiFileSegment = files.get(fileId);
       if (multiFileSegment != null)
         multiFileSegment.setSoftlyClosed(softlyClosed);
+    } finally {
+      unlockAllSegments();
     }
   }
 
-  private LRUEntry updateCache(long fileId, long pageIndex) throws IOException {
-    LRUEntry lruEntry = am.get(fileId, pageIndex);
-    if (lruEntry != null) {
-      lruEntry = am.putToMRU(fileId, pageIndex, lruEntry.dataPointer, lruEntry.isDirty, lruEntry.loadedLSN);
-
-      return lruEntry;
-    }
-
-    lruEntry = a1out.remove(fileId, pageIndex);
-    if (lruEntry != null) {
-      removeColdestPageIfNeeded();
-
-      CacheResult cacheResult = cacheFileContent(fileId, pageIndex);
-      lruEntry.dataPointer = cacheResult.dataPointer;
-      lruEntry.isDirty = cacheResult.isDirty;
-
-      OLogSequenceNumber lsn;
-      if (cacheResult.isDirty)
-        lsn = dirtyPages.get(fileId).get(pageIndex);
-      else
-        lsn = getLogSequenceNumberFromPage(cacheResult.dataPointer);
-
-      lruEntry = am.putToMRU(fileId, pageIndex, lruEntry.dataPointer, lruEntry.isDirty, lsn);
-      return lruEntry;
-    }
-
-    lruEntry = a1in.get(fileId, pageIndex);
-    if (lruEntry != null)
-      return lruEntry;
-
-    removeColdestPageIfNeeded();
-
-    CacheResult cacheResult = cacheFileContent(fileId, pageIndex);
-    OLogSequenceNumber lsn;
-    if (cacheResult.isDirty)
-      lsn = dirtyPages.get(fileId).get(pageIndex);
-    else
-      lsn = getLogSequenceNumberFromPage(cacheResult.dataPointer);
-
-    lruEntry = a1in.putToMRU(fileId, pageIndex, cacheResult.dataPointer, cacheResult.isDirty, lsn);
-
-    filePages.get(fileId).add(pageIndex);
-
-    return lruEntry;
-  }
+  private CacheResult cacheFileContent(Segment segment, long fileId, long pageIndex) throws IOException {
+    FileLockKey key = new FileLockKey(fileId, pageIndex);
+    if (segment.evictedPages.containsKey(key))
+      return new CacheResult(true, segment.removeEvictedPage(key));
 
-  private void removeColdestPageIfNeeded() throws IOException {
-    if (am.size() + a1in.size() >= maxSize) {
-      if (a1in.size() > K_IN) {
-        LRUEntry removedFromAInEntry = a1in.removeLRU();
-        assert removedFromAInEntry.usageCounter == 0;
-        evictFileContent(removedFromAInEntry.fileId, removedFromAInEntry.pageIndex, removedFromAInEntry.dataPointer,
-            removedFromAInEntry.isDirty);
+    // page is marked as clean when write behind copies it, so disk may not contain its content yet
+    final PageFlushTask flushTask = flushingPages.get(key);
+    if (flushTask != null) {
+      if (!flushTask.stale)
+        return new CacheResult(false, directMemory.allocate(flushTask.content));
 
-        a1out.putToMRU(removedFromAInEntry.fileId, removedFromAInEntry.pageIndex, ODirectMemory.NULL_POINTER, false, null);
-        if (a1out.size() > K_OUT) {
-          LRUEntry removedEntry = a1out.removeLRU();
-          assert removedEntry.usageCounter == 0;
-          Set<Long> pageEntries = filePages.get(removedEntry.fileId);
-          pageEntries.remove(removedEntry.pageIndex);
-        }
-      } else {
-        LRUEntry removedEntry = am.removeLRU();
-        assert removedEntry.usageCounter == 0;
-        evictFileContent(removedEntry.fileId, removedEntry.pageIndex, removedEntry.dataPointer, removedEntry.isDirty);
-        Set<Long> pageEntries = filePages.get(removedEntry.fileId);
-        pageEntries.remove(removedEntry.pageIndex);
-      }
+      awaitPageFlush(key);
     }
-  }
-
-  private CacheResult cacheFileContent(long fileId, long pageIndex) throws IOException {
-    FileLockKey key = new FileLockKey(fileId, pageIndex);
-    if (evictedPages.containsKey(key))
-      return new CacheResult(true, evictedPages.remove(key));
 
     final OMultiFileSegment multiFileSegment = files.get(fileId);
     final long startPosition = pageIndex * pageSize;
@@ -479,35 +703,43 @@ public class O2QCache implements ODiskCache {
     long dataPointer;
     if (multiFileSegment.getFilledUpTo() >= endPosition) {
       multiFileSegment.readContinuously(startPosition, content, content.length);
+
+      if (verifyPagesOnLoad) {
+        final OPageDataVerificationError error = verifyPage(content, 0, pageIndex, multiFileSegment.getName());
+        if (error != null) {
+          reportBrokenPage(error);
+          throw new OStorageException("Page " + pageIndex + " of file " + multiFileSegment.getName() + " is broken "
+              + "(incorrect magic number: " + error.incorrectMagicNumber + ", incorrect checksum: " + error.incorrectCheckSum + ")");
+        }
+      }
+
       dataPointer = directMemory.allocate(content);
     } else {
-      multiFileSegment.allocateSpaceContinuously((int) (endPosition - multiFileSegment.getFilledUpTo()));
+      // pages of the same file can be allocated from different segments at the same time
+      synchronized (multiFileSegment) {
+        final long filledUpTo = multiFileSegment.getFilledUpTo();
+        if (filledUpTo < endPosition)
+          multiFileSegment.allocateSpaceContinuously((int) (endPosition - filledUpTo));
+      }
+
       dataPointer = directMemory.allocate(content);
     }
 
     return new CacheResult(false, dataPointer);
   }
 
-  private void evictFileContent(long fileId, long pageIndex, long dataPointer, boolean isDirty) throws IOException {
-    if (isDirty) {
-      if (evictedPages.size() >= writeQueueLength)
-        flushEvictedPages();
-
-      evictedPages.put(new FileLockKey(fileId, pageIndex), dataPointer);
-    } else {
-      directMemory.free(dataPointer);
-    }
+  private void flushData(final long fileId, final long pageIndex, final long dataPointer) throws IOException {
+    writePage(fileId, pageIndex, directMemory.get(dataPointer, pageSize));
   }
 
-  private void flushData(final long fileId, final long pageIndex, final long dataPointer) throws IOException {
+  private void writePage(final long fileId, final long pageIndex, final byte[] content) throws IOException {
     if (writeAheadLog != null) {
-      OLogSequenceNumber lsn = getLogSequenceNumberFromPage(dataPointer);
+      OLogSequenceNumber lsn = getLogSequenceNumberFromPage(content);
       OLogSequenceNumber flushedLSN = writeAheadLog.getFlushedLSN();
       if (flushedLSN == null || flushedLSN.compareTo(lsn) < 0)
         writeAheadLog.flush();
     }
 
-    final byte[] content = directMemory.get(dataPointer, pageSize);
     OLongSerializer.INSTANCE.serializeNative(MAGIC_NUMBER, content, 0);
 
     final int crc32 = calculatePageCrc(content);
@@ -515,41 +747,140 @@ public class O2QCache implements ODiskCache {
 
     final OMultiFileSegment multiFileSegment = files.get(fileId);
 
-    multiFileSegment.writeContinuously(pageIndex * pageSize, content);
+    // counter is changed before and after write, so read ahead which overlaps with write will be discarded
+    fileContentChanged(fileId);
+    try {
+      multiFileSegment.writeContinuously(pageIndex * pageSize, content);
+    } finally {
+      fileContentChanged(fileId);
+    }
 
     if (syncOnPageFlush)
       multiFileSegment.synch();
   }
 
-  @Override
-  public OPageDataVerificationError[] checkStoredPages(OCommandOutputListener commandOutputListener) {
-    final int notificationTimeOut = 5000;
-    final List<OPageDataVerificationError> errors = new ArrayList<OPageDataVerificationError>();
+  private void fileContentChanged(long fileId) {
+    final FileAccessState accessState = fileAccessStates.get(fileId);
+    if (accessState != null)
+      accessState.changesCounter.incrementAndGet();
+  }
 
-    synchronized (syncObject) {
-      for (long fileId : files.keySet()) {
+  /**
+   * Tracks pages of file which are loaded one after another and reads pages ahead of them if access to the file is sequential.
+   * 
+   * @return <code>true</code> if page is loaded by sequential scan of file.
+   */
+  private boolean detectSequentialAccess(long fileId, long pageIndex) {
+    final FileAccessState accessState = fileAccessStates.get(fileId);
+    if (accessState == null)
+      return false;
+
+    final long readAheadFrom;
+    final long readAheadTo;
+    synchronized (accessState) {
+      if (pageIndex == accessState.lastPageIndex + 1)
+        accessState.sequentialPages++;
+      else if (pageIndex != accessState.lastPageIndex) {
+        accessState.sequentialPages = 0;
+        accessState.readAheadUpTo = pageIndex + 1;
+      }
 
-        OMultiFileSegment multiFileSegment = files.get(fileId);
+      accessState.lastPageIndex = pageIndex;
 
-        boolean fileIsCorrect;
-        try {
+      if (accessState.sequentialPages < SEQUENTIAL_ACCESS_THRESHOLD)
+        return false;
 
-          if (commandOutputListener != null)
-            commandOutputListener.onMessage("Flashing file " + multiFileSegment.getName() + "... ");
+      // next portion of pages is read when scan passes half of already read pages
+      if (pageIndex + (readAheadPages >> 1) < accessState.readAheadUpTo)
+        return true;
 
-          flushFile(fileId);
+      readAheadFrom = Math.max(pageIndex + 1, accessState.readAheadUpTo);
+      readAheadTo = pageIndex + 1 + readAheadPages;
+      accessState.readAheadUpTo = readAheadTo;
+    }
 
-          if (commandOutputListener != null)
-            commandOutputListener.onMessage("Start verification of content of " + multiFileSegment.getName() + "file ...");
+    readAhead(fileId, accessState, readAheadFrom, readAheadTo);
+    return true;
+  }
 
-          long time = System.currentTimeMillis();
+  /**
+   * Reads pages [fromPageIndex, toPageIndex) by single disk operation and puts pages which are absent in cache in a1in queue. Read
+   * is done without segment locks, so if any page of file was written to the disk meanwhile, pages which were read may be stale
+   * and are discarded. Read ahead is only an optimization, so IO errors are not propagated, they will be thrown on real load of
+   * page.
+   */
+  private void readAhead(long fileId, FileAccessState accessState, long fromPageIndex, long toPageIndex) {
+    final OMultiFileSegment multiFileSegment = files.get(fileId);
+    if (multiFileSegment == null)
+      return;
 
-          long filledUpTo = multiFileSegment.getFilledUpTo();
-          fileIsCorrect = true;
+    try {
+      final long changesCounter = accessState.changesCounter.get();
 
-          for (long pos = 0; pos < filledUpTo; pos += pageSize) {
-            boolean checkSumIncorrect = false;
-            boolean magicNumberIncorrect = false;
+      final long filledUpTo = multiFileSegment.getFilledUpTo() / pageSize;
+      if (toPageIndex > filledUpTo)
+        toPageIndex = filledUpTo;
+
+      if (toPageIndex <= fromPageIndex)
+        return;
+
+      final int pagesCount = (int) (toPageIndex - fromPageIndex);
+      final byte[] content = new byte[pagesCount * pageSize];
+      multiFileSegment.readContinuously(fromPageIndex * pageSize, content, content.length);
+
+      for (int i = 0; i < pagesCount; i++) {
+        final long pageIndex = fromPageIndex + i;
+        final Segment segment = segmentFor(fileId, pageIndex);
+
+        segment.lock.lock();
+        try {
+          if (accessState.changesCounter.get() != changesCounter)
+            return;
+
+          // broken page will be reported when it will be requested
+          if (verifyPagesOnLoad && verifyPage(content, i * pageSize, pageIndex, multiFileSegment.getName()) != null)
+            return;
+
+          segment.cacheReadAheadPage(fileId, pageIndex, content, i * pageSize);
+        } finally {
+          segment.lock.unlock();
+        }
+      }
+    } catch (IOException e) {
+      OLogManager.instance().debug(this, "Read ahead of pages of file %s failed", e, multiFileSegment.getName());
+    }
+  }
+
+  @Override
+  public OPageDataVerificationError[] checkStoredPages(OCommandOutputListener commandOutputListener) {
+    final int notificationTimeOut = 5000;
+    final List<OPageDataVerificationError> errors = new ArrayList<OPageDataVerificationError>();
+
+    lockAllSegments();
+    try {
+      for (long fileId : files.keySet()) {
+
+        OMultiFileSegment multiFileSegment = files.get(fileId);
+
+        boolean fileIsCorrect;
+        try {
+
+          if (commandOutputListener != null)
+            commandOutputListener.onMessage("Flashing file " + multiFileSegment.getName() + "... ");
+
+          flushFile(fileId);
+
+          if (commandOutputListener != null)
+            commandOutputListener.onMessage("Start verification of content of " + multiFileSegment.getName() + "file ...");
+
+          long time = System.currentTimeMillis();
+
+          long filledUpTo = multiFileSegment.getFilledUpTo();
+          fileIsCorrect = true;
+
+          for (long pos = 0; pos < filledUpTo; pos += pageSize) {
+            boolean checkSumIncorrect = false;
+            boolean magicNumberIncorrect = false;
 
             byte[] data = new byte[pageSize];
 
@@ -603,60 +934,169 @@ public class O2QCache implements ODiskCache {
       }
 
       return errors.toArray(new OPageDataVerificationError[errors.size()]);
+    } finally {
+      unlockAllSegments();
     }
   }
 
+  /**
+   * Logs pages which were changed but were not written to the disk yet. Pages which are written by write behind at the moment
+   * are removed from dirty pages table before they reach the disk, so their writes are awaited first and the table covers all
+   * changes which are absent on the disk.
+   */
   @Override
   public Set<ODirtyPage> logDirtyPagesTable() throws IOException {
-    synchronized (syncObject) {
+    lockAllSegments();
+    try {
       if (writeAheadLog == null)
         return Collections.emptySet();
 
-      Set<ODirtyPage> logDirtyPages = new HashSet<ODirtyPage>(dirtyPages.size());
-      for (long fileId : dirtyPages.keySet()) {
-        SortedMap<Long, OLogSequenceNumber> pages = dirtyPages.get(fileId);
-        for (Map.Entry<Long, OLogSequenceNumber> pageEntry : pages.entrySet()) {
-          final ODirtyPage logDirtyPage = new ODirtyPage(files.get(fileId).getName(), pageEntry.getKey(), pageEntry.getValue());
-          logDirtyPages.add(logDirtyPage);
+      for (FileLockKey key : flushingPages.keySet())
+        awaitPageFlush(key);
+
+      Set<ODirtyPage> logDirtyPages = new HashSet<ODirtyPage>();
+      for (Segment segment : segments) {
+        for (Map.Entry<Long, SortedMap<Long, OLogSequenceNumber>> fileEntry : segment.dirtyPages.entrySet()) {
+          final String fileName = files.get(fileEntry.getKey()).getName();
+          for (Map.Entry<Long, OLogSequenceNumber> pageEntry : fileEntry.getValue().entrySet()) {
+            final ODirtyPage logDirtyPage = new ODirtyPage(fileName, pageEntry.getKey(), pageEntry.getValue());
+            logDirtyPages.add(logDirtyPage);
+          }
         }
       }
 
       writeAheadLog.logDirtyPages(logDirtyPages);
       return logDirtyPages;
+    } finally {
+      unlockAllSegments();
     }
   }
 
   @Override
   public void forceSyncStoredChanges() throws IOException {
-    synchronized (syncObject) {
+    lockAllSegments();
+    try {
+      for (FileLockKey key : flushingPages.keySet())
+        awaitPageFlush(key);
+
       for (OMultiFileSegment multiFileSegment : files.values())
         multiFileSegment.synch();
+    } finally {
+      unlockAllSegments();
     }
   }
 
-  private void flushEvictedPages() throws IOException {
-    @SuppressWarnings("unchecked")
-    Map.Entry<FileLockKey, Long>[] sortedPages = evictedPages.entrySet().toArray(new Map.Entry[evictedPages.size()]);
-    Arrays.sort(sortedPages, new Comparator<Map.Entry>() {
-      @Override
-      public int compare(Map.Entry entryOne, Map.Entry entryTwo) {
-        FileLockKey fileLockKeyOne = (FileLockKey) entryOne.getKey();
-        FileLockKey fileLockKeyTwo = (FileLockKey) entryTwo.getKey();
-        return fileLockKeyOne.compareTo(fileLockKeyTwo);
-      }
-    });
+  private Segment segmentFor(long fileId, long pageIndex) {
+    int hash = (int) (fileId ^ (fileId >>> 32));
+    hash = 31 * hash + (int) (pageIndex ^ (pageIndex >>> 32));
+    hash ^= (hash >>> 16);
 
-    for (Map.Entry<FileLockKey, Long> entry : sortedPages) {
-      long evictedDataPointer = entry.getValue();
-      FileLockKey fileLockKey = entry.getKey();
+    return segments[hash & segmentMask];
+  }
 
-      flushData(fileLockKey.fileId, fileLockKey.pageIndex, evictedDataPointer);
-      dirtyPages.get(fileLockKey.fileId).remove(fileLockKey.pageIndex);
+  private void lockAllSegments() {
+    flushLock.lock();
+    for (Segment segment : segments)
+      segment.lock.lock();
+  }
+
+  private void unlockAllSegments() {
+    for (int i = segments.length - 1; i >= 0; i--)
+      segments[i].lock.unlock();
+    flushLock.unlock();
+  }
 
-      directMemory.free(evictedDataPointer);
+  private void scheduleWriteBehind() {
+    if (writeBehindExecutor != null && writeBehindScheduled.compareAndSet(false, true))
+      writeBehindExecutor.execute(new WriteBehindTask(true));
+  }
+
+  /**
+   * Background flusher writes pages without locks, so operations on whole file wait till pages of this file which are written
+   * at the moment reach the disk. New pages of the file are not taken by flusher while all segments are locked.
+   */
+  private void awaitFileFlush(long fileId) throws IOException {
+    for (FileLockKey key : flushingPages.keySet())
+      if (key.fileId == fileId)
+        awaitPageFlush(key);
+  }
+
+  private void awaitPageFlush(FileLockKey key) throws IOException {
+    final PageFlushTask flushTask = flushingPages.get(key);
+    if (flushTask == null)
+      return;
+
+    try {
+      flushTask.latch.await();
+    } catch (InterruptedException e) {
+      Thread.interrupted();
+      throw new OStorageException("Thread was interrupted during waiting of page flush", e);
     }
+  }
+
+  private final class WriteBehindTask implements Runnable {
+    private final boolean scheduled;
 
-    evictedPages.clear();
+    private WriteBehindTask(boolean scheduled) {
+      this.scheduled = scheduled;
+    }
+
+    @Override
+    public void run() {
+      if (scheduled)
+        writeBehindScheduled.set(false);
+
+      try {
+        final long timer = Orient.instance().getProfiler().startChrono();
+        final long flushedPages = writeBehind();
+
+        Orient.instance().getProfiler()
+            .updateCounter(profilerPrefix + "flushedPages", "Number of pages written by write behind task", flushedPages,
+                "db.*.diskCache.flushedPages");
+        Orient.instance().getProfiler()
+            .stopChrono(profilerPrefix + "writeBehind", "Write dirty pages of disk cache in background", timer,
+                "db.*.diskCache.writeBehind");
+      } catch (Throwable e) {
+        OLogManager.instance().error(this, "Error during background flush of disk cache", e);
+      }
+    }
+  }
+
+  /**
+   * Page which is written by background flusher, all threads which are going to write the same page should wait till it is
+   * written. Till then the page is loaded from the flushed content instead of the disk.
+   */
+  private static final class PageFlushTask {
+    private final CountDownLatch latch = new CountDownLatch(1);
+    private final FileLockKey    key;
+    private final byte[]         content;
+    private final boolean        evicted;
+    private boolean              written;
+
+    /**
+     * Set if evicted page was taken back in cache or was written by other thread, guarded by segment lock.
+     */
+    private boolean              stale;
+
+    private PageFlushTask(FileLockKey key, byte[] content, boolean evicted) {
+      this.key = key;
+      this.content = content;
+      this.evicted = evicted;
+    }
+  }
+
+  /**
+   * State of sequential scan detection of single file, fields except of {@link #changesCounter} are guarded by state monitor.
+   */
+  private static final class FileAccessState {
+    /**
+     * Changed each time when content of file on disk is changed.
+     */
+    private final AtomicLong changesCounter = new AtomicLong();
+
+    private long             lastPageIndex  = -1;
+    private int              sequentialPages;
+    private long             readAheadUpTo;
   }
 
   private static class CacheResult {
@@ -669,41 +1109,592 @@ public class O2QCache implements ODiskCache {
     }
   }
 
-  private LRUEntry get(long fileId, long pageIndex) {
-    LRUEntry lruEntry = am.get(fileId, pageIndex);
+  private int calculatePageCrc(byte[] pageData) {
+    return calculatePageCrc(pageData, 0);
+  }
+
+  private int calculatePageCrc(byte[] data, int pageOffset) {
+    return calculatePageCrc(data, pageOffset, pageSize);
+  }
 
-    if (lruEntry != null) {
-      return lruEntry;
+  private static int calculatePageCrc(byte[] data, int pageOffset, int pageSize) {
+    int systemSize = OLongSerializer.LONG_SIZE + OIntegerSerializer.INT_SIZE;
+
+    final CRC32 crc32 = new CRC32();
+    crc32.update(data, pageOffset + systemSize, pageSize - systemSize);
+
+    return (int) crc32.getValue();
+  }
+
+  /**
+   * Checks page which was read from the disk without disk cache, page which is read while it is written has incorrect checksum.
+   * 
+   * @return <code>true</code> if magic number and checksum of page are correct or page was never written.
+   */
+  public static boolean isPageIntact(byte[] data, int pageSize) {
+    final long magicNumber = OLongSerializer.INSTANCE.deserializeNative(data, 0);
+    if (magicNumber == 0 && isEmptyPage(data, 0, pageSize))
+      return true;
+
+    return magicNumber == MAGIC_NUMBER
+        && OIntegerSerializer.INSTANCE.deserializeNative(data, OLongSerializer.LONG_SIZE) == calculatePageCrc(data, 0, pageSize);
+  }
+
+  /**
+   * Verifies magic number and checksum of page which was read from the disk. Pages which were allocated but were never written
+   * contain only zeros and are treated as correct.
+   * 
+   * @return Description of error or <code>null</code> if page is correct.
+   */
+  private OPageDataVerificationError verifyPage(byte[] data, int pageOffset, long pageIndex, String fileName) {
+    final long magicNumber = OLongSerializer.INSTANCE.deserializeNative(data, pageOffset);
+    if (magicNumber == 0 && isEmptyPage(data, pageOffset, pageSize))
+      return null;
+
+    final boolean magicNumberIncorrect = magicNumber != MAGIC_NUMBER;
+    final int storedCRC32 = OIntegerSerializer.INSTANCE.deserializeNative(data, pageOffset + OLongSerializer.LONG_SIZE);
+    final boolean checkSumIncorrect = storedCRC32 != calculatePageCrc(data, pageOffset);
+
+    if (!magicNumberIncorrect && !checkSumIncorrect)
+      return null;
+
+    return new OPageDataVerificationError(magicNumberIncorrect, checkSumIncorrect, pageIndex, fileName);
+  }
+
+  private static boolean isEmptyPage(byte[] data, int pageOffset, int pageSize) {
+    for (int i = pageOffset; i < pageOffset + pageSize; i++)
+      if (data[i] != 0)
+        return false;
+
+    return true;
+  }
+
+  private void reportBrokenPage(OPageDataVerificationError error) {
+    if (!brokenPages.add(error))
+      return;
+
+    OLogManager.instance().error(this, "Page %d of file %s is broken (incorrect magic number: %s, incorrect checksum: %s)",
+        error.pageIndex, error.fileName, error.incorrectMagicNumber, error.incorrectCheckSum);
+
+    Orient.instance().getProfiler()
+        .updateCounter(profilerPrefix + "brokenPages", "Number of broken pages found in disk cache files", 1,
+            "db.*.diskCache.brokenPages");
+  }
+
+  /**
+   * Reads pages of all opened files one by one and verifies their magic number and checksum. Position of scrubber is kept
+   * between runs, so each run checks not more than given amount of pages. Page is read under flush lock, so files can not be
+   * closed or truncated during check. Pages which are written while scrubber reads them look broken, so error is reported only if
+   * file was not written during read, otherwise page is checked again on next run.
+   */
+  private final class ScrubberTask implements Runnable {
+    private final int pagesPerRun;
+
+    private long      fileId    = -1;
+    private long      pageIndex = 0;
+
+    private ScrubberTask(int pagesPerRun) {
+      this.pagesPerRun = pagesPerRun;
+    }
+
+    @Override
+    public void run() {
+      try {
+        int pagesToCheck = pagesPerRun;
+        int filesSwitched = 0;
+
+        while (pagesToCheck > 0 && !scrubberExecutor.isShutdown()) {
+          final OMultiFileSegment multiFileSegment = files.get(fileId);
+          if (multiFileSegment == null || pageIndex >= multiFileSegment.getFilledUpTo() / pageSize) {
+            // all files were checked during this run
+            if (!nextFile() || ++filesSwitched > files.size())
+              return;
+
+            continue;
+          }
+
+          if (!checkPage(multiFileSegment))
+            return;
+
+          pageIndex++;
+          pagesToCheck--;
+        }
+      } catch (Throwable e) {
+        OLogManager.instance().error(this, "Error during scrubbing of disk cache files", e);
+        nextFile();
+      }
+    }
+
+    private boolean nextFile() {
+      long nextFileId = -1;
+      long firstFileId = -1;
+      for (long id : files.keySet()) {
+        if (firstFileId < 0 || id < firstFileId)
+          firstFileId = id;
+        if (id > fileId && (nextFileId < 0 || id < nextFileId))
+          nextFileId = id;
+      }
+
+      fileId = nextFileId >= 0 ? nextFileId : firstFileId;
+      pageIndex = 0;
+
+      return fileId >= 0;
     }
 
-    lruEntry = a1in.get(fileId, pageIndex);
-    return lruEntry;
+    /**
+     * @return <code>false</code> if page was written during check and should be checked again.
+     */
+    private boolean checkPage(OMultiFileSegment multiFileSegment) throws IOException {
+      final FileAccessState accessState = fileAccessStates.get(fileId);
+      if (accessState == null)
+        return true;
+
+      final byte[] content = new byte[pageSize];
+
+      flushLock.lock();
+      try {
+        if (files.get(fileId) != multiFileSegment || pageIndex >= multiFileSegment.getFilledUpTo() / pageSize)
+          return true;
+
+        final long changesCounter = accessState.changesCounter.get();
+        multiFileSegment.readContinuously(pageIndex * pageSize, content, pageSize);
+
+        final OPageDataVerificationError error = verifyPage(content, 0, pageIndex, multiFileSegment.getName());
+        if (error == null)
+          return true;
+
+        if (accessState.changesCounter.get() != changesCounter || flushingPages.containsKey(new FileLockKey(fileId, pageIndex)))
+          return false;
+
+        reportBrokenPage(error);
+        return true;
+      } finally {
+        flushLock.unlock();
+      }
+    }
   }
 
-  private LRUEntry remove(long fileId, long pageIndex) {
-    LRUEntry lruEntry = am.remove(fileId, pageIndex);
-    if (lruEntry != null) {
-      if (lruEntry.usageCounter > 1)
-        throw new IllegalStateException("Record cannot be removed because it is used!");
-      return lruEntry;
+  /**
+   * Part of the cache which contains pages with the same (fileId, pageIndex) hash. All fields are guarded by segment's lock.
+   */
+  private final class Segment {
+    private final ReentrantLock                                  lock = new ReentrantLock();
+
+    private final int                                            maxSize;
+    private final int                                            K_IN;
+    private final int                                            K_OUT;
+
+    private final LRUList                                        am;
+    private final LRUList                                        a1out;
+    private final LRUList                                        a1in;
+
+    /**
+     * List of pages which were flushed out of the buffer but were not written to the disk.
+     */
+    private final Map<FileLockKey, Long>                         evictedPages;
+
+    /**
+     * Contains all pages in cache for given file, not only dirty onces.
+     */
+    private final Map<Long, Set<Long>>                           filePages;
+
+    /**
+     * Keys is a file id. Values is a sorted set of dirty pages.
+     */
+    private final Map<Long, SortedMap<Long, OLogSequenceNumber>> dirtyPages;
+
+    private Segment(int maxSize) {
+      this.maxSize = maxSize;
+
+      K_IN = maxSize >> 2;
+      K_OUT = maxSize >> 1;
+
+      am = new LRUList();
+      a1out = new LRUList();
+      a1in = new LRUList();
+
+      evictedPages = new HashMap<FileLockKey, Long>();
+      filePages = new HashMap<Long, Set<Long>>();
+      dirtyPages = new HashMap<Long, SortedMap<Long, OLogSequenceNumber>>();
+    }
+
+    private void doMarkDirty(long fileId, long pageIndex, LRUEntry lruEntry) {
+      if (lruEntry.isDirty)
+        return;
+
+      dirtyPages.get(fileId).put(pageIndex, lruEntry.loadedLSN);
+      lruEntry.isDirty = true;
+    }
+
+    private void flushFile(long fileId) throws IOException {
+      final SortedMap<Long, OLogSequenceNumber> dirtyPages = this.dirtyPages.get(fileId);
+
+      for (Iterator<Long> iterator = dirtyPages.keySet().iterator(); iterator.hasNext();) {
+        Long pageIndex = iterator.next();
+        LRUEntry lruEntry = get(fileId, pageIndex);
+
+        if (lruEntry == null) {
+          final Long dataPointer = removeEvictedPage(new FileLockKey(fileId, pageIndex));
+          if (dataPointer != null) {
+            flushData(fileId, pageIndex, dataPointer);
+            iterator.remove();
+          }
+        } else {
+          if (lruEntry.usageCounter == 0) {
+            flushData(fileId, lruEntry.pageIndex, lruEntry.dataPointer);
+            iterator.remove();
+            lruEntry.isDirty = false;
+          } else {
+            throw new OBlockedPageException("Unable to perform flush file because some pages is in use.");
+          }
+        }
+      }
+    }
+
+    private void closeFile(long fileId) throws IOException {
+      final Set<Long> pageIndexes = filePages.get(fileId);
+      Long[] sortedPageIndexes = new Long[pageIndexes.size()];
+      sortedPageIndexes = pageIndexes.toArray(sortedPageIndexes);
+      Arrays.sort(sortedPageIndexes);
+
+      for (Long pageIndex : sortedPageIndexes) {
+        LRUEntry lruEntry = get(fileId, pageIndex);
+        if (lruEntry != null) {
+          if (lruEntry.usageCounter == 0) {
+            lruEntry = remove(fileId, pageIndex);
+
+            flushData(fileId, pageIndex, lruEntry.dataPointer);
+            dirtyPages.get(fileId).remove(pageIndex);
+
+            directMemory.free(lruEntry.dataPointer);
+          }
+        } else {
+          Long dataPointer = removeEvictedPage(new FileLockKey(fileId, pageIndex));
+          if (dataPointer != null) {
+            flushData(fileId, pageIndex, dataPointer);
+            dirtyPages.get(fileId).remove(pageIndex);
+          }
+        }
+      }
+
+      pageIndexes.clear();
     }
-    lruEntry = a1out.remove(fileId, pageIndex);
-    if (lruEntry != null) {
+
+    private void truncateFile(long fileId) {
+      final Set<Long> pageEntries = filePages.get(fileId);
+      for (Long pageIndex : pageEntries) {
+        LRUEntry lruEntry = get(fileId, pageIndex);
+        if (lruEntry != null) {
+          if (lruEntry.usageCounter == 0) {
+            lruEntry = remove(fileId, pageIndex);
+            if (lruEntry.dataPointer != ODirectMemory.NULL_POINTER)
+              directMemory.free(lruEntry.dataPointer);
+          }
+        } else {
+          Long dataPointer = removeEvictedPage(new FileLockKey(fileId, pageIndex));
+          if (dataPointer != null)
+            directMemory.free(dataPointer);
+        }
+      }
+
+      dirtyPages.get(fileId).clear();
+
+      pageEntries.clear();
+    }
+
+    private void clear() {
+      am.clear();
+      a1in.clear();
+      a1out.clear();
+      for (Set<Long> fileEntries : filePages.values())
+        fileEntries.clear();
+      for (SortedMap<Long, OLogSequenceNumber> fileDirtyPages : dirtyPages.values())
+        fileDirtyPages.clear();
+    }
+
+    /**
+     * @param sequential
+     *          Whether page is loaded by sequential scan of file, such pages are not moved to am queue and do not evict pages from
+     *          it.
+     * @return Entry of page which is marked as used by current thread.
+     */
+    private LRUEntry updateCache(long fileId, long pageIndex, boolean sequential) throws IOException {
+      LRUEntry lruEntry = am.get(fileId, pageIndex);
+      if (lruEntry != null) {
+        if (!sequential)
+          lruEntry = am.putToMRU(fileId, pageIndex, lruEntry.dataPointer, lruEntry.isDirty, lruEntry.loadedLSN);
+
+        am.incrementUsageCounter(lruEntry);
+        return lruEntry;
+      }
+
+      lruEntry = a1out.remove(fileId, pageIndex);
+      if (lruEntry != null && !sequential) {
+        removeColdestPageIfNeeded(false);
+
+        CacheResult cacheResult = cacheFileContent(this, fileId, pageIndex);
+        lruEntry.dataPointer = cacheResult.dataPointer;
+        lruEntry.isDirty = cacheResult.isDirty;
+
+        OLogSequenceNumber lsn;
+        if (cacheResult.isDirty)
+          lsn = dirtyPages.get(fileId).get(pageIndex);
+        else
+          lsn = getLogSequenceNumberFromPage(cacheResult.dataPointer);
+
+        lruEntry = am.putToMRU(fileId, pageIndex, lruEntry.dataPointer, lruEntry.isDirty, lsn);
+        am.incrementUsageCounter(lruEntry);
+        return lruEntry;
+      }
+
+      lruEntry = a1in.get(fileId, pageIndex);
+      if (lruEntry != null) {
+        if (!sequential)
+          lruEntry.scanned = false;
+
+        a1in.incrementUsageCounter(lruEntry);
+        return lruEntry;
+      }
+
+      removeColdestPageIfNeeded(sequential);
+
+      CacheResult cacheResult = cacheFileContent(this, fileId, pageIndex);
+      OLogSequenceNumber lsn;
+      if (cacheResult.isDirty)
+        lsn = dirtyPages.get(fileId).get(pageIndex);
+      else
+        lsn = getLogSequenceNumberFromPage(cacheResult.dataPointer);
+
+      lruEntry = a1in.putToMRU(fileId, pageIndex, cacheResult.dataPointer, cacheResult.isDirty, lsn);
+      lruEntry.scanned = sequential;
+      a1in.incrementUsageCounter(lruEntry);
+
+      filePages.get(fileId).add(pageIndex);
+
       return lruEntry;
     }
-    lruEntry = a1in.remove(fileId, pageIndex);
-    if (lruEntry != null && lruEntry.usageCounter > 1)
-      throw new IllegalStateException("Record cannot be removed because it is used!");
-    return lruEntry;
-  }
 
-  private int calculatePageCrc(byte[] pageData) {
-    int systemSize = OLongSerializer.LONG_SIZE + OIntegerSerializer.INT_SIZE;
+    private void cacheReadAheadPage(long fileId, long pageIndex, byte[] content, int offset) throws IOException {
+      final FileLockKey key = new FileLockKey(fileId, pageIndex);
+      if (am.contains(fileId, pageIndex) || a1in.contains(fileId, pageIndex) || a1out.contains(fileId, pageIndex)
+          || evictedPages.containsKey(key) || flushingPages.containsKey(key))
+        return;
 
-    final CRC32 crc32 = new CRC32();
-    crc32.update(pageData, systemSize, pageData.length - systemSize);
+      removeColdestPageIfNeeded(true);
 
-    return (int) crc32.getValue();
+      final long dataPointer = directMemory.allocate(pageSize);
+      directMemory.set(dataPointer, content, offset, pageSize);
+
+      final LRUEntry lruEntry = a1in.putToMRU(fileId, pageIndex, dataPointer, false, getLogSequenceNumberFromPage(dataPointer));
+      lruEntry.scanned = true;
+
+      filePages.get(fileId).add(pageIndex);
+    }
+
+    /**
+     * @param sequential
+     *          If page is loaded by sequential scan, page is evicted from a1in queue while it has pages which are not in use.
+     */
+    private void removeColdestPageIfNeeded(boolean sequential) throws IOException {
+      if (am.size() + a1in.size() >= maxSize) {
+        if (a1in.size() > K_IN || (sequential && a1in.hasUnusedEntries())) {
+          LRUEntry removedFromAInEntry = a1in.removeLRU();
+          assert removedFromAInEntry.usageCounter == 0;
+          evictFileContent(removedFromAInEntry.fileId, removedFromAInEntry.pageIndex, removedFromAInEntry.dataPointer,
+              removedFromAInEntry.isDirty);
+
+          // pages of sequential scans are read only once, so they are not remembered
+          if (removedFromAInEntry.scanned) {
+            filePages.get(removedFromAInEntry.fileId).remove(removedFromAInEntry.pageIndex);
+            return;
+          }
+
+          a1out.putToMRU(removedFromAInEntry.fileId, removedFromAInEntry.pageIndex, ODirectMemory.NULL_POINTER, false, null);
+          if (a1out.size() > K_OUT) {
+            LRUEntry removedEntry = a1out.removeLRU();
+            assert removedEntry.usageCounter == 0;
+            Set<Long> pageEntries = filePages.get(removedEntry.fileId);
+            pageEntries.remove(removedEntry.pageIndex);
+          }
+        } else {
+          LRUEntry removedEntry = am.removeLRU();
+          assert removedEntry.usageCounter == 0;
+          evictFileContent(removedEntry.fileId, removedEntry.pageIndex, removedEntry.dataPointer, removedEntry.isDirty);
+          Set<Long> pageEntries = filePages.get(removedEntry.fileId);
+          pageEntries.remove(removedEntry.pageIndex);
+        }
+      }
+    }
+
+    private void evictFileContent(long fileId, long pageIndex, long dataPointer, boolean isDirty) throws IOException {
+      if (isDirty) {
+        if (writeQueueSize.get() >= writeQueueLength)
+          flushEvictedPages();
+
+        evictedPages.put(new FileLockKey(fileId, pageIndex), dataPointer);
+
+        if (writeQueueSize.incrementAndGet() >= writeQueueLength >> 1)
+          scheduleWriteBehind();
+      } else {
+        directMemory.free(dataPointer);
+      }
+    }
+
+    private void flushEvictedPages() throws IOException {
+      @SuppressWarnings("unchecked")
+      Map.Entry<FileLockKey, Long>[] sortedPages = evictedPages.entrySet().toArray(new Map.Entry[evictedPages.size()]);
+      Arrays.sort(sortedPages, new Comparator<Map.Entry>() {
+        @Override
+        public int compare(Map.Entry entryOne, Map.Entry entryTwo) {
+          FileLockKey fileLockKeyOne = (FileLockKey) entryOne.getKey();
+          FileLockKey fileLockKeyTwo = (FileLockKey) entryTwo.getKey();
+          return fileLockKeyOne.compareTo(fileLockKeyTwo);
+        }
+      });
+
+      for (Map.Entry<FileLockKey, Long> entry : sortedPages) {
+        long evictedDataPointer = entry.getValue();
+        FileLockKey fileLockKey = entry.getKey();
+
+        awaitPageFlush(fileLockKey);
+        markFlushStale(fileLockKey);
+
+        flushData(fileLockKey.fileId, fileLockKey.pageIndex, evictedDataPointer);
+        dirtyPages.get(fileLockKey.fileId).remove(fileLockKey.pageIndex);
+
+        directMemory.free(evictedDataPointer);
+      }
+
+      writeQueueSize.addAndGet(-evictedPages.size());
+      evictedPages.clear();
+    }
+
+    private Long removeEvictedPage(FileLockKey key) {
+      final Long dataPointer = evictedPages.remove(key);
+      if (dataPointer != null) {
+        writeQueueSize.decrementAndGet();
+        markFlushStale(key);
+      }
+
+      return dataPointer;
+    }
+
+    private void markFlushStale(FileLockKey key) {
+      final PageFlushTask flushTask = flushingPages.get(key);
+      if (flushTask != null)
+        flushTask.stale = true;
+    }
+
+    /**
+     * Copies content of evicted pages and dirty pages which are not in use and have LSN which is already flushed to the WAL.
+     * Dirty pages are marked as clean, pages which are written by other flusher at the moment are skipped.
+     * 
+     * @return Pages which should be written by flusher.
+     */
+    private List<PageFlushTask> prepareWriteBehind() {
+      final List<PageFlushTask> flushTasks = new ArrayList<PageFlushTask>();
+
+      lock.lock();
+      try {
+        final OLogSequenceNumber flushedLSN = writeAheadLog != null ? writeAheadLog.getFlushedLSN() : null;
+
+        for (Map.Entry<FileLockKey, Long> entry : evictedPages.entrySet())
+          if (!flushingPages.containsKey(entry.getKey()))
+            flushTasks.add(new PageFlushTask(entry.getKey(), directMemory.get(entry.getValue(), pageSize), true));
+
+        for (Map.Entry<Long, SortedMap<Long, OLogSequenceNumber>> fileEntry : dirtyPages.entrySet()) {
+          final long fileId = fileEntry.getKey();
+
+          for (Iterator<Long> iterator = fileEntry.getValue().keySet().iterator(); iterator.hasNext();) {
+            final long pageIndex = iterator.next();
+            final LRUEntry lruEntry = get(fileId, pageIndex);
+            if (lruEntry == null || lruEntry.usageCounter != 0)
+              continue;
+
+            final FileLockKey key = new FileLockKey(fileId, pageIndex);
+            if (flushingPages.containsKey(key))
+              continue;
+
+            final byte[] content = directMemory.get(lruEntry.dataPointer, pageSize);
+            if (writeAheadLog != null && (flushedLSN == null || flushedLSN.compareTo(getLogSequenceNumberFromPage(content)) < 0))
+              continue;
+
+            flushTasks.add(new PageFlushTask(key, content, false));
+            lruEntry.isDirty = false;
+            iterator.remove();
+          }
+        }
+
+        for (PageFlushTask flushTask : flushTasks)
+          flushingPages.put(flushTask.key, flushTask);
+      } finally {
+        lock.unlock();
+      }
+
+      return flushTasks;
+    }
+
+    /**
+     * Removes written evicted pages from the write queue and marks dirty pages which were not written as dirty again.
+     */
+    private void completeWriteBehind(List<PageFlushTask> flushTasks) {
+      if (flushTasks.isEmpty())
+        return;
+
+      lock.lock();
+      try {
+        for (PageFlushTask flushTask : flushTasks) {
+          flushingPages.remove(flushTask.key, flushTask);
+
+          if (flushTask.stale)
+            continue;
+
+          final FileLockKey key = flushTask.key;
+          if (flushTask.evicted) {
+            if (flushTask.written) {
+              final Long dataPointer = evictedPages.remove(key);
+              writeQueueSize.decrementAndGet();
+              dirtyPages.get(key.fileId).remove(key.pageIndex);
+              directMemory.free(dataPointer);
+            }
+          } else if (!flushTask.written) {
+            final LRUEntry lruEntry = get(key.fileId, key.pageIndex);
+            if (lruEntry != null && dirtyPages.containsKey(key.fileId))
+              doMarkDirty(key.fileId, key.pageIndex, lruEntry);
+          }
+        }
+      } finally {
+        lock.unlock();
+      }
+    }
+
+    private LRUEntry get(long fileId, long pageIndex) {
+      LRUEntry lruEntry = am.get(fileId, pageIndex);
+
+      if (lruEntry != null) {
+        return lruEntry;
+      }
+
+      lruEntry = a1in.get(fileId, pageIndex);
+      return lruEntry;
+    }
+
+    private LRUEntry remove(long fileId, long pageIndex) {
+      LRUEntry lruEntry = am.remove(fileId, pageIndex);
+      if (lruEntry != null) {
+        if (lruEntry.usageCounter > 1)
+          throw new IllegalStateException("Record cannot be removed because it is used!");
+        return lruEntry;
+      }
+      lruEntry = a1out.remove(fileId, pageIndex);
+      if (lruEntry != null) {
+        return lruEntry;
+      }
+      lruEntry = a1in.remove(fileId, pageIndex);
+      if (lruEntry != null && lruEntry.usageCounter > 1)
+        throw new IllegalStateException("Record cannot be removed because it is used!");
+      return lruEntry;
+    }
   }
 
   private static final class FileLockKey implements Comparable<FileLockKey> {
@@ -38,6 +38,8 @@ public interface ODiskCache {
 
   void flushBuffer() throws IOException;
 
+  void writeDirtyPages() throws IOException;
+
   void clear() throws IOException;
 
   void close() throws IOException;
@@ -0,0 +1,1036 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.index.sbtree.local;
+
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.orientechnologies.common.collection.OCompositeKey;
+import com.orientechnologies.common.concur.lock.OModificationLock;
+import com.orientechnologies.common.concur.resource.OCloseable;
+import com.orientechnologies.common.concur.resource.OSharedResourceAdaptive;
+import com.orientechnologies.common.listener.OProgressListener;
+import com.orientechnologies.common.serialization.types.OBinarySerializer;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabase;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.db.record.ORecordElement;
+import com.orientechnologies.orient.core.exception.OConfigurationException;
+import com.orientechnologies.orient.core.exception.OTransactionException;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.index.ODocumentFieldsHashSet;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.index.OIndexDefinition;
+import com.orientechnologies.orient.core.index.OIndexException;
+import com.orientechnologies.orient.core.index.OIndexInternal;
+import com.orientechnologies.orient.core.index.OIndexRebuildOutputListener;
+import com.orientechnologies.orient.core.index.ORuntimeKeyIndexDefinition;
+import com.orientechnologies.orient.core.index.OSimpleKeyIndexDefinition;
+import com.orientechnologies.orient.core.intent.OIntentMassiveInsert;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.ORecord;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.record.impl.ORecordBytes;
+import com.orientechnologies.orient.core.serialization.serializer.OStringSerializerHelper;
+import com.orientechnologies.orient.core.serialization.serializer.binary.OBinarySerializerFactory;
+import com.orientechnologies.orient.core.serialization.serializer.binary.impl.index.OCompositeKeySerializer;
+import com.orientechnologies.orient.core.serialization.serializer.binary.impl.index.OSimpleKeySerializer;
+import com.orientechnologies.orient.core.serialization.serializer.stream.OStreamSerializerAnyStreamable;
+import com.orientechnologies.orient.core.storage.impl.local.OStorageLocalAbstract;
+import com.orientechnologies.orient.core.tx.OTransactionIndexChanges.OPERATION;
+
+/**
+ * Index which keeps its entries in {@link OSBTree}, so unlike hash index it supports range queries. Values of index are expected
+ * to be {@link OIdentifiable} instances.
+ *
+ * Keys of index may differ from keys of tree, see {@link #toTreeKey(Object)} and {@link #fromTreeKey(Object)}, range queries and
+ * iterators convert them by these methods.
+ */
+public abstract class OAbstractLocalSBTreeIndex<T> extends OSharedResourceAdaptive implements OIndexInternal<T>, OCloseable {
+  private static final String       CONFIG_CLUSTERS     = "clusters";
+  private static final String       CONFIG_MAP_RID      = "mapRid";
+  public static final String        DATA_FILE_EXTENSION = ".sbt";
+
+  protected final OSBTree<Object, OIdentifiable> sbTree;
+  protected final OModificationLock modificationLock    = new OModificationLock();
+  private OStorageLocalAbstract     storage;
+
+  private String                    name;
+  private String                    type;
+
+  private OIndexDefinition          indexDefinition;
+  private Set<String>               clustersToIndex     = new LinkedHashSet<String>();
+
+  private ODocument                 configuration;
+  private ORID                      identity;
+  private boolean                   rebuiding           = false;
+
+  public OAbstractLocalSBTreeIndex(String type) {
+    super(OGlobalConfiguration.ENVIRONMENT_CONCURRENT.getValueAsBoolean());
+
+    this.type = type;
+    this.sbTree = new OSBTree<Object, OIdentifiable>(DATA_FILE_EXTENSION);
+  }
+
+  public OIndex<T> create(String name, OIndexDefinition indexDefinition, ODatabaseRecord database, String clusterIndexName,
+      int[] clusterIdsToIndex, OProgressListener progressListener, OBinarySerializer<OIdentifiable> valueSerializer) {
+    acquireExclusiveLock();
+    try {
+      configuration = new ODocument();
+      this.indexDefinition = indexDefinition;
+      this.name = name;
+      storage = (OStorageLocalAbstract) database.getStorage();
+
+      final ORecord<?> emptyRecord = new ORecordBytes(new byte[] {});
+      emptyRecord.save(clusterIndexName);
+      identity = emptyRecord.getIdentity();
+
+      final OBinarySerializer<Object> keySerializer = detectKeySerializer(indexDefinition);
+
+      if (clusterIdsToIndex != null)
+        for (final int id : clusterIdsToIndex)
+          clustersToIndex.add(database.getClusterNameById(id));
+
+      sbTree.create(name, keySerializer, valueSerializer, storage);
+
+      updateConfiguration();
+      rebuild(progressListener);
+      return this;
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  /**
+   * Keys of all types are kept in the same tree, so serializer of concrete key type is used as serializer of objects.
+   */
+  @SuppressWarnings("unchecked")
+  protected OBinarySerializer<Object> detectKeySerializer(OIndexDefinition indexDefinition) {
+    final OBinarySerializer<?> keySerializer;
+    if (indexDefinition != null) {
+      if (indexDefinition instanceof ORuntimeKeyIndexDefinition)
+        keySerializer = ((ORuntimeKeyIndexDefinition<?>) indexDefinition).getSerializer();
+      else {
+        if (indexDefinition.getTypes().length > 1)
+          keySerializer = OCompositeKeySerializer.INSTANCE;
+        else
+          keySerializer = OBinarySerializerFactory.INSTANCE.getObjectSerializer(indexDefinition.getTypes()[0]);
+      }
+    } else
+      keySerializer = new OSimpleKeySerializer<Comparable<?>>();
+
+    return (OBinarySerializer<Object>) keySerializer;
+  }
+
+  @Override
+  public void unload() {
+  }
+
+  @Override
+  public String getDatabaseName() {
+    return storage.getName();
+  }
+
+  @Override
+  public OType[] getKeyTypes() {
+    if (indexDefinition == null)
+      return null;
+
+    return indexDefinition.getTypes();
+  }
+
+  @Override
+  public Iterator<OIdentifiable> valuesIterator() {
+    return new ValuesIterator(true);
+  }
+
+  @Override
+  public Iterator<OIdentifiable> valuesInverseIterator() {
+    return new ValuesIterator(false);
+  }
+
+  @Override
+  public OIndex<T> put(Object key, OIdentifiable value) {
+    modificationLock.requestModificationLock();
+    try {
+      acquireExclusiveLock();
+      try {
+        sbTree.put(key, value);
+        return this;
+      } finally {
+        releaseExclusiveLock();
+      }
+    } finally {
+      modificationLock.releaseModificationLock();
+    }
+  }
+
+  @Override
+  public boolean remove(Object key) {
+    modificationLock.requestModificationLock();
+    try {
+      acquireExclusiveLock();
+      try {
+        return sbTree.remove(key) != null;
+      } finally {
+        releaseExclusiveLock();
+      }
+    } finally {
+      modificationLock.releaseModificationLock();
+    }
+  }
+
+  @Override
+  public int remove(OIdentifiable iRID) {
+    modificationLock.requestModificationLock();
+    try {
+      acquireExclusiveLock();
+      try {
+        final List<Object> keysToRemove = new ArrayList<Object>();
+        final Iterator<OSBTreeBucket.Entry<Object, OIdentifiable>> iterator = new TreeEntriesIterator(true);
+        while (iterator.hasNext()) {
+          final OSBTreeBucket.Entry<Object, OIdentifiable> entry = iterator.next();
+          if (entry.value.getIdentity().equals(iRID.getIdentity()))
+            keysToRemove.add(entry.key);
+        }
+
+        for (final Object key : keysToRemove)
+          sbTree.remove(key);
+
+        return keysToRemove.size();
+      } finally {
+        releaseExclusiveLock();
+      }
+    } finally {
+      modificationLock.releaseModificationLock();
+    }
+  }
+
+  @Override
+  public OIndex<T> clear() {
+    modificationLock.requestModificationLock();
+    try {
+      acquireExclusiveLock();
+      try {
+        sbTree.clear();
+
+        return this;
+      } finally {
+        releaseExclusiveLock();
+      }
+    } finally {
+      modificationLock.releaseModificationLock();
+    }
+  }
+
+  @Override
+  public Iterable<Object> keys() {
+    return new Iterable<Object>() {
+      @Override
+      public Iterator<Object> iterator() {
+        return new KeysIterator();
+      }
+    };
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValuesBetween(Object iRangeFrom, Object iRangeTo) {
+    return getValuesBetween(iRangeFrom, true, iRangeTo, true);
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValuesBetween(Object iRangeFrom, boolean iFromInclusive, Object iRangeTo, boolean iToInclusive) {
+    return getValuesBetween(iRangeFrom, iFromInclusive, iRangeTo, iToInclusive, -1);
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValuesBetween(Object iRangeFrom, boolean iFromInclusive, Object iRangeTo,
+      boolean iToInclusive, int maxValuesToFetch) {
+    if (iRangeFrom.getClass() != iRangeTo.getClass())
+      throw new IllegalArgumentException("Range from-to parameters are of different types");
+
+    final ValuesResultListener listener = new ValuesResultListener(maxValuesToFetch);
+
+    acquireSharedLock();
+    try {
+      sbTree.loadEntriesBetween(toTreeKey(iRangeFrom), iFromInclusive, toTreeKey(iRangeTo), iToInclusive, listener);
+      return listener.result;
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValuesMajor(Object fromKey, boolean isInclusive) {
+    return getValuesMajor(fromKey, isInclusive, -1);
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValuesMajor(Object fromKey, boolean isInclusive, int maxValuesToFetch) {
+    final ValuesResultListener listener = new ValuesResultListener(maxValuesToFetch);
+
+    acquireSharedLock();
+    try {
+      sbTree.loadEntriesMajor(toTreeKey(fromKey), isInclusive, listener);
+      return listener.result;
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValuesMinor(Object toKey, boolean isInclusive) {
+    return getValuesMinor(toKey, isInclusive, -1);
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValuesMinor(Object toKey, boolean isInclusive, int maxValuesToFetch) {
+    final ValuesResultListener listener = new ValuesResultListener(maxValuesToFetch);
+
+    acquireSharedLock();
+    try {
+      sbTree.loadEntriesMinor(toTreeKey(toKey), isInclusive, listener);
+      return listener.result;
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  @Override
+  public Collection<ODocument> getEntriesMajor(Object fromKey, boolean isInclusive) {
+    return getEntriesMajor(fromKey, isInclusive, -1);
+  }
+
+  @Override
+  public Collection<ODocument> getEntriesMajor(Object fromKey, boolean isInclusive, int maxEntriesToFetch) {
+    final EntriesResultListener listener = new EntriesResultListener(maxEntriesToFetch);
+
+    acquireSharedLock();
+    try {
+      sbTree.loadEntriesMajor(toTreeKey(fromKey), isInclusive, listener);
+      return listener.result;
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  @Override
+  public Collection<ODocument> getEntriesMinor(Object toKey, boolean isInclusive) {
+    return getEntriesMinor(toKey, isInclusive, -1);
+  }
+
+  @Override
+  public Collection<ODocument> getEntriesMinor(Object toKey, boolean isInclusive, int maxEntriesToFetch) {
+    final EntriesResultListener listener = new EntriesResultListener(maxEntriesToFetch);
+
+    acquireSharedLock();
+    try {
+      sbTree.loadEntriesMinor(toTreeKey(toKey), isInclusive, listener);
+      return listener.result;
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  @Override
+  public Collection<ODocument> getEntriesBetween(Object iRangeFrom, Object iRangeTo, boolean iInclusive) {
+    return getEntriesBetween(iRangeFrom, iRangeTo, iInclusive, -1);
+  }
+
+  @Override
+  public Collection<ODocument> getEntriesBetween(Object iRangeFrom, Object iRangeTo, boolean iInclusive, int maxEntriesToFetch) {
+    if (iRangeFrom.getClass() != iRangeTo.getClass())
+      throw new IllegalArgumentException("Range from-to parameters are of different types");
+
+    final EntriesResultListener listener = new EntriesResultListener(maxEntriesToFetch);
+
+    acquireSharedLock();
+    try {
+      sbTree.loadEntriesBetween(toTreeKey(iRangeFrom), iInclusive, toTreeKey(iRangeTo), iInclusive, listener);
+      return listener.result;
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  @Override
+  public Collection<ODocument> getEntriesBetween(Object iRangeFrom, Object iRangeTo) {
+    return getEntriesBetween(iRangeFrom, iRangeTo, true);
+  }
+
+  @Override
+  public long getSize() {
+    return sbTree.size();
+  }
+
+  @Override
+  public long getKeySize() {
+    return sbTree.size();
+  }
+
+  @Override
+  public OIndex<T> lazySave() {
+    flush();
+    return this;
+  }
+
+  @Override
+  public OIndex<T> delete() {
+    acquireExclusiveLock();
+    try {
+      sbTree.delete();
+      return this;
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  @Override
+  public String getName() {
+    return name;
+  }
+
+  @Override
+  public String getType() {
+    return type;
+  }
+
+  @Override
+  public boolean isAutomatic() {
+    return indexDefinition != null && indexDefinition.getClassName() != null;
+  }
+
+  @Override
+  public long rebuild() {
+    return rebuild(new OIndexRebuildOutputListener(this));
+  }
+
+  @Override
+  public long rebuild(OProgressListener iProgressListener) {
+    long documentIndexed = 0;
+
+    final boolean intentInstalled = getDatabase().declareIntent(new OIntentMassiveInsert());
+
+    acquireExclusiveLock();
+    try {
+      rebuiding = true;
+
+      try {
+        clear();
+      } catch (Exception e) {
+        // IGNORE EXCEPTION: IF THE REBUILD WAS LAUNCHED IN CASE OF RID INVALID CLEAR ALWAYS GOES IN ERROR
+      }
+
+      int documentNum = 0;
+      long documentTotal = 0;
+
+      for (final String cluster : clustersToIndex)
+        documentTotal += getDatabase().countClusterElements(cluster);
+
+      if (iProgressListener != null)
+        iProgressListener.onBegin(this, documentTotal);
+
+      for (final String clusterName : clustersToIndex)
+        try {
+          for (final ORecord<?> record : getDatabase().browseCluster(clusterName)) {
+            if (record instanceof ODocument) {
+              final ODocument doc = (ODocument) record;
+
+              if (indexDefinition == null)
+                throw new OConfigurationException("Index '" + name + "' cannot be rebuilt because has no a valid definition ("
+                    + indexDefinition + ")");
+
+              final Object fieldValue = indexDefinition.getDocumentValueToIndex(doc);
+
+              if (fieldValue != null) {
+                if (fieldValue instanceof Collection) {
+                  for (final Object fieldValueItem : (Collection<?>) fieldValue) {
+                    put(fieldValueItem, doc);
+                  }
+                } else
+                  put(fieldValue, doc);
+
+                ++documentIndexed;
+              }
+            }
+            documentNum++;
+
+            if (iProgressListener != null)
+              iProgressListener.onProgress(this, documentNum, documentNum * 100f / documentTotal);
+
+          }
+        } catch (NoSuchElementException e) {
+          // END OF CLUSTER REACHED, IGNORE IT
+        }
+
+      if (iProgressListener != null)
+        iProgressListener.onCompletition(this, true);
+
+    } catch (final Exception e) {
+      if (iProgressListener != null)
+        iProgressListener.onCompletition(this, false);
+
+      try {
+        clear();
+      } catch (Exception e2) {
+        // IGNORE EXCEPTION: IF THE REBUILD WAS LAUNCHED IN CASE OF RID INVALID CLEAR ALWAYS GOES IN ERROR
+      }
+
+      throw new OIndexException("Error on rebuilding the index for clusters: " + clustersToIndex, e);
+
+    } finally {
+      rebuiding = false;
+
+      if (intentInstalled)
+        getDatabase().declareIntent(null);
+
+      releaseExclusiveLock();
+    }
+
+    return documentIndexed;
+  }
+
+  protected ODatabaseRecord getDatabase() {
+    return ODatabaseRecordThreadLocal.INSTANCE.get();
+  }
+
+  @Override
+  public ODocument getConfiguration() {
+    return configuration;
+  }
+
+  @Override
+  public ORID getIdentity() {
+    return identity;
+  }
+
+  @Override
+  public void commit(ODocument iDocument) {
+    if (iDocument == null)
+      return;
+
+    acquireExclusiveLock();
+    try {
+      final Boolean clearAll = (Boolean) iDocument.field("clear");
+      if (clearAll != null && clearAll)
+        clear();
+
+      final Collection<ODocument> entries = iDocument.field("entries");
+
+      for (final ODocument entry : entries) {
+        final Object key = deserializeKey(OStringSerializerHelper.decode((String) entry.field("k")));
+
+        final List<ODocument> operations = entry.field("ops");
+        if (operations != null) {
+          for (final ODocument op : operations) {
+            final int operation = (Integer) op.rawField("o");
+            final OIdentifiable value = op.field("v", OType.LINK);
+
+            if (operation == OPERATION.PUT.ordinal())
+              put(key, value);
+            else if (operation == OPERATION.REMOVE.ordinal()) {
+              if (key.equals("*"))
+                remove(value);
+              else if (value == null)
+                remove(key);
+              else
+                remove(key, value);
+            }
+          }
+        }
+      }
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  private static Object deserializeKey(final String serializedKey) {
+    if (serializedKey.equals("*"))
+      return "*";
+
+    try {
+      final ODocument keyContainer = new ODocument();
+      keyContainer.setLazyLoad(false);
+
+      keyContainer.fromString(serializedKey);
+
+      final Object storedKey = keyContainer.field("key");
+      if (storedKey instanceof List)
+        return new OCompositeKey((List<? extends Comparable<?>>) storedKey);
+      else if (Boolean.TRUE.equals(keyContainer.field("binary")))
+        return OStreamSerializerAnyStreamable.INSTANCE.fromStream((byte[]) storedKey);
+
+      return storedKey;
+    } catch (IOException ioe) {
+      throw new OTransactionException("Error during index changes deserialization. ", ioe);
+    }
+  }
+
+  @Override
+  public OIndexInternal<T> getInternal() {
+    return this;
+  }
+
+  protected void checkForKeyType(final Object iKey) {
+    if (indexDefinition == null) {
+      // RECOGNIZE THE KEY TYPE AT RUN-TIME
+
+      final OType type = OType.getTypeByClass(iKey.getClass());
+      if (type == null)
+        return;
+
+      indexDefinition = new OSimpleKeyIndexDefinition(type);
+
+      sbTree.setKeySerializer(detectKeySerializer(indexDefinition));
+      updateConfiguration();
+    }
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValues(Collection<?> iKeys) {
+    return getValues(iKeys, -1);
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValues(Collection<?> iKeys, int maxValuesToFetch) {
+    final ValuesResultListener listener = new ValuesResultListener(maxValuesToFetch);
+
+    acquireSharedLock();
+    try {
+      loadEntries(iKeys, listener);
+      return listener.result;
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  @Override
+  public Collection<ODocument> getEntries(Collection<?> iKeys) {
+    return getEntries(iKeys, -1);
+  }
+
+  @Override
+  public Collection<ODocument> getEntries(Collection<?> iKeys, int maxEntriesToFetch) {
+    final EntriesResultListener listener = new EntriesResultListener(maxEntriesToFetch);
+
+    acquireSharedLock();
+    try {
+      loadEntries(iKeys, listener);
+      return listener.result;
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  /**
+   * Passes to the listener entries of passed in keys.
+   */
+  protected void loadEntries(Collection<?> keys, OSBTree.RangeResultListener<Object, OIdentifiable> listener) {
+    sbTree.loadEntries(keys, listener);
+  }
+
+  /**
+   * Converts key of index into key of tree which is used as boundary of range queries. Key of index is used as key of tree by
+   * default.
+   */
+  protected Object toTreeKey(Object key) {
+    return key;
+  }
+
+  /**
+   * Converts key of tree into key of index, reverse operation to {@link #toTreeKey(Object)}.
+   */
+  protected Object fromTreeKey(Object treeKey) {
+    return treeKey;
+  }
+
+  @Override
+  public OIndexDefinition getDefinition() {
+    return indexDefinition;
+  }
+
+  @Override
+  public Set<String> getClusters() {
+    return Collections.unmodifiableSet(clustersToIndex);
+  }
+
+  @Override
+  public boolean supportsOrderedIterations() {
+    return true;
+  }
+
+  @Override
+  public void flush() {
+    acquireExclusiveLock();
+    try {
+      sbTree.flush();
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  @Override
+  public boolean loadFromConfiguration(ODocument configuration) {
+    acquireExclusiveLock();
+    try {
+      final ORID rid = (ORID) configuration.field(CONFIG_MAP_RID, ORID.class);
+      if (rid == null)
+        throw new OIndexException("Error during deserialization of index definition: '" + CONFIG_MAP_RID + "' attribute is null");
+      identity = rid;
+
+      this.configuration = configuration;
+      name = configuration.field(OIndexInternal.CONFIG_NAME);
+      type = configuration.field(OIndexInternal.CONFIG_TYPE);
+      storage = (OStorageLocalAbstract) getDatabase().getStorage();
+
+      final ODocument indexDefinitionDoc = configuration.field(OIndexInternal.INDEX_DEFINITION);
+      if (indexDefinitionDoc != null) {
+        try {
+          final String indexDefClassName = configuration.field(OIndexInternal.INDEX_DEFINITION_CLASS);
+          final Class<?> indexDefClass = Class.forName(indexDefClassName);
+          indexDefinition = (OIndexDefinition) indexDefClass.getDeclaredConstructor().newInstance();
+          indexDefinition.fromStream(indexDefinitionDoc);
+
+        } catch (final ClassNotFoundException e) {
+          throw new OIndexException("Error during deserialization of index definition", e);
+        } catch (final NoSuchMethodException e) {
+          throw new OIndexException("Error during deserialization of index definition", e);
+        } catch (final InvocationTargetException e) {
+          throw new OIndexException("Error during deserialization of index definition", e);
+        } catch (final InstantiationException e) {
+          throw new OIndexException("Error during deserialization of index definition", e);
+        } catch (final IllegalAccessException e) {
+          throw new OIndexException("Error during deserialization of index definition", e);
+        }
+
+        clustersToIndex.clear();
+
+        final Collection<? extends String> clusters = configuration.field(CONFIG_CLUSTERS);
+        if (clusters != null)
+          clustersToIndex.addAll(clusters);
+      }
+
+      sbTree.load(name, storage);
+      return true;
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  @Override
+  public boolean equals(final Object o) {
+    if (this == o)
+      return true;
+    if (o == null || getClass() != o.getClass())
+      return false;
+
+    final OAbstractLocalSBTreeIndex<?> that = (OAbstractLocalSBTreeIndex<?>) o;
+
+    if (!name.equals(that.name))
+      return false;
+
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    return name.hashCode();
+  }
+
+  @Override
+  public ODocument updateConfiguration() {
+    acquireExclusiveLock();
+    try {
+
+      configuration.setInternalStatus(ORecordElement.STATUS.UNMARSHALLING);
+
+      try {
+        configuration.field(OIndexInternal.CONFIG_TYPE, type);
+        configuration.field(OIndexInternal.CONFIG_NAME, name);
+
+        if (indexDefinition != null) {
+          final ODocument indexDefDocument = indexDefinition.toStream();
+          if (!indexDefDocument.hasOwners())
+            indexDefDocument.addOwner(configuration);
+
+          configuration.field(OIndexInternal.INDEX_DEFINITION, indexDefDocument, OType.EMBEDDED);
+          configuration.field(OIndexInternal.INDEX_DEFINITION_CLASS, indexDefinition.getClass().getName());
+        } else {
+          configuration.removeField(OIndexInternal.INDEX_DEFINITION);
+          configuration.removeField(OIndexInternal.INDEX_DEFINITION_CLASS);
+        }
+
+        configuration.field(CONFIG_CLUSTERS, clustersToIndex, OType.EMBEDDEDSET);
+        configuration.field(CONFIG_MAP_RID, identity);
+      } finally {
+        configuration.setInternalStatus(ORecordElement.STATUS.LOADED);
+      }
+
+      return configuration;
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  @Override
+  public OIndex<T> addCluster(String iClusterName) {
+    acquireExclusiveLock();
+    try {
+      if (clustersToIndex.add(iClusterName))
+        updateConfiguration();
+      return this;
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  @Override
+  public OIndex<T> removeCluster(String iClusterName) {
+    acquireExclusiveLock();
+    try {
+      if (clustersToIndex.remove(iClusterName))
+        updateConfiguration();
+      return this;
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  @Override
+  public boolean canBeUsedInEqualityOperators() {
+    return true;
+  }
+
+  @Override
+  public void freeze(boolean throwException) {
+    modificationLock.prohibitModifications(throwException);
+  }
+
+  @Override
+  public void release() {
+    modificationLock.allowModifications();
+  }
+
+  @Override
+  public void acquireModificationLock() {
+    modificationLock.requestModificationLock();
+  }
+
+  @Override
+  public void releaseModificationLock() {
+    modificationLock.releaseModificationLock();
+  }
+
+  @Override
+  public void onCreate(ODatabase iDatabase) {
+  }
+
+  @Override
+  public void onDelete(ODatabase iDatabase) {
+  }
+
+  @Override
+  public void onOpen(ODatabase iDatabase) {
+  }
+
+  @Override
+  public void onBeforeTxBegin(ODatabase iDatabase) {
+  }
+
+  @Override
+  public void onBeforeTxRollback(ODatabase iDatabase) {
+  }
+
+  @Override
+  public void onAfterTxRollback(ODatabase iDatabase) {
+  }
+
+  @Override
+  public void onBeforeTxCommit(ODatabase iDatabase) {
+  }
+
+  @Override
+  public void onAfterTxCommit(ODatabase iDatabase) {
+  }
+
+  @Override
+  public void onClose(ODatabase iDatabase) {
+  }
+
+  @Override
+  public boolean onCorruptionRepairDatabase(ODatabase iDatabase, String iReason, String iWhatWillbeFixed) {
+    return true;
+  }
+
+  @Override
+  public void close() {
+    acquireExclusiveLock();
+    try {
+      sbTree.close();
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  public boolean isRebuiding() {
+    return rebuiding;
+  }
+
+  private static ODocument createEntryDocument(final Object key, final OIdentifiable value) {
+    final ODocument document = new ODocument();
+    document.field("key", key);
+    document.field("rid", value.getIdentity());
+    document.unsetDirty();
+
+    return document;
+  }
+
+  private final class ValuesResultListener implements OSBTree.RangeResultListener<Object, OIdentifiable> {
+    private final Set<OIdentifiable> result = new HashSet<OIdentifiable>();
+    private final int                maxValuesToFetch;
+
+    private ValuesResultListener(final int maxValuesToFetch) {
+      this.maxValuesToFetch = maxValuesToFetch;
+    }
+
+    @Override
+    public boolean addResult(final OSBTreeBucket.Entry<Object, OIdentifiable> entry) {
+      if (maxValuesToFetch > -1 && result.size() == maxValuesToFetch)
+        return false;
+
+      result.add(entry.value);
+      return true;
+    }
+  }
+
+  private final class EntriesResultListener implements OSBTree.RangeResultListener<Object, OIdentifiable> {
+    private final Set<ODocument> result = new ODocumentFieldsHashSet();
+    private final int            maxEntriesToFetch;
+
+    private EntriesResultListener(final int maxEntriesToFetch) {
+      this.maxEntriesToFetch = maxEntriesToFetch;
+    }
+
+    @Override
+    public boolean addResult(final OSBTreeBucket.Entry<Object, OIdentifiable> entry) {
+      if (maxEntriesToFetch > -1 && result.size() == maxEntriesToFetch)
+        return false;
+
+      result.add(createEntryDocument(fromTreeKey(entry.key), entry.value));
+      return true;
+    }
+  }
+
+  /**
+   * Iterates over entries of tree in portions of single leaf, see {@link OSBTree#loadNextPortion(Object, boolean)}.
+   */
+  protected abstract class PortionIterator<E> implements Iterator<E> {
+    private final boolean                                        ascending;
+    private Iterator<OSBTreeBucket.Entry<Object, OIdentifiable>> portion;
+    private Object                                               lastKey;
+    private boolean                                              ended;
+
+    protected PortionIterator(final boolean ascending) {
+      this.ascending = ascending;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (portion == null || !portion.hasNext()) {
+        if (ended)
+          return false;
+
+        final List<OSBTreeBucket.Entry<Object, OIdentifiable>> entries;
+        acquireSharedLock();
+        try {
+          entries = sbTree.loadNextPortion(lastKey, ascending);
+        } finally {
+          releaseSharedLock();
+        }
+
+        if (entries.isEmpty()) {
+          ended = true;
+          return false;
+        }
+
+        lastKey = entries.get(entries.size() - 1).key;
+        portion = entries.iterator();
+      }
+
+      return true;
+    }
+
+    @Override
+    public E next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+
+      return convert(portion.next());
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("remove");
+    }
+
+    protected abstract E convert(OSBTreeBucket.Entry<Object, OIdentifiable> entry);
+  }
+
+  protected final class TreeEntriesIterator extends PortionIterator<OSBTreeBucket.Entry<Object, OIdentifiable>> {
+    protected TreeEntriesIterator(final boolean ascending) {
+      super(ascending);
+    }
+
+    @Override
+    protected OSBTreeBucket.Entry<Object, OIdentifiable> convert(final OSBTreeBucket.Entry<Object, OIdentifiable> entry) {
+      return entry;
+    }
+  }
+
+  private final class ValuesIterator extends PortionIterator<OIdentifiable> {
+    private ValuesIterator(final boolean ascending) {
+      super(ascending);
+    }
+
+    @Override
+    protected OIdentifiable convert(final OSBTreeBucket.Entry<Object, OIdentifiable> entry) {
+      return entry.value;
+    }
+  }
+
+  private final class KeysIterator extends PortionIterator<Object> {
+    private KeysIterator() {
+      super(true);
+    }
+
+    @Override
+    protected Object convert(final OSBTreeBucket.Entry<Object, OIdentifiable> entry) {
+      return fromTreeKey(entry.key);
+    }
+  }
+}
@@ -0,0 +1,318 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.index.sbtree.local;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+import com.orientechnologies.common.collection.OCompositeKey;
+import com.orientechnologies.common.collection.OSimpleImmutableEntry;
+import com.orientechnologies.common.comparator.ODefaultComparator;
+import com.orientechnologies.common.listener.OProgressListener;
+import com.orientechnologies.common.serialization.types.OBinarySerializer;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.index.OIndexDefinition;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.record.ORecord;
+import com.orientechnologies.orient.core.serialization.serializer.binary.impl.OLinkSerializer;
+import com.orientechnologies.orient.core.serialization.serializer.binary.impl.index.OCompositeKeySerializer;
+
+/**
+ * Index which allows several values for the same key. Every pair of key and value is stored in tree as separate entry which key
+ * is composite key of key of index and identity of value, so all values of the same key are placed near each other in the tree.
+ * Key of index is used as partial composite key to find all its values.
+ */
+public class ONotUniqueSBTreeIndex extends OAbstractLocalSBTreeIndex<Set<OIdentifiable>> {
+  public static final String TYPE_ID = OClass.INDEX_TYPE.NOTUNIQUE_SBTREE.toString();
+
+  public ONotUniqueSBTreeIndex() {
+    super(TYPE_ID);
+  }
+
+  @Override
+  public OIndex<Set<OIdentifiable>> create(String iName, OIndexDefinition iIndexDefinition, ODatabaseRecord iDatabase,
+      String iClusterIndexName, int[] iClusterIdsToIndex, OProgressListener iProgressListener) {
+    create(iName, iIndexDefinition, iDatabase, iClusterIndexName, iClusterIdsToIndex, iProgressListener, OLinkSerializer.INSTANCE);
+    return this;
+  }
+
+  /**
+   * Keys of tree are always composite keys, whatever the type of keys of index is.
+   */
+  @SuppressWarnings("unchecked")
+  @Override
+  protected OBinarySerializer<Object> detectKeySerializer(OIndexDefinition indexDefinition) {
+    return (OBinarySerializer<Object>) (OBinarySerializer<?>) OCompositeKeySerializer.INSTANCE;
+  }
+
+  @Override
+  public Set<OIdentifiable> get(Object key) {
+    final Set<OIdentifiable> result = new HashSet<OIdentifiable>();
+    final Object treeKey = toTreeKey(key);
+
+    acquireSharedLock();
+    try {
+      sbTree.loadEntriesBetween(treeKey, true, treeKey, true, new OSBTree.RangeResultListener<Object, OIdentifiable>() {
+        @Override
+        public boolean addResult(OSBTreeBucket.Entry<Object, OIdentifiable> entry) {
+          result.add(entry.value);
+          return true;
+        }
+      });
+
+      return result;
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  @Override
+  public Iterator<Map.Entry<Object, Set<OIdentifiable>>> iterator() {
+    return new EntriesIterator(true);
+  }
+
+  @Override
+  public Iterator<Map.Entry<Object, Set<OIdentifiable>>> inverseIterator() {
+    return new EntriesIterator(false);
+  }
+
+  @Override
+  public long count(Object iKey) {
+    return get(iKey).size();
+  }
+
+  @Override
+  public boolean contains(Object iKey) {
+    return !get(iKey).isEmpty();
+  }
+
+  @Override
+  public OIndex<Set<OIdentifiable>> put(Object key, OIdentifiable value) {
+    modificationLock.requestModificationLock();
+    try {
+      acquireExclusiveLock();
+      try {
+        checkForKeyType(key);
+
+        if (!value.getIdentity().isValid())
+          ((ORecord<?>) value.getRecord()).save();
+
+        sbTree.put(new OCompositeKey(key, value.getIdentity()), value.getIdentity());
+        return this;
+      } finally {
+        releaseExclusiveLock();
+      }
+    } finally {
+      modificationLock.releaseModificationLock();
+    }
+  }
+
+  /**
+   * Removes all values of passed in key.
+   */
+  @Override
+  public boolean remove(Object key) {
+    modificationLock.requestModificationLock();
+    try {
+      acquireExclusiveLock();
+      try {
+        final List<Object> treeKeys = new ArrayList<Object>();
+        final Object treeKey = toTreeKey(key);
+
+        sbTree.loadEntriesBetween(treeKey, true, treeKey, true, new OSBTree.RangeResultListener<Object, OIdentifiable>() {
+          @Override
+          public boolean addResult(OSBTreeBucket.Entry<Object, OIdentifiable> entry) {
+            treeKeys.add(entry.key);
+            return true;
+          }
+        });
+
+        for (Object keyToRemove : treeKeys)
+          sbTree.remove(keyToRemove);
+
+        return !treeKeys.isEmpty();
+      } finally {
+        releaseExclusiveLock();
+      }
+    } finally {
+      modificationLock.releaseModificationLock();
+    }
+  }
+
+  /**
+   * Removes single value of key, <code>null</code> value means all values of key.
+   */
+  @Override
+  public boolean remove(Object key, OIdentifiable value) {
+    if (value == null)
+      return remove(key);
+
+    modificationLock.requestModificationLock();
+    try {
+      acquireExclusiveLock();
+      try {
+        return sbTree.remove(new OCompositeKey(key, value.getIdentity())) != null;
+      } finally {
+        releaseExclusiveLock();
+      }
+    } finally {
+      modificationLock.releaseModificationLock();
+    }
+  }
+
+  @Override
+  public Iterable<Object> keys() {
+    return new Iterable<Object>() {
+      @Override
+      public Iterator<Object> iterator() {
+        return new DistinctKeysIterator(ONotUniqueSBTreeIndex.super.keys().iterator());
+      }
+    };
+  }
+
+  /**
+   * Keys are counted by iteration over the whole tree, size of tree is the number of values.
+   */
+  @Override
+  public long getKeySize() {
+    long keySize = 0;
+    for (Iterator<Object> iterator = keys().iterator(); iterator.hasNext(); iterator.next())
+      keySize++;
+
+    return keySize;
+  }
+
+  @Override
+  public void checkEntry(OIdentifiable iRecord, Object iKey) {
+  }
+
+  @Override
+  protected void loadEntries(Collection<?> keys, OSBTree.RangeResultListener<Object, OIdentifiable> listener) {
+    for (Object key : keys) {
+      final Object treeKey = toTreeKey(key);
+      sbTree.loadEntriesBetween(treeKey, true, treeKey, true, listener);
+    }
+  }
+
+  @Override
+  protected Object toTreeKey(Object key) {
+    return new OCompositeKey(key);
+  }
+
+  @Override
+  protected Object fromTreeKey(Object treeKey) {
+    final List<Object> keys = ((OCompositeKey) treeKey).getKeys();
+    if (keys.size() == 2)
+      return keys.get(0);
+
+    return new OCompositeKey(keys.subList(0, keys.size() - 1));
+  }
+
+  /**
+   * Skips keys which are equal to the previous one, equal keys of index are placed one after another in the tree.
+   */
+  private static final class DistinctKeysIterator implements Iterator<Object> {
+    private final Iterator<Object> keys;
+    private Object                 nextKey;
+    private Object                 lastKey;
+    private boolean                hasLastKey;
+
+    private DistinctKeysIterator(final Iterator<Object> keys) {
+      this.keys = keys;
+    }
+
+    @Override
+    public boolean hasNext() {
+      while (nextKey == null && keys.hasNext()) {
+        final Object key = keys.next();
+        if (!hasLastKey || ODefaultComparator.INSTANCE.compare(lastKey, key) != 0)
+          nextKey = key;
+      }
+
+      return nextKey != null;
+    }
+
+    @Override
+    public Object next() {
+      if (!hasNext())
+        throw new NoSuchElementException();
+
+      lastKey = nextKey;
+      hasLastKey = true;
+      nextKey = null;
+
+      return lastKey;
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("remove");
+    }
+  }
+
+  /**
+   * Groups values of the same key into single entry.
+   */
+  private final class EntriesIterator implements Iterator<Map.Entry<Object, Set<OIdentifiable>>> {
+    private final Iterator<OSBTreeBucket.Entry<Object, OIdentifiable>> treeEntries;
+    private OSBTreeBucket.Entry<Object, OIdentifiable>                 nextTreeEntry;
+
+    private EntriesIterator(final boolean ascending) {
+      treeEntries = new TreeEntriesIterator(ascending);
+    }
+
+    @Override
+    public boolean hasNext() {
+      return nextTreeEntry != null || treeEntries.hasNext();
+    }
+
+    @Override
+    public Map.Entry<Object, Set<OIdentifiable>> next() {
+      if (nextTreeEntry == null)
+        nextTreeEntry = treeEntries.next();
+
+      final Object key = fromTreeKey(nextTreeEntry.key);
+      final Set<OIdentifiable> values = new HashSet<OIdentifiable>();
+      values.add(nextTreeEntry.value);
+      nextTreeEntry = null;
+
+      while (treeEntries.hasNext()) {
+        final OSBTreeBucket.Entry<Object, OIdentifiable> treeEntry = treeEntries.next();
+        if (ODefaultComparator.INSTANCE.compare(key, fromTreeKey(treeEntry.key)) != 0) {
+          nextTreeEntry = treeEntry;
+          break;
+        }
+
+        values.add(treeEntry.value);
+      }
+
+      return new OSimpleImmutableEntry<Object, Set<OIdentifiable>>(key, values);
+    }
+
+    @Override
+    public void remove() {
+      throw new UnsupportedOperationException("remove");
+    }
+  }
+}
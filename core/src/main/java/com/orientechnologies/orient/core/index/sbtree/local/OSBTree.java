@@ -0,0 +1,1155 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.index.sbtree.local;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import com.orientechnologies.common.comparator.ODefaultComparator;
+import com.orientechnologies.common.concur.resource.OSharedResourceAdaptive;
+import com.orientechnologies.common.directmemory.ODirectMemory;
+import com.orientechnologies.common.directmemory.ODirectMemoryFactory;
+import com.orientechnologies.common.serialization.types.OBinarySerializer;
+import com.orientechnologies.common.serialization.types.OIntegerSerializer;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.config.OStorageConfiguration;
+import com.orientechnologies.orient.core.config.OStorageSegmentConfiguration;
+import com.orientechnologies.orient.core.index.OIndexException;
+import com.orientechnologies.orient.core.index.hashindex.local.cache.ODiskCache;
+import com.orientechnologies.orient.core.serialization.serializer.binary.OBinarySerializerFactory;
+import com.orientechnologies.orient.core.storage.fs.OFileFactory;
+import com.orientechnologies.orient.core.storage.impl.local.OStorageLocalAbstract;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.OLocalPaginatedStorage;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OAtomicUnitEndRecord;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OAtomicUnitStartRecord;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OLogSequenceNumber;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OWriteAheadLog;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OFileUpdatePageRecord;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OPageDiff;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OPageDiffCoalescer;
+
+/**
+ * B+tree which keeps its nodes directly in pages of disk cache, so only pages which are used by current operations are kept in
+ * heap. Keys are stored in leaf pages which are linked with each other, so range queries are executed by scan of sequence of
+ * leaves.
+ *
+ * Root of tree is always placed on the first page of file, when root is split its content is moved to two new pages. Size of tree,
+ * identifiers of key and value serializers and head of list of free pages are stored in header of root page. Bucket which is
+ * filled less than by half after removal of key is merged with its sibling if content of both fits into single page, freed pages
+ * are added to the list of free pages and reused by splits. Internal bucket which is not root always keeps at least one key, so
+ * children of such bucket are not merged if it contains single key, empty leaves are skipped by range queries.
+ *
+ * If tree belongs to paginated storage with write ahead log, changes of pages made by single modification of tree are logged as
+ * one atomic unit, pages are identified by name and extension of file, so they are restored by storage together with pages of
+ * clusters.
+ */
+public class OSBTree<K, V> extends OSharedResourceAdaptive {
+  private static final long           ROOT_INDEX    = 0;
+
+  private final String                dataFileExtension;
+
+  private OStorageLocalAbstract       storage;
+  private String                      name;
+
+  private ODiskCache                  diskCache;
+  private long                        fileId;
+
+  private final ODirectMemory         directMemory = ODirectMemoryFactory.INSTANCE.directMemory();
+  private final Comparator<? super K> comparator   = ODefaultComparator.INSTANCE;
+
+  private OBinarySerializer<K>        keySerializer;
+  private OBinarySerializer<V>        valueSerializer;
+
+  private OWriteAheadLog              writeAheadLog;
+  private OLogSequenceNumber          lastLsn;
+
+  public OSBTree(String dataFileExtension) {
+    super(OGlobalConfiguration.ENVIRONMENT_CONCURRENT.getValueAsBoolean());
+    this.dataFileExtension = dataFileExtension;
+  }
+
+  public void create(String name, OBinarySerializer<K> keySerializer, OBinarySerializer<V> valueSerializer,
+      OStorageLocalAbstract storageLocal) {
+    acquireExclusiveLock();
+    try {
+      this.storage = storageLocal;
+
+      this.diskCache = storage.getDiskCache();
+      if (this.diskCache == null)
+        throw new IllegalStateException("Disk cache was not initialized on storage level");
+
+      this.name = name;
+      this.keySerializer = keySerializer;
+      this.valueSerializer = valueSerializer;
+      this.writeAheadLog = getWriteAheadLog(storage);
+
+      fileId = diskCache.openFile(createFileConfiguration(storage.getConfiguration(), name), dataFileExtension);
+
+      startAtomicOperation();
+      initRoot();
+      endAtomicOperation();
+    } catch (IOException e) {
+      throw new OIndexException("Error during creation of sbtree with name " + name, e);
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  public void load(String name, OStorageLocalAbstract storageLocal) {
+    acquireExclusiveLock();
+    try {
+      this.storage = storageLocal;
+      this.diskCache = storage.getDiskCache();
+      this.name = name;
+      this.writeAheadLog = getWriteAheadLog(storage);
+
+      fileId = diskCache.openFile(createFileConfiguration(storage.getConfiguration(), name), dataFileExtension);
+
+      final long rootPointer = diskCache.load(fileId, ROOT_INDEX);
+      try {
+        final OSBTreeBucket<K, V> rootBucket = new OSBTreeBucket<K, V>(rootPointer, directMemory, keySerializer, valueSerializer);
+
+        keySerializer = getSerializer(rootBucket.getKeySerializerId());
+        valueSerializer = getSerializer(rootBucket.getValueSerializerId());
+      } finally {
+        diskCache.release(fileId, ROOT_INDEX);
+      }
+    } catch (IOException e) {
+      throw new OIndexException("Exception during loading of sbtree " + name, e);
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  /**
+   * Serializers are registered in factory without type parameters, type of serializer is defined by identifier stored in root page.
+   */
+  @SuppressWarnings("unchecked")
+  private static <T> OBinarySerializer<T> getSerializer(byte serializerId) {
+    return (OBinarySerializer<T>) OBinarySerializerFactory.INSTANCE.getObjectSerializer(serializerId);
+  }
+
+  private static OWriteAheadLog getWriteAheadLog(OStorageLocalAbstract storage) {
+    if (storage instanceof OLocalPaginatedStorage)
+      return ((OLocalPaginatedStorage) storage).getWALInstance();
+
+    return null;
+  }
+
+  /**
+   * Configuration of file of tree, it is also used by storage to open files of trees during restore from write ahead log.
+   */
+  public static OStorageSegmentConfiguration createFileConfiguration(OStorageConfiguration storageConfiguration, String name) {
+    final OStorageSegmentConfiguration fileConfiguration = new OStorageSegmentConfiguration(storageConfiguration, name, 0);
+    fileConfiguration.fileType = OFileFactory.CLASSIC;
+    fileConfiguration.fileMaxSize = "10000Mb";
+
+    return fileConfiguration;
+  }
+
+  public OBinarySerializer<K> getKeySerializer() {
+    return keySerializer;
+  }
+
+  public void setKeySerializer(OBinarySerializer<K> keySerializer) {
+    acquireExclusiveLock();
+    try {
+      this.keySerializer = keySerializer;
+
+      startAtomicOperation();
+
+      final long rootPointer = diskCache.load(fileId, ROOT_INDEX);
+      try {
+        final OSBTreeBucket<K, V> rootBucket = new OSBTreeBucket<K, V>(rootPointer, directMemory, keySerializer, valueSerializer);
+        rootBucket.setKeySerializerId(keySerializer.getId());
+
+        logPageChanges(rootBucket, ROOT_INDEX);
+      } finally {
+        diskCache.markDirty(fileId, ROOT_INDEX);
+        diskCache.release(fileId, ROOT_INDEX);
+      }
+
+      endAtomicOperation();
+    } catch (IOException e) {
+      throw new OIndexException("Error during update of key serializer of sbtree " + name, e);
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  public OBinarySerializer<V> getValueSerializer() {
+    return valueSerializer;
+  }
+
+  public V get(K key) {
+    acquireSharedLock();
+    try {
+      final long pageIndex = findLeaf(key, true, null);
+
+      final long pointer = diskCache.load(fileId, pageIndex);
+      try {
+        final OSBTreeBucket<K, V> bucket = new OSBTreeBucket<K, V>(pointer, directMemory, keySerializer, valueSerializer);
+
+        final int index = bucket.find(key);
+        if (index < 0)
+          return null;
+
+        return bucket.getValue(index);
+      } finally {
+        diskCache.release(fileId, pageIndex);
+      }
+    } catch (IOException e) {
+      throw new OIndexException("Error during retrieving of value for key " + key + " in sbtree " + name, e);
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  /**
+   * Passes to the listener entries of passed in keys which are present in tree, in ascending order of keys. Keys are sorted before
+   * the search, so keys which belong to the same leaf are found during single load of its page and tree is descended from root only
+   * when the next key is greater than the last key of current leaf.
+   */
+  public void loadEntries(Collection<? extends K> keys, RangeResultListener<K, V> listener) {
+    final List<K> sortedKeys = new ArrayList<K>(keys);
+    Collections.sort(sortedKeys, comparator);
+
+    acquireSharedLock();
+    try {
+      long pageIndex = -1;
+      long pointer = 0;
+
+      try {
+        for (K key : sortedKeys) {
+          OSBTreeBucket<K, V> bucket = null;
+          if (pageIndex >= 0) {
+            bucket = new OSBTreeBucket<K, V>(pointer, directMemory, keySerializer, valueSerializer);
+            if (bucket.isEmpty() || comparator.compare(bucket.getKey(bucket.size() - 1), key) < 0) {
+              diskCache.release(fileId, pageIndex);
+              pageIndex = -1;
+              bucket = null;
+            }
+          }
+
+          if (bucket == null) {
+            final long leafIndex = findLeaf(key, true, null);
+
+            pointer = diskCache.load(fileId, leafIndex);
+            pageIndex = leafIndex;
+            bucket = new OSBTreeBucket<K, V>(pointer, directMemory, keySerializer, valueSerializer);
+          }
+
+          final int index = bucket.find(key);
+          if (index >= 0 && !listener.addResult(bucket.getEntry(index)))
+            return;
+        }
+      } finally {
+        if (pageIndex >= 0)
+          diskCache.release(fileId, pageIndex);
+      }
+    } catch (IOException e) {
+      throw new OIndexException("Error during retrieving of values for several keys in sbtree " + name, e);
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  public void put(K key, V value) {
+    acquireExclusiveLock();
+    try {
+      final OSBTreeBucket.Entry<K, V> entry = new OSBTreeBucket.Entry<K, V>(key, value, -1, -1);
+      if (OSBTreeBucket.entrySize(entry, true, keySerializer, valueSerializer) < 0
+          || OSBTreeBucket.entrySize(entry, false, keySerializer, valueSerializer) < 0)
+        throw new OIndexException("Size of key " + key + " is more than allowed for sbtree " + name + ", maximum size of entry is "
+            + OSBTreeBucket.MAX_ENTRY_SIZE + " bytes");
+
+      startAtomicOperation();
+
+      boolean replaced = false;
+      while (true) {
+        final List<Long> path = new ArrayList<Long>();
+        final long pageIndex = findLeaf(key, true, path);
+
+        final boolean added;
+        final long pointer = diskCache.load(fileId, pageIndex);
+        try {
+          final OSBTreeBucket<K, V> bucket = new OSBTreeBucket<K, V>(pointer, directMemory, keySerializer, valueSerializer);
+
+          int index = bucket.find(key);
+          if (index >= 0) {
+            bucket.remove(index);
+            replaced = true;
+          } else
+            index = -index - 1;
+
+          added = bucket.addEntry(index, entry);
+
+          logPageChanges(bucket, pageIndex);
+        } finally {
+          diskCache.markDirty(fileId, pageIndex);
+          diskCache.release(fileId, pageIndex);
+        }
+
+        if (added)
+          break;
+
+        splitBucket(path);
+      }
+
+      if (!replaced)
+        setSize(size() + 1);
+
+      endAtomicOperation();
+    } catch (IOException e) {
+      throw new OIndexException("Error during index update with key " + key + " and value " + value, e);
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  public V remove(K key) {
+    acquireExclusiveLock();
+    try {
+      final List<Long> path = new ArrayList<Long>();
+      final long pageIndex = findLeaf(key, true, path);
+
+      startAtomicOperation();
+
+      final V removed;
+      final long pointer = diskCache.load(fileId, pageIndex);
+      try {
+        final OSBTreeBucket<K, V> bucket = new OSBTreeBucket<K, V>(pointer, directMemory, keySerializer, valueSerializer);
+
+        final int index = bucket.find(key);
+        if (index < 0) {
+          endAtomicOperation();
+          return null;
+        }
+
+        removed = bucket.getValue(index);
+        bucket.remove(index);
+
+        logPageChanges(bucket, pageIndex);
+      } finally {
+        diskCache.markDirty(fileId, pageIndex);
+        diskCache.release(fileId, pageIndex);
+      }
+
+      mergeBuckets(path);
+      setSize(size() - 1);
+
+      endAtomicOperation();
+      return removed;
+    } catch (IOException e) {
+      throw new OIndexException("Error during removing key " + key + " from sbtree " + name, e);
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  /**
+   * Reset of root is logged as single atomic unit and the log is flushed before file is truncated. If truncated file is restored
+   * after crash, changes made before the clear are restored too, but root is reset after them, so their pages are not referenced
+   * by the tree any more.
+   */
+  public void clear() {
+    acquireExclusiveLock();
+    try {
+      OLogSequenceNumber rootLsn = null;
+      if (writeAheadLog != null) {
+        startAtomicOperation();
+        initRoot();
+        rootLsn = lastLsn;
+        endAtomicOperation();
+
+        writeAheadLog.flush();
+      }
+
+      diskCache.truncateFile(fileId);
+
+      // ROOT IS THE SAME AS LOGGED ABOVE, SO IT IS NOT LOGGED AGAIN
+      final long rootPointer = diskCache.load(fileId, ROOT_INDEX);
+      try {
+        final OSBTreeBucket<K, V> rootBucket = newRoot(rootPointer);
+        if (rootLsn != null)
+          rootBucket.setLsn(rootLsn);
+      } finally {
+        diskCache.markDirty(fileId, ROOT_INDEX);
+        diskCache.release(fileId, ROOT_INDEX);
+      }
+    } catch (IOException e) {
+      throw new OIndexException("Error during clear of sbtree with name " + name, e);
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  public long size() {
+    acquireSharedLock();
+    try {
+      final long rootPointer = diskCache.load(fileId, ROOT_INDEX);
+      try {
+        return new OSBTreeBucket<K, V>(rootPointer, directMemory, keySerializer, valueSerializer).getTreeSize();
+      } finally {
+        diskCache.release(fileId, ROOT_INDEX);
+      }
+    } catch (IOException e) {
+      throw new OIndexException("Error during retrieving of size of index " + name, e);
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  public K firstKey() {
+    acquireSharedLock();
+    try {
+      long pageIndex = findLeaf(null, false, null);
+
+      while (pageIndex >= 0) {
+        final long currentPageIndex = pageIndex;
+        final long pointer = diskCache.load(fileId, currentPageIndex);
+        try {
+          final OSBTreeBucket<K, V> bucket = new OSBTreeBucket<K, V>(pointer, directMemory, keySerializer, valueSerializer);
+          if (!bucket.isEmpty())
+            return bucket.getKey(0);
+
+          pageIndex = bucket.getRightSibling();
+        } finally {
+          diskCache.release(fileId, currentPageIndex);
+        }
+      }
+
+      return null;
+    } catch (IOException e) {
+      throw new OIndexException("Error during finding first key in sbtree " + name, e);
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  public K lastKey() {
+    acquireSharedLock();
+    try {
+      long pageIndex = findLeaf(null, true, null);
+
+      while (pageIndex >= 0) {
+        final long currentPageIndex = pageIndex;
+        final long pointer = diskCache.load(fileId, currentPageIndex);
+        try {
+          final OSBTreeBucket<K, V> bucket = new OSBTreeBucket<K, V>(pointer, directMemory, keySerializer, valueSerializer);
+          if (!bucket.isEmpty())
+            return bucket.getKey(bucket.size() - 1);
+
+          pageIndex = bucket.getLeftSibling();
+        } finally {
+          diskCache.release(fileId, currentPageIndex);
+        }
+      }
+
+      return null;
+    } catch (IOException e) {
+      throw new OIndexException("Error during finding last key in sbtree " + name, e);
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  /**
+   * Passes to the listener entries which keys are greater than (or equal to, if <code>inclusive</code> is <code>true</code>)
+   * passed in key, in ascending order of keys.
+   */
+  public void loadEntriesMajor(K key, boolean inclusive, RangeResultListener<K, V> listener) {
+    acquireSharedLock();
+    try {
+      scanFrom(key, inclusive, null, false, listener);
+    } catch (IOException e) {
+      throw new OIndexException("Error during fetch of major values for key " + key + " in sbtree " + name, e);
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  /**
+   * Passes to the listener entries which keys are less than (or equal to, if <code>inclusive</code> is <code>true</code>) passed in
+   * key, in ascending order of keys.
+   */
+  public void loadEntriesMinor(K key, boolean inclusive, RangeResultListener<K, V> listener) {
+    acquireSharedLock();
+    try {
+      scanFrom(null, false, key, inclusive, listener);
+    } catch (IOException e) {
+      throw new OIndexException("Error during fetch of minor values for key " + key + " in sbtree " + name, e);
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  public void loadEntriesBetween(K keyFrom, boolean fromInclusive, K keyTo, boolean toInclusive,
+      RangeResultListener<K, V> listener) {
+    acquireSharedLock();
+    try {
+      scanFrom(keyFrom, fromInclusive, keyTo, toInclusive, listener);
+    } catch (IOException e) {
+      throw new OIndexException("Error during fetch of values between key " + keyFrom + " and key " + keyTo + " in sbtree "
+          + name, e);
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  /**
+   * Returns entries of the first non empty leaf which contains keys greater (or less, if <code>ascending</code> is
+   * <code>false</code>) than passed in key, leaves are visited by links between siblings. Iterators fetch entries in such
+   * portions, every portion is searched from the last key of previous one, so they do not keep pages loaded and are not broken by
+   * changes made between portions.
+   *
+   * @param key
+   *          The last key of previous portion, <code>null</code> to fetch the first portion.
+   * @return Entries in the order of iteration, empty list if there are no more entries.
+   */
+  public List<OSBTreeBucket.Entry<K, V>> loadNextPortion(K key, boolean ascending) {
+    acquireSharedLock();
+    try {
+      final List<OSBTreeBucket.Entry<K, V>> result = new ArrayList<OSBTreeBucket.Entry<K, V>>();
+      long pageIndex = findLeaf(key, ascending ? key != null : key == null, null);
+
+      while (pageIndex >= 0) {
+        final long currentPageIndex = pageIndex;
+        final long pointer = diskCache.load(fileId, currentPageIndex);
+        try {
+          final OSBTreeBucket<K, V> bucket = new OSBTreeBucket<K, V>(pointer, directMemory, keySerializer, valueSerializer);
+
+          final int size = bucket.size();
+          for (int i = 0; i < size; i++) {
+            final OSBTreeBucket.Entry<K, V> entry = bucket.getEntry(ascending ? i : size - i - 1);
+
+            if (key == null || (ascending ? comparator.compare(entry.key, key) > 0 : comparator.compare(entry.key, key) < 0))
+              result.add(entry);
+          }
+
+          if (!result.isEmpty())
+            return result;
+
+          pageIndex = ascending ? bucket.getRightSibling() : bucket.getLeftSibling();
+        } finally {
+          diskCache.release(fileId, currentPageIndex);
+        }
+      }
+
+      return result;
+    } catch (IOException e) {
+      throw new OIndexException("Error during iteration over entries of sbtree " + name, e);
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
+  public void flush() {
+    acquireExclusiveLock();
+    try {
+      diskCache.flushFile(fileId);
+    } catch (IOException e) {
+      throw new OIndexException("Error during flush of sbtree " + name, e);
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  public void close() {
+    acquireExclusiveLock();
+    try {
+      diskCache.closeFile(fileId);
+    } catch (IOException e) {
+      throw new OIndexException("Error during close of sbtree " + name, e);
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  public void delete() {
+    acquireExclusiveLock();
+    try {
+      diskCache.deleteFile(fileId);
+    } catch (IOException e) {
+      throw new OIndexException("Error during deletion of sbtree " + name, e);
+    } finally {
+      releaseExclusiveLock();
+    }
+  }
+
+  private void initRoot() throws IOException {
+    final long rootPointer = diskCache.load(fileId, ROOT_INDEX);
+    try {
+      logPageChanges(newRoot(rootPointer), ROOT_INDEX);
+    } finally {
+      diskCache.markDirty(fileId, ROOT_INDEX);
+      diskCache.release(fileId, ROOT_INDEX);
+    }
+  }
+
+  /**
+   * Writes all fields of header of empty root, so content of root does not depend on previous content of its page.
+   */
+  private OSBTreeBucket<K, V> newRoot(long rootPointer) {
+    final OSBTreeBucket<K, V> rootBucket = new OSBTreeBucket<K, V>(rootPointer, true, directMemory, keySerializer, valueSerializer);
+
+    rootBucket.setTreeSize(0);
+    rootBucket.setFreeListHead(-1);
+    rootBucket.setKeySerializerId(keySerializer.getId());
+    rootBucket.setValueSerializerId(valueSerializer.getId());
+
+    return rootBucket;
+  }
+
+  private void setSize(long size) throws IOException {
+    final long rootPointer = diskCache.load(fileId, ROOT_INDEX);
+    try {
+      final OSBTreeBucket<K, V> rootBucket = new OSBTreeBucket<K, V>(rootPointer, directMemory, keySerializer, valueSerializer);
+      rootBucket.setTreeSize(size);
+
+      logPageChanges(rootBucket, ROOT_INDEX);
+    } finally {
+      diskCache.markDirty(fileId, ROOT_INDEX);
+      diskCache.release(fileId, ROOT_INDEX);
+    }
+  }
+
+  /**
+   * Descends from root to the leaf which may contain passed in key.
+   *
+   * @param key
+   *          Key to search, <code>null</code> means the leftmost or the rightmost leaf depending on <code>upper</code> flag.
+   * @param upper
+   *          If <code>true</code> leaf which may contain keys greater than passed in key is returned, otherwise leaf which contains
+   *          the first key which is greater or equal to passed in one or the leaf before it. Both variants contain the key itself
+   *          if it is present in tree, the second one is needed to find the first of keys which are equal to partial composite key.
+   * @param path
+   *          If not <code>null</code> indexes of all pages from root to found leaf are added to this list.
+   */
+  private long findLeaf(K key, boolean upper, List<Long> path) throws IOException {
+    long pageIndex = ROOT_INDEX;
+
+    while (true) {
+      if (path != null)
+        path.add(pageIndex);
+
+      final long nextPageIndex;
+      final long pointer = diskCache.load(fileId, pageIndex);
+      try {
+        final OSBTreeBucket<K, V> bucket = new OSBTreeBucket<K, V>(pointer, directMemory, keySerializer, valueSerializer);
+        if (bucket.isLeaf())
+          return pageIndex;
+
+        final int index;
+        if (key == null)
+          index = upper ? bucket.size() : 0;
+        else
+          index = upper ? bucket.upperBound(key) : bucket.lowerBound(key);
+
+        if (index < bucket.size())
+          nextPageIndex = bucket.getLeftChild(index);
+        else
+          nextPageIndex = bucket.getRightChild(bucket.size() - 1);
+      } finally {
+        diskCache.release(fileId, pageIndex);
+      }
+
+      pageIndex = nextPageIndex;
+    }
+  }
+
+  private void scanFrom(K keyFrom, boolean fromInclusive, K keyTo, boolean toInclusive, RangeResultListener<K, V> listener)
+      throws IOException {
+    long pageIndex = findLeaf(keyFrom, keyFrom != null && !fromInclusive, null);
+    boolean firstPage = true;
+
+    while (pageIndex >= 0) {
+      final long currentPageIndex = pageIndex;
+      final long pointer = diskCache.load(fileId, currentPageIndex);
+      try {
+        final OSBTreeBucket<K, V> bucket = new OSBTreeBucket<K, V>(pointer, directMemory, keySerializer, valueSerializer);
+
+        int index = 0;
+        if (firstPage && keyFrom != null)
+          index = fromInclusive ? bucket.lowerBound(keyFrom) : bucket.upperBound(keyFrom);
+
+        final int size = bucket.size();
+        for (; index < size; index++) {
+          final OSBTreeBucket.Entry<K, V> entry = bucket.getEntry(index);
+
+          if (keyTo != null) {
+            final int cmp = comparator.compare(entry.key, keyTo);
+            if (cmp > 0 || (cmp == 0 && !toInclusive))
+              return;
+          }
+
+          if (!listener.addResult(entry))
+            return;
+        }
+
+        pageIndex = bucket.getRightSibling();
+        firstPage = false;
+      } finally {
+        diskCache.release(fileId, currentPageIndex);
+      }
+    }
+  }
+
+  /**
+   * Splits the last bucket of passed in path into two buckets and adds separation key to the parent bucket, parents are split
+   * recursively if needed. Root bucket is never moved, its content is moved to two new buckets instead.
+   */
+  private void splitBucket(List<Long> path) throws IOException {
+    final long pageIndex = path.get(path.size() - 1);
+
+    final long pointer = diskCache.load(fileId, pageIndex);
+    try {
+      final OSBTreeBucket<K, V> bucket = new OSBTreeBucket<K, V>(pointer, directMemory, keySerializer, valueSerializer);
+      final boolean isLeaf = bucket.isLeaf();
+
+      final int size = bucket.size();
+      final int middle = size >>> 1;
+      final K separationKey = bucket.getKey(middle);
+
+      // SEPARATION KEY OF INTERNAL BUCKET IS MOVED TO PARENT, IN LEAF IT IS KEPT AS THE FIRST KEY OF RIGHT BUCKET
+      final int rightStart = isLeaf ? middle : middle + 1;
+      final List<OSBTreeBucket.Entry<K, V>> rightEntries = new ArrayList<OSBTreeBucket.Entry<K, V>>(size - rightStart);
+      for (int i = rightStart; i < size; i++)
+        rightEntries.add(bucket.getEntry(i));
+
+      if (pageIndex != ROOT_INDEX) {
+        final long rightPageIndex = allocatePage();
+        final long rightPointer = diskCache.load(fileId, rightPageIndex);
+        try {
+          final OSBTreeBucket<K, V> rightBucket = new OSBTreeBucket<K, V>(rightPointer, isLeaf, directMemory, keySerializer,
+              valueSerializer);
+          fillBucket(rightBucket, rightEntries);
+
+          if (isLeaf) {
+            final long oldRightSibling = bucket.getRightSibling();
+
+            rightBucket.setLeftSibling(pageIndex);
+            rightBucket.setRightSibling(oldRightSibling);
+            bucket.setRightSibling(rightPageIndex);
+
+            if (oldRightSibling >= 0) {
+              final long siblingPointer = diskCache.load(fileId, oldRightSibling);
+              try {
+                final OSBTreeBucket<K, V> siblingBucket = new OSBTreeBucket<K, V>(siblingPointer, directMemory, keySerializer,
+                    valueSerializer);
+                siblingBucket.setLeftSibling(rightPageIndex);
+
+                logPageChanges(siblingBucket, oldRightSibling);
+              } finally {
+                diskCache.markDirty(fileId, oldRightSibling);
+                diskCache.release(fileId, oldRightSibling);
+              }
+            }
+          }
+
+          logPageChanges(rightBucket, rightPageIndex);
+        } finally {
+          diskCache.markDirty(fileId, rightPageIndex);
+          diskCache.release(fileId, rightPageIndex);
+        }
+
+        bucket.shrink(middle);
+        logPageChanges(bucket, pageIndex);
+
+        insertSeparator(path.subList(0, path.size() - 1), separationKey, pageIndex, rightPageIndex);
+      } else {
+        final List<OSBTreeBucket.Entry<K, V>> leftEntries = new ArrayList<OSBTreeBucket.Entry<K, V>>(middle);
+        for (int i = 0; i < middle; i++)
+          leftEntries.add(bucket.getEntry(i));
+
+        final long leftPageIndex = allocatePage();
+        final long leftPointer = diskCache.load(fileId, leftPageIndex);
+        final long rightPageIndex;
+        try {
+          rightPageIndex = allocatePage();
+          final long rightPointer = diskCache.load(fileId, rightPageIndex);
+          try {
+            final OSBTreeBucket<K, V> leftBucket = new OSBTreeBucket<K, V>(leftPointer, isLeaf, directMemory, keySerializer,
+                valueSerializer);
+            fillBucket(leftBucket, leftEntries);
+
+            final OSBTreeBucket<K, V> rightBucket = new OSBTreeBucket<K, V>(rightPointer, isLeaf, directMemory, keySerializer,
+                valueSerializer);
+            fillBucket(rightBucket, rightEntries);
+
+            if (isLeaf) {
+              leftBucket.setRightSibling(rightPageIndex);
+              rightBucket.setLeftSibling(leftPageIndex);
+            }
+
+            logPageChanges(leftBucket, leftPageIndex);
+            logPageChanges(rightBucket, rightPageIndex);
+          } finally {
+            diskCache.markDirty(fileId, rightPageIndex);
+            diskCache.release(fileId, rightPageIndex);
+          }
+        } finally {
+          diskCache.markDirty(fileId, leftPageIndex);
+          diskCache.release(fileId, leftPageIndex);
+        }
+
+        bucket.resetAs(false);
+        bucket.addEntry(0, new OSBTreeBucket.Entry<K, V>(separationKey, null, leftPageIndex, rightPageIndex));
+
+        logPageChanges(bucket, pageIndex);
+      }
+    } finally {
+      diskCache.markDirty(fileId, pageIndex);
+      diskCache.release(fileId, pageIndex);
+    }
+  }
+
+  private void insertSeparator(List<Long> path, K separationKey, long leftPageIndex, long rightPageIndex) throws IOException {
+    final OSBTreeBucket.Entry<K, V> separator = new OSBTreeBucket.Entry<K, V>(separationKey, null, leftPageIndex, rightPageIndex);
+
+    while (true) {
+      final long parentIndex = path.get(path.size() - 1);
+
+      final boolean added;
+      final long parentPointer = diskCache.load(fileId, parentIndex);
+      try {
+        final OSBTreeBucket<K, V> parentBucket = new OSBTreeBucket<K, V>(parentPointer, directMemory, keySerializer,
+            valueSerializer);
+
+        final int index = parentBucket.upperBound(separationKey);
+        added = parentBucket.addEntry(index, separator);
+
+        // RIGHT POINTER OF ENTRY SHOULD BE EQUAL TO LEFT POINTER OF THE NEXT ONE
+        if (added && index + 1 < parentBucket.size())
+          parentBucket.setLeftChild(index + 1, rightPageIndex);
+
+        logPageChanges(parentBucket, parentIndex);
+      } finally {
+        diskCache.markDirty(fileId, parentIndex);
+        diskCache.release(fileId, parentIndex);
+      }
+
+      if (added)
+        return;
+
+      // PARENT IS SPLIT, SO PATH TO THE PAGE WHICH SHOULD CONTAIN SEPARATOR IS FOUND AGAIN
+      splitBucket(path);
+
+      path = new ArrayList<Long>();
+      findPathToParent(separationKey, leftPageIndex, path);
+    }
+  }
+
+  /**
+   * Fills passed in list by indexes of pages from root to the internal page which contains pointer to the passed in child page.
+   */
+  private void findPathToParent(K key, long childPageIndex, List<Long> path) throws IOException {
+    long pageIndex = ROOT_INDEX;
+
+    while (true) {
+      path.add(pageIndex);
+
+      final long nextPageIndex;
+      final long pointer = diskCache.load(fileId, pageIndex);
+      try {
+        final OSBTreeBucket<K, V> bucket = new OSBTreeBucket<K, V>(pointer, directMemory, keySerializer, valueSerializer);
+        assert !bucket.isLeaf();
+
+        final int index = bucket.upperBound(key);
+        if (index < bucket.size())
+          nextPageIndex = bucket.getLeftChild(index);
+        else
+          nextPageIndex = bucket.getRightChild(bucket.size() - 1);
+      } finally {
+        diskCache.release(fileId, pageIndex);
+      }
+
+      if (nextPageIndex == childPageIndex)
+        return;
+
+      pageIndex = nextPageIndex;
+    }
+  }
+
+  /**
+   * Merges buckets of passed in path starting from the leaf, see {@link #mergeWithSibling(long, long)}. Merge of parent is tried
+   * only if its child was merged.
+   */
+  private void mergeBuckets(List<Long> path) throws IOException {
+    for (int i = path.size() - 1; i > 0; i--)
+      if (!mergeWithSibling(path.get(i - 1), path.get(i)))
+        return;
+  }
+
+  /**
+   * Merges passed in bucket with its left or right sibling which has the same parent if bucket is filled less than by half and
+   * content of both buckets fits into single bucket. Content of right bucket is moved to the left one and separation key is removed
+   * from the parent, separation key of internal buckets is moved to the merged bucket. If root is left without keys, content of
+   * its only child is moved to the root.
+   *
+   * @return <code>true</code> if buckets were merged.
+   */
+  private boolean mergeWithSibling(long parentIndex, long pageIndex) throws IOException {
+    final long pointer = diskCache.load(fileId, pageIndex);
+    try {
+      final OSBTreeBucket<K, V> bucket = new OSBTreeBucket<K, V>(pointer, directMemory, keySerializer, valueSerializer);
+      if (bucket.getUsedSpace() >= bucket.getFreeSpace())
+        return false;
+    } finally {
+      diskCache.release(fileId, pageIndex);
+    }
+
+    boolean merged = false;
+    final long parentPointer = diskCache.load(fileId, parentIndex);
+    try {
+      final OSBTreeBucket<K, V> parentBucket = new OSBTreeBucket<K, V>(parentPointer, directMemory, keySerializer,
+          valueSerializer);
+      final int parentSize = parentBucket.size();
+      if (parentSize == 1 && parentIndex != ROOT_INDEX)
+        return false;
+
+      int separatorIndex = 0;
+      while (separatorIndex < parentSize && parentBucket.getLeftChild(separatorIndex) != pageIndex)
+        separatorIndex++;
+
+      final long leftPageIndex;
+      final long rightPageIndex;
+      if (separatorIndex < parentSize) {
+        leftPageIndex = pageIndex;
+        rightPageIndex = parentBucket.getRightChild(separatorIndex);
+      } else {
+        separatorIndex = parentSize - 1;
+        leftPageIndex = parentBucket.getLeftChild(separatorIndex);
+        rightPageIndex = pageIndex;
+      }
+
+      merged = moveEntries(leftPageIndex, rightPageIndex, parentBucket.getKey(separatorIndex));
+      if (!merged)
+        return false;
+
+      freePage(rightPageIndex);
+
+      // RIGHT POINTER OF ENTRY SHOULD BE EQUAL TO LEFT POINTER OF THE NEXT ONE
+      parentBucket.remove(separatorIndex);
+      if (separatorIndex < parentBucket.size())
+        parentBucket.setLeftChild(separatorIndex, leftPageIndex);
+
+      if (parentBucket.isEmpty()) {
+        assert parentIndex == ROOT_INDEX;
+
+        final long leftPointer = diskCache.load(fileId, leftPageIndex);
+        try {
+          final OSBTreeBucket<K, V> leftBucket = new OSBTreeBucket<K, V>(leftPointer, directMemory, keySerializer, valueSerializer);
+
+          final List<OSBTreeBucket.Entry<K, V>> entries = new ArrayList<OSBTreeBucket.Entry<K, V>>(leftBucket.size());
+          for (int i = 0; i < leftBucket.size(); i++)
+            entries.add(leftBucket.getEntry(i));
+
+          parentBucket.resetAs(leftBucket.isLeaf());
+          fillBucket(parentBucket, entries);
+        } finally {
+          diskCache.release(fileId, leftPageIndex);
+        }
+
+        freePage(leftPageIndex);
+      }
+
+      logPageChanges(parentBucket, parentIndex);
+      return true;
+    } finally {
+      if (merged)
+        diskCache.markDirty(fileId, parentIndex);
+      diskCache.release(fileId, parentIndex);
+    }
+  }
+
+  /**
+   * Moves content of right bucket to the end of left bucket if it fits there, leaves are removed from the list of siblings.
+   *
+   * @return <code>false</code> if content of both buckets does not fit into single bucket.
+   */
+  private boolean moveEntries(long leftPageIndex, long rightPageIndex, K separationKey) throws IOException {
+    final long leftPointer = diskCache.load(fileId, leftPageIndex);
+    try {
+      final OSBTreeBucket<K, V> leftBucket = new OSBTreeBucket<K, V>(leftPointer, directMemory, keySerializer, valueSerializer);
+
+      final long rightPointer = diskCache.load(fileId, rightPageIndex);
+      try {
+        final OSBTreeBucket<K, V> rightBucket = new OSBTreeBucket<K, V>(rightPointer, directMemory, keySerializer, valueSerializer);
+
+        final List<OSBTreeBucket.Entry<K, V>> entries = new ArrayList<OSBTreeBucket.Entry<K, V>>(rightBucket.size() + 1);
+        int requiredSpace = rightBucket.getUsedSpace();
+        if (!leftBucket.isLeaf()) {
+          final OSBTreeBucket.Entry<K, V> separator = new OSBTreeBucket.Entry<K, V>(separationKey, null,
+              leftBucket.getRightChild(leftBucket.size() - 1), rightBucket.getLeftChild(0));
+          entries.add(separator);
+          requiredSpace += OSBTreeBucket.entrySize(separator, false, keySerializer, valueSerializer) + OIntegerSerializer.INT_SIZE;
+        }
+
+        if (requiredSpace > leftBucket.getFreeSpace())
+          return false;
+
+        for (int i = 0; i < rightBucket.size(); i++)
+          entries.add(rightBucket.getEntry(i));
+
+        int index = leftBucket.size();
+        for (OSBTreeBucket.Entry<K, V> entry : entries) {
+          final boolean added = leftBucket.addEntry(index, entry);
+          assert added;
+
+          index++;
+        }
+
+        if (leftBucket.isLeaf()) {
+          final long rightSibling = rightBucket.getRightSibling();
+          leftBucket.setRightSibling(rightSibling);
+
+          if (rightSibling >= 0) {
+            final long siblingPointer = diskCache.load(fileId, rightSibling);
+            try {
+              final OSBTreeBucket<K, V> siblingBucket = new OSBTreeBucket<K, V>(siblingPointer, directMemory, keySerializer,
+                  valueSerializer);
+              siblingBucket.setLeftSibling(leftPageIndex);
+
+              logPageChanges(siblingBucket, rightSibling);
+            } finally {
+              diskCache.markDirty(fileId, rightSibling);
+              diskCache.release(fileId, rightSibling);
+            }
+          }
+        }
+
+        logPageChanges(leftBucket, leftPageIndex);
+      } finally {
+        diskCache.release(fileId, rightPageIndex);
+      }
+
+      diskCache.markDirty(fileId, leftPageIndex);
+      return true;
+    } finally {
+      diskCache.release(fileId, leftPageIndex);
+    }
+  }
+
+  /**
+   * @return index of page taken from the list of free pages or index of new page at the end of file if the list is empty.
+   */
+  private long allocatePage() throws IOException {
+    final long rootPointer = diskCache.load(fileId, ROOT_INDEX);
+    try {
+      final OSBTreeBucket<K, V> rootBucket = new OSBTreeBucket<K, V>(rootPointer, directMemory, keySerializer, valueSerializer);
+
+      final long freePageIndex = rootBucket.getFreeListHead();
+      if (freePageIndex < 0)
+        return diskCache.getFilledUpTo(fileId);
+
+      final long pointer = diskCache.load(fileId, freePageIndex);
+      try {
+        rootBucket.setFreeListHead(new OSBTreeBucket<K, V>(pointer, directMemory, keySerializer, valueSerializer).getRightSibling());
+      } finally {
+        diskCache.release(fileId, freePageIndex);
+      }
+
+      logPageChanges(rootBucket, ROOT_INDEX);
+
+      diskCache.markDirty(fileId, ROOT_INDEX);
+      return freePageIndex;
+    } finally {
+      diskCache.release(fileId, ROOT_INDEX);
+    }
+  }
+
+  private void freePage(long pageIndex) throws IOException {
+    final long rootPointer = diskCache.load(fileId, ROOT_INDEX);
+    try {
+      final OSBTreeBucket<K, V> rootBucket = new OSBTreeBucket<K, V>(rootPointer, directMemory, keySerializer, valueSerializer);
+
+      final long pointer = diskCache.load(fileId, pageIndex);
+      try {
+        final OSBTreeBucket<K, V> bucket = new OSBTreeBucket<K, V>(pointer, true, directMemory, keySerializer, valueSerializer);
+        bucket.setRightSibling(rootBucket.getFreeListHead());
+
+        logPageChanges(bucket, pageIndex);
+      } finally {
+        diskCache.markDirty(fileId, pageIndex);
+        diskCache.release(fileId, pageIndex);
+      }
+
+      rootBucket.setFreeListHead(pageIndex);
+      logPageChanges(rootBucket, ROOT_INDEX);
+    } finally {
+      diskCache.markDirty(fileId, ROOT_INDEX);
+      diskCache.release(fileId, ROOT_INDEX);
+    }
+  }
+
+  private void startAtomicOperation() throws IOException {
+    if (writeAheadLog != null)
+      lastLsn = writeAheadLog.log(new OAtomicUnitStartRecord(false));
+  }
+
+  private void endAtomicOperation() throws IOException {
+    if (writeAheadLog != null) {
+      writeAheadLog.log(new OAtomicUnitEndRecord(lastLsn));
+      lastLsn = null;
+    }
+  }
+
+  /**
+   * Logs changes of bucket which are not logged yet and updates LSN of its page. Changes are logged before page is released, so
+   * disk cache does not write page before its changes are written to the log.
+   */
+  private void logPageChanges(OSBTreeBucket<K, V> bucket, long pageIndex) throws IOException {
+    if (writeAheadLog == null)
+      return;
+
+    final List<OPageDiff<?>> pageChanges = bucket.getPageChanges();
+    if (pageChanges.isEmpty())
+      return;
+
+    assert lastLsn != null;
+
+    lastLsn = writeAheadLog.log(new OFileUpdatePageRecord(pageIndex, name, dataFileExtension, lastLsn, OPageDiffCoalescer
+        .coalesce(pageChanges)));
+    pageChanges.clear();
+
+    bucket.setLsn(lastLsn);
+  }
+
+  private void fillBucket(OSBTreeBucket<K, V> bucket, List<OSBTreeBucket.Entry<K, V>> entries) {
+    int index = 0;
+    for (OSBTreeBucket.Entry<K, V> entry : entries) {
+      final boolean added = bucket.addEntry(index, entry);
+      assert added;
+
+      index++;
+    }
+  }
+
+  /**
+   * Receives entries which are found by range queries.
+   */
+  public interface RangeResultListener<K, V> {
+    /**
+     * @return <code>false</code> if fetch of entries should be stopped.
+     */
+    boolean addResult(OSBTreeBucket.Entry<K, V> entry);
+  }
+}
@@ -0,0 +1,498 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.index.sbtree.local;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+import com.orientechnologies.common.comparator.ODefaultComparator;
+import com.orientechnologies.common.directmemory.ODirectMemory;
+import com.orientechnologies.common.serialization.types.OBinarySerializer;
+import com.orientechnologies.common.serialization.types.OByteSerializer;
+import com.orientechnologies.common.serialization.types.OIntegerSerializer;
+import com.orientechnologies.common.serialization.types.OLongSerializer;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OLogSequenceNumber;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OBinaryPageDiff;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OIntPageDiff;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OLongPageDiff;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OPageDiff;
+
+/**
+ * Page of {@link OSBTree}. Leaf bucket contains pairs of key and value, internal bucket contains keys together with pointers to
+ * left and right child pages, right pointer of entry is always equal to the left pointer of the next entry. Entries are stored
+ * from the end of page, array of their positions sorted by key is stored after the page header.
+ *
+ * Header of bucket starts with the same fields as header of pages of paginated clusters, so magic number and CRC of page are
+ * maintained by disk cache and LSN of the last change of page is checked by disk cache before the page is written. All changes of
+ * bucket are tracked as page diffs to be logged in write ahead log.
+ */
+public class OSBTreeBucket<K, V> {
+  private static final int            MAGIC_NUMBER_OFFSET     = 0;
+  private static final int            CRC32_OFFSET            = MAGIC_NUMBER_OFFSET + OLongSerializer.LONG_SIZE;
+  private static final int            WAL_SEGMENT_OFFSET      = CRC32_OFFSET + OIntegerSerializer.INT_SIZE;
+  private static final int            WAL_POSITION_OFFSET     = WAL_SEGMENT_OFFSET + OIntegerSerializer.INT_SIZE;
+
+  private static final int            FREE_POINTER_OFFSET     = WAL_POSITION_OFFSET + OLongSerializer.LONG_SIZE;
+  private static final int            SIZE_OFFSET             = FREE_POINTER_OFFSET + OIntegerSerializer.INT_SIZE;
+  private static final int            IS_LEAF_OFFSET          = SIZE_OFFSET + OIntegerSerializer.INT_SIZE;
+  private static final int            LEFT_SIBLING_OFFSET     = IS_LEAF_OFFSET + OByteSerializer.BYTE_SIZE;
+  private static final int            RIGHT_SIBLING_OFFSET    = LEFT_SIBLING_OFFSET + OLongSerializer.LONG_SIZE;
+
+  private static final int            TREE_SIZE_OFFSET        = RIGHT_SIBLING_OFFSET + OLongSerializer.LONG_SIZE;
+  private static final int            KEY_SERIALIZER_OFFSET   = TREE_SIZE_OFFSET + OLongSerializer.LONG_SIZE;
+  private static final int            VALUE_SERIALIZER_OFFSET = KEY_SERIALIZER_OFFSET + OByteSerializer.BYTE_SIZE;
+  private static final int            FREE_LIST_HEAD_OFFSET   = VALUE_SERIALIZER_OFFSET + OByteSerializer.BYTE_SIZE;
+
+  private static final int            POSITIONS_ARRAY_OFFSET  = FREE_LIST_HEAD_OFFSET + OLongSerializer.LONG_SIZE;
+
+  public static final int             MAX_BUCKET_SIZE_BYTES   = OGlobalConfiguration.DISK_CACHE_PAGE_SIZE.getValueAsInteger() * 1024;
+
+  /**
+   * Maximum size of single entry, at least two entries should fit into the bucket, otherwise it can not be split.
+   */
+  public static final int             MAX_ENTRY_SIZE          = (MAX_BUCKET_SIZE_BYTES - POSITIONS_ARRAY_OFFSET) / 2
+                                                                  - OIntegerSerializer.INT_SIZE;
+
+  private final long                  bufferPointer;
+  private final ODirectMemory         directMemory;
+  private boolean                     isLeaf;
+
+  private final Comparator<? super K> comparator              = ODefaultComparator.INSTANCE;
+
+  private final OBinarySerializer<K>  keySerializer;
+  private final OBinarySerializer<V>  valueSerializer;
+
+  private final List<OPageDiff<?>>    pageChanges             = new ArrayList<OPageDiff<?>>();
+
+  public OSBTreeBucket(long bufferPointer, boolean isLeaf, ODirectMemory directMemory, OBinarySerializer<K> keySerializer,
+      OBinarySerializer<V> valueSerializer) {
+    this.bufferPointer = bufferPointer;
+    this.isLeaf = isLeaf;
+    this.directMemory = directMemory;
+    this.keySerializer = keySerializer;
+    this.valueSerializer = valueSerializer;
+
+    reset(isLeaf);
+  }
+
+  public OSBTreeBucket(long bufferPointer, ODirectMemory directMemory, OBinarySerializer<K> keySerializer,
+      OBinarySerializer<V> valueSerializer) {
+    this.bufferPointer = bufferPointer;
+    this.directMemory = directMemory;
+    this.keySerializer = keySerializer;
+    this.valueSerializer = valueSerializer;
+
+    this.isLeaf = directMemory.getByte(bufferPointer + IS_LEAF_OFFSET) > 0;
+  }
+
+  /**
+   * Removes all entries and siblings of bucket. Tree level fields of header (size of tree, serializers and head of list of free
+   * pages) are kept.
+   */
+  private void reset(boolean isLeaf) {
+    this.isLeaf = isLeaf;
+
+    setIntValue(FREE_POINTER_OFFSET, MAX_BUCKET_SIZE_BYTES);
+    setIntValue(SIZE_OFFSET, 0);
+
+    setByteValue(IS_LEAF_OFFSET, (byte) (isLeaf ? 1 : 0));
+
+    setLeftSibling(-1);
+    setRightSibling(-1);
+  }
+
+  public boolean isLeaf() {
+    return isLeaf;
+  }
+
+  public int size() {
+    return getIntValue(SIZE_OFFSET);
+  }
+
+  public boolean isEmpty() {
+    return size() == 0;
+  }
+
+  /**
+   * @return amount of bytes occupied by entries and their positions.
+   */
+  public int getUsedSpace() {
+    return MAX_BUCKET_SIZE_BYTES - getIntValue(FREE_POINTER_OFFSET) + size() * OIntegerSerializer.INT_SIZE;
+  }
+
+  /**
+   * @return amount of bytes which can be occupied by new entries and their positions.
+   */
+  public int getFreeSpace() {
+    return getIntValue(FREE_POINTER_OFFSET) - POSITIONS_ARRAY_OFFSET - size() * OIntegerSerializer.INT_SIZE;
+  }
+
+  /**
+   * @return index of entry with passed in key or <code>-(insertion point + 1)</code> if such key is absent.
+   */
+  public int find(K key) {
+    int low = 0;
+    int high = size() - 1;
+
+    while (low <= high) {
+      int mid = (low + high) >>> 1;
+      K midVal = getKey(mid);
+      int cmp = comparator.compare(midVal, key);
+
+      if (cmp < 0)
+        low = mid + 1;
+      else if (cmp > 0)
+        high = mid - 1;
+      else
+        return mid; // key found
+    }
+
+    return -(low + 1); // key not found.
+  }
+
+  /**
+   * @return index of the first entry which key is greater or equal to passed in key or {@link #size()} if there is no such entry.
+   *         If several keys are equal to passed in one (partial composite key) index of the first of them is returned.
+   */
+  public int lowerBound(K key) {
+    int low = 0;
+    int high = size();
+
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (comparator.compare(getKey(mid), key) < 0)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+
+    return low;
+  }
+
+  /**
+   * @return index of the first entry which key is greater than passed in key or {@link #size()} if there is no such entry.
+   */
+  public int upperBound(K key) {
+    int low = 0;
+    int high = size();
+
+    while (low < high) {
+      final int mid = (low + high) >>> 1;
+      if (comparator.compare(getKey(mid), key) <= 0)
+        low = mid + 1;
+      else
+        high = mid;
+    }
+
+    return low;
+  }
+
+  public K getKey(int index) {
+    int entryPosition = getEntryPosition(index);
+    if (!isLeaf)
+      entryPosition += 2 * OLongSerializer.LONG_SIZE;
+
+    return keySerializer.deserializeFromDirectMemory(directMemory, bufferPointer + entryPosition);
+  }
+
+  public V getValue(int index) {
+    assert isLeaf;
+
+    int entryPosition = getEntryPosition(index);
+    entryPosition += keySerializer.getObjectSizeInDirectMemory(directMemory, bufferPointer + entryPosition);
+
+    return valueSerializer.deserializeFromDirectMemory(directMemory, bufferPointer + entryPosition);
+  }
+
+  public long getLeftChild(int index) {
+    assert !isLeaf;
+
+    return getLongValue(getEntryPosition(index));
+  }
+
+  public long getRightChild(int index) {
+    assert !isLeaf;
+
+    return getLongValue(getEntryPosition(index) + OLongSerializer.LONG_SIZE);
+  }
+
+  public void setLeftChild(int index, long pageIndex) {
+    assert !isLeaf;
+
+    setLongValue(getEntryPosition(index), pageIndex);
+  }
+
+  public void setRightChild(int index, long pageIndex) {
+    assert !isLeaf;
+
+    setLongValue(getEntryPosition(index) + OLongSerializer.LONG_SIZE, pageIndex);
+  }
+
+  public Entry<K, V> getEntry(int index) {
+    final K key = getKey(index);
+
+    if (isLeaf)
+      return new Entry<K, V>(key, getValue(index), -1, -1);
+
+    return new Entry<K, V>(key, null, getLeftChild(index), getRightChild(index));
+  }
+
+  /**
+   * @return size of serialized entry or -1 if entry is bigger than {@link #MAX_ENTRY_SIZE}.
+   */
+  public static <K, V> int entrySize(Entry<K, V> entry, boolean isLeaf, OBinarySerializer<K> keySerializer,
+      OBinarySerializer<V> valueSerializer) {
+    final int entrySize;
+    if (isLeaf)
+      entrySize = keySerializer.getObjectSize(entry.key) + valueSerializer.getObjectSize(entry.value);
+    else
+      entrySize = 2 * OLongSerializer.LONG_SIZE + keySerializer.getObjectSize(entry.key);
+
+    if (entrySize > MAX_ENTRY_SIZE)
+      return -1;
+
+    return entrySize;
+  }
+
+  /**
+   * Inserts entry at passed in position, position should be calculated by {@link #find(Object)}.
+   *
+   * @return <code>false</code> if there is not enough free space in bucket.
+   */
+  public boolean addEntry(int index, Entry<K, V> entry) {
+    final int entrySize = entrySize(entry, isLeaf, keySerializer, valueSerializer);
+    assert entrySize > 0;
+
+    final int size = size();
+    int freePointer = getIntValue(FREE_POINTER_OFFSET);
+    if (freePointer - entrySize < POSITIONS_ARRAY_OFFSET + (size + 1) * OIntegerSerializer.INT_SIZE)
+      return false;
+
+    final int positionOffset = POSITIONS_ARRAY_OFFSET + index * OIntegerSerializer.INT_SIZE;
+    copyData(positionOffset, positionOffset + OIntegerSerializer.INT_SIZE, (size - index) * OIntegerSerializer.INT_SIZE);
+
+    freePointer -= entrySize;
+    setIntValue(positionOffset, freePointer);
+
+    int entryPosition = freePointer;
+    if (!isLeaf) {
+      setLongValue(entryPosition, entry.leftChild);
+      entryPosition += OLongSerializer.LONG_SIZE;
+
+      setLongValue(entryPosition, entry.rightChild);
+      entryPosition += OLongSerializer.LONG_SIZE;
+    }
+
+    keySerializer.serializeInDirectMemory(entry.key, directMemory, bufferPointer + entryPosition);
+
+    if (isLeaf) {
+      entryPosition += keySerializer.getObjectSize(entry.key);
+      valueSerializer.serializeInDirectMemory(entry.value, directMemory, bufferPointer + entryPosition);
+    }
+
+    trackSerializedData(freePointer, entrySize);
+
+    setIntValue(FREE_POINTER_OFFSET, freePointer);
+    setIntValue(SIZE_OFFSET, size + 1);
+
+    return true;
+  }
+
+  public void remove(int index) {
+    final int size = size();
+    final int freePointer = getIntValue(FREE_POINTER_OFFSET);
+
+    final int positionOffset = POSITIONS_ARRAY_OFFSET + index * OIntegerSerializer.INT_SIZE;
+    final int entryPosition = getIntValue(positionOffset);
+    final int entrySize = getEntrySize(entryPosition);
+
+    copyData(positionOffset + OIntegerSerializer.INT_SIZE, positionOffset, (size - index - 1) * OIntegerSerializer.INT_SIZE);
+
+    // ENTRIES WHICH ARE PLACED BEFORE REMOVED ONE ARE SHIFTED TO KEEP FREE SPACE CONTINUOUS
+    if (entryPosition > freePointer)
+      copyData(freePointer, freePointer + entrySize, entryPosition - freePointer);
+
+    int currentPositionOffset = POSITIONS_ARRAY_OFFSET;
+    for (int i = 0; i < size - 1; i++) {
+      final int currentEntryPosition = getIntValue(currentPositionOffset);
+      if (currentEntryPosition < entryPosition)
+        setIntValue(currentPositionOffset, currentEntryPosition + entrySize);
+
+      currentPositionOffset += OIntegerSerializer.INT_SIZE;
+    }
+
+    setIntValue(FREE_POINTER_OFFSET, freePointer + entrySize);
+    setIntValue(SIZE_OFFSET, size - 1);
+  }
+
+  /**
+   * Removes entries starting from passed in index till the end of bucket.
+   */
+  public void shrink(int newSize) {
+    final int size = size();
+    if (newSize >= size)
+      return;
+
+    final List<Entry<K, V>> entries = new ArrayList<Entry<K, V>>(newSize);
+    for (int i = 0; i < newSize; i++)
+      entries.add(getEntry(i));
+
+    setIntValue(FREE_POINTER_OFFSET, MAX_BUCKET_SIZE_BYTES);
+    setIntValue(SIZE_OFFSET, 0);
+
+    for (int i = 0; i < newSize; i++)
+      addEntry(i, entries.get(i));
+  }
+
+  /**
+   * Converts bucket into empty bucket of passed in kind. Used when root of tree is split or when the only child of root is moved to
+   * the root, root always stays on the same page.
+   */
+  public void resetAs(boolean isLeaf) {
+    reset(isLeaf);
+  }
+
+  public long getLeftSibling() {
+    return getLongValue(LEFT_SIBLING_OFFSET);
+  }
+
+  public void setLeftSibling(long pageIndex) {
+    setLongValue(LEFT_SIBLING_OFFSET, pageIndex);
+  }
+
+  public long getRightSibling() {
+    return getLongValue(RIGHT_SIBLING_OFFSET);
+  }
+
+  public void setRightSibling(long pageIndex) {
+    setLongValue(RIGHT_SIBLING_OFFSET, pageIndex);
+  }
+
+  public long getTreeSize() {
+    return getLongValue(TREE_SIZE_OFFSET);
+  }
+
+  public void setTreeSize(long size) {
+    setLongValue(TREE_SIZE_OFFSET, size);
+  }
+
+  public byte getKeySerializerId() {
+    return directMemory.getByte(bufferPointer + KEY_SERIALIZER_OFFSET);
+  }
+
+  public void setKeySerializerId(byte keySerializerId) {
+    setByteValue(KEY_SERIALIZER_OFFSET, keySerializerId);
+  }
+
+  public byte getValueSerializerId() {
+    return directMemory.getByte(bufferPointer + VALUE_SERIALIZER_OFFSET);
+  }
+
+  public void setValueSerializerId(byte valueSerializerId) {
+    setByteValue(VALUE_SERIALIZER_OFFSET, valueSerializerId);
+  }
+
+  /**
+   * Free pages are linked by their right siblings, head of this list is stored in root page.
+   */
+  public long getFreeListHead() {
+    return getLongValue(FREE_LIST_HEAD_OFFSET);
+  }
+
+  public void setFreeListHead(long pageIndex) {
+    setLongValue(FREE_LIST_HEAD_OFFSET, pageIndex);
+  }
+
+  /**
+   * @return changes made through this instance of bucket in the order they were made.
+   */
+  public List<OPageDiff<?>> getPageChanges() {
+    return pageChanges;
+  }
+
+  public void setLsn(OLogSequenceNumber lsn) {
+    OIntegerSerializer.INSTANCE.serializeInDirectMemory(lsn.getSegment(), directMemory, bufferPointer + WAL_SEGMENT_OFFSET);
+    OLongSerializer.INSTANCE.serializeInDirectMemory(lsn.getPosition(), directMemory, bufferPointer + WAL_POSITION_OFFSET);
+  }
+
+  private int getEntryPosition(int index) {
+    return getIntValue(POSITIONS_ARRAY_OFFSET + index * OIntegerSerializer.INT_SIZE);
+  }
+
+  private int getEntrySize(int entryPosition) {
+    if (isLeaf) {
+      final int keySize = keySerializer.getObjectSizeInDirectMemory(directMemory, bufferPointer + entryPosition);
+      return keySize + valueSerializer.getObjectSizeInDirectMemory(directMemory, bufferPointer + entryPosition + keySize);
+    }
+
+    return 2 * OLongSerializer.LONG_SIZE
+        + keySerializer.getObjectSizeInDirectMemory(directMemory, bufferPointer + entryPosition + 2 * OLongSerializer.LONG_SIZE);
+  }
+
+  private int getIntValue(int offset) {
+    return OIntegerSerializer.INSTANCE.deserializeFromDirectMemory(directMemory, bufferPointer + offset);
+  }
+
+  private void setIntValue(int offset, int value) {
+    pageChanges.add(new OIntPageDiff(value, offset));
+    OIntegerSerializer.INSTANCE.serializeInDirectMemory(value, directMemory, bufferPointer + offset);
+  }
+
+  private long getLongValue(int offset) {
+    return OLongSerializer.INSTANCE.deserializeFromDirectMemory(directMemory, bufferPointer + offset);
+  }
+
+  private void setLongValue(int offset, long value) {
+    pageChanges.add(new OLongPageDiff(value, offset));
+    OLongSerializer.INSTANCE.serializeInDirectMemory(value, directMemory, bufferPointer + offset);
+  }
+
+  private void setByteValue(int offset, byte value) {
+    pageChanges.add(new OBinaryPageDiff(new byte[] { value }, offset));
+    directMemory.setByte(bufferPointer + offset, value);
+  }
+
+  private void copyData(int from, int to, int len) {
+    if (len == 0)
+      return;
+
+    pageChanges.add(new OBinaryPageDiff(directMemory.get(bufferPointer + from, len), to));
+    directMemory.copyData(bufferPointer + from, bufferPointer + to, len);
+  }
+
+  /**
+   * Tracks data which was written by serializers of keys and values directly to the page.
+   */
+  private void trackSerializedData(int offset, int len) {
+    pageChanges.add(new OBinaryPageDiff(directMemory.get(bufferPointer + offset, len), offset));
+  }
+
+  public static class Entry<K, V> {
+    public final K    key;
+    public final V    value;
+    public final long leftChild;
+    public final long rightChild;
+
+    public Entry(K key, V value, long leftChild, long rightChild) {
+      this.key = key;
+      this.value = value;
+      this.leftChild = leftChild;
+      this.rightChild = rightChild;
+    }
+  }
+}
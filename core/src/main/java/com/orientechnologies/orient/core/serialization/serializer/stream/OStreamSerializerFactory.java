@@ -45,6 +45,12 @@ public class OStreamSerializerFactory {
 			else if (iName.equals(OStreamSerializerListRID.NAME))
 				return OStreamSerializerListRID.INSTANCE;
 
+			else if (iName.equals(OStreamSerializerPostingList.NAME))
+				return OStreamSerializerPostingList.INSTANCE;
+
+			else if (iName.equals(OStreamSerializerPostingList.FREQUENCIES_NAME))
+				return OStreamSerializerPostingList.FREQUENCIES_INSTANCE;
+
 			else if(iName.equals(OCompositeKeySerializer.NAME))
 				return OCompositeKeySerializer.INSTANCE;
 
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.serialization.serializer.stream;
+
+import java.io.IOException;
+
+import com.orientechnologies.orient.core.index.OFullTextPostingList;
+
+/**
+ * Serializes RIDs of full-text index as {@link OFullTextPostingList}, which keeps them in delta encoded blocks. Name of serializer
+ * defines whether new lists keep frequencies of words, format of stored list is recognized on load.
+ */
+public class OStreamSerializerPostingList implements OStreamSerializer {
+  public static final String                       NAME                 = "pl";
+  public static final String                       FREQUENCIES_NAME     = "plf";
+  public static final OStreamSerializerPostingList INSTANCE             = new OStreamSerializerPostingList(false);
+  public static final OStreamSerializerPostingList FREQUENCIES_INSTANCE = new OStreamSerializerPostingList(true);
+
+  private final boolean                            withFrequencies;
+
+  private OStreamSerializerPostingList(final boolean withFrequencies) {
+    this.withFrequencies = withFrequencies;
+  }
+
+  public boolean isWithFrequencies() {
+    return withFrequencies;
+  }
+
+  public Object fromStream(final byte[] iStream) throws IOException {
+    if (iStream == null)
+      return null;
+
+    return new OFullTextPostingList().fromStream(iStream);
+  }
+
+  public byte[] toStream(final Object iObject) throws IOException {
+    if (iObject == null)
+      return null;
+
+    return ((OFullTextPostingList) iObject).toStream();
+  }
+
+  public String getName() {
+    return withFrequencies ? FREQUENCIES_NAME : NAME;
+  }
+}
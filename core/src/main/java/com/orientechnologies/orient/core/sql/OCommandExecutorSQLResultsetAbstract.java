@@ -25,6 +25,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 
+import com.orientechnologies.common.collection.OMultiCollectionIterator;
 import com.orientechnologies.orient.core.command.OCommandRequest;
 import com.orientechnologies.orient.core.command.OCommandRequestText;
 import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
@@ -410,6 +411,16 @@ public abstract class OCommandExecutorSQLResultsetAbstract extends OCommandExecu
 
         t.clear();
         tempResult = newList;
+      } else {
+        // RESULT READ WHILE IT'S BROWSED (E.G. MERGED FROM TEMPORARY FILES): SKIP NOW AND LIMIT LATER
+        final Iterator<OIdentifiable> it = tempResult.iterator();
+        for (int i = 0; i < skip && it.hasNext(); ++i)
+          it.next();
+
+        final OMultiCollectionIterator<OIdentifiable> result = new OMultiCollectionIterator<OIdentifiable>();
+        result.add(it);
+        result.setLimit(limit);
+        tempResult = result;
       }
     }
   }
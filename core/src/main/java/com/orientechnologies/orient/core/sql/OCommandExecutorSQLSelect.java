@@ -17,6 +17,7 @@ package com.orientechnologies.orient.core.sql;
 
 import java.lang.reflect.Array;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Comparator;
@@ -37,18 +38,23 @@ import com.orientechnologies.common.log.OLogManager;
 import com.orientechnologies.common.util.OPair;
 import com.orientechnologies.orient.core.command.OBasicCommandContext;
 import com.orientechnologies.orient.core.command.OCommandRequest;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
 import com.orientechnologies.orient.core.db.record.OIdentifiable;
 import com.orientechnologies.orient.core.exception.OCommandExecutionException;
 import com.orientechnologies.orient.core.exception.OQueryParsingException;
+import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.index.OCompositeIndexDefinition;
 import com.orientechnologies.orient.core.index.OIndex;
 import com.orientechnologies.orient.core.index.OIndexDefinition;
 import com.orientechnologies.orient.core.index.OIndexInternal;
+import com.orientechnologies.orient.core.index.OPropertyIndexDefinition;
+import com.orientechnologies.orient.core.iterator.ORecordIteratorClusters;
 import com.orientechnologies.orient.core.metadata.schema.OClass;
 import com.orientechnologies.orient.core.metadata.schema.OProperty;
 import com.orientechnologies.orient.core.metadata.security.ODatabaseSecurityResources;
 import com.orientechnologies.orient.core.metadata.security.ORole;
+import com.orientechnologies.orient.core.metadata.security.OSecurityShared;
 import com.orientechnologies.orient.core.record.ORecord;
 import com.orientechnologies.orient.core.record.ORecordInternal;
 import com.orientechnologies.orient.core.record.impl.ODocument;
@@ -57,6 +63,7 @@ import com.orientechnologies.orient.core.serialization.serializer.OStringSeriali
 import com.orientechnologies.orient.core.sql.filter.OSQLFilterCondition;
 import com.orientechnologies.orient.core.sql.filter.OSQLFilterItem;
 import com.orientechnologies.orient.core.sql.filter.OSQLFilterItemField;
+import com.orientechnologies.orient.core.sql.filter.OSQLFilterItemParameter;
 import com.orientechnologies.orient.core.sql.filter.OSQLFilterItemVariable;
 import com.orientechnologies.orient.core.sql.functions.OSQLFunctionRuntime;
 import com.orientechnologies.orient.core.sql.functions.coll.OSQLFunctionDistinct;
@@ -73,6 +80,7 @@ import com.orientechnologies.orient.core.sql.operator.OQueryOperatorMinor;
 import com.orientechnologies.orient.core.sql.operator.OQueryOperatorMinorEquals;
 import com.orientechnologies.orient.core.sql.operator.OQueryOperatorOr;
 import com.orientechnologies.orient.core.storage.OStorage;
+import com.orientechnologies.orient.core.storage.OStorageEmbedded;
 import com.orientechnologies.orient.core.type.tree.OMVRBTreeRIDSet;
 
 /**
@@ -91,7 +99,10 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
   public static final String          KEYWORD_ORDER                     = "ORDER";
   public static final String          KEYWORD_BY                        = "BY";
   public static final String          KEYWORD_GROUP                     = "GROUP";
+  public static final String          KEYWORD_PARALLEL                  = "PARALLEL";
   private static final int            MIN_THRESHOLD_USE_INDEX_AS_TARGET = 100;
+  private static final int            GROUP_PARTITIONS                  = 16;
+  private static final int            MAX_GROUP_LEVELS                  = 4;
 
   private Map<String, String>         projectionDefinition              = null;
   private Map<String, Object>         projections                       = null;    // THIS HAS BEEN KEPT FOR COMPATIBILITY; BUT
@@ -105,6 +116,14 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
   private int                         fetchLimit                        = -1;
   private OIdentifiable               lastRecord;
   private Iterator<OIdentifiable>     subIterator;
+  private String                      compiledFilterText;
+  private long                        metadataVersion                   = -1;
+  private boolean                     parallel;
+  private OSQLResultSorter            sorter;
+  private int                         sortLimit                         = -1;
+  private OSQLRecordSpillFile[]       groupPartitions;
+  private int                         groupLevel;
+  private long                        groupMemory;
 
   /**
    * Compile the filter conditions only the first time.
@@ -142,9 +161,23 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
           final String w = parserGetLastWord();
 
           if (w.equals(KEYWORD_WHERE)) {
-            compiledFilter = OSQLEngine.getInstance().parseCondition(parserText.substring(parserGetCurrentPosition(), endPosition),
-                getContext(), KEYWORD_WHERE);
-            optimize();
+            compiledFilterText = parserText.substring(parserGetCurrentPosition(), endPosition);
+
+            final OSQLStatementCache statementCache = OSQLEngine.getInstance().getStatementCache();
+            if (statementCache.isEnabled()) {
+              metadataVersion = OSQLStatementCache.getMetadataVersion(getDatabase());
+              compiledFilter = statementCache.borrow(getDatabase().getName(), metadataVersion, compiledFilterText);
+            }
+
+            if (compiledFilter == null) {
+              compiledFilter = OSQLEngine.getInstance().parseCondition(compiledFilterText, getContext(), KEYWORD_WHERE);
+
+              // OPTIMIZATION REPLACES FUNCTIONS BY THEIR VALUES, SO THE CONDITION IS CHECKED BEFORE
+              if (!OSQLStatementCache.isReusable(compiledFilter))
+                compiledFilterText = null;
+
+              optimize();
+            }
             parserSetCurrentPosition(compiledFilter.parserIsEnded() ? endPosition : compiledFilter.parserGetCurrentPosition()
                 + parserGetCurrentPosition());
           } else if (w.equals(KEYWORD_LET))
@@ -159,9 +192,13 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
             parseSkip(w);
           else if (w.equals(KEYWORD_TIMEOUT))
             parseTimeout(w);
+          else if (w.equals(KEYWORD_PARALLEL))
+            parallel = true;
           else
             throwParsingException("Invalid keyword '" + w + "'");
-        }
+        } else if (parserGetLastWord().equals(KEYWORD_PARALLEL))
+          // LAST KEYWORD HAS NO VALUE
+          parallel = true;
       }
     }
     if (limit == 0 || limit < -1) {
@@ -228,6 +265,9 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
       compiledFilter = OSQLEngine.getInstance().parseCondition("", getContext(), KEYWORD_WHERE);
     }
 
+    // THE CONDITION IS CHANGED AND CANNOT BE REUSED FOR THE SAME TEXT
+    compiledFilterText = null;
+
     final OSQLFilterCondition rootCondition = compiledFilter.getRootCondition();
     if (rootCondition != null) {
       compiledFilter.setRootCondition(new OSQLFilterCondition(nodeCondition, new OQueryOperatorAnd(), rootCondition));
@@ -275,13 +315,19 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     if (subIterator == null) {
       if (target == null) {
         // GET THE RESULT
-        executeSearch(null);
-        applyExpand();
-        handleNoTarget();
-        handleGroupBy();
-        applyOrderBy();
-
-        subIterator = new ArrayList<OIdentifiable>((List<OIdentifiable>) getResult()).iterator();
+        try {
+          createSorter(-1);
+          executeSearch(null);
+          applyExpand();
+          handleNoTarget();
+          handleGroupBy();
+          applyOrderBy();
+
+          subIterator = new ArrayList<OIdentifiable>((List<OIdentifiable>) getResult()).iterator();
+          releaseCompiledFilter();
+        } finally {
+          closeSpilledResults();
+        }
         lastRecord = null;
         tempResult = null;
         groupedResult = null;
@@ -317,17 +363,39 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     if (timeoutMs > 0)
       getContext().beginExecution(timeoutMs, timeoutStrategy);
 
-    if (!optimizeExecution()) {
-      fetchLimit = getQueryFetchLimit();
+    try {
+      if (!optimizeExecution()) {
+        fetchLimit = getQueryFetchLimit();
+
+        // ONLY THE FIRST SKIP + LIMIT RECORDS ARE SORTED
+        createSorter(limit > -1 ? limit + skip : -1);
+        executeSearch(iArgs);
+        applyExpand();
+        handleNoTarget();
+        handleGroupBy();
+        applyOrderBy();
+        applyLimitAndSkip();
+      }
 
-      executeSearch(iArgs);
-      applyExpand();
-      handleNoTarget();
-      handleGroupBy();
-      applyOrderBy();
-      applyLimitAndSkip();
+      releaseCompiledFilter();
+
+      return getResult();
+    } finally {
+      closeSpilledResults();
+    }
+  }
+
+  /**
+   * Gives back the parsed condition to the statement cache once the records are searched.
+   */
+  private void releaseCompiledFilter() {
+    if (compiledFilterText != null) {
+      if (metadataVersion > -1)
+        OSQLEngine.getInstance().getStatementCache()
+            .release(getDatabase().getName(), metadataVersion, compiledFilterText, compiledFilter);
+      compiledFilterText = null;
+      compiledFilter = null;
     }
-    return getResult();
   }
 
   protected void executeSearch(final Map<Object, Object> iArgs) {
@@ -342,10 +410,11 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
       return;
     }
 
-    // BROWSE ALL THE RECORDS
-    while (target.hasNext())
-      if (!executeSearchRecord(target.next()))
-        break;
+    if (!executeParallelSearch())
+      // BROWSE ALL THE RECORDS
+      while (target.hasNext())
+        if (!executeSearchRecord(target.next()))
+          break;
 
     if (request.getResultListener() != null)
       request.getResultListener().end();
@@ -363,6 +432,77 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     return true;
   }
 
+  /**
+   * Scans the clusters of the target by several threads if it is requested by the PARALLEL keyword or by
+   * {@link OGlobalConfiguration#COMMAND_PARALLEL_SCAN}. Records which match the condition are handled by the current thread in the
+   * order of the sequential scan.
+   * 
+   * @return false if the target cannot be scanned in parallel, so it has to be browsed by the current thread
+   */
+  private boolean executeParallelSearch() {
+    if (!parallel && !OGlobalConfiguration.COMMAND_PARALLEL_SCAN.getValueAsBoolean())
+      return false;
+
+    final int threads = OGlobalConfiguration.COMMAND_PARALLEL_SCAN_THREADS.getValueAsInteger();
+    if (threads < 2 || !(target instanceof ORecordIteratorClusters<?>) || (let != null && !let.isEmpty()))
+      return false;
+
+    if (compiledFilter != null && compiledFilterText == null)
+      // CONDITION CONTAINS SUB-QUERIES OR FUNCTIONS WHICH KEEP THE STATE OF EXECUTION
+      return false;
+
+    final ORID[] range = getRange();
+    if (range[0] != null || range[1] != null)
+      return false;
+
+    final ODatabaseRecord database = getDatabase();
+    if (!(database.getStorage() instanceof OStorageEmbedded) || database.getTransaction().isActive())
+      // WORKERS CANNOT SEE CHANGES OF THE CURRENT TRANSACTION
+      return false;
+
+    final int[] clusterIds = ((ORecordIteratorClusters<?>) target).getClusterIds();
+    for (OClass cls : database.getMetadata().getSchema().getClasses())
+      if (cls.isSubClassOf(OSecurityShared.RESTRICTED_CLASSNAME))
+        for (int clusterId : cls.getClusterIds())
+          for (int targetClusterId : clusterIds)
+            if (clusterId == targetClusterId)
+              // RECORD LEVEL SECURITY IS CHECKED BY THE DATABASE OF THE CURRENT USER
+              return false;
+
+    final OSQLParallelClusterScan scan = new OSQLParallelClusterScan(database, clusterIds, threads, request.isUseCache(),
+        parsedTarget.getTargetClasses(), compiledFilter != null ? compiledFilterText : null, parameters);
+    if (scan.getRanges() < 2)
+      return false;
+
+    final int startedThreads = scan.start(threads);
+    if (startedThreads == 0)
+      // ALL THE THREADS OF THE POOL ARE BUSY WITH OTHER COMMANDS
+      return false;
+
+    context.updateMetric("parallelScanThreads", startedThreads);
+    try {
+      ORecordInternal<?> record;
+      while ((record = scan.next()) != null) {
+        if (Thread.interrupted())
+          throw new OCommandExecutionException("The select execution has been interrupted");
+
+        if (!context.checkTimeout())
+          break;
+
+        if (!handleResult(record, true))
+          // END OF EXECUTION
+          break;
+      }
+    } finally {
+      scan.close();
+
+      context.updateMetric("recordReads", scan.getRecordReads());
+      context.updateMetric("documentReads", scan.getDocumentReads());
+    }
+
+    return true;
+  }
+
   protected boolean executeSearchRecord(final OIdentifiable id) {
     if (Thread.interrupted())
       throw new OCommandExecutionException("The select execution has been interrupted");
@@ -396,6 +536,12 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
       return true;
     }
 
+    if (sorter != null && projections == null && groupedResult == null && !sorter.isCandidate(iRecord)) {
+      // NOT AMONG THE FIRST RESULTS OF ORDER BY ... LIMIT: AVOID TO COPY IT
+      freeDiscardedRecord(iRecord);
+      return true;
+    }
+
     if (iCloneIt)
       lastRecord = iRecord instanceof ORecord<?> ? ((ORecord<?>) iRecord).copy() : iRecord.getIdentity().copy();
     else
@@ -416,6 +562,8 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     if (iRecord == null)
       return;
 
+    final OIdentifiable source = iRecord;
+
     if (projections != null || groupByFields != null && !groupByFields.isEmpty()) {
       if (groupedResult == null) {
         // APPLY PROJECTIONS IN LINE
@@ -424,32 +572,7 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
           return;
       } else {
         // AGGREGATION/GROUP BY
-        final ODocument doc = (ODocument) iRecord.getRecord();
-        Object fieldValue = null;
-        if (groupByFields != null && !groupByFields.isEmpty()) {
-          if (groupByFields.size() > 1) {
-            // MULTI-FIELD FROUP BY
-            final Object[] fields = new Object[groupByFields.size()];
-            for (int i = 0; i < groupByFields.size(); ++i) {
-              final String field = groupByFields.get(i);
-              if (field.startsWith("$"))
-                fields[i] = context.getVariable(field);
-              else
-                fields[i] = doc.field(field);
-            }
-            fieldValue = fields;
-          } else {
-            final String field = groupByFields.get(0);
-            if (field != null) {
-              if (field.startsWith("$"))
-                fieldValue = context.getVariable(field);
-              else
-                fieldValue = doc.field(field);
-            }
-          }
-        }
-
-        getProjectionGroup(fieldValue).applyRecord(iRecord);
+        aggregateRecord(iRecord);
         return;
       }
     }
@@ -459,6 +582,10 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
       if (request.getResultListener() != null)
         request.getResultListener().result(iRecord);
 
+    } else if (sorter != null) {
+      // SORT THE RECORDS WITHIN THE MEMORY BUDGET
+      freeDiscardedRecord(sorter.add(iRecord, source));
+
     } else {
 
       // COLLECT ALL THE RECORDS AND ORDER THEM AT THE END
@@ -468,12 +595,113 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     }
   }
 
-  protected ORuntimeResult getProjectionGroup(final Object fieldValue) {
-    ORuntimeResult group = null;
+  /**
+   * Applies the record to its group. When a new group does not fit the memory budget of the command the record is written in a
+   * temporary partition and aggregated later by {@link #handleGroupBy()}.
+   */
+  private void aggregateRecord(final OIdentifiable iRecord) {
+    final Object fieldValue = getGroupByValue((ODocument) iRecord.getRecord());
 
+    if (groupPartitions != null || canSpillGroups()) {
+      final ORuntimeResult group = findProjectionGroup(fieldValue);
+      if (group != null) {
+        group.applyRecord(iRecord);
+        return;
+      }
+
+      if (groupPartitions == null) {
+        final long size = OSQLRecordSpillFile.estimateMemory(iRecord);
+        if (context.reserveMemory(size))
+          groupMemory += size;
+        else
+          // FROM NOW ON NEW GROUPS ARE WRITTEN IN PARTITIONS
+          groupPartitions = new OSQLRecordSpillFile[GROUP_PARTITIONS];
+      }
+
+      if (groupPartitions != null && fieldValue != null) {
+        final int partition = getGroupPartition(fieldValue);
+        if (groupPartitions[partition] == null) {
+          groupPartitions[partition] = new OSQLRecordSpillFile("query-group-");
+          context.updateMetric("groupPartitions", 1);
+        }
+        groupPartitions[partition].write(iRecord);
+        return;
+      }
+    }
+
+    getProjectionGroup(fieldValue).applyRecord(iRecord);
+  }
+
+  private Object getGroupByValue(final ODocument doc) {
+    Object fieldValue = null;
+    if (groupByFields != null && !groupByFields.isEmpty()) {
+      if (groupByFields.size() > 1) {
+        // MULTI-FIELD FROUP BY
+        final Object[] fields = new Object[groupByFields.size()];
+        for (int i = 0; i < groupByFields.size(); ++i) {
+          final String field = groupByFields.get(i);
+          if (field.startsWith("$"))
+            fields[i] = context.getVariable(field);
+          else
+            fields[i] = doc.field(field);
+        }
+        fieldValue = fields;
+      } else {
+        final String field = groupByFields.get(0);
+        if (field != null) {
+          if (field.startsWith("$"))
+            fieldValue = context.getVariable(field);
+          else
+            fieldValue = doc.field(field);
+        }
+      }
+    }
+    return fieldValue;
+  }
+
+  /**
+   * Groups can be written in temporary files only when they are computed by the record alone: variables and LET clauses are not
+   * available anymore when the partitions are aggregated.
+   */
+  private boolean canSpillGroups() {
+    if (groupByFields == null || groupByFields.isEmpty() || groupLevel >= MAX_GROUP_LEVELS || (let != null && !let.isEmpty())
+        || context.getMemoryBudget() <= 0)
+      return false;
+
+    for (String field : groupByFields)
+      if (field.startsWith("$"))
+        return false;
+
+    return true;
+  }
+
+  private int getGroupPartition(final Object fieldValue) {
+    int hash = fieldValue instanceof Object[] ? Arrays.hashCode((Object[]) fieldValue) : fieldValue.hashCode();
+
+    // EVERY LEVEL SPREADS THE GROUPS IN A DIFFERENT WAY
+    hash += groupLevel * 0x9E3779B9;
+    hash ^= hash >>> 16;
+    hash *= 0x85EBCA6B;
+    hash ^= hash >>> 13;
+    return (hash & Integer.MAX_VALUE) % GROUP_PARTITIONS;
+  }
+
+  protected ORuntimeResult getProjectionGroup(final Object fieldValue) {
     if (groupedResult == null)
       groupedResult = new LinkedHashMap<Object, ORuntimeResult>();
-    else {
+
+    ORuntimeResult group = findProjectionGroup(fieldValue);
+    if (group == null) {
+      group = new ORuntimeResult(createProjectionFromDefinition(), resultCount, context);
+      groupedResult.put(fieldValue, group);
+    }
+    return group;
+  }
+
+  protected ORuntimeResult findProjectionGroup(final Object fieldValue) {
+    ORuntimeResult group = null;
+
+    if (groupedResult != null) {
       if (fieldValue != null && fieldValue.getClass().isArray()) {
         // SEQUENTIAL SCAN
         final int arraySize = Array.getLength(fieldValue);
@@ -502,11 +730,6 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
         // LOKUP FOR THE FIELD
         group = groupedResult.get(fieldValue);
     }
-
-    if (group == null) {
-      group = new ORuntimeResult(createProjectionFromDefinition(), resultCount, context);
-      groupedResult.put(fieldValue, group);
-    }
     return group;
   }
 
@@ -610,98 +833,211 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
       super.searchInClasses();
   }
 
-  @SuppressWarnings("rawtypes")
   private boolean searchForIndexes(final OClass iSchemaClass) {
     final ODatabaseRecord database = getDatabase();
     database.checkSecurity(ODatabaseSecurityResources.CLASS, ORole.PERMISSION_READ, iSchemaClass.getName().toLowerCase());
 
-    // Create set that is sorted by amount of fields in OIndexSearchResult items
-    // so the most specific restrictions will be processed first.
-    final List<OIndexSearchResult> indexSearchResults = new ArrayList<OIndexSearchResult>();
-
     // fetch all possible variants of subqueries that can be used in indexes.
     if (compiledFilter == null)
       return false;
 
+    // THE PLAN IS KEPT ONLY FOR CONDITIONS WHICH ARE NOT CHANGED AFTER PARSING
+    final boolean usePlan = compiledFilterText != null && metadataVersion > -1;
+    final OSQLStatementCache statementCache = OSQLEngine.getInstance().getStatementCache();
+    final OSQLIndexPlan plan = usePlan ? statementCache.getPlan(database.getName(), metadataVersion, parserText) : null;
+    if (plan != null && !plan.usesIndex())
+      return false;
+
+    final List<OIndexSearchResult> indexSearchResults = new ArrayList<OIndexSearchResult>();
     analyzeQueryBranch(iSchemaClass, compiledFilter.getRootCondition(), indexSearchResults);
 
+    if (plan != null) {
+      // TRY THE INDEX CHOSEN BY THE PREVIOUS EXECUTION, VALUES BOUND TO NULL MAY EXCLUDE SOME SUB-CONDITIONS
+      final int position = plan.getSearchResultPosition();
+      if (position < indexSearchResults.size() && indexSearchResults.get(position).fields().equals(plan.getFields())) {
+        final OIndex<?> index = database.getMetadata().getIndexManager().getIndex(plan.getIndexName());
+        if (index != null && searchInIndex(iSchemaClass, indexSearchResults.get(position), index))
+          return true;
+      }
+    } else if (usePlan && indexSearchResults.isEmpty() && !hasValueDependentItems(compiledFilter.getRootCondition()))
+      statementCache.putPlan(database.getName(), metadataVersion, parserText, OSQLIndexPlan.NO_INDEX);
+
+    // Create set that is sorted by amount of fields in OIndexSearchResult items
+    // so the most specific restrictions will be processed first.
+    final List<OIndexSearchResult> sortedSearchResults = new ArrayList<OIndexSearchResult>(indexSearchResults);
+
     // most specific will be processed first
-    Collections.sort(indexSearchResults, new Comparator<OIndexSearchResult>() {
+    Collections.sort(sortedSearchResults, new Comparator<OIndexSearchResult>() {
       public int compare(final OIndexSearchResult searchResultOne, final OIndexSearchResult searchResultTwo) {
         return searchResultTwo.getFieldCount() - searchResultOne.getFieldCount();
       }
     });
 
     // go through all variants to choose which one can be used for index search.
-    for (final OIndexSearchResult searchResult : indexSearchResults) {
+    for (final OIndexSearchResult searchResult : sortedSearchResults) {
       final List<OIndex<?>> involvedIndexes = getInvolvedIndexes(iSchemaClass, searchResult);
       Collections.sort(involvedIndexes, IndexComparator.INSTANCE);
 
       // go through all possible index for given set of fields.
-      for (final OIndex index : involvedIndexes) {
-        final OIndexDefinition indexDefinition = index.getDefinition();
-        final OQueryOperator operator = searchResult.lastOperator;
-
-        // we need to test that last field in query subset and field in index that has the same position
-        // are equals.
-        if (!OIndexSearchResult.isIndexEqualityOperator(operator)) {
-          final String lastFiled = searchResult.lastField.getItemName(searchResult.lastField.getItemCount() - 1);
-          final String relatedIndexField = indexDefinition.getFields().get(searchResult.fieldValuePairs.size());
-          if (!lastFiled.equals(relatedIndexField))
-            continue;
-        }
-
-        final int searchResultFieldsCount = searchResult.fields().size();
-        final List<Object> keyParams = new ArrayList<Object>(searchResultFieldsCount);
-        // We get only subset contained in processed sub query.
-        for (final String fieldName : indexDefinition.getFields().subList(0, searchResultFieldsCount)) {
-          final Object fieldValue = searchResult.fieldValuePairs.get(fieldName);
-          if (fieldValue != null)
-            keyParams.add(fieldValue);
-          else
-            keyParams.add(searchResult.lastValue);
-        }
+      for (final OIndex<?> index : involvedIndexes) {
+        if (!searchInIndex(iSchemaClass, searchResult, index))
+          continue;
 
-        INDEX_OPERATION_TYPE opType = null;
+        // PROXIES OF INDEXES ARE CREATED BY EVERY EXECUTION AND CANNOT BE FOUND BY NAME
+        if (usePlan && !(index instanceof OIndexProxy))
+          statementCache.putPlan(database.getName(), metadataVersion, parserText,
+              new OSQLIndexPlan(indexSearchResults.indexOf(searchResult), searchResult.fields(), index.getName()));
 
-        if (context.isRecordingMetrics()) {
-          Set<String> idxNames = (Set<String>) context.getVariable("involvedIndexes");
-          if (idxNames == null) {
-            idxNames = new HashSet<String>();
-            context.setVariable("involvedIndexes", idxNames);
-          }
-          idxNames.add(index.getName());
-        }
+        return true;
+      }
+    }
+    return false;
+  }
 
-        if (projections != null && projections.size() == 1) {
-          final Object v = projections.values().iterator().next();
-          if (v instanceof OSQLFunctionRuntime && ((OSQLFunctionRuntime) v).getFunction() instanceof OSQLFunctionCount) {
-            if (!(compiledFilter.getRootCondition().getLeft() instanceof OSQLFilterCondition || compiledFilter.getRootCondition()
-                .getRight() instanceof OSQLFilterCondition))
-              // OPTIMIZATION: JUST COUNT IT
-              opType = INDEX_OPERATION_TYPE.COUNT;
-          }
-        }
+  /**
+   * Executes the query of the sub-condition against the index and handles the found records.
+   *
+   * @return <code>true</code> if the index was used, otherwise <code>false</code>
+   */
+  @SuppressWarnings({ "rawtypes", "unchecked" })
+  private boolean searchInIndex(final OClass iSchemaClass, final OIndexSearchResult searchResult, final OIndex<?> index) {
+    final OIndexDefinition indexDefinition = index.getDefinition();
+    final OQueryOperator operator = searchResult.lastOperator;
+
+    // we need to test that last field in query subset and field in index that has the same position
+    // are equals.
+    if (!OIndexSearchResult.isIndexEqualityOperator(operator)) {
+      final String lastFiled = searchResult.lastField.getItemName(searchResult.lastField.getItemCount() - 1);
+      final String relatedIndexField = indexDefinition.getFields().get(searchResult.fieldValuePairs.size());
+      if (!lastFiled.equals(relatedIndexField))
+        return false;
+    }
 
-        if (opType == null)
-          opType = INDEX_OPERATION_TYPE.GET;
+    final int searchResultFieldsCount = searchResult.fields().size();
+    final List<Object> keyParams = new ArrayList<Object>(searchResultFieldsCount);
+    // We get only subset contained in processed sub query.
+    for (final String fieldName : indexDefinition.getFields().subList(0, searchResultFieldsCount)) {
+      final Object fieldValue = searchResult.fieldValuePairs.get(fieldName);
+      if (fieldValue != null)
+        keyParams.add(fieldValue);
+      else
+        keyParams.add(searchResult.lastValue);
+    }
 
-        Object result = operator.executeIndexQuery(context, index, opType, keyParams, fetchLimit);
-        if (result == null)
-          continue;
+    INDEX_OPERATION_TYPE opType = null;
 
-        if (opType == INDEX_OPERATION_TYPE.COUNT) {
-          // OPTIMIZATION: EMBED THE RESULT IN A DOCUMENT AND AVOID THE CLASSIC PATH
-          final String projName = projectionDefinition.keySet().iterator().next();
-          projectionDefinition.clear();
-          getProjectionGroup(null).applyValue(projName, result);
-        } else
-          fillSearchIndexResultSet(result);
+    if (context.isRecordingMetrics()) {
+      Set<String> idxNames = (Set<String>) context.getVariable("involvedIndexes");
+      if (idxNames == null) {
+        idxNames = new HashSet<String>();
+        context.setVariable("involvedIndexes", idxNames);
+      }
+      idxNames.add(index.getName());
+    }
 
-        return true;
+    if (projections != null && projections.size() == 1) {
+      final Object v = projections.values().iterator().next();
+      if (v instanceof OSQLFunctionRuntime && ((OSQLFunctionRuntime) v).getFunction() instanceof OSQLFunctionCount) {
+        if (!(compiledFilter.getRootCondition().getLeft() instanceof OSQLFilterCondition || compiledFilter.getRootCondition()
+            .getRight() instanceof OSQLFilterCondition))
+          // OPTIMIZATION: JUST COUNT IT
+          opType = INDEX_OPERATION_TYPE.COUNT;
       }
     }
-    return false;
+
+    if (opType == null)
+      opType = INDEX_OPERATION_TYPE.GET;
+
+    final OIndex searchIndex;
+    if (opType == INDEX_OPERATION_TYPE.GET && isIndexCoveringQuery(iSchemaClass, index)) {
+      // OPTIMIZATION: BUILD RESULTS FROM INDEX KEYS WITHOUT LOADING OF RECORDS
+      searchIndex = new OIndexCoveringProxy(index, iSchemaClass);
+      context.updateMetric("coveringIndexUsed", +1);
+    } else
+      searchIndex = index;
+
+    Object result = operator.executeIndexQuery(context, searchIndex, opType, keyParams, fetchLimit);
+    if (result == null)
+      return false;
+
+    if (opType == INDEX_OPERATION_TYPE.COUNT) {
+      // OPTIMIZATION: EMBED THE RESULT IN A DOCUMENT AND AVOID THE CLASSIC PATH
+      final String projName = projectionDefinition.keySet().iterator().next();
+      projectionDefinition.clear();
+      getProjectionGroup(null).applyValue(projName, result);
+    } else
+      fillSearchIndexResultSet(result);
+
+    return true;
+  }
+
+  /**
+   * Checks whether the condition contains parameters bound to <code>null</code> or variables. Sub-conditions which values are
+   * <code>null</code> are not resolved by indexes, so the choice of index depends on the values bound to such conditions.
+   */
+  private static boolean hasValueDependentItems(final Object iItem) {
+    if (iItem instanceof OSQLFilterCondition) {
+      final OSQLFilterCondition condition = (OSQLFilterCondition) iItem;
+      return hasValueDependentItems(condition.getLeft()) || hasValueDependentItems(condition.getRight());
+    }
+
+    if (iItem instanceof OSQLFilterItemParameter)
+      return ((OSQLFilterItemParameter) iItem).getValue(null, null) == null;
+
+    return iItem instanceof OSQLFilterItemVariable;
+  }
+
+  /**
+   * Checks whether projections and conditions of query use only fields of index which keys are equal to field values, so results
+   * can be built from index entries without loading of records.
+   */
+  private boolean isIndexCoveringQuery(final OClass iSchemaClass, final OIndex<?> iIndex) {
+    if (projections == null || projections.isEmpty() || groupByFields != null || expandTarget != null || let != null)
+      return false;
+
+    if (iIndex instanceof OIndexProxy || OClass.INDEX_TYPE.FULLTEXT.toString().equals(iIndex.getType()))
+      return false;
+
+    final OIndexDefinition indexDefinition = iIndex.getDefinition();
+    if (!isPlainIndexDefinition(indexDefinition))
+      return false;
+
+    // RECORD LEVEL SECURITY IS CHECKED WHEN RECORD IS LOADED, CHANGES OF TRANSACTION ARE NOT VISIBLE IN INDEX ENTRIES
+    if (iSchemaClass.isSubClassOf(OSecurityShared.RESTRICTED_CLASSNAME) || getDatabase().getTransaction().isActive())
+      return false;
+
+    final List<String> fields = indexDefinition.getFields();
+    for (final Object projection : projections.values())
+      if (!isCoveredByFields(projection, fields))
+        return false;
+
+    return isCoveredByFields(compiledFilter.getRootCondition(), fields);
+  }
+
+  private static boolean isCoveredByFields(final Object iItem, final List<String> iFields) {
+    if (iItem instanceof OSQLFilterCondition) {
+      final OSQLFilterCondition condition = (OSQLFilterCondition) iItem;
+      return isCoveredByFields(condition.getLeft(), iFields) && isCoveredByFields(condition.getRight(), iFields);
+    }
+
+    if (iItem instanceof OSQLFilterItemField) {
+      final String fieldName = ((OSQLFilterItemField) iItem).getRoot();
+      return iFields.contains(fieldName) || ODocumentHelper.ATTRIBUTE_RID.equalsIgnoreCase(fieldName);
+    }
+
+    if (iItem instanceof Collection<?>) {
+      for (final Object item : (Collection<?>) iItem)
+        if (!isCoveredByFields(item, iFields))
+          return false;
+
+      return true;
+    }
+
+    // CONSTANTS AND PARAMETERS DO NOT DEPEND ON RECORD, FUNCTIONS, VARIABLES AND SUB-QUERIES MAY USE ANY FIELD
+    if (iItem instanceof OSQLFilterItem)
+      return iItem instanceof OSQLFilterItemParameter;
+
+    return !(iItem instanceof OCommandRequest);
   }
 
   private static List<OIndex<?>> getInvolvedIndexes(OClass iSchemaClass, OIndexSearchResult searchResultFields) {
@@ -974,6 +1310,21 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     if (orderedFields == null)
       return;
 
+    if (sorter == null && tempResult != null && sortLimit > -1) {
+      // EXPANDED RECORDS: KEEP ONLY THE FIRST RESULTS
+      sorter = new OSQLResultSorter(orderedFields, sortLimit, context);
+      for (OIdentifiable o : tempResult)
+        sorter.add(o);
+    }
+
+    if (sorter != null) {
+      tempResult = sorter.sort();
+      if (sorter.getRuns() > 0)
+        context.updateMetric("sortRuns", sorter.getRuns());
+      orderedFields.clear();
+      return;
+    }
+
     if (tempResult instanceof OMultiCollectionIterator) {
       final List<OIdentifiable> list = new ArrayList<OIdentifiable>();
       for (OIdentifiable o : tempResult)
@@ -985,6 +1336,45 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     orderedFields.clear();
   }
 
+  private void createSorter(final int iMaxResults) {
+    sortLimit = iMaxResults;
+    if (orderedFields != null && !orderedFields.isEmpty() && expandTarget == null)
+      sorter = new OSQLResultSorter(orderedFields, iMaxResults, context);
+  }
+
+  /**
+   * Removes from the level-1 cache a record read by the command which is not part of the result, so it can be collected.
+   */
+  private void freeDiscardedRecord(final OIdentifiable iRecord) {
+    if (iRecord == null || !iRecord.getIdentity().isPersistent())
+      return;
+
+    final ODatabaseRecord database = getDatabase();
+    if (!database.getTransaction().isActive())
+      // RECORDS OF THE TRANSACTION ARE KEPT BY THE CACHE UNTIL THE COMMIT
+      database.getLevel1Cache().freeRecord(iRecord.getIdentity());
+  }
+
+  /**
+   * Removes the temporary files left by the sorting and the grouping.
+   */
+  private void closeSpilledResults() {
+    if (sorter != null) {
+      sorter.close();
+      sorter = null;
+    }
+
+    if (groupPartitions != null) {
+      for (OSQLRecordSpillFile partition : groupPartitions)
+        if (partition != null)
+          partition.delete();
+      groupPartitions = null;
+    }
+
+    context.releaseMemory(groupMemory);
+    groupMemory = 0;
+  }
+
   /**
    * Extract the content of collections and/or links and put it as result
    */
@@ -1247,16 +1637,73 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
     if (groupedResult != null && tempResult == null) {
       tempResult = new ArrayList<OIdentifiable>();
 
-      for (Entry<Object, ORuntimeResult> g : groupedResult.entrySet()) {
-        if (g.getKey() != null || (groupedResult.size() == 1 && groupByFields == null)) {
-          final ODocument doc = g.getValue().getResult();
-          if (doc != null && !doc.isEmpty())
+      final OSQLRecordSpillFile[] partitions = groupPartitions;
+      groupPartitions = null;
+
+      addGroupResults();
+      if (partitions != null)
+        aggregateGroupPartitions(partitions, 1);
+    }
+  }
+
+  private void addGroupResults() {
+    // THE GROUPS ARE GOING TO BE RETURNED
+    context.releaseMemory(groupMemory);
+    groupMemory = 0;
+
+    for (Entry<Object, ORuntimeResult> g : groupedResult.entrySet()) {
+      if (g.getKey() != null || (groupedResult.size() == 1 && groupByFields == null)) {
+        final ODocument doc = g.getValue().getResult();
+        if (doc != null && !doc.isEmpty()) {
+          if (sorter != null)
+            sorter.add(doc);
+          else
             ((List<OIdentifiable>) tempResult).add(doc);
         }
       }
     }
   }
 
+  /**
+   * Aggregates the records of every partition alone, a group is never split across partitions. Partitions with too many groups
+   * are split again.
+   */
+  private void aggregateGroupPartitions(final OSQLRecordSpillFile[] iPartitions, final int iLevel) {
+    try {
+      for (int i = 0; i < iPartitions.length; ++i) {
+        if (iPartitions[i] == null)
+          continue;
+
+        groupedResult = new LinkedHashMap<Object, ORuntimeResult>();
+        groupLevel = iLevel;
+        try {
+          for (Iterator<OIdentifiable> it = iPartitions[i].read(); it.hasNext();) {
+            final OIdentifiable record = it.next();
+            context.setVariable("current", record);
+
+            // EVERY NEW GROUP GETS ITS OWN PROGRESSIVE
+            resultCount++;
+            aggregateRecord(record);
+          }
+        } finally {
+          iPartitions[i].delete();
+          iPartitions[i] = null;
+        }
+
+        final OSQLRecordSpillFile[] partitions = groupPartitions;
+        groupPartitions = null;
+
+        addGroupResults();
+        if (partitions != null)
+          aggregateGroupPartitions(partitions, iLevel + 1);
+      }
+    } finally {
+      for (OSQLRecordSpillFile partition : iPartitions)
+        if (partition != null)
+          partition.delete();
+    }
+  }
+
   private static boolean checkIndexExistence(final OClass iSchemaClass, final OIndexSearchResult result) {
     if (!iSchemaClass.areIndexed(result.fields()))
       return false;
@@ -1278,7 +1725,7 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
 
   @Override
   public String getSyntax() {
-    return "SELECT [<Projections>] FROM <Target> [LET <Assignment>*] [WHERE <Condition>*] [ORDER BY <Fields>* [ASC|DESC]*] [LIMIT <MaxRecords>]";
+    return "SELECT [<Projections>] FROM <Target> [LET <Assignment>*] [WHERE <Condition>*] [ORDER BY <Fields>* [ASC|DESC]*] [LIMIT <MaxRecords>] [PARALLEL]";
   }
 
   protected boolean optimizeExecution() {
@@ -1311,47 +1758,112 @@ public class OCommandExecutorSQLSelect extends OCommandExecutorSQLResultsetAbstr
       }
     }
 
-    if (orderedFields != null && !orderedFields.isEmpty()) {
-      if (parsedTarget.getTargetClasses() != null) {
-        final OClass cls = parsedTarget.getTargetClasses().keySet().iterator().next();
-        final OPair<String, String> orderByFirstField = orderedFields.iterator().next();
-        final OProperty p = cls.getProperty(orderByFirstField.getKey());
-        if (p != null) {
-          final Set<OIndex<?>> involvedIndexes = cls.getInvolvedIndexes(orderByFirstField.getKey());
-          if (involvedIndexes != null && !involvedIndexes.isEmpty()) {
-            for (OIndex<?> idx : involvedIndexes) {
-              if (idx.getKeyTypes().length == 1 && idx.supportsOrderedIterations()) {
-                if (idx.getKeySize() < MIN_THRESHOLD_USE_INDEX_AS_TARGET || compiledFilter == null) {
-
-                  if (orderByFirstField.getValue().equalsIgnoreCase("asc"))
-                    target = (Iterator<? extends OIdentifiable>) idx.valuesIterator();
-                  else
-                    target = (Iterator<? extends OIdentifiable>) idx.valuesInverseIterator();
-
-                  if (context.isRecordingMetrics()) {
-                    Set<String> idxNames = (Set<String>) context.getVariable("involvedIndexes");
-                    if (idxNames == null) {
-                      idxNames = new HashSet<String>();
-                      context.setVariable("involvedIndexes", idxNames);
-                    }
-                    idxNames.add(idx.getName());
-                  }
-
-                  orderedFields = null;
-
-                  fetchLimit = getQueryFetchLimit();
-                  break;
-                }
-              }
-            }
-          }
+    if (orderedFields != null && !orderedFields.isEmpty() && parsedTarget.getTargetClasses() != null)
+      searchForOrderedIndex(parsedTarget.getTargetClasses().keySet().iterator().next());
+
+    return false;
+  }
+
+  /**
+   * Uses as target an index which keys follow the ORDER BY clause, so records are browsed already sorted and the browsing stops
+   * as soon as the LIMIT is reached.
+   */
+  private void searchForOrderedIndex(final OClass iSchemaClass) {
+    if (groupByFields != null || groupedResult != null || expandTarget != null)
+      // ORDER BY IS APPLIED TO THE AGGREGATED RESULT
+      return;
+
+    if (getDatabase().getTransaction().isActive())
+      // CHANGES OF TRANSACTION ARE NOT VISIBLE WHILE INDEX IS BROWSED
+      return;
+
+    final String ordering = orderedFields.get(0).getValue();
+    final List<String> orderedFieldNames = new ArrayList<String>(orderedFields.size());
+    for (final OPair<String, String> orderedField : orderedFields) {
+      if (!orderedField.getValue().equals(ordering))
+        // INDEX CAN BE BROWSED ONLY IN ONE DIRECTION
+        return;
+
+      if (projections != null && projections.containsKey(orderedField.getKey())) {
+        final Object projection = projections.get(orderedField.getKey());
+        if (!(projection instanceof OSQLFilterItemField) || ((OSQLFilterItemField) projection).hasChainOperators()
+            || !orderedField.getKey().equalsIgnoreCase(((OSQLFilterItemField) projection).getRoot()))
+          // RESULT IS SORTED BY A CALCULATED VALUE
+          return;
+      }
+
+      orderedFieldNames.add(orderedField.getKey());
+    }
+
+    final boolean filtered = compiledFilter != null && compiledFilter.getRootCondition() != null;
+    final boolean limited = limit > -1 || request.getLimit() > -1;
+
+    for (final OIndex<?> index : iSchemaClass.getInvolvedIndexes(orderedFieldNames)) {
+      if (!index.supportsOrderedIterations() || !isPlainIndexDefinition(index.getDefinition()))
+        continue;
+
+      // RECORDS WITH NULL VALUES OF NOT ORDERED FIELDS ARE NOT INDEXED, SO INDEX HAS TO CONTAIN EXACTLY THE ORDERED FIELDS
+      final List<String> indexFields = index.getDefinition().getFields();
+      if (indexFields.size() != orderedFieldNames.size())
+        continue;
+
+      boolean sameFields = true;
+      for (int i = 0; i < indexFields.size() && sameFields; ++i)
+        sameFields = indexFields.get(i).equalsIgnoreCase(orderedFieldNames.get(i));
+      if (!sameFields)
+        continue;
+
+      if (filtered && index.getKeySize() >= MIN_THRESHOLD_USE_INDEX_AS_TARGET && (!limited || isFilterResolvedByIndex(iSchemaClass)))
+        // SORTING OF RECORDS FOUND BY FILTER IS CHEAPER THAN BROWSING OF ALL INDEX ENTRIES
+        return;
+
+      if (ordering.equals(KEYWORD_ASC))
+        target = index.valuesIterator();
+      else
+        target = index.valuesInverseIterator();
+
+      if (context.isRecordingMetrics()) {
+        Set<String> idxNames = (Set<String>) context.getVariable("involvedIndexes");
+        if (idxNames == null) {
+          idxNames = new HashSet<String>();
+          context.setVariable("involvedIndexes", idxNames);
         }
+        idxNames.add(index.getName());
       }
+      context.updateMetric("orderByIndexUsed", +1);
+
+      orderedFields = null;
+
+      fetchLimit = getQueryFetchLimit();
+      return;
     }
+  }
+
+  /**
+   * Checks whether conditions of query can be resolved by index, usually this is cheaper than browsing of whole index used to sort
+   * records.
+   */
+  private boolean isFilterResolvedByIndex(final OClass iSchemaClass) {
+    final List<OIndexSearchResult> indexSearchResults = new ArrayList<OIndexSearchResult>();
+    analyzeQueryBranch(iSchemaClass, compiledFilter.getRootCondition(), indexSearchResults);
+
+    for (final OIndexSearchResult searchResult : indexSearchResults)
+      if (!iSchemaClass.getInvolvedIndexes(searchResult.fields()).isEmpty())
+        return true;
 
     return false;
   }
 
+  /**
+   * Checks whether index contains one key for each record which is built from values of definition fields, as for property and
+   * composite indexes that do not index items of collections.
+   */
+  private static boolean isPlainIndexDefinition(final OIndexDefinition iIndexDefinition) {
+    return iIndexDefinition.getClass().equals(OPropertyIndexDefinition.class)
+        || (iIndexDefinition instanceof OCompositeIndexDefinition && ((OCompositeIndexDefinition) iIndexDefinition)
+            .getMultiValueDefinitionIndex() == -1);
+  }
+
   private static class IndexComparator implements Comparator<OIndex<?>> {
     private static final IndexComparator INSTANCE = new IndexComparator();
 
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.orientechnologies.common.collection.OCompositeKey;
+import com.orientechnologies.common.comparator.ODefaultComparator;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.index.OIndexAbstractDelegate;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+/**
+ * Index which returns documents built from index keys instead of RIDs of indexed records. Each document contains indexed fields
+ * with values of key and has identity of indexed record, so query which uses only indexed fields is executed without loading of
+ * records. Index operators call the same methods as on the wrapped index, which are executed by methods that return index entries.
+ * Records of clusters which do not belong to the queried class are skipped, returned documents are bound to the queried class.
+ * <p>
+ * IMPORTANT: this class is only for internal usage!
+ * </p>
+ */
+@SuppressWarnings("unchecked")
+public class OIndexCoveringProxy<T> extends OIndexAbstractDelegate<T> {
+  private final List<String> fields;
+  private final OClass       targetClass;
+  private final Set<Integer> targetClusterIds = new HashSet<Integer>();
+
+  public OIndexCoveringProxy(final OIndex<T> iDelegate, final OClass iTargetClass) {
+    super(iDelegate);
+    fields = iDelegate.getDefinition().getFields();
+    targetClass = iTargetClass;
+
+    for (final int clusterId : iTargetClass.getPolymorphicClusterIds())
+      targetClusterIds.add(clusterId);
+  }
+
+  @Override
+  public T get(final Object iKey) {
+    return (T) toKeyDocuments(delegate.getEntries(Collections.singletonList(iKey)), -1);
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValues(final Collection<?> iKeys) {
+    return toKeyDocuments(delegate.getEntries(iKeys), -1);
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValues(final Collection<?> iKeys, final int maxValuesToFetch) {
+    return toKeyDocuments(delegate.getEntries(iKeys, maxValuesToFetch), -1);
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValuesBetween(final Object iRangeFrom, final Object iRangeTo) {
+    return toKeyDocuments(delegate.getEntriesBetween(iRangeFrom, iRangeTo), -1);
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValuesBetween(final Object iRangeFrom, final boolean iFromInclusive, final Object iRangeTo,
+      final boolean iToInclusive) {
+    return getValuesBetween(iRangeFrom, iFromInclusive, iRangeTo, iToInclusive, -1);
+  }
+
+  /**
+   * Entries can be fetched only inclusive of both boundaries, so entries of excluded boundary are removed from result and
+   * limit is applied after that.
+   */
+  @Override
+  public Collection<OIdentifiable> getValuesBetween(final Object iRangeFrom, final boolean iFromInclusive, final Object iRangeTo,
+      final boolean iToInclusive, final int maxValuesToFetch) {
+    if (iFromInclusive && iToInclusive)
+      return toKeyDocuments(delegate.getEntriesBetween(iRangeFrom, iRangeTo, true, maxValuesToFetch), -1);
+
+    final Collection<ODocument> entries = delegate.getEntriesBetween(iRangeFrom, iRangeTo, true);
+    final List<ODocument> result = new ArrayList<ODocument>(entries.size());
+    for (final ODocument entry : entries) {
+      final Object key = entry.rawField("key");
+      if (!iFromInclusive && ODefaultComparator.INSTANCE.compare(key, iRangeFrom) == 0)
+        continue;
+      if (!iToInclusive && ODefaultComparator.INSTANCE.compare(key, iRangeTo) == 0)
+        continue;
+
+      result.add(entry);
+    }
+
+    return toKeyDocuments(result, maxValuesToFetch);
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValuesMajor(final Object fromKey, final boolean isInclusive) {
+    return toKeyDocuments(delegate.getEntriesMajor(fromKey, isInclusive), -1);
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValuesMajor(final Object fromKey, final boolean isInclusive, final int maxValuesToFetch) {
+    return toKeyDocuments(delegate.getEntriesMajor(fromKey, isInclusive, maxValuesToFetch), -1);
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValuesMinor(final Object toKey, final boolean isInclusive) {
+    return toKeyDocuments(delegate.getEntriesMinor(toKey, isInclusive), -1);
+  }
+
+  @Override
+  public Collection<OIdentifiable> getValuesMinor(final Object toKey, final boolean isInclusive, final int maxValuesToFetch) {
+    return toKeyDocuments(delegate.getEntriesMinor(toKey, isInclusive, maxValuesToFetch), -1);
+  }
+
+  private Collection<OIdentifiable> toKeyDocuments(final Collection<ODocument> iEntries, final int maxValuesToFetch) {
+    final List<OIdentifiable> result = new ArrayList<OIdentifiable>(iEntries.size());
+
+    for (final ODocument entry : iEntries) {
+      if (maxValuesToFetch > -1 && result.size() == maxValuesToFetch)
+        break;
+
+      // RAW VALUES ARE READ, OTHERWISE LINKS ARE LOADED AS RECORDS
+      final Object key = entry.rawField("key");
+      final ORID rid = ((OIdentifiable) entry.rawField("rid")).getIdentity();
+      if (!targetClusterIds.contains(rid.getClusterId()))
+        continue;
+
+      final ODocument document = new ODocument(targetClass);
+
+      if (key instanceof OCompositeKey) {
+        final List<Object> keys = ((OCompositeKey) key).getKeys();
+        for (int i = 0; i < keys.size() && i < fields.size(); i++)
+          document.field(fields.get(i), keys.get(i));
+      } else
+        document.field(fields.get(0), key);
+
+      document.setIdentity(rid.getClusterId(), rid.getClusterPosition());
+      document.unsetDirty();
+
+      result.add(document);
+    }
+
+    return result;
+  }
+}
@@ -53,6 +53,8 @@ public class OSQLEngine {
 
   private static ClassLoader                     orientClassLoader  = OSQLEngine.class.getClassLoader();
 
+  private final OSQLStatementCache               statementCache     = new OSQLStatementCache();
+
   protected OSQLEngine() {
   }
 
@@ -288,6 +290,10 @@ public class OSQLEngine {
     return new OSQLFilter(iText, iContext, iFilterKeyword);
   }
 
+  public OSQLStatementCache getStatementCache() {
+    return statementCache;
+  }
+
   public OSQLTarget parseTarget(final String iText, final OCommandContext iContext, final String iFilterKeyword) {
     return new OSQLTarget(iText, iContext, iFilterKeyword);
   }
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql;
+
+import java.util.List;
+
+/**
+ * Index chosen by the execution of a statement, it is kept by {@link OSQLStatementCache} to skip the choice of index in the next
+ * executions of the same statement. The plan keeps the position of the chosen sub-condition in the order it is found by the
+ * analysis of condition and the fields of this sub-condition to check that the analysis of condition with new parameters gives
+ * the same sub-condition.
+ */
+public class OSQLIndexPlan {
+  /**
+   * Plan of statements which condition cannot be resolved by any index whatever values are bound to it.
+   */
+  public static final OSQLIndexPlan NO_INDEX = new OSQLIndexPlan(-1, null, null);
+
+  private final int          searchResultPosition;
+  private final List<String> fields;
+  private final String       indexName;
+
+  public OSQLIndexPlan(final int iSearchResultPosition, final List<String> iFields, final String iIndexName) {
+    searchResultPosition = iSearchResultPosition;
+    fields = iFields;
+    indexName = iIndexName;
+  }
+
+  public boolean usesIndex() {
+    return indexName != null;
+  }
+
+  public int getSearchResultPosition() {
+    return searchResultPosition;
+  }
+
+  public List<String> getFields() {
+    return fields;
+  }
+
+  public String getIndexName() {
+    return indexName;
+  }
+}
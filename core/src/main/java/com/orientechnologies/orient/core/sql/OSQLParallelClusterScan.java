@@ -0,0 +1,551 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.command.OBasicCommandContext;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecordAbstract;
+import com.orientechnologies.orient.core.exception.OCommandExecutionException;
+import com.orientechnologies.orient.core.id.OClusterPosition;
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
+import com.orientechnologies.orient.core.iterator.ORecordIteratorCluster;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.security.OUser;
+import com.orientechnologies.orient.core.record.ORecordInternal;
+import com.orientechnologies.orient.core.record.ORecordSchemaAware;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.filter.OSQLFilter;
+
+/**
+ * Scans clusters of a SELECT command by several threads. Clusters are split in small ranges of positions which are claimed by the
+ * workers as soon as they are free, every worker reads records by its own database instance and evaluates its own copy of the
+ * condition. Matching records are returned by {@link #next()} in the same order of a sequential scan, so SKIP, LIMIT, projections
+ * and aggregations are applied by the caller as usual.
+ *
+ * Workers of all the commands run in a shared pool of {@link OGlobalConfiguration#COMMAND_PARALLEL_SCAN_THREADS} threads. A command
+ * reserves only the threads which are free when it starts, it never waits for threads kept by other commands. Every thread of the
+ * pool keeps its database instances open between the scans and closes them when it is stopped because it is idle.
+ *
+ * Workers claim only a limited number of ranges ahead of the range read by {@link #next()}, so the amount of records kept in
+ * memory does not depend on the size of clusters, and the scan is stopped soon after {@link #close()} when the caller does not
+ * need more records.
+ */
+public class OSQLParallelClusterScan {
+  private static final int               POSITIONS_PER_RANGE       = 1000;
+  private static final int               PENDING_RANGES_PER_THREAD = 2;
+  private static final long              IDLE_THREAD_TIMEOUT       = 60;
+
+  private static final ThreadPoolExecutor executor                  = createExecutor();
+  // THREADS OF THE POOL RESERVED BY THE WORKERS OF RUNNING SCANS
+  private static final AtomicInteger      busyThreads               = new AtomicInteger();
+
+  // DATABASES OPENED BY THE CURRENT THREAD OF THE POOL BY URL AND USER
+  private static final ThreadLocal<Map<String, ODatabaseDocumentTx>> databases = new ThreadLocal<Map<String, ODatabaseDocumentTx>>();
+
+  private final String                   url;
+  private final OUser                    user;
+  private final String                   databaseKey;
+  private final boolean                  useCache;
+  private final Map<OClass, String>      targetClasses;
+  private final String                   filterText;
+  private final Map<Object, Object>      args;
+  private final List<OClusterSegment>    segments                  = new ArrayList<OClusterSegment>();
+  private final long                     ranges;
+  private final AtomicLong               recordReads               = new AtomicLong();
+  private final AtomicLong               documentReads             = new AtomicLong();
+  private final List<Future<Void>>       workers                   = new ArrayList<Future<Void>>();
+  private volatile boolean               closed;
+  private volatile Throwable             error;
+
+  // RANGES CLAIMED BY THE WORKERS AND NOT READ BY NEXT() YET, IN THE ORDER OF THE SEQUENTIAL SCAN. GUARDED BY THIS
+  private final LinkedList<OClusterRange> pendingRanges             = new LinkedList<OClusterRange>();
+  private int                            maxPendingRanges;
+  private int                            currentSegment;
+
+  private Iterator<ORecordInternal<?>>   currentRecords;
+
+  /**
+   * Splits the clusters in ranges of positions.
+   *
+   * @param iDatabase
+   *          Database of the command, it is used to read the ranges of clusters, its URL and user are used by workers.
+   * @param iClusterIds
+   *          Clusters to scan, in the order of the sequential scan.
+   * @param iThreads
+   *          Maximum number of threads which scan the clusters.
+   * @param iUseCache
+   *          Whether records are read through the cache of storage.
+   * @param iTargetClasses
+   *          Classes of the command target, records of other classes are skipped.
+   * @param iFilterText
+   *          Text of WHERE condition parsed by every worker, <code>null</code> if the command has no condition.
+   * @param iArgs
+   *          Parameters bound to the condition.
+   */
+  public OSQLParallelClusterScan(final ODatabaseRecord iDatabase, final int[] iClusterIds, final int iThreads,
+      final boolean iUseCache, final Map<OClass, String> iTargetClasses, final String iFilterText, final Map<Object, Object> iArgs) {
+    url = iDatabase.getURL();
+    user = iDatabase.getUser();
+    databaseKey = url + '|' + user.getName();
+    useCache = iUseCache;
+    targetClasses = iTargetClasses;
+    filterText = iFilterText;
+    args = iArgs;
+
+    long totalRanges = 0;
+    for (final int clusterId : iClusterIds) {
+      final OClusterPosition[] range = iDatabase.getStorage().getClusterDataRange(clusterId);
+      if (range.length < 2 || !range[0].isValid() || !range[1].isValid())
+        // EMPTY CLUSTER
+        continue;
+
+      final OClusterSegment segment = new OClusterSegment(clusterId, range[0], range[1]);
+      segments.add(segment);
+      totalRanges += segment.getRanges();
+    }
+    ranges = totalRanges;
+  }
+
+  public long getRanges() {
+    return ranges;
+  }
+
+  /**
+   * Starts the workers on the threads of the pool which are free.
+   *
+   * @return Number of started workers, if it is 0 the scan is closed and the clusters have to be scanned by the caller.
+   */
+  public int start(final int iThreads) {
+    final int threads = reserveThreads((int) Math.min(iThreads, ranges));
+    if (threads == 0) {
+      close();
+      return 0;
+    }
+
+    synchronized (this) {
+      maxPendingRanges = threads * PENDING_RANGES_PER_THREAD;
+    }
+
+    for (int i = 0; i < threads; i++)
+      workers.add(executor.submit(new Callable<Void>() {
+        public Void call() throws Exception {
+          try {
+            scanRanges();
+          } finally {
+            busyThreads.decrementAndGet();
+          }
+          return null;
+        }
+      }));
+    return threads;
+  }
+
+  /**
+   * Returns the next record which matches the condition, waiting for the workers if its range is not scanned yet.
+   *
+   * @return The next record or <code>null</code> if all the ranges are scanned.
+   */
+  public ORecordInternal<?> next() {
+    while (currentRecords == null || !currentRecords.hasNext()) {
+      final OClusterRange range;
+      try {
+        synchronized (this) {
+          while (pendingRanges.isEmpty() && !closed && currentSegment < segments.size())
+            wait();
+
+          range = pendingRanges.peekFirst();
+        }
+
+        if (range != null)
+          range.scanned.await();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new OCommandExecutionException("The select execution has been interrupted");
+      }
+
+      if (error != null)
+        throw new OCommandExecutionException("Error on parallel scan of clusters", error);
+
+      if (range == null)
+        return null;
+
+      synchronized (this) {
+        // LET THE WORKERS CLAIM NEXT RANGE
+        pendingRanges.removeFirst();
+        notifyAll();
+      }
+
+      currentRecords = range.records.iterator();
+      range.records = null;
+    }
+
+    return currentRecords.next();
+  }
+
+  /**
+   * Stops the workers which are still running and waits for them. It is called as soon as the caller does not need more records,
+   * for example when LIMIT is reached, so ranges which are not scanned yet are skipped.
+   */
+  public void close() {
+    synchronized (this) {
+      closed = true;
+      notifyAll();
+    }
+
+    for (final Future<Void> worker : workers)
+      try {
+        worker.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        break;
+      } catch (ExecutionException e) {
+        // ALREADY REPORTED BY NEXT()
+      }
+  }
+
+  public long getRecordReads() {
+    return recordReads.get();
+  }
+
+  public long getDocumentReads() {
+    return documentReads.get();
+  }
+
+  private void scanRanges() {
+    ODatabaseDocumentTx database = null;
+    try {
+      database = acquireDatabase();
+
+      final OBasicCommandContext context = new OBasicCommandContext();
+      if (args != null)
+        for (Entry<Object, Object> arg : args.entrySet())
+          context.setVariable(arg.getKey().toString(), arg.getValue());
+
+      final OSQLFilter filter;
+      if (filterText != null) {
+        filter = OSQLEngine.getInstance().parseCondition(filterText, context, OCommandExecutorSQLAbstract.KEYWORD_WHERE);
+        filter.bindParameters(args);
+      } else
+        filter = null;
+
+      OClusterRange range;
+      while ((range = claimRange()) != null) {
+        range.records = scanRange(database, range, filter, context);
+        range.scanned.countDown();
+      }
+    } catch (Throwable t) {
+      error = t;
+      closed = true;
+
+      if (database != null)
+        // STATE OF DATABASE IS UNKNOWN, DO NOT REUSE IT
+        releaseDatabase(database);
+    } finally {
+      ODatabaseRecordThreadLocal.INSTANCE.remove();
+
+      synchronized (this) {
+        if (closed)
+          // RELEASE THE CALLER WAITING FOR RANGES WHICH WILL NOT BE SCANNED
+          for (final OClusterRange range : pendingRanges)
+            range.scanned.countDown();
+
+        notifyAll();
+      }
+    }
+  }
+
+  /**
+   * Returns the database opened by the current thread for the URL of the scan, it is opened once and reused by next scans. Records
+   * are read with the permissions of the user of the command.
+   */
+  private ODatabaseDocumentTx acquireDatabase() {
+    Map<String, ODatabaseDocumentTx> threadDatabases = databases.get();
+    if (threadDatabases == null) {
+      threadDatabases = new HashMap<String, ODatabaseDocumentTx>();
+      databases.set(threadDatabases);
+    }
+
+    ODatabaseDocumentTx database = threadDatabases.get(databaseKey);
+    if (database != null && database.isClosed()) {
+      // STORAGE HAS BEEN CLOSED OR DROPPED
+      releaseDatabase(database);
+      database = null;
+    }
+
+    if (database == null) {
+      database = new ODatabaseDocumentTx(url);
+      // THE USER IS AUTHENTICATED BY THE DATABASE OF THE COMMAND, PERMISSIONS AND STATUS ARE CHECKED AGAIN ON OPEN
+      ((ODatabaseRecordAbstract) database.getUnderlying()).open(user);
+      Orient.instance().getDatabaseFactory().register(database);
+      database.getLevel1Cache().setEnable(false);
+      threadDatabases.put(databaseKey, database);
+    } else
+      ODatabaseRecordThreadLocal.INSTANCE.set(database);
+
+    // PERMISSIONS ARE CHECKED AGAINST THE USER OF THE COMMAND AS LOADED BY ITS DATABASE
+    database.setUser(user);
+    return database;
+  }
+
+  private void releaseDatabase(final ODatabaseDocumentTx iDatabase) {
+    final Map<String, ODatabaseDocumentTx> threadDatabases = databases.get();
+    if (threadDatabases != null)
+      threadDatabases.remove(databaseKey);
+
+    closeDatabase(iDatabase);
+  }
+
+  private static void closeDatabases() {
+    final Map<String, ODatabaseDocumentTx> threadDatabases = databases.get();
+    if (threadDatabases == null)
+      return;
+
+    for (ODatabaseDocumentTx database : threadDatabases.values())
+      closeDatabase(database);
+
+    databases.remove();
+    ODatabaseRecordThreadLocal.INSTANCE.remove();
+  }
+
+  private static void closeDatabase(final ODatabaseDocumentTx iDatabase) {
+    if (iDatabase.isClosed())
+      return;
+
+    ODatabaseRecordThreadLocal.INSTANCE.set(iDatabase);
+    try {
+      iDatabase.close();
+    } catch (Exception e) {
+      // CHANGES OF INDEXES ARE SAVED ON CLOSE, THE USER OF THE SCAN CAN BE NOT ALLOWED TO UPDATE THEM
+      OLogManager.instance().error(null, "Error on closing database '%s' of parallel scan", e, iDatabase.getURL());
+    }
+  }
+
+  /**
+   * Reserves the threads of the pool which are not used by other scans, so workers never wait in the queue of the pool for threads
+   * which are kept by workers of other scans.
+   *
+   * @return Number of reserved threads, it can be less than requested and 0 if all the threads are busy.
+   */
+  private static int reserveThreads(final int iThreads) {
+    final int poolSize = getPoolSize();
+    synchronized (executor) {
+      // POOL IS RESIZED IF THE SETTING HAS BEEN CHANGED
+      if (poolSize > executor.getMaximumPoolSize()) {
+        executor.setMaximumPoolSize(poolSize);
+        executor.setCorePoolSize(poolSize);
+      } else if (poolSize < executor.getMaximumPoolSize()) {
+        executor.setCorePoolSize(poolSize);
+        executor.setMaximumPoolSize(poolSize);
+      }
+    }
+
+    while (true) {
+      final int busy = busyThreads.get();
+      final int threads = Math.min(iThreads, poolSize - busy);
+      if (threads <= 0)
+        return 0;
+
+      if (busyThreads.compareAndSet(busy, busy + threads))
+        return threads;
+    }
+  }
+
+  private static ThreadPoolExecutor createExecutor() {
+    final int poolSize = getPoolSize();
+    final ThreadPoolExecutor executor = new ThreadPoolExecutor(poolSize, poolSize, IDLE_THREAD_TIMEOUT, TimeUnit.SECONDS,
+        new LinkedBlockingQueue<Runnable>(), new OScanThreadFactory());
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  private static int getPoolSize() {
+    return Math.max(1, OGlobalConfiguration.COMMAND_PARALLEL_SCAN_THREADS.getValueAsInteger());
+  }
+
+  /**
+   * Claims the next range to scan, waiting while too many scanned ranges are not read by the caller yet.
+   *
+   * @return The range or <code>null</code> if all the ranges are claimed or the scan is closed.
+   */
+  private synchronized OClusterRange claimRange() throws InterruptedException {
+    while (!closed && pendingRanges.size() >= maxPendingRanges)
+      wait();
+
+    while (!closed && currentSegment < segments.size()) {
+      final OClusterRange range = segments.get(currentSegment).nextRange();
+      if (range != null) {
+        pendingRanges.addLast(range);
+        notifyAll();
+        return range;
+      }
+
+      currentSegment++;
+    }
+
+    // THE CALLER CAN BE WAITING FOR THE END OF RANGES
+    notifyAll();
+    return null;
+  }
+
+  private List<ORecordInternal<?>> scanRange(final ODatabaseDocumentTx iDatabase, final OClusterRange iRange,
+      final OSQLFilter iFilter, final OBasicCommandContext iContext) {
+    final List<ORecordInternal<?>> result = new ArrayList<ORecordInternal<?>>();
+
+    try {
+      for (final ORecordIteratorCluster<ORecordInternal<?>> iterator = new ORecordIteratorCluster<ORecordInternal<?>>(iDatabase,
+          (ODatabaseRecordAbstract) iDatabase.getUnderlying(), iRange.clusterId, iRange.from, iRange.to, useCache, false); iterator.hasNext();) {
+        if (closed)
+          break;
+
+        final ORecordInternal<?> record = iterator.next();
+        recordReads.incrementAndGet();
+
+        if (record == null || record.getRecordType() != ODocument.RECORD_TYPE)
+          continue;
+
+        documentReads.incrementAndGet();
+
+        if (isTargetClass(record)) {
+          iContext.setVariable("current", record);
+          if (iFilter == null || (Boolean) iFilter.evaluate(record, null, iContext))
+            result.add(record);
+        }
+      }
+    } catch (NoSuchElementException e) {
+      // END OF CLUSTER REACHED, IGNORE IT
+    }
+
+    return result;
+  }
+
+  private boolean isTargetClass(final ORecordInternal<?> iRecord) {
+    if (targetClasses == null || targetClasses.isEmpty() || !(iRecord instanceof ORecordSchemaAware<?>))
+      return true;
+
+    final OClass recordClass = ((ORecordSchemaAware<?>) iRecord).getSchemaClass();
+    for (OClass targetClass : targetClasses.keySet())
+      if (targetClass.isSuperClassOf(recordClass))
+        return true;
+
+    return false;
+  }
+
+  /**
+   * Creates daemon threads of the pool which close their databases when they are stopped.
+   */
+  private static final class OScanThreadFactory implements ThreadFactory {
+    public Thread newThread(final Runnable r) {
+      final Thread thread = new Thread(Orient.getThreadGroup(), new Runnable() {
+        public void run() {
+          try {
+            r.run();
+          } finally {
+            closeDatabases();
+          }
+        }
+      }, "OrientDB Parallel Cluster Scan");
+      thread.setDaemon(true);
+      return thread;
+    }
+  }
+
+  /**
+   * Positions of cluster which are split in ranges when they are claimed by the workers.
+   */
+  private static final class OClusterSegment {
+    private final int              clusterId;
+    private final OClusterPosition first;
+    private final OClusterPosition last;
+    private final boolean          splittable;
+    private long                   nextFrom;
+    private boolean                claimed;
+
+    private OClusterSegment(final int iClusterId, final OClusterPosition iFirst, final OClusterPosition iLast) {
+      clusterId = iClusterId;
+      first = iFirst;
+      last = iLast;
+
+      // POSITIONS BASED ON NODE ID CAN NOT BE SPLIT BY LONG VALUES
+      splittable = !OGlobalConfiguration.USE_NODE_ID_CLUSTER_POSITION.getValueAsBoolean();
+      if (splittable)
+        nextFrom = first.longValue();
+    }
+
+    private long getRanges() {
+      if (!splittable)
+        return 1;
+
+      return (last.longValue() - first.longValue()) / POSITIONS_PER_RANGE + 1;
+    }
+
+    private OClusterRange nextRange() {
+      if (!splittable) {
+        if (claimed)
+          return null;
+
+        claimed = true;
+        return new OClusterRange(clusterId, first, last);
+      }
+
+      final long to = last.longValue();
+      if (nextFrom > to)
+        return null;
+
+      final long from = nextFrom;
+      nextFrom = Math.min(from + POSITIONS_PER_RANGE - 1, to) + 1;
+      return new OClusterRange(clusterId, OClusterPositionFactory.INSTANCE.valueOf(from),
+          OClusterPositionFactory.INSTANCE.valueOf(nextFrom - 1));
+    }
+  }
+
+  private static final class OClusterRange {
+    private final int                      clusterId;
+    private final OClusterPosition         from;
+    private final OClusterPosition         to;
+    private final CountDownLatch           scanned = new CountDownLatch(1);
+    private List<ORecordInternal<?>>       records;
+
+    private OClusterRange(final int iClusterId, final OClusterPosition iFrom, final OClusterPosition iTo) {
+      clusterId = iClusterId;
+      from = iFrom;
+      to = iTo;
+    }
+  }
+}
@@ -0,0 +1,187 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.exception.OCommandExecutionException;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.version.ORecordVersion;
+import com.orientechnologies.orient.core.version.OVersionFactory;
+
+/**
+ * Temporary file where a command writes records which do not fit its memory budget, they are read back once in the same order.
+ * Documents are written with their content, so also projections and aggregated results which are not stored in the database can
+ * be written, the other records are written by RID and loaded again on reading.
+ */
+public class OSQLRecordSpillFile {
+  private static final int  RECORD_OVERHEAD = 64;
+  private static final int  FIELD_OVERHEAD  = 48;
+  private static final byte DOCUMENT        = 'd';
+  private static final byte RID             = 'r';
+
+  private final File        file;
+  private DataOutputStream  out;
+  private DataInputStream   in;
+  private long              records;
+
+  public OSQLRecordSpillFile(final String iPrefix) {
+    try {
+      file = File.createTempFile(iPrefix, ".tmp");
+      out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+    } catch (IOException e) {
+      throw new OCommandExecutionException("Cannot create the temporary file of the command", e);
+    }
+  }
+
+  /**
+   * Returns the memory estimated for a record kept by the command instead of writing it in a temporary file. Records are not
+   * serialized to be measured: size of loaded content is used when the document is not changed, otherwise the amount of its fields.
+   */
+  public static long estimateMemory(final OIdentifiable iRecord) {
+    if (iRecord instanceof ODocument) {
+      final ODocument doc = (ODocument) iRecord;
+      if (!doc.isDirty() && doc.getSize() > 0)
+        return doc.getSize() + RECORD_OVERHEAD;
+
+      return doc.fields() * FIELD_OVERHEAD + RECORD_OVERHEAD;
+    }
+    return RECORD_OVERHEAD;
+  }
+
+  public void write(final OIdentifiable iRecord) {
+    try {
+      if (iRecord instanceof ODocument) {
+        final ODocument doc = (ODocument) iRecord;
+        final byte[] content = doc.toStream();
+
+        out.writeByte(DOCUMENT);
+        out.writeUTF(doc.getIdentity().toString());
+        doc.getRecordVersion().getSerializer().writeTo((DataOutput) out, doc.getRecordVersion());
+        out.writeInt(content.length);
+        out.write(content);
+      } else {
+        out.writeByte(RID);
+        out.writeUTF(iRecord.getIdentity().toString());
+      }
+      records++;
+    } catch (IOException e) {
+      delete();
+      throw new OCommandExecutionException("Error on writing the temporary file " + file, e);
+    }
+  }
+
+  public long getRecords() {
+    return records;
+  }
+
+  /**
+   * Ends the writing and reads the records in the order they have been written. The file can be read only once.
+   */
+  public Iterator<OIdentifiable> read() {
+    try {
+      out.close();
+      out = null;
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+    } catch (IOException e) {
+      delete();
+      throw new OCommandExecutionException("Error on reading the temporary file " + file, e);
+    }
+
+    return new Iterator<OIdentifiable>() {
+      private long left = records;
+
+      public boolean hasNext() {
+        return left > 0;
+      }
+
+      public OIdentifiable next() {
+        if (left <= 0)
+          throw new NoSuchElementException();
+
+        try {
+          final OIdentifiable record = readRecord();
+          if (--left == 0)
+            closeInput();
+          return record;
+        } catch (IOException e) {
+          delete();
+          throw new OCommandExecutionException("Error on reading the temporary file " + file, e);
+        }
+      }
+
+      public void remove() {
+        throw new UnsupportedOperationException("remove()");
+      }
+    };
+  }
+
+  /**
+   * Closes the file and removes it.
+   */
+  public void delete() {
+    try {
+      if (out != null)
+        out.close();
+    } catch (IOException e) {
+      // IGNORE IT, THE FILE IS REMOVED ANYWAY
+    }
+    out = null;
+    closeInput();
+
+    file.delete();
+  }
+
+  private OIdentifiable readRecord() throws IOException {
+    final byte type = in.readByte();
+    final ORecordId rid = new ORecordId(in.readUTF());
+    if (type == RID)
+      return rid;
+
+    final ORecordVersion version = OVersionFactory.instance().createVersion();
+    version.getSerializer().readFrom((DataInput) in, version);
+
+    final byte[] content = new byte[in.readInt()];
+    in.readFully(content);
+
+    final ODocument doc = new ODocument();
+    doc.fill(rid, version, content, false);
+    return doc;
+  }
+
+  private void closeInput() {
+    try {
+      if (in != null)
+        in.close();
+    } catch (IOException e) {
+      // IGNORE IT
+    }
+    in = null;
+  }
+}
@@ -0,0 +1,340 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+import com.orientechnologies.common.util.OPair;
+import com.orientechnologies.orient.core.command.OCommandContext;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.record.impl.ODocumentComparator;
+
+/**
+ * Sorts the result of a command within its memory budget. When only the first results are needed they are kept in a bounded
+ * heap, otherwise records are collected in memory and, every time the budget is exceeded, they are sorted and written in a
+ * temporary file as a run. Runs are merged while the result is browsed. The sorting is stable as {@link Collections#sort(List)}.
+ */
+public class OSQLResultSorter {
+  private static final int                 MAX_MERGED_RUNS = 64;
+
+  private final OCommandContext            context;
+  private final Comparator<OIdentifiable>  comparator;
+  private final int                        maxResults;
+  private final boolean                    bounded;
+  private final List<OIdentifiable>        buffer          = new ArrayList<OIdentifiable>();
+  private final List<OSQLRecordSpillFile>  runs            = new ArrayList<OSQLRecordSpillFile>();
+  private PriorityQueue<OSortEntry>        heap;
+  private long                             sequence;
+  private long                             reserved;
+
+  /**
+   * @param iOrderedFields
+   *          Fields of ORDER BY
+   * @param iMaxResults
+   *          Number of results needed, -1 for all of them
+   * @param iContext
+   *          Context of the command which manages the memory budget
+   */
+  public OSQLResultSorter(final List<OPair<String, String>> iOrderedFields, final int iMaxResults, final OCommandContext iContext) {
+    context = iContext;
+    // THE FIELDS ARE COPIED BECAUSE THE MERGING GOES ON AFTER THE COMMAND CLEARS THEM
+    comparator = new ODocumentComparator(new ArrayList<OPair<String, String>>(iOrderedFields));
+    maxResults = iMaxResults;
+    bounded = context.getMemoryBudget() > 0;
+
+    if (maxResults > -1)
+      // THE WORST RESULT IS ON TOP TO BE REPLACED BY BETTER ONES
+      heap = new PriorityQueue<OSortEntry>(Math.min(maxResults, 1024) + 1, Collections.reverseOrder(new Comparator<OSortEntry>() {
+        public int compare(final OSortEntry iFirst, final OSortEntry iSecond) {
+          return compareEntries(iFirst, iSecond);
+        }
+      }));
+  }
+
+  public OIdentifiable add(final OIdentifiable iRecord) {
+    return add(iRecord, iRecord);
+  }
+
+  /**
+   * Adds a record to sort.
+   * 
+   * @param iRecord
+   *          Record to return
+   * @param iSource
+   *          Record read by the command, it differs from the added one when projections are applied
+   * @return The source of the record left out of the first results, if any
+   */
+  public OIdentifiable add(final OIdentifiable iRecord, final OIdentifiable iSource) {
+    if (heap != null)
+      return addToHeap(iRecord, iSource);
+
+    if (bounded) {
+      final long size = OSQLRecordSpillFile.estimateMemory(iRecord);
+      if (!reserve(size) && !buffer.isEmpty()) {
+        writeRun();
+        reserve(size);
+      }
+    }
+
+    buffer.add(iRecord);
+    return null;
+  }
+
+  /**
+   * Tells whether a record can be among the first results, the others can be discarded without adding them.
+   */
+  public boolean isCandidate(final OIdentifiable iRecord) {
+    if (heap == null || heap.size() < maxResults)
+      return true;
+
+    // ON EQUAL VALUES THE RECORD ADDED FIRST WINS
+    return maxResults > 0 && comparator.compare(iRecord, heap.peek().record) < 0;
+  }
+
+  /**
+   * Sorts the collected records. The result can be browsed only once because temporary files are removed at the end of browsing.
+   */
+  public Iterable<OIdentifiable> sort() {
+    if (heap != null) {
+      final List<OSortEntry> entries = new ArrayList<OSortEntry>(heap);
+      heap = null;
+      Collections.sort(entries, new Comparator<OSortEntry>() {
+        public int compare(final OSortEntry iFirst, final OSortEntry iSecond) {
+          return compareEntries(iFirst, iSecond);
+        }
+      });
+
+      final List<OIdentifiable> result = new ArrayList<OIdentifiable>(entries.size());
+      for (OSortEntry entry : entries)
+        result.add(entry.record);
+
+      release();
+      return result;
+    }
+
+    if (runs.isEmpty()) {
+      Collections.sort(buffer, comparator);
+      release();
+
+      if (maxResults > -1 && buffer.size() > maxResults)
+        return new ArrayList<OIdentifiable>(buffer.subList(0, maxResults));
+      return buffer;
+    }
+
+    writeRun();
+
+    while (runs.size() > MAX_MERGED_RUNS) {
+      // TOO MANY OPEN FILES: MERGE CONSECUTIVE RUNS TO KEEP THE SORTING STABLE
+      final List<OSQLRecordSpillFile> merged = new ArrayList<OSQLRecordSpillFile>();
+      for (int i = 0; i < runs.size(); i += MAX_MERGED_RUNS) {
+        final OSQLRecordSpillFile run = new OSQLRecordSpillFile("query-sort-");
+        merged.add(run);
+        for (Iterator<OIdentifiable> it = new OMergeIterator(runs.subList(i, Math.min(i + MAX_MERGED_RUNS, runs.size())), -1); it
+            .hasNext();)
+          run.write(it.next());
+      }
+      runs.clear();
+      runs.addAll(merged);
+    }
+
+    final Iterator<OIdentifiable> merge = new OMergeIterator(runs, maxResults);
+    return new Iterable<OIdentifiable>() {
+      public Iterator<OIdentifiable> iterator() {
+        return merge;
+      }
+    };
+  }
+
+  /**
+   * Removes the temporary files and releases the memory, the result of {@link #sort()} cannot be browsed anymore.
+   */
+  public void close() {
+    for (OSQLRecordSpillFile run : runs)
+      run.delete();
+    runs.clear();
+    buffer.clear();
+    heap = null;
+    release();
+  }
+
+  public int getRuns() {
+    return runs.size();
+  }
+
+  private OIdentifiable addToHeap(final OIdentifiable iRecord, final OIdentifiable iSource) {
+    final OSortEntry entry = new OSortEntry(iRecord, iSource, sequence++);
+
+    if (heap.size() < maxResults) {
+      if (bounded && !reserve(OSQLRecordSpillFile.estimateMemory(iRecord))) {
+        // THE FIRST RESULTS DO NOT FIT THE MEMORY: SORT ALL THE RECORDS ON DISK
+        final List<OSortEntry> entries = new ArrayList<OSortEntry>(heap);
+        heap = null;
+        Collections.sort(entries, new Comparator<OSortEntry>() {
+          public int compare(final OSortEntry iFirst, final OSortEntry iSecond) {
+            return iFirst.sequence < iSecond.sequence ? -1 : 1;
+          }
+        });
+        for (OSortEntry e : entries)
+          buffer.add(e.record);
+
+        writeRun();
+        return add(iRecord, iSource);
+      }
+
+      heap.add(entry);
+    } else if (maxResults > 0 && compareEntries(entry, heap.peek()) < 0) {
+      // REPLACE THE WORST RESULT, THE MEMORY IS NOT UPDATED BECAUSE RESULTS HAVE SIMILAR SIZE
+      final OSortEntry worst = heap.poll();
+      heap.add(entry);
+      return worst.source;
+    } else
+      return iSource;
+
+    return null;
+  }
+
+  private int compareEntries(final OSortEntry iFirst, final OSortEntry iSecond) {
+    final int result = comparator.compare(iFirst.record, iSecond.record);
+    if (result != 0)
+      return result;
+    return iFirst.sequence < iSecond.sequence ? -1 : iFirst.sequence > iSecond.sequence ? 1 : 0;
+  }
+
+  private void writeRun() {
+    if (buffer.isEmpty())
+      return;
+
+    Collections.sort(buffer, comparator);
+
+    final OSQLRecordSpillFile run = new OSQLRecordSpillFile("query-sort-");
+    runs.add(run);
+    for (OIdentifiable record : buffer)
+      run.write(record);
+
+    buffer.clear();
+    release();
+  }
+
+  private boolean reserve(final long iBytes) {
+    if (!context.reserveMemory(iBytes))
+      return false;
+    reserved += iBytes;
+    return true;
+  }
+
+  private void release() {
+    context.releaseMemory(reserved);
+    reserved = 0;
+  }
+
+  private static final class OSortEntry {
+    private final OIdentifiable record;
+    private final OIdentifiable source;
+    private final long          sequence;
+
+    private OSortEntry(final OIdentifiable iRecord, final OIdentifiable iSource, final long iSequence) {
+      record = iRecord;
+      // ONLY THE IDENTITY IS KEPT TO NOT HOLD THE RECORD READ
+      source = iSource.getIdentity();
+      sequence = iSequence;
+    }
+  }
+
+  private static final class ORunHead {
+    private final Iterator<OIdentifiable> records;
+    private final int                     index;
+    private OIdentifiable                 record;
+
+    private ORunHead(final Iterator<OIdentifiable> iRecords, final int iIndex) {
+      records = iRecords;
+      index = iIndex;
+      record = iRecords.next();
+    }
+  }
+
+  /**
+   * Merges sorted runs, on equal records the one of the first run wins. Runs are removed at the end of merging.
+   */
+  private final class OMergeIterator implements Iterator<OIdentifiable> {
+    private final List<OSQLRecordSpillFile> files;
+    private final PriorityQueue<ORunHead>   heads;
+    private int                             left;
+
+    private OMergeIterator(final List<OSQLRecordSpillFile> iRuns, final int iMaxResults) {
+      files = new ArrayList<OSQLRecordSpillFile>(iRuns);
+      left = iMaxResults;
+      heads = new PriorityQueue<ORunHead>(files.size(), new Comparator<ORunHead>() {
+        public int compare(final ORunHead iFirst, final ORunHead iSecond) {
+          final int result = comparator.compare(iFirst.record, iSecond.record);
+          if (result != 0)
+            return result;
+          return iFirst.index - iSecond.index;
+        }
+      });
+
+      for (int i = 0; i < files.size(); ++i) {
+        final Iterator<OIdentifiable> records = files.get(i).read();
+        if (records.hasNext())
+          heads.add(new ORunHead(records, i));
+      }
+
+      if (left == 0)
+        heads.clear();
+      if (heads.isEmpty())
+        removeFiles();
+    }
+
+    public boolean hasNext() {
+      return !heads.isEmpty();
+    }
+
+    public OIdentifiable next() {
+      if (heads.isEmpty())
+        throw new NoSuchElementException();
+
+      final ORunHead head = heads.poll();
+      final OIdentifiable result = head.record;
+
+      if (head.records.hasNext()) {
+        head.record = head.records.next();
+        heads.add(head);
+      }
+
+      if (left > 0 && --left == 0)
+        heads.clear();
+
+      if (heads.isEmpty())
+        removeFiles();
+
+      return result;
+    }
+
+    public void remove() {
+      throw new UnsupportedOperationException("remove()");
+    }
+
+    private void removeFiles() {
+      for (OSQLRecordSpillFile file : files)
+        file.delete();
+    }
+  }
+}
@@ -0,0 +1,283 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql;
+
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.Map;
+
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.command.OCommandRequest;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.record.ODatabaseRecord;
+import com.orientechnologies.orient.core.metadata.OMetadata;
+import com.orientechnologies.orient.core.profiler.OJVMProfiler;
+import com.orientechnologies.orient.core.sql.filter.OSQLFilter;
+import com.orientechnologies.orient.core.sql.filter.OSQLFilterCondition;
+import com.orientechnologies.orient.core.sql.filter.OSQLFilterItemField;
+import com.orientechnologies.orient.core.sql.functions.OSQLFunctionRuntime;
+
+/**
+ * Keeps parsed conditions of statements to reuse them in the next executions of the same statement text against the same
+ * database. Parsed conditions keep
+ * the values bound to parameters, so every condition is borrowed by one executor at a time and is given back once the execution
+ * is completed. Conditions which contain functions or sub-queries are changed by the execution and are never kept.
+ *
+ * Next to the conditions the cache keeps the index chosen for every statement text, see {@link OSQLIndexPlan}. Conditions and plans
+ * are kept for the version of metadata they were created with, so they are not reused once the schema or the indexes are
+ * changed.
+ *
+ * The amount of kept conditions and plans is limited by {@link OGlobalConfiguration#COMMAND_STATEMENT_CACHE_SIZE}, least recently
+ * used statements are removed first. The cache is disabled by default.
+ */
+public class OSQLStatementCache {
+  private final LinkedHashMap<OStatementKey, LinkedList<OSQLFilter>> statements = new LinkedHashMap<OStatementKey, LinkedList<OSQLFilter>>(
+                                                                                   16, 0.75f, true);
+  private final LinkedHashMap<OStatementKey, OSQLIndexPlan>          plans      = new LinkedHashMap<OStatementKey, OSQLIndexPlan>(16,
+                                                                                   0.75f, true);
+  private int                                                       size;
+
+  private static final class OStatementKey {
+    private final String databaseName;
+    private final long   metadataVersion;
+    private final String text;
+
+    private OStatementKey(final String iDatabaseName, final long iMetadataVersion, final String iText) {
+      databaseName = iDatabaseName;
+      metadataVersion = iMetadataVersion;
+      text = iText;
+    }
+
+    @Override
+    public boolean equals(final Object o) {
+      if (this == o)
+        return true;
+      if (!(o instanceof OStatementKey))
+        return false;
+
+      final OStatementKey other = (OStatementKey) o;
+      return metadataVersion == other.metadataVersion && databaseName.equals(other.databaseName) && text.equals(other.text);
+    }
+
+    @Override
+    public int hashCode() {
+      int result = databaseName.hashCode();
+      result = 31 * result + (int) (metadataVersion ^ (metadataVersion >>> 32));
+      return 31 * result + text.hashCode();
+    }
+  }
+
+  public boolean isEnabled() {
+    return OGlobalConfiguration.COMMAND_STATEMENT_CACHE_SIZE.getValueAsInteger() > 0;
+  }
+
+  /**
+   * Returns a parsed condition of the statement text removing it from the cache.
+   *
+   * @param iDatabaseName
+   *          Name of database against which the statement is executed.
+   * @param iMetadataVersion
+   *          Version of schema and indexes of database, see {@link #getMetadataVersion(ODatabaseRecord)}.
+   * @param iText
+   *          Text of condition as it is passed to the parser.
+   * @return Parsed condition or <code>null</code> if the cache does not contain a free condition for this text.
+   */
+  public OSQLFilter borrow(final String iDatabaseName, final long iMetadataVersion, final String iText) {
+    if (!isEnabled())
+      return null;
+
+    final OStatementKey key = new OStatementKey(iDatabaseName, iMetadataVersion, iText);
+
+    OSQLFilter filter = null;
+    synchronized (this) {
+      final LinkedList<OSQLFilter> filters = statements.get(key);
+      if (filters != null) {
+        filter = filters.removeFirst();
+        size--;
+
+        if (filters.isEmpty())
+          statements.remove(key);
+      }
+    }
+
+    final OJVMProfiler profiler = Orient.instance().getProfiler();
+    if (profiler.isRecording()) {
+      if (filter != null)
+        profiler.updateCounter(profiler.getDatabaseMetric(iDatabaseName, "query.statementCache.hit"),
+            "Parsed statements reused from cache", +1);
+      else
+        profiler.updateCounter(profiler.getDatabaseMetric(iDatabaseName, "query.statementCache.miss"),
+            "Statements parsed because they were not found in cache", +1);
+    }
+
+    return filter;
+  }
+
+  /**
+   * Gives back a parsed condition once the execution which has borrowed or created it is completed.
+   *
+   * @param iDatabaseName
+   *          Name of database against which the statement was executed.
+   * @param iMetadataVersion
+   *          Version of schema and indexes of database the condition was borrowed or parsed with.
+   * @param iText
+   *          Text of condition as it was passed to the parser.
+   * @param iFilter
+   *          Parsed condition checked by {@link #isReusable(OSQLFilter)} before it was optimized and executed, it should not be
+   *          used by the caller any more.
+   */
+  public void release(final String iDatabaseName, final long iMetadataVersion, final String iText, final OSQLFilter iFilter) {
+    final int maxSize = OGlobalConfiguration.COMMAND_STATEMENT_CACHE_SIZE.getValueAsInteger();
+    if (maxSize <= 0)
+      return;
+
+    iFilter.unbind();
+
+    final OStatementKey key = new OStatementKey(iDatabaseName, iMetadataVersion, iText);
+
+    synchronized (this) {
+      LinkedList<OSQLFilter> filters = statements.get(key);
+      if (filters == null) {
+        filters = new LinkedList<OSQLFilter>();
+        statements.put(key, filters);
+      }
+
+      filters.addFirst(iFilter);
+      size++;
+
+      // REMOVE LEAST RECENTLY USED STATEMENTS
+      final Iterator<Map.Entry<OStatementKey, LinkedList<OSQLFilter>>> iterator = statements.entrySet().iterator();
+      while (size > maxSize && iterator.hasNext()) {
+        final LinkedList<OSQLFilter> eldest = iterator.next().getValue();
+        if (eldest == filters) {
+          filters.removeLast();
+          size--;
+        } else {
+          size -= eldest.size();
+          iterator.remove();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns the index plan chosen by the previous execution of the statement.
+   *
+   * @param iDatabaseName
+   *          Name of database against which the statement is executed.
+   * @param iMetadataVersion
+   *          Version of schema and indexes of database, see {@link #getMetadataVersion(ODatabaseRecord)}.
+   * @param iText
+   *          Text of the whole statement.
+   * @return Index plan or <code>null</code> if the plan of statement is not known yet.
+   */
+  public OSQLIndexPlan getPlan(final String iDatabaseName, final long iMetadataVersion, final String iText) {
+    if (!isEnabled())
+      return null;
+
+    final OSQLIndexPlan plan;
+    synchronized (this) {
+      plan = plans.get(new OStatementKey(iDatabaseName, iMetadataVersion, iText));
+    }
+
+    final OJVMProfiler profiler = Orient.instance().getProfiler();
+    if (profiler.isRecording()) {
+      if (plan != null)
+        profiler.updateCounter(profiler.getDatabaseMetric(iDatabaseName, "query.planCache.hit"),
+            "Index plans of statements reused from cache", +1);
+      else
+        profiler.updateCounter(profiler.getDatabaseMetric(iDatabaseName, "query.planCache.miss"),
+            "Index plans of statements chosen because they were not found in cache", +1);
+    }
+
+    return plan;
+  }
+
+  public void putPlan(final String iDatabaseName, final long iMetadataVersion, final String iText, final OSQLIndexPlan iPlan) {
+    final int maxSize = OGlobalConfiguration.COMMAND_STATEMENT_CACHE_SIZE.getValueAsInteger();
+    if (maxSize <= 0)
+      return;
+
+    synchronized (this) {
+      plans.put(new OStatementKey(iDatabaseName, iMetadataVersion, iText), iPlan);
+
+      // REMOVE LEAST RECENTLY USED PLANS
+      final Iterator<OSQLIndexPlan> iterator = plans.values().iterator();
+      while (plans.size() > maxSize && iterator.hasNext()) {
+        iterator.next();
+        iterator.remove();
+      }
+    }
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  public synchronized int planCount() {
+    return plans.size();
+  }
+
+  public synchronized void clear() {
+    statements.clear();
+    plans.clear();
+    size = 0;
+  }
+
+  /**
+   * Returns the version of schema and indexes of database. It is changed by every change of schema and by every creation or removal
+   * of index, so conditions and plans kept for the previous version are not reused any more.
+   */
+  @SuppressWarnings("deprecation")
+  public static long getMetadataVersion(final ODatabaseRecord iDatabase) {
+    final OMetadata metadata = iDatabase.getMetadata();
+    final long schemaVersion = metadata.getSchema().getVersion();
+    final long indexVersion = metadata.getIndexManager().getConfiguration().getRecordVersion().getCounter();
+    return (schemaVersion << 32) | (indexVersion & 0xFFFFFFFFL);
+  }
+
+  /**
+   * Checks whether the parsed condition is not changed by the execution, so it can be given back to the cache once the execution
+   * is completed. It has to be checked before the condition is optimized and executed, because functions without arguments like
+   * <code>sysdate()</code> are replaced by their values and sub-queries are replaced by their results.
+   */
+  public static boolean isReusable(final OSQLFilter iFilter) {
+    return isReusable(iFilter.getRootCondition());
+  }
+
+  private static boolean isReusable(final Object iItem) {
+    if (iItem instanceof OSQLFilterCondition) {
+      final OSQLFilterCondition condition = (OSQLFilterCondition) iItem;
+      return isReusable(condition.getLeft()) && isReusable(condition.getRight());
+    }
+
+    if (iItem instanceof OSQLFilterItemField)
+      return !((OSQLFilterItemField) iItem).hasChainOperators();
+
+    if (iItem instanceof Collection<?>) {
+      for (final Object item : (Collection<?>) iItem)
+        if (!isReusable(item))
+          return false;
+
+      return true;
+    }
+
+    // SUB-QUERIES ARE REPLACED BY THEIR RESULTS AND FUNCTIONS KEEP THE STATE OF EXECUTION
+    return !(iItem instanceof OSQLFunctionRuntime) && !(iItem instanceof OCommandRequest);
+  }
+}
@@ -0,0 +1,334 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql.filter;
+
+import java.util.Date;
+
+import com.orientechnologies.orient.core.command.OCommandContext;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.db.record.ORecordElement;
+import com.orientechnologies.orient.core.record.ORecord;
+import com.orientechnologies.orient.core.sql.OSQLHelper;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperator;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorAnd;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorEquals;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorMajor;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorMajorEquals;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorMinor;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorMinorEquals;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorNot;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorNotEquals;
+import com.orientechnologies.orient.core.sql.operator.OQueryOperatorOr;
+
+/**
+ * Condition tree compiled from a parsed {@link OSQLFilterCondition}. Logical operators stop as soon as the result is known and
+ * comparisons between a field and a constant or a parameter compare values of the same type directly, without conversions and
+ * boxing. Any other operator and any comparison between values of different types are evaluated by the original condition, so
+ * the result is always the same of the interpreted condition.
+ */
+public abstract class OSQLCompiledCondition {
+  /**
+   * Evaluates the condition against the record.
+   *
+   * @return The same result of {@link OSQLFilterCondition#evaluate(OIdentifiable, com.orientechnologies.orient.core.record.impl.ODocument, OCommandContext)}
+   */
+  public abstract Object evaluate(OIdentifiable iRecord, OCommandContext iContext);
+
+  /**
+   * Compiles the condition tree.
+   *
+   * @param iCondition
+   *          Root condition of a parsed filter.
+   * @return Compiled condition, it is evaluated by the interpreter if no part of the tree can be compiled.
+   */
+  public static OSQLCompiledCondition compile(final OSQLFilterCondition iCondition) {
+    return new RootCondition(iCondition, compileCondition(iCondition));
+  }
+
+  private static OSQLCompiledCondition compileCondition(final OSQLFilterCondition iCondition) {
+    final OQueryOperator operator = iCondition.getOperator();
+    final Object left = iCondition.getLeft();
+    final Object right = iCondition.getRight();
+
+    if (operator == null) {
+      if (left instanceof OSQLFilterCondition && right == null)
+        return new UnaryCondition(compileCondition((OSQLFilterCondition) left));
+    } else if (operator instanceof OQueryOperatorAnd || operator instanceof OQueryOperatorOr) {
+      if (left instanceof OSQLFilterCondition && right instanceof OSQLFilterCondition) {
+        final OSQLCompiledCondition compiledLeft = compileCondition((OSQLFilterCondition) left);
+        final OSQLCompiledCondition compiledRight = compileCondition((OSQLFilterCondition) right);
+
+        if (operator instanceof OQueryOperatorAnd)
+          return new AndCondition(compiledLeft, compiledRight);
+        return new OrCondition(compiledLeft, compiledRight);
+      }
+    } else if (operator instanceof OQueryOperatorNot) {
+      if (((OQueryOperatorNot) operator).getNext() == null && left instanceof OSQLFilterCondition && right == null)
+        return new NotCondition(compileCondition((OSQLFilterCondition) left));
+    } else {
+      final int comparison = getComparison(operator);
+      if (comparison != COMPARISON_NONE && isSimpleField(left) && isComparableValue(right))
+        return new FieldComparison(iCondition, (OSQLFilterItemField) left, right, comparison);
+    }
+
+    return new InterpretedCondition(iCondition);
+  }
+
+  private static final int COMPARISON_NONE          = 0;
+  private static final int COMPARISON_EQUALS        = 1;
+  private static final int COMPARISON_NOT_EQUALS    = 2;
+  private static final int COMPARISON_MAJOR         = 3;
+  private static final int COMPARISON_MAJOR_EQUALS  = 4;
+  private static final int COMPARISON_MINOR         = 5;
+  private static final int COMPARISON_MINOR_EQUALS  = 6;
+
+  private static int getComparison(final OQueryOperator iOperator) {
+    // OPERATORS ARE CHECKED BY EXACT CLASS BECAUSE SUB CLASSES CAN CHANGE THE EVALUATION
+    final Class<?> operatorClass = iOperator.getClass();
+    if (operatorClass.equals(OQueryOperatorEquals.class))
+      return COMPARISON_EQUALS;
+    if (operatorClass.equals(OQueryOperatorNotEquals.class))
+      return COMPARISON_NOT_EQUALS;
+    if (operatorClass.equals(OQueryOperatorMajor.class))
+      return COMPARISON_MAJOR;
+    if (operatorClass.equals(OQueryOperatorMajorEquals.class))
+      return COMPARISON_MAJOR_EQUALS;
+    if (operatorClass.equals(OQueryOperatorMinor.class))
+      return COMPARISON_MINOR;
+    if (operatorClass.equals(OQueryOperatorMinorEquals.class))
+      return COMPARISON_MINOR_EQUALS;
+    return COMPARISON_NONE;
+  }
+
+  private static boolean isSimpleField(final Object iItem) {
+    return iItem != null && iItem.getClass().equals(OSQLFilterItemField.class) && !((OSQLFilterItemField) iItem).hasChainOperators();
+  }
+
+  private static boolean isComparableValue(final Object iValue) {
+    if (iValue instanceof OSQLFilterItemParameter)
+      return true;
+
+    if (iValue instanceof String)
+      return !OSQLHelper.DEFINED.equals(iValue) && !OSQLHelper.NOT_NULL.equals(iValue);
+
+    return iValue instanceof Number || iValue instanceof Date;
+  }
+
+  /**
+   * Loads the record as the interpreter does before to evaluate the tree and evaluates the record only with the interpreter when
+   * it is called with a result document.
+   */
+  private static class RootCondition extends OSQLCompiledCondition {
+    private final OSQLFilterCondition   condition;
+    private final OSQLCompiledCondition compiled;
+
+    private RootCondition(final OSQLFilterCondition iCondition, final OSQLCompiledCondition iCompiled) {
+      condition = iCondition;
+      compiled = iCompiled;
+    }
+
+    @Override
+    public Object evaluate(final OIdentifiable iRecord, final OCommandContext iContext) {
+      if (iRecord != null) {
+        final ORecord<?> record = iRecord.getRecord();
+        if (record == null || record.getInternalStatus() == ORecordElement.STATUS.NOT_LOADED)
+          return condition.evaluate(iRecord, null, iContext);
+      }
+
+      return compiled.evaluate(iRecord, iContext);
+    }
+  }
+
+  private static class InterpretedCondition extends OSQLCompiledCondition {
+    private final OSQLFilterCondition condition;
+
+    private InterpretedCondition(final OSQLFilterCondition iCondition) {
+      condition = iCondition;
+    }
+
+    @Override
+    public Object evaluate(final OIdentifiable iRecord, final OCommandContext iContext) {
+      return condition.evaluate(iRecord, null, iContext);
+    }
+  }
+
+  private static class UnaryCondition extends OSQLCompiledCondition {
+    private final OSQLCompiledCondition condition;
+
+    private UnaryCondition(final OSQLCompiledCondition iCondition) {
+      condition = iCondition;
+    }
+
+    @Override
+    public Object evaluate(final OIdentifiable iRecord, final OCommandContext iContext) {
+      final Object result = condition.evaluate(iRecord, iContext);
+      return result != null ? result : Boolean.FALSE;
+    }
+  }
+
+  private static class AndCondition extends OSQLCompiledCondition {
+    private final OSQLCompiledCondition left;
+    private final OSQLCompiledCondition right;
+
+    private AndCondition(final OSQLCompiledCondition iLeft, final OSQLCompiledCondition iRight) {
+      left = iLeft;
+      right = iRight;
+    }
+
+    @Override
+    public Object evaluate(final OIdentifiable iRecord, final OCommandContext iContext) {
+      final Object l = left.evaluate(iRecord, iContext);
+      if (!Boolean.TRUE.equals(l))
+        return Boolean.FALSE;
+
+      final Object r = right.evaluate(iRecord, iContext);
+      return r instanceof Boolean ? r : Boolean.FALSE;
+    }
+  }
+
+  private static class OrCondition extends OSQLCompiledCondition {
+    private final OSQLCompiledCondition left;
+    private final OSQLCompiledCondition right;
+
+    private OrCondition(final OSQLCompiledCondition iLeft, final OSQLCompiledCondition iRight) {
+      left = iLeft;
+      right = iRight;
+    }
+
+    @Override
+    public Object evaluate(final OIdentifiable iRecord, final OCommandContext iContext) {
+      final Object l = left.evaluate(iRecord, iContext);
+      if (!(l instanceof Boolean))
+        return Boolean.FALSE;
+
+      if ((Boolean) l)
+        return Boolean.TRUE;
+
+      final Object r = right.evaluate(iRecord, iContext);
+      return r instanceof Boolean ? r : Boolean.FALSE;
+    }
+  }
+
+  private static class NotCondition extends OSQLCompiledCondition {
+    private final OSQLCompiledCondition condition;
+
+    private NotCondition(final OSQLCompiledCondition iCondition) {
+      condition = iCondition;
+    }
+
+    @Override
+    public Object evaluate(final OIdentifiable iRecord, final OCommandContext iContext) {
+      final Object result = condition.evaluate(iRecord, iContext);
+      if (!(result instanceof Boolean))
+        return Boolean.FALSE;
+
+      return !(Boolean) result;
+    }
+  }
+
+  /**
+   * Compares a field with a constant or a parameter. Values of the same type are compared directly, integer numbers are compared as
+   * long values when the right value can be converted to the type of the field without loss. All other cases are evaluated by the
+   * interpreter.
+   */
+  private static class FieldComparison extends OSQLCompiledCondition {
+    private final OSQLFilterCondition     condition;
+    private final OSQLFilterItemField     field;
+    private final Object                  constant;
+    private final OSQLFilterItemParameter parameter;
+    private final int                     comparison;
+
+    private FieldComparison(final OSQLFilterCondition iCondition, final OSQLFilterItemField iField, final Object iRight,
+        final int iComparison) {
+      condition = iCondition;
+      field = iField;
+      comparison = iComparison;
+
+      if (iRight instanceof OSQLFilterItemParameter) {
+        parameter = (OSQLFilterItemParameter) iRight;
+        constant = null;
+      } else {
+        parameter = null;
+        constant = iRight;
+      }
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Object evaluate(final OIdentifiable iRecord, final OCommandContext iContext) {
+      if (iRecord == null)
+        return condition.evaluate(iRecord, null, iContext);
+
+      final Object right = parameter != null ? parameter.getValue(iRecord, iContext) : constant;
+      final Object left = field.getValue(iRecord, iContext);
+
+      if (left == null || right == null)
+        // COMPARISON OPERATORS ARE FALSE AGAINST NULLS, EVEN NOT EQUALS
+        return Boolean.FALSE;
+
+      final Class<?> leftClass = left.getClass();
+      final Class<?> rightClass = right.getClass();
+
+      final int result;
+      if (isInteger(leftClass) && isInteger(rightClass)) {
+        final long r = ((Number) right).longValue();
+        if (!fits(r, leftClass))
+          return condition.evaluate(iRecord, null, iContext);
+
+        final long l = ((Number) left).longValue();
+        result = l < r ? -1 : (l == r ? 0 : 1);
+      } else if (leftClass.equals(rightClass) && left instanceof Comparable<?>
+          && (left instanceof String || left instanceof Number || left instanceof Date)) {
+        if (comparison == COMPARISON_EQUALS)
+          return left.equals(right);
+        if (comparison == COMPARISON_NOT_EQUALS)
+          return !left.equals(right);
+
+        result = ((Comparable<Object>) left).compareTo(right);
+      } else
+        return condition.evaluate(iRecord, null, iContext);
+
+      switch (comparison) {
+      case COMPARISON_EQUALS:
+        return result == 0;
+      case COMPARISON_NOT_EQUALS:
+        return result != 0;
+      case COMPARISON_MAJOR:
+        return result > 0;
+      case COMPARISON_MAJOR_EQUALS:
+        return result >= 0;
+      case COMPARISON_MINOR:
+        return result < 0;
+      default:
+        return result <= 0;
+      }
+    }
+
+    private static boolean isInteger(final Class<?> iClass) {
+      return iClass.equals(Integer.class) || iClass.equals(Long.class) || iClass.equals(Short.class) || iClass.equals(Byte.class);
+    }
+
+    private static boolean fits(final long iValue, final Class<?> iClass) {
+      if (iClass.equals(Long.class))
+        return true;
+      if (iClass.equals(Integer.class))
+        return iValue >= Integer.MIN_VALUE && iValue <= Integer.MAX_VALUE;
+      if (iClass.equals(Short.class))
+        return iValue >= Short.MIN_VALUE && iValue <= Short.MAX_VALUE;
+      return iValue >= Byte.MIN_VALUE && iValue <= Byte.MAX_VALUE;
+    }
+  }
+}
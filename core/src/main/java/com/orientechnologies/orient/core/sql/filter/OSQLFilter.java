@@ -17,6 +17,7 @@ package com.orientechnologies.orient.core.sql.filter;
 
 import com.orientechnologies.orient.core.command.OCommandContext;
 import com.orientechnologies.orient.core.command.OCommandPredicate;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.exception.OQueryParsingException;
 import com.orientechnologies.orient.core.record.ORecord;
 import com.orientechnologies.orient.core.record.impl.ODocument;
@@ -28,6 +29,9 @@ import com.orientechnologies.orient.core.record.impl.ODocument;
  * 
  */
 public class OSQLFilter extends OSQLPredicate implements OCommandPredicate {
+	private OSQLCompiledCondition	compiledCondition;
+	private OSQLFilterCondition		compiledRootCondition;
+
 	public OSQLFilter(final String iText, final OCommandContext iContext, final String iFilterKeyword) {
 		super();
 		context = iContext;
@@ -60,6 +64,16 @@ public class OSQLFilter extends OSQLPredicate implements OCommandPredicate {
 		if (rootCondition == null)
 			return true;
 
+		if (iCurrentResult == null && OGlobalConfiguration.COMMAND_COMPILE_CONDITIONS.getValueAsBoolean()) {
+			if (compiledCondition == null || compiledRootCondition != rootCondition) {
+				// THE ROOT CONDITION IS REPLACED WHEN THE FILTER IS OPTIMIZED
+				compiledCondition = OSQLCompiledCondition.compile(rootCondition);
+				compiledRootCondition = rootCondition;
+			}
+
+			return compiledCondition.evaluate(iRecord, iContext);
+		}
+
 		return rootCondition.evaluate(iRecord, iCurrentResult, iContext);
 	}
 
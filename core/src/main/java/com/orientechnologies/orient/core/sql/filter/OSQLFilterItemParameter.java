@@ -53,4 +53,8 @@ public class OSQLFilterItemParameter implements OSQLFilterItem {
 	public void setValue(Object value) {
 		this.value = value;
 	}
+
+	public void reset() {
+		this.value = NOT_SETTED;
+	}
 }
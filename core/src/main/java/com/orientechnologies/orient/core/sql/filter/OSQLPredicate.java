@@ -185,8 +185,8 @@ public class OSQLPredicate extends OBaseParser implements OCommandPredicate {
 
   protected boolean checkForEnd(final String iWord) {
     if (iWord != null
-        && (iWord.equals(OCommandExecutorSQLSelect.KEYWORD_ORDER) || iWord.equals(OCommandExecutorSQLSelect.KEYWORD_LIMIT) || iWord
-            .equals(OCommandExecutorSQLSelect.KEYWORD_SKIP))) {
+        && (iWord.equals(OCommandExecutorSQLSelect.KEYWORD_ORDER) || iWord.equals(OCommandExecutorSQLSelect.KEYWORD_LIMIT)
+            || iWord.equals(OCommandExecutorSQLSelect.KEYWORD_SKIP) || iWord.equals(OCommandExecutorSQLSelect.KEYWORD_PARALLEL))) {
       parserMoveCurrentPosition(iWord.length() * -1);
       return true;
     }
@@ -366,6 +366,17 @@ public class OSQLPredicate extends OBaseParser implements OCommandPredicate {
     }
   }
 
+  /**
+   * Removes values bound to parameters and the context of the last execution, so the predicate can be reused by another execution.
+   */
+  public void unbind() {
+    context = null;
+
+    if (parameterItems != null)
+      for (OSQLFilterItemParameter parameterItem : parameterItems)
+        parameterItem.reset();
+  }
+
   public OSQLFilterItemParameter addParameter(final String iName) {
     final String name;
     if (iName.charAt(0) == OStringSerializerHelper.PARAMETER_NAMED) {
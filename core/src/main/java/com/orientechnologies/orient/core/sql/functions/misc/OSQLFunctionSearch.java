@@ -0,0 +1,80 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.core.sql.functions.misc;
+
+import com.orientechnologies.orient.core.command.OCommandContext;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.exception.OCommandExecutionException;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.index.OIndexFullText;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.sql.functions.OSQLFunctionAbstract;
+
+/**
+ * Returns the best records of full-text index ranked by BM25 score of words of passed in text. Each result item contains
+ * <code>rid</code> and <code>score</code> fields, only records of returned items are loaded when they are accessed.
+ * 
+ * <p>
+ * Syntax: <blockquote>
+ * 
+ * <pre>
+ * search(&lt;index&gt;, &lt;text&gt; [,&lt;limit&gt;])
+ * </pre>
+ * 
+ * </blockquote>
+ * 
+ * <p>
+ * Examples: <blockquote>
+ * 
+ * <pre>
+ * SELECT <b>search('Article.body', 'graph database', 10)</b> AS hits
+ * </pre>
+ * 
+ * </blockquote>
+ */
+public class OSQLFunctionSearch extends OSQLFunctionAbstract {
+  public static final String NAME          = "search";
+
+  private static final int   DEFAULT_LIMIT = 10;
+
+  public OSQLFunctionSearch() {
+    super(NAME, 2, 3);
+  }
+
+  public Object execute(final OIdentifiable iCurrentRecord, final Object iCurrentResult, final Object[] iParameters,
+      final OCommandContext iContext) {
+    if (iParameters[0] == null || iParameters[1] == null)
+      return null;
+
+    final String indexName = iParameters[0].toString();
+    final OIndex<?> index = ODatabaseRecordThreadLocal.INSTANCE.get().getMetadata().getIndexManager().getIndex(indexName);
+    if (index == null)
+      throw new OCommandExecutionException("Index '" + indexName + "' not found");
+
+    if (!(index.getInternal() instanceof OIndexFullText))
+      throw new OCommandExecutionException("Index '" + indexName + "' is not a " + OIndexFullText.TYPE_ID + " index");
+
+    final int limit = iParameters.length > 2 && iParameters[2] != null ? (Integer) OType.convert(iParameters[2], Integer.class)
+        : DEFAULT_LIMIT;
+
+    return ((OIndexFullText) index.getInternal()).search(iParameters[1].toString(), limit);
+  }
+
+  public String getSyntax() {
+    return "Syntax error: search(<index>, <text> [,<limit>])";
+  }
+}
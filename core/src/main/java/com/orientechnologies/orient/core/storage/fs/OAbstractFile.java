@@ -76,6 +76,7 @@ public abstract class OAbstractFile implements OFile {
   protected static final int  SIZE_OFFSET            = 0;
   protected static final int  FILLEDUPTO_OFFSET      = 4;
   protected static final int  SOFTLY_CLOSED_OFFSET   = 8;
+  protected static final int  HEADER_SIZE_OFFSET     = 12;
 
   private final ReadWriteLock lock                   = new ReentrantReadWriteLock();
   private boolean             wasSoftlyClosed        = true;
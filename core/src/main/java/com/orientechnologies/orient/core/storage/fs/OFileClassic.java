@@ -16,6 +16,7 @@
 package com.orientechnologies.orient.core.storage.fs;
 
 import java.io.IOException;
+import java.io.RandomAccessFile;
 import java.nio.ByteBuffer;
 
 import com.orientechnologies.common.io.OFileUtils;
@@ -23,8 +24,16 @@ import com.orientechnologies.orient.core.serialization.OBinaryProtocol;
 
 public class OFileClassic extends OAbstractFile {
   public final static String NAME                = "classic";
+  public final static int    MAX_HEADER_SIZE     = 64 * 1024;
+
   protected ByteBuffer       internalWriteBuffer = ByteBuffer.allocate(OBinaryProtocol.SIZE_LONG);
 
+  /**
+   * Size of header which precedes data of file. Files of older versions have header of {@link #HEADER_SIZE} bytes and do not store
+   * its size, bigger header is stored in header itself, so file can be reopened by any file type.
+   */
+  protected int              headerSize          = HEADER_SIZE;
+
   @Override
   public int allocateSpace(int size) throws IOException {
     acquireWriteLock();
@@ -45,7 +54,7 @@ public class OFileClassic extends OAbstractFile {
   public void shrink(int iSize) throws IOException {
     acquireWriteLock();
     try {
-      channel.truncate(HEADER_SIZE + iSize);
+      channel.truncate(headerSize + iSize);
       size = iSize;
     } finally {
       releaseWriteLock();
@@ -85,7 +94,7 @@ public class OFileClassic extends OAbstractFile {
 
   private void writeInternal(long iOffset, byte[] iData, int iSize, int iArrayOffset) throws IOException {
     if (iData != null) {
-      iOffset += HEADER_SIZE;
+      iOffset += headerSize;
       ByteBuffer byteBuffer = ByteBuffer.wrap(iData, iArrayOffset, iSize);
       channel.write(byteBuffer, iOffset);
       setDirty();
@@ -145,7 +154,7 @@ public class OFileClassic extends OAbstractFile {
   public void writeInt(long iOffset, final int iValue) throws IOException {
     acquireWriteLock();
     try {
-      iOffset += HEADER_SIZE;
+      iOffset += headerSize;
       final ByteBuffer buffer = getWriteBuffer(OBinaryProtocol.SIZE_INT);
       buffer.putInt(iValue);
       writeBuffer(buffer, iOffset);
@@ -159,7 +168,7 @@ public class OFileClassic extends OAbstractFile {
   public void writeLong(long iOffset, final long iValue) throws IOException {
     acquireWriteLock();
     try {
-      iOffset += HEADER_SIZE;
+      iOffset += headerSize;
       final ByteBuffer buffer = getWriteBuffer(OBinaryProtocol.SIZE_LONG);
       buffer.putLong(iValue);
       writeBuffer(buffer, iOffset);
@@ -173,7 +182,7 @@ public class OFileClassic extends OAbstractFile {
   public void writeShort(long iOffset, final short iValue) throws IOException {
     acquireWriteLock();
     try {
-      iOffset += HEADER_SIZE;
+      iOffset += headerSize;
       final ByteBuffer buffer = getWriteBuffer(OBinaryProtocol.SIZE_SHORT);
       buffer.putShort(iValue);
       writeBuffer(buffer, iOffset);
@@ -187,7 +196,7 @@ public class OFileClassic extends OAbstractFile {
   public void writeByte(long iOffset, final byte iValue) throws IOException {
     acquireWriteLock();
     try {
-      iOffset += HEADER_SIZE;
+      iOffset += headerSize;
       final ByteBuffer buffer = getWriteBuffer(OBinaryProtocol.SIZE_BYTE);
       buffer.put(iValue);
       writeBuffer(buffer, iOffset);
@@ -244,7 +253,14 @@ public class OFileClassic extends OAbstractFile {
   public void create(int iStartSize) throws IOException {
     acquireWriteLock();
     try {
-      super.create(HEADER_SIZE);
+      headerSize = getNewFileHeaderSize();
+      super.create(headerSize);
+
+      if (headerSize != HEADER_SIZE) {
+        final ByteBuffer buffer = getBuffer(OBinaryProtocol.SIZE_INT);
+        buffer.putInt(0, headerSize);
+        writeBuffer(buffer, HEADER_SIZE_OFFSET);
+      }
     } finally {
       releaseWriteLock();
     }
@@ -254,7 +270,8 @@ public class OFileClassic extends OAbstractFile {
   protected void init() throws IOException {
     acquireWriteLock();
     try {
-      size = (int) (osFile.length() - HEADER_SIZE);
+      headerSize = toHeaderSize(readData(HEADER_SIZE_OFFSET, OBinaryProtocol.SIZE_INT).getInt());
+      size = (int) (osFile.length() - headerSize);
     } finally {
       releaseWriteLock();
     }
@@ -334,13 +351,39 @@ public class OFileClassic extends OAbstractFile {
   protected long checkRegions(final long iOffset, final int iLength) {
     acquireReadLock();
     try {
-      return super.checkRegions(iOffset, iLength) + HEADER_SIZE;
+      return super.checkRegions(iOffset, iLength) + headerSize;
     } finally {
       releaseReadLock();
     }
 
   }
 
+  /**
+   * @return Size of header of files which are created by this file type.
+   */
+  protected int getNewFileHeaderSize() {
+    return HEADER_SIZE;
+  }
+
+  /**
+   * Reads size of header of file without opening of it, used by tools which copy files page by page.
+   */
+  public static int readHeaderSize(final RandomAccessFile iFile) throws IOException {
+    if (iFile.length() < HEADER_SIZE)
+      return HEADER_SIZE;
+
+    iFile.seek(HEADER_SIZE_OFFSET);
+    return toHeaderSize(iFile.readInt());
+  }
+
+  private static int toHeaderSize(final int iStoredSize) {
+    // FILES OF OLDER VERSIONS HAVE ZERO ON THIS POSITION
+    if (iStoredSize > HEADER_SIZE && iStoredSize <= MAX_HEADER_SIZE && iStoredSize % HEADER_SIZE == 0)
+      return iStoredSize;
+
+    return HEADER_SIZE;
+  }
+
   private ByteBuffer readData(final long iOffset, final int iSize) throws IOException {
     ByteBuffer buffer = getBuffer(iSize);
     channel.read(buffer, iOffset);
@@ -0,0 +1,378 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.orientechnologies.orient.core.storage.fs;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.orientechnologies.common.directmemory.ODirectMemory;
+import com.orientechnologies.common.directmemory.ODirectMemoryFactory;
+import com.orientechnologies.common.log.OLogManager;
+import com.orientechnologies.nio.DirectIOLinux;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Platform;
+import com.sun.jna.Pointer;
+
+/**
+ * File which reads and writes pages bypassing OS file cache, so pages of paginated storage are cached only once, by disk cache.
+ * Size of block of file system is detected when file is opened. Header of created file takes {@link #DIRECT_HEADER_SIZE} bytes,
+ * so pages which follow it are aligned by any block size and are read and written by single direct operation. Part of read or
+ * write which is not aligned by block size (header of file, small values, head and tail of pages of files which were created with
+ * smaller header) is performed by {@link OFileClassic}. Aligned memory used by direct operations is kept by file between
+ * operations, read pages are copied from it straight to arrays of callers.
+ *
+ * Direct I/O is supported only under Linux, on other platforms or if file system does not support direct I/O this file works as
+ * {@link OFileClassic}.
+ */
+public class OFileDirect extends OFileClassic {
+  public final static String  NAME               = "direct";
+  public final static int     DIRECT_HEADER_SIZE = 4096;
+
+  private static final int    MIN_BLOCK_SIZE     = 512;
+  private static final int    MEMORY_ALIGNMENT   = 4096;
+
+  private final ODirectMemory directMemory       = ODirectMemoryFactory.INSTANCE.directMemory();
+
+  private int                 fd                 = -1;
+  private int                 blockSize;
+  private volatile boolean    directIO           = false;
+  private final AtomicLong    directOperations   = new AtomicLong();
+
+  // aligned memory of the last direct operation, it is used by single operation at a time and freed when file is closed
+  private final AtomicReference<OAlignedBuffer> buffer = new AtomicReference<OAlignedBuffer>();
+
+  @Override
+  public void read(long iOffset, byte[] iData, int iLength, int iArrayOffset) throws IOException {
+    acquireReadLock();
+    try {
+      if (!directIO) {
+        super.read(iOffset, iData, iLength, iArrayOffset);
+        return;
+      }
+
+      final long position = checkRegions(iOffset, iLength);
+      final long alignedStart = alignUp(position);
+      final long alignedEnd = alignDown(position + iLength);
+      if (alignedStart >= alignedEnd) {
+        super.read(iOffset, iData, iLength, iArrayOffset);
+        return;
+      }
+
+      final int head = (int) (alignedStart - position);
+      final int tail = (int) (position + iLength - alignedEnd);
+      final int alignedLength = (int) (alignedEnd - alignedStart);
+
+      if (head > 0)
+        super.read(iOffset, iData, head, iArrayOffset);
+
+      final OAlignedBuffer alignedBuffer = acquireBuffer(alignedLength);
+      try {
+        final long readBytes = readDirect(alignedBuffer.alignedPointer, alignedLength, alignedStart);
+        if (readBytes < 0) {
+          handleDirectIOError("read");
+          super.read(iOffset + head, iData, alignedLength, iArrayOffset + head);
+        } else {
+          directOperations.incrementAndGet();
+          // offset of array is applied to pointer too by direct memory, so content is copied straight to array by JNA
+          if (readBytes > 0)
+            new Pointer(alignedBuffer.alignedPointer).read(0, iData, iArrayOffset + head, (int) readBytes);
+        }
+      } finally {
+        releaseBuffer(alignedBuffer);
+      }
+
+      if (tail > 0)
+        super.read(iOffset + iLength - tail, iData, tail, iArrayOffset + iLength - tail);
+    } finally {
+      releaseReadLock();
+    }
+  }
+
+  @Override
+  public void write(long iOffset, byte[] iData, int iSize, int iArrayOffset) throws IOException {
+    acquireWriteLock();
+    try {
+      if (iData == null)
+        return;
+
+      final long position = checkRegions(iOffset, iSize);
+      final long alignedStart = alignUp(position);
+      final long alignedEnd = alignDown(position + iSize);
+      if (!directIO || alignedStart >= alignedEnd) {
+        super.write(iOffset, iData, iSize, iArrayOffset);
+        return;
+      }
+
+      final int head = (int) (alignedStart - position);
+      final int tail = (int) (position + iSize - alignedEnd);
+      final int alignedLength = (int) (alignedEnd - alignedStart);
+
+      if (head > 0)
+        super.write(iOffset, iData, head, iArrayOffset);
+
+      final OAlignedBuffer alignedBuffer = acquireBuffer(alignedLength);
+      try {
+        directMemory.set(alignedBuffer.alignedPointer, iData, iArrayOffset + head, alignedLength);
+
+        final long writtenBytes = writeDirect(alignedBuffer.alignedPointer, alignedLength, alignedStart);
+        if (writtenBytes < 0)
+          handleDirectIOError("write");
+
+        if (writtenBytes != alignedLength)
+          super.write(iOffset + head, iData, alignedLength, iArrayOffset + head);
+        else {
+          directOperations.incrementAndGet();
+          setDirty();
+        }
+      } finally {
+        releaseBuffer(alignedBuffer);
+      }
+
+      if (tail > 0)
+        super.write(iOffset + iSize - tail, iData, tail, iArrayOffset + iSize - tail);
+    } finally {
+      releaseWriteLock();
+    }
+  }
+
+  /**
+   * @return <code>true</code> if file is opened for direct I/O and file system has not rejected it yet.
+   */
+  public boolean isDirectIO() {
+    return directIO;
+  }
+
+  /**
+   * @return Amount of reads and writes which were performed bypassing OS file cache.
+   */
+  public long getDirectOperations() {
+    return directOperations.get();
+  }
+
+  @Override
+  public void close() throws IOException {
+    acquireWriteLock();
+    try {
+      closeDirectDescriptor();
+      freeBuffer();
+      super.close();
+    } finally {
+      releaseWriteLock();
+    }
+  }
+
+  @Override
+  protected void openChannel(int iNewSize) throws IOException {
+    acquireWriteLock();
+    try {
+      super.openChannel(iNewSize);
+
+      closeDirectDescriptor();
+      openDirectDescriptor();
+    } finally {
+      releaseWriteLock();
+    }
+  }
+
+  private void openDirectDescriptor() {
+    final int directFlag = DirectIOLinux.Flags.directFlag();
+    if (!Platform.isLinux() || directFlag < 0) {
+      OLogManager.instance().debug(this, "Direct I/O is not supported on this platform, file %s will use OS file cache",
+          osFile.getAbsolutePath());
+      return;
+    }
+
+    final int flags = (mode.indexOf('w') >= 0 ? DirectIOLinux.O_RDWR : DirectIOLinux.O_RDONLY) | directFlag;
+
+    try {
+      fd = DirectIOLinux.INSTANCE.open(osFile.getAbsolutePath(), flags);
+
+      if (fd < 0) {
+        OLogManager.instance().warn(this, "Can not open file %s for direct I/O (error code %d), OS file cache will be used",
+            osFile.getAbsolutePath(), Native.getLastError());
+        return;
+      }
+
+      blockSize = detectBlockSize();
+      directIO = blockSize > 0;
+
+      if (directIO)
+        OLogManager.instance().debug(this, "File %s uses direct I/O with block size %d", osFile.getAbsolutePath(), blockSize);
+      else
+        OLogManager.instance().warn(this, "Can not detect block size of file %s for direct I/O, OS file cache will be used",
+            osFile.getAbsolutePath());
+    } catch (UnsatisfiedLinkError e) {
+      fd = -1;
+      directIO = false;
+      OLogManager.instance().warn(this, "Direct I/O is not supported by C library, file %s will use OS file cache",
+          osFile.getAbsolutePath());
+    }
+  }
+
+  /**
+   * Logical block size of device (512 bytes or 4 kilobytes for 4Kn drives) is the smallest size of direct read which is not
+   * rejected by file system. File always contains its header, so first block can be read.
+   * 
+   * @return Size of block or -1 if direct reads are rejected.
+   */
+  private int detectBlockSize() {
+    final long pointer = directMemory.allocate(2 * MEMORY_ALIGNMENT);
+    try {
+      final Pointer buffer = new Pointer(alignPointer(pointer));
+
+      for (int size = MIN_BLOCK_SIZE; size <= MEMORY_ALIGNMENT; size <<= 1) {
+        if (DirectIOLinux.INSTANCE.pread64(fd, buffer, new NativeLong(size), 0).longValue() >= 0)
+          return size;
+
+        if (Native.getLastError() != DirectIOLinux.EINVAL)
+          return -1;
+      }
+
+      return -1;
+    } finally {
+      directMemory.free(pointer);
+    }
+  }
+
+  @Override
+  protected int getNewFileHeaderSize() {
+    return DIRECT_HEADER_SIZE;
+  }
+
+  /**
+   * Direct read may return less bytes than requested even if end of file is not reached, so read is repeated for the rest of
+   * buffer.
+   * 
+   * @return Amount of read bytes, it is less than requested only if end of file is reached, or -1 in case of error.
+   */
+  private long readDirect(final long pointer, final int length, final long position) {
+    long readBytes = 0;
+    while (readBytes < length) {
+      final long result = DirectIOLinux.INSTANCE.pread64(fd, new Pointer(pointer + readBytes), new NativeLong(length - readBytes),
+          position + readBytes).longValue();
+      if (result < 0)
+        return -1;
+
+      if (result == 0)
+        break;
+
+      readBytes += result;
+    }
+
+    return readBytes;
+  }
+
+  /**
+   * @return Amount of written bytes or -1 in case of error.
+   */
+  private long writeDirect(final long pointer, final int length, final long position) {
+    long writtenBytes = 0;
+    while (writtenBytes < length) {
+      final long result = DirectIOLinux.INSTANCE.pwrite64(fd, new Pointer(pointer + writtenBytes),
+          new NativeLong(length - writtenBytes), position + writtenBytes).longValue();
+      if (result < 0)
+        return -1;
+
+      if (result == 0)
+        break;
+
+      writtenBytes += result;
+    }
+
+    return writtenBytes;
+  }
+
+  /**
+   * Takes buffer kept by file if it is not used by concurrent read and is big enough, otherwise allocates new one.
+   */
+  private OAlignedBuffer acquireBuffer(int length) {
+    final OAlignedBuffer alignedBuffer = buffer.getAndSet(null);
+    if (alignedBuffer != null) {
+      if (alignedBuffer.capacity >= length)
+        return alignedBuffer;
+
+      directMemory.free(alignedBuffer.pointer);
+    }
+
+    return new OAlignedBuffer(directMemory.allocate(length + MEMORY_ALIGNMENT), length);
+  }
+
+  /**
+   * Keeps buffer for the next operation, buffer is freed if file already keeps buffer returned by concurrent read.
+   */
+  private void releaseBuffer(OAlignedBuffer alignedBuffer) {
+    if (!buffer.compareAndSet(null, alignedBuffer))
+      directMemory.free(alignedBuffer.pointer);
+  }
+
+  private void freeBuffer() {
+    final OAlignedBuffer alignedBuffer = buffer.getAndSet(null);
+    if (alignedBuffer != null)
+      directMemory.free(alignedBuffer.pointer);
+  }
+
+  private void closeDirectDescriptor() {
+    directIO = false;
+    if (fd < 0)
+      return;
+
+    DirectIOLinux.INSTANCE.close(fd);
+    fd = -1;
+  }
+
+  /**
+   * If file system rejects direct I/O which it accepted on opening of file, file is switched to usage of OS file cache for the rest
+   * of its life.
+   */
+  private void handleDirectIOError(String operation) throws IOException {
+    final int errorCode = Native.getLastError();
+    if (errorCode != DirectIOLinux.EINVAL)
+      throw new IOException("Direct " + operation + " of file " + osFile.getAbsolutePath() + " failed with error code " + errorCode);
+
+    OLogManager.instance().warn(this, "File system does not support direct %s for file %s, OS file cache will be used", operation,
+        osFile.getAbsolutePath());
+
+    // descriptor is closed by close() because concurrent readers may still use it
+    directIO = false;
+  }
+
+  private long alignUp(long position) {
+    return (position + blockSize - 1) & ~((long) blockSize - 1);
+  }
+
+  private long alignDown(long position) {
+    return position & ~((long) blockSize - 1);
+  }
+
+  private static long alignPointer(long pointer) {
+    return (pointer + MEMORY_ALIGNMENT - 1) & ~((long) MEMORY_ALIGNMENT - 1);
+  }
+
+  private static final class OAlignedBuffer {
+    private final long pointer;
+    private final long alignedPointer;
+    private final int  capacity;
+
+    private OAlignedBuffer(long pointer, int capacity) {
+      this.pointer = pointer;
+      this.alignedPointer = alignPointer(pointer);
+      this.capacity = capacity;
+    }
+  }
+}
@@ -29,12 +29,14 @@ import com.orientechnologies.orient.core.exception.OConfigurationException;
 public class OFileFactory extends ODynamicFactory<String, Class<? extends OFile>> {
 	public static final String					MMAP			= "mmap";
 	public static final String					CLASSIC		= "classic";
+	public static final String					DIRECT		= "direct";
 
 	protected static final OFileFactory	instance	= new OFileFactory();
 
 	public OFileFactory() {
 		register(MMAP, OFileMMap.class);
 		register(CLASSIC, OFileClassic.class);
+		register(DIRECT, OFileDirect.class);
 	}
 
 	public OFile create(final String iType, final String iFileName, final String iOpenMode) throws IOException {
@@ -47,13 +47,22 @@ public class OMultiFileSegment extends OSegment {
 
   public OMultiFileSegment(final OStorageLocalAbstract storage, final OStorageSegmentConfiguration config,
       final String fileExtension, final int roundMaxSize) throws IOException {
+    this(storage, config, fileExtension, roundMaxSize, config.fileType);
+  }
+
+  /**
+   * @param fileType
+   *          Type of files of segment, it overrides type of files stored in configuration.
+   */
+  public OMultiFileSegment(final OStorageLocalAbstract storage, final OStorageSegmentConfiguration config,
+      final String fileExtension, final int roundMaxSize, final String fileType) throws IOException {
     super(storage, config.name);
 
     readWriteLock.writeLock().lock();
     try {
       this.config = config;
       this.fileExtension = fileExtension;
-      type = config.fileType;
+      type = fileType;
       defrag = config.defrag;
       maxSize = OFileUtils.getSizeAsNumber(config.maxSize);
       fileStartSize = (int) OFileUtils.getSizeAsNumber(config.fileStartSize);
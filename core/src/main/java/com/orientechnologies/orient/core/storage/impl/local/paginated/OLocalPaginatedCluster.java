@@ -36,6 +36,12 @@ import static com.orientechnologies.orient.core.config.OGlobalConfiguration.PAGI
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.iq80.snappy.Snappy;
 
@@ -76,6 +82,7 @@ import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OLogSe
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OWALRecord;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OWriteAheadLog;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OPageDiff;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OPageDiffCoalescer;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OUpdatePageRecord;
 import com.orientechnologies.orient.core.version.ORecordVersion;
 
@@ -97,6 +104,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
   private static final int                          PAGE_INDEX_OFFSET            = 16;
   private static final int                          RECORD_POSITION_MASK         = 0xFFFF;
   private static final int                          ONE_KB                       = 1024;
+  private static final int                          PAGE_LATCHES_COUNT           = 256;
 
   private ODiskCache                                diskCache;
 
@@ -105,8 +113,9 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
   private volatile int                              id;
   private long                                      fileId;
 
-  private long                                      size;
-  private long                                      recordsSize;
+  private volatile long                             size;
+  private volatile long                             recordsSize;
+  private final Object                              clusterStateLock             = new Object();
 
   private final ODirectMemory                       directMemory                 = ODirectMemoryFactory.INSTANCE.directMemory();
 
@@ -121,14 +130,40 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
 
   private final OModificationLock                   externalModificationLock     = new OModificationLock();
 
+  /**
+   * Content of pages is protected by page latches, so operations on different pages of the same cluster may be performed
+   * concurrently, cluster lock is acquired in exclusive mode only by operations which change cluster as whole.
+   */
+  private final ReadWriteLock[]                     pageLatches                  = new ReadWriteLock[PAGE_LATCHES_COUNT];
+
+  /**
+   * Protects free lists of pages, links between pages of free list are changed only when both this lock and latch of page
+   * are held.
+   */
+  private final Lock                                freePagesLock                = new ReentrantLock();
+
+  /**
+   * Index of free list which page belongs to. Free space of page and free list which page belongs to are changed in two
+   * separate steps, so index is tracked only for pages which are changed and are not moved to new free list yet, for the rest
+   * of pages it is calculated from free space of page.
+   */
+  private final ConcurrentMap<Long, Integer>        pagesFreeListIndexes         = new ConcurrentHashMap<Long, Integer>();
+
   private OWriteAheadLog                            writeAheadLog;
 
   private ThreadLocal<OLogSequenceNumber>           lastLsn                      = new ThreadLocal<OLogSequenceNumber>();
+  private ThreadLocal<OLogSequenceNumber>           commitLsn                    = new ThreadLocal<OLogSequenceNumber>();
+
+  private final boolean                             syncOnCommit                 = OGlobalConfiguration.WAL_SYNC_ON_COMMIT
+                                                                                     .getValueAsBoolean();
 
   public OLocalPaginatedCluster() {
     super(OGlobalConfiguration.ENVIRONMENT_CONCURRENT.getValueAsBoolean());
     for (int i = 0; i < freePageLists.length; i++)
       freePageLists[i] = -1;
+
+    for (int i = 0; i < pageLatches.length; i++)
+      pageLatches[i] = new ReentrantReadWriteLock();
   }
 
   @Override
@@ -195,10 +230,16 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
       try {
         final OStorageSegmentConfiguration fileConfiguration = new OStorageSegmentConfiguration(storageLocal.getConfiguration(),
             name, id);
-        fileConfiguration.fileType = OFileFactory.CLASSIC;
+        fileConfiguration.fileType = dataFileType();
         fileId = diskCache.openFile(fileConfiguration, DEF_EXTENSION);
         clusterStateHolder.create(-1);
 
+        size = 0;
+        recordsSize = 0;
+        for (int i = 0; i < freePageLists.length; i++)
+          freePageLists[i] = -1;
+        pagesFreeListIndexes.clear();
+
         if (config.root.clusters.size() <= config.id)
           config.root.clusters.add(config);
         else
@@ -220,11 +261,12 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
       try {
         final OStorageSegmentConfiguration fileConfiguration = new OStorageSegmentConfiguration(storageLocal.getConfiguration(),
             name, id);
-        fileConfiguration.fileType = OFileFactory.CLASSIC;
+        fileConfiguration.fileType = dataFileType();
         fileId = diskCache.openFile(fileConfiguration, DEF_EXTENSION);
         clusterStateHolder.open();
 
         loadClusterState();
+        pagesFreeListIndexes.clear();
       } finally {
         releaseExclusiveLock();
       }
@@ -312,7 +354,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
       throws IOException {
     externalModificationLock.requestModificationLock();
     try {
-      acquireExclusiveLock();
+      acquireSharedLock();
       try {
         content = Snappy.compress(content);
 
@@ -346,13 +388,10 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
 
           final AddEntryResult addEntryResult = addEntry(recordVersion, entryContent, trackMode);
 
-          size++;
-          recordsSize += addEntryResult.recordsSizeDiff;
-
-          logClusterState();
+          updateClusterState(1, addEntryResult.recordsSizeDiff);
 
           if (writeAheadLog != null) {
-            writeAheadLog.log(new OAtomicUnitEndRecord(lastLsn.get()));
+            commitLsn.set(writeAheadLog.log(new OAtomicUnitEndRecord(lastLsn.get())));
             lastLsn.set(null);
           }
 
@@ -406,27 +445,8 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
             }
 
             long addedPagePointer = addEntryResult.pagePointer;
-            if (prevPageRecordPointer >= 0) {
-
-              long prevPageIndex = prevPageRecordPointer >>> PAGE_INDEX_OFFSET;
-              int prevPageRecordPosition = (int) (prevPageRecordPointer & RECORD_POSITION_MASK);
-
-              long prevPageMemoryPointer = diskCache.load(fileId, prevPageIndex);
-              try {
-                final OLocalPage prevPage = new OLocalPage(prevPageMemoryPointer, false, OLocalPage.TrackMode.BOTH);
-
-                int prevRecordPageOffset = prevPage.getRecordPageOffset(prevPageRecordPosition);
-                int prevPageRecordSize = prevPage.getRecordSize(prevPageRecordPosition);
-
-                prevPage.setLongValue(prevRecordPageOffset + prevPageRecordSize - OLongSerializer.LONG_SIZE, addedPagePointer);
-
-                logPageChanges(prevPage, prevPageIndex);
-
-              } finally {
-                diskCache.markDirty(fileId, prevPageIndex);
-                diskCache.release(fileId, prevPageIndex);
-              }
-            }
+            if (prevPageRecordPointer >= 0)
+              setNextPagePointer(prevPageRecordPointer, addedPagePointer, trackMode);
 
             prevPageRecordPointer = addedPagePointer;
             from = to;
@@ -436,13 +456,10 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
 
           } while (from < to);
 
-          size++;
-          recordsSize += recordsSizeDiff;
-
-          logClusterState();
+          updateClusterState(1, recordsSizeDiff);
 
           if (writeAheadLog != null) {
-            writeAheadLog.log(new OAtomicUnitEndRecord(lastLsn.get()));
+            commitLsn.set(writeAheadLog.log(new OAtomicUnitEndRecord(lastLsn.get())));
             lastLsn.set(null);
           }
 
@@ -450,10 +467,11 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
         }
       } finally {
         lastLsn.set(null);
-        releaseExclusiveLock();
+        releaseSharedLock();
       }
     } finally {
       externalModificationLock.releaseModificationLock();
+      waitTillCommitIsFlushed();
     }
   }
 
@@ -480,7 +498,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
         return null;
 
       ORecordVersion recordVersion = null;
-      long pointer = diskCache.load(fileId, pageIndex);
+      long pointer = loadPage(pageIndex, false);
       try {
         final OLocalPage localPage = new OLocalPage(pointer, false, OLocalPage.TrackMode.NONE);
 
@@ -491,7 +509,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
 
         recordVersion = localPage.getRecordVersion(recordPosition);
       } finally {
-        diskCache.release(fileId, pageIndex);
+        releasePage(pageIndex, false);
       }
 
       byte[] fullContent = readFullEntry(clusterPosition);
@@ -528,7 +546,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
     long nextPagePointer = -1;
     boolean firstEntry = true;
     do {
-      long pointer = diskCache.load(fileId, pageIndex);
+      long pointer = loadPage(pageIndex, false);
       try {
         final OLocalPage localPage = new OLocalPage(pointer, false, OLocalPage.TrackMode.NONE);
 
@@ -552,7 +570,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
 
         firstEntry = false;
       } finally {
-        diskCache.release(fileId, pageIndex);
+        releasePage(pageIndex, false);
       }
 
       pageIndex = nextPagePointer >>> PAGE_INDEX_OFFSET;
@@ -578,7 +596,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
   public boolean deleteRecord(OClusterPosition clusterPosition) throws IOException {
     externalModificationLock.requestModificationLock();
     try {
-      acquireExclusiveLock();
+      acquireSharedLock();
       try {
 
         long pagePointer = clusterPosition.longValue();
@@ -602,11 +620,9 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
         long nextPagePointer = -1;
         int removedContentSize = 0;
         do {
-          long pointer = diskCache.load(fileId, pageIndex);
-          int initialFreePageIndex;
+          long pointer = loadPage(pageIndex, true);
           try {
             final OLocalPage localPage = new OLocalPage(pointer, false, trackMode);
-            initialFreePageIndex = calculateFreePageIndex(localPage);
 
             int recordPageOffset = localPage.getRecordPageOffset(recordPosition);
             if (recordPageOffset < 0) {
@@ -621,6 +637,8 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
 
             byte[] content = localPage.getBinaryValue(recordPageOffset, localPage.getRecordSize(recordPosition));
 
+            trackFreeListIndex(pageIndex, localPage);
+
             int initialFreeSpace = localPage.getFreeSpace();
             localPage.deleteRecord(recordPosition);
 
@@ -631,31 +649,29 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
 
           } finally {
             diskCache.markDirty(fileId, pageIndex);
-            diskCache.release(fileId, pageIndex);
+            releasePage(pageIndex, true);
           }
 
-          updateFreePagesIndex(initialFreePageIndex, pageIndex, trackMode);
+          updateFreePagesIndex(pageIndex, trackMode);
 
           pageIndex = nextPagePointer >>> PAGE_INDEX_OFFSET;
           recordPosition = (int) (nextPagePointer & RECORD_POSITION_MASK);
         } while (nextPagePointer >= 0);
 
-        size--;
-        recordsSize -= removedContentSize;
-
-        logClusterState();
+        updateClusterState(-1, -removedContentSize);
 
         if (writeAheadLog != null) {
-          writeAheadLog.log(new OAtomicUnitEndRecord(lastLsn.get()));
+          commitLsn.set(writeAheadLog.log(new OAtomicUnitEndRecord(lastLsn.get())));
           lastLsn.set(null);
         }
 
         return true;
       } finally {
-        releaseExclusiveLock();
+        releaseSharedLock();
       }
     } finally {
       externalModificationLock.releaseModificationLock();
+      waitTillCommitIsFlushed();
     }
   }
 
@@ -663,7 +679,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
       final byte recordType) throws IOException {
     externalModificationLock.requestModificationLock();
     try {
-      acquireExclusiveLock();
+      acquireSharedLock();
       try {
 
         byte[] fullEntryContent = readFullEntry(clusterPosition);
@@ -721,12 +737,15 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
           recordPosition = (int) (pagePointer & RECORD_POSITION_MASK);
           pageIndex = pagePointer >>> PAGE_INDEX_OFFSET;
 
-          int freePageIndex;
-          long dataPointer = diskCache.load(fileId, pageIndex);
+          if (prevPageRecordPointer >= 0)
+            setNextPagePointer(prevPageRecordPointer, pagePointer, trackMode);
+
+          long dataPointer = loadPage(pageIndex, true);
           try {
             final OLocalPage localPage = new OLocalPage(dataPointer, false, trackMode);
+            trackFreeListIndex(pageIndex, localPage);
+
             int freeSpace = localPage.getFreeSpace();
-            freePageIndex = calculateFreePageIndex(localPage);
 
             int recordPageOffset = localPage.getRecordPageOffset(recordPosition);
             int chunkSize = localPage.getRecordSize(recordPosition);
@@ -747,26 +766,6 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
 
             OLongSerializer.INSTANCE.serializeNative(-1L, newRecordChunk, newRecordChunk.length - OLongSerializer.LONG_SIZE);
 
-            if (prevPageRecordPointer >= 0) {
-              long prevPageIndex = prevPageRecordPointer >>> PAGE_INDEX_OFFSET;
-              int prevPageRecordPosition = (int) (prevPageRecordPointer & RECORD_POSITION_MASK);
-
-              long prevPageMemoryPointer = diskCache.load(fileId, prevPageIndex);
-              try {
-                final OLocalPage prevPage = new OLocalPage(prevPageMemoryPointer, false, trackMode);
-
-                int prevRecordPageOffset = prevPage.getRecordPageOffset(prevPageRecordPosition);
-                int prevPageRecordSize = prevPage.getRecordSize(prevPageRecordPosition);
-
-                prevPage.setLongValue(prevRecordPageOffset + prevPageRecordSize - OLongSerializer.LONG_SIZE, pagePointer);
-
-                logPageChanges(prevPage, prevPageIndex);
-              } finally {
-                diskCache.markDirty(fileId, prevPageIndex);
-                diskCache.release(fileId, prevPageIndex);
-              }
-            }
-
             localPage.replaceRecord(recordPosition, newRecordChunk, recordVersion.getCounter() != -2 ? recordVersion : null);
 
             currentPos += dataLen;
@@ -779,10 +778,10 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
 
           } finally {
             diskCache.markDirty(fileId, pageIndex);
-            diskCache.release(fileId, pageIndex);
+            releasePage(pageIndex, true);
           }
 
-          updateFreePagesIndex(freePageIndex, pageIndex, trackMode);
+          updateFreePagesIndex(pageIndex, trackMode);
         }
 
         int from = currentPos;
@@ -805,27 +804,8 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
           recordsSizeDiff += addEntryResult.recordsSizeDiff;
 
           long addedPagePointer = addEntryResult.pagePointer;
-          if (prevPageRecordPointer >= 0) {
-
-            long prevPageIndex = prevPageRecordPointer >>> PAGE_INDEX_OFFSET;
-            int prevPageRecordPosition = (int) (prevPageRecordPointer & RECORD_POSITION_MASK);
-
-            long prevPageMemoryPointer = diskCache.load(fileId, prevPageIndex);
-            try {
-              final OLocalPage prevPage = new OLocalPage(prevPageMemoryPointer, false, trackMode);
-
-              int recordPageOffset = prevPage.getRecordPageOffset(prevPageRecordPosition);
-              int prevPageRecordSize = prevPage.getRecordSize(prevPageRecordPosition);
-
-              prevPage.setLongValue(recordPageOffset + prevPageRecordSize - OLongSerializer.LONG_SIZE, addedPagePointer);
-
-              logPageChanges(prevPage, prevPageIndex);
-
-            } finally {
-              diskCache.markDirty(fileId, prevPageIndex);
-              diskCache.release(fileId, prevPageIndex);
-            }
-          }
+          if (prevPageRecordPointer >= 0)
+            setNextPagePointer(prevPageRecordPointer, addedPagePointer, trackMode);
 
           prevPageRecordPointer = addedPagePointer;
           from = to;
@@ -834,25 +814,34 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
             to = recordEntry.length;
         }
 
-        recordsSize += recordsSizeDiff;
-
-        logClusterState();
+        updateClusterState(0, recordsSizeDiff);
 
         if (writeAheadLog != null) {
-          writeAheadLog.log(new OAtomicUnitEndRecord(lastLsn.get()));
+          commitLsn.set(writeAheadLog.log(new OAtomicUnitEndRecord(lastLsn.get())));
           lastLsn.set(null);
         }
 
       } finally {
-        releaseExclusiveLock();
+        releaseSharedLock();
       }
     } finally {
       externalModificationLock.releaseModificationLock();
+      waitTillCommitIsFlushed();
     }
   }
 
+  private void waitTillCommitIsFlushed() {
+    final OLogSequenceNumber lsn = commitLsn.get();
+    if (lsn == null)
+      return;
+
+    commitLsn.set(null);
+    if (syncOnCommit)
+      writeAheadLog.flushTill(lsn);
+  }
+
   private boolean isRecordSpreadAcrossSeveralPages(long pageIndex, int recordPosition) throws IOException {
-    long pagePointer = diskCache.load(fileId, pageIndex);
+    long pagePointer = loadPage(pageIndex, false);
     try {
       OLocalPage localPage = new OLocalPage(pagePointer, false, OLocalPage.TrackMode.NONE);
       int recordPageOffset = localPage.getRecordPageOffset(recordPosition);
@@ -864,12 +853,16 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
       long nextPagePointer = localPage.getLongValue(recordPageOffset + recordSize - OLongSerializer.LONG_SIZE);
       return nextPagePointer >= 0;
     } finally {
-      diskCache.release(fileId, pageIndex);
+      releasePage(pageIndex, false);
     }
   }
 
+  /**
+   * Restores page from WAL record. Several pages may be restored concurrently, records of the same page are never applied
+   * concurrently by storage, so only shared lock is acquired.
+   */
   public void restorePage(OAbstractPageWALRecord walRecord) throws IOException {
-    acquireExclusiveLock();
+    acquireSharedLock();
     try {
       if (walRecord instanceof OAddNewPageRecord) {
         // skip it
@@ -880,62 +873,76 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
 
       restorePageData((OUpdatePageRecord) walRecord);
     } finally {
-      releaseExclusiveLock();
+      releaseSharedLock();
     }
   }
 
   private void restorePageData(OUpdatePageRecord updatePageRecord) throws IOException {
     long pageIndex = updatePageRecord.getPageIndex();
-    long pagePointer = diskCache.load(fileId, pageIndex);
+    long pagePointer = loadPage(pageIndex, true);
     try {
       final OLocalPage page = new OLocalPage(pagePointer, false, OLocalPage.TrackMode.NONE);
       page.setLsn(updatePageRecord.getLsn());
       page.restoreChanges(updatePageRecord.getChanges());
     } finally {
       diskCache.markDirty(fileId, pageIndex);
-      diskCache.release(fileId, pageIndex);
+      releasePage(pageIndex, true);
     }
   }
 
+  /**
+   * Page is found and removed from free lists under {@link #freePagesLock}, so concurrent insertions never choose the same page,
+   * but it is filled under its latch only. Lock is acquired once more to move the filled page to the proper free list.
+   */
   private AddEntryResult addEntry(ORecordVersion recordVersion, byte[] entryContent, OLocalPage.TrackMode trackMode)
       throws IOException {
-    final FindFreePageResult findFreePageResult = findFreePage(entryContent.length, trackMode);
-
-    int freePageIndex = findFreePageResult.freePageIndex;
-    long pageIndex = findFreePageResult.pageIndex;
-    boolean newRecord = freePageIndex >= freePageLists.length;
+    while (true) {
+      final long pageIndex;
+      freePagesLock.lock();
+      try {
+        pageIndex = findFreePage(entryContent.length, trackMode);
+      } finally {
+        freePagesLock.unlock();
+      }
 
-    long pagePointer = diskCache.load(fileId, pageIndex);
-    int recordSizesDiff;
-    int position;
-    final ORecordVersion finalVersion;
-    try {
-      final OLocalPage localPage = new OLocalPage(pagePointer, newRecord, trackMode);
-      assert newRecord || freePageIndex == calculateFreePageIndex(localPage);
+      long pagePointer = loadPage(pageIndex, true);
+      int recordSizesDiff = 0;
+      int position;
+      ORecordVersion finalVersion = null;
+      try {
+        final OLocalPage localPage = new OLocalPage(pagePointer, false, trackMode);
+        trackFreeListIndex(pageIndex, localPage);
 
-      int initialFreeSpace = localPage.getFreeSpace();
+        int initialFreeSpace = localPage.getFreeSpace();
 
-      position = localPage.appendRecord(recordVersion, entryContent, false);
-      assert position >= 0;
+        position = localPage.appendRecord(recordVersion, entryContent, false);
+        if (position >= 0) {
+          finalVersion = localPage.getRecordVersion(position);
 
-      finalVersion = localPage.getRecordVersion(position);
+          int freeSpace = localPage.getFreeSpace();
+          recordSizesDiff = initialFreeSpace - freeSpace;
 
-      int freeSpace = localPage.getFreeSpace();
-      recordSizesDiff = initialFreeSpace - freeSpace;
+          logPageChanges(localPage, pageIndex);
+        }
+      } finally {
+        diskCache.markDirty(fileId, pageIndex);
+        releasePage(pageIndex, true);
+      }
 
-      logPageChanges(localPage, pageIndex);
+      updateFreePagesIndex(pageIndex, trackMode);
 
-    } finally {
-      diskCache.markDirty(fileId, pageIndex);
-      diskCache.release(fileId, pageIndex);
+      // free space of page was consumed by concurrent update after page was found, page is moved to the proper free list
+      // above so next try will use another page
+      if (position >= 0)
+        return new AddEntryResult((pageIndex << PAGE_INDEX_OFFSET) | position, finalVersion, recordSizesDiff);
     }
-
-    updateFreePagesIndex(freePageIndex, pageIndex, trackMode);
-
-    return new AddEntryResult((pageIndex << PAGE_INDEX_OFFSET) | position, finalVersion, recordSizesDiff);
   }
 
-  private FindFreePageResult findFreePage(int contentSize, OLocalPage.TrackMode trackMode) throws IOException {
+  /**
+   * Should be called under {@link #freePagesLock}. Returned page is not placed in any free list, so it is not found by concurrent
+   * insertions till it is moved to the proper free list by {@link #updateFreePagesIndex(long, OLocalPage.TrackMode)}.
+   */
+  private long findFreePage(int contentSize, OLocalPage.TrackMode trackMode) throws IOException {
     while (true) {
       int freePageIndex = contentSize / ONE_KB;
       freePageIndex -= PAGINATED_STORAGE_LOWEST_FREELIST_BOUNDARY.getValueAsInteger();
@@ -949,40 +956,100 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
       } while (pageIndex < 0 && freePageIndex < freePageLists.length);
 
       if (pageIndex < 0)
-        pageIndex = diskCache.getFilledUpTo(fileId);
-      else
-        freePageIndex--;
+        return allocateNewPage(trackMode);
 
-      if (freePageIndex < freePageLists.length) {
-        long pointer = diskCache.load(fileId, pageIndex);
-        int realFreePageIndex;
-        try {
-          OLocalPage localPage = new OLocalPage(pointer, false, OLocalPage.TrackMode.NONE);
-          realFreePageIndex = calculateFreePageIndex(localPage);
-        } finally {
-          diskCache.release(fileId, pageIndex);
-        }
+      freePageIndex--;
 
-        if (realFreePageIndex != freePageIndex) {
-          OLogManager.instance().warn(this,
-              "Page in file %s with index %d was placed in wrong free list, this error will be fixed automatically.",
-              name + DEF_EXTENSION, pageIndex);
+      long pointer = loadPage(pageIndex, false);
+      int realFreePageIndex;
+      try {
+        OLocalPage localPage = new OLocalPage(pointer, false, OLocalPage.TrackMode.NONE);
+        realFreePageIndex = getFreeListIndex(pageIndex, localPage);
+      } finally {
+        releasePage(pageIndex, false);
+      }
 
-          updateFreePagesIndex(freePageIndex, pageIndex, trackMode);
-          continue;
-        }
+      if (realFreePageIndex != freePageIndex) {
+        OLogManager.instance().warn(this,
+            "Page in file %s with index %d was placed in wrong free list, this error will be fixed automatically.",
+            name + DEF_EXTENSION, pageIndex);
+
+        pagesFreeListIndexes.put(pageIndex, freePageIndex);
+        moveToFreeList(pageIndex, trackMode, false);
+        continue;
       }
 
-      return new FindFreePageResult(pageIndex, freePageIndex);
+      moveToFreeList(pageIndex, trackMode, true);
+      return pageIndex;
+    }
+  }
+
+  /**
+   * Adds new page to the end of cluster file. Should be called under {@link #freePagesLock} so the same page is never allocated
+   * twice. Page is not placed in any free list till it is changed by caller.
+   */
+  private long allocateNewPage(OLocalPage.TrackMode trackMode) throws IOException {
+    final long pageIndex = diskCache.getFilledUpTo(fileId);
+
+    long pointer = loadPage(pageIndex, true);
+    try {
+      final OLocalPage localPage = new OLocalPage(pointer, true, trackMode);
+      pagesFreeListIndexes.put(pageIndex, freePageLists.length);
+
+      logPageChanges(localPage, pageIndex);
+    } finally {
+      diskCache.markDirty(fileId, pageIndex);
+      releasePage(pageIndex, true);
+    }
+
+    return pageIndex;
+  }
+
+  /**
+   * Should be called under exclusive latch of page before its free space is changed.
+   */
+  private void trackFreeListIndex(long pageIndex, OLocalPage localPage) {
+    final Integer freeListIndex = calculateFreePageIndex(localPage);
+    pagesFreeListIndexes.putIfAbsent(pageIndex, freeListIndex);
+  }
+
+  private int getFreeListIndex(long pageIndex, OLocalPage localPage) {
+    final Integer freeListIndex = pagesFreeListIndexes.get(pageIndex);
+    if (freeListIndex != null)
+      return freeListIndex;
+
+    return calculateFreePageIndex(localPage);
+  }
+
+  /**
+   * Moves page to the free list which corresponds to its current free space.
+   */
+  private void updateFreePagesIndex(long pageIndex, OLocalPage.TrackMode trackMode) throws IOException {
+    freePagesLock.lock();
+    try {
+      moveToFreeList(pageIndex, trackMode, false);
+    } finally {
+      freePagesLock.unlock();
     }
   }
 
-  private void updateFreePagesIndex(int prevFreePageIndex, long pageIndex, OLocalPage.TrackMode trackMode) throws IOException {
-    long pointer = diskCache.load(fileId, pageIndex);
+  /**
+   * Should be called under {@link #freePagesLock}.
+   *
+   * @param reserve
+   *          If <code>true</code> page is removed from free lists and is not placed in any of them till the next call of this
+   *          method, in the same way as new page which is allocated by {@link #allocateNewPage(OLocalPage.TrackMode)}.
+   */
+  private void moveToFreeList(long pageIndex, OLocalPage.TrackMode trackMode, boolean reserve) throws IOException {
+    long pointer = loadPage(pageIndex, true);
     try {
       final OLocalPage localPage = new OLocalPage(pointer, false, trackMode);
 
-      int newFreePageIndex = calculateFreePageIndex(localPage);
+      final int calculatedFreePageIndex = calculateFreePageIndex(localPage);
+      final int newFreePageIndex = reserve ? -1 : calculatedFreePageIndex;
+
+      final Integer trackedFreePageIndex = pagesFreeListIndexes.remove(pageIndex);
+      final int prevFreePageIndex = trackedFreePageIndex != null ? trackedFreePageIndex : calculatedFreePageIndex;
 
       if (prevFreePageIndex == newFreePageIndex)
         return;
@@ -991,35 +1058,32 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
       long prevPageIndex = localPage.getPrevPage();
 
       if (prevPageIndex >= 0) {
-        long prevPagePointer = diskCache.load(fileId, prevPageIndex);
+        long prevPagePointer = loadPage(prevPageIndex, true);
         try {
           final OLocalPage prevPage = new OLocalPage(prevPagePointer, false, trackMode);
-          assert calculateFreePageIndex(prevPage) == prevFreePageIndex;
+          assert getFreeListIndex(prevPageIndex, prevPage) == prevFreePageIndex;
           prevPage.setNextPage(nextPageIndex);
 
           logPageChanges(prevPage, prevPageIndex);
 
         } finally {
           diskCache.markDirty(fileId, prevPageIndex);
-          diskCache.release(fileId, prevPageIndex);
+          releasePage(prevPageIndex, true);
         }
       }
 
       if (nextPageIndex >= 0) {
-        long nextPagePointer = diskCache.load(fileId, nextPageIndex);
+        long nextPagePointer = loadPage(nextPageIndex, true);
         try {
           final OLocalPage nextPage = new OLocalPage(nextPagePointer, false, trackMode);
-          if (calculateFreePageIndex(nextPage) != prevFreePageIndex)
-            calculateFreePageIndex(nextPage);
-
-          assert calculateFreePageIndex(nextPage) == prevFreePageIndex;
+          assert getFreeListIndex(nextPageIndex, nextPage) == prevFreePageIndex;
           nextPage.setPrevPage(prevPageIndex);
 
           logPageChanges(nextPage, nextPageIndex);
 
           diskCache.markDirty(fileId, nextPageIndex);
         } finally {
-          diskCache.release(fileId, nextPageIndex);
+          releasePage(nextPageIndex, true);
         }
       }
 
@@ -1037,10 +1101,10 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
       if (newFreePageIndex >= 0) {
         long oldFreePage = freePageLists[newFreePageIndex];
         if (oldFreePage >= 0) {
-          long oldFreePagePointer = diskCache.load(fileId, oldFreePage);
+          long oldFreePagePointer = loadPage(oldFreePage, true);
           try {
             final OLocalPage oldFreeLocalPage = new OLocalPage(oldFreePagePointer, false, trackMode);
-            assert calculateFreePageIndex(oldFreeLocalPage) == newFreePageIndex;
+            assert getFreeListIndex(oldFreePage, oldFreeLocalPage) == newFreePageIndex;
 
             oldFreeLocalPage.setPrevPage(pageIndex);
 
@@ -1048,7 +1112,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
 
           } finally {
             diskCache.markDirty(fileId, oldFreePage);
-            diskCache.release(fileId, oldFreePage);
+            releasePage(oldFreePage, true);
           }
 
           localPage.setNextPage(oldFreePage);
@@ -1060,9 +1124,84 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
 
       logPageChanges(localPage, pageIndex);
 
+    } finally {
+      if (reserve)
+        pagesFreeListIndexes.put(pageIndex, freePageLists.length);
+
+      diskCache.markDirty(fileId, pageIndex);
+      releasePage(pageIndex, true);
+    }
+  }
+
+  private void setNextPagePointer(long recordPointer, long nextPagePointer, OLocalPage.TrackMode trackMode) throws IOException {
+    long pageIndex = recordPointer >>> PAGE_INDEX_OFFSET;
+    int recordPosition = (int) (recordPointer & RECORD_POSITION_MASK);
+
+    long pagePointer = loadPage(pageIndex, true);
+    try {
+      final OLocalPage localPage = new OLocalPage(pagePointer, false, trackMode);
+
+      int recordPageOffset = localPage.getRecordPageOffset(recordPosition);
+      int recordSize = localPage.getRecordSize(recordPosition);
+
+      localPage.setLongValue(recordPageOffset + recordSize - OLongSerializer.LONG_SIZE, nextPagePointer);
+
+      logPageChanges(localPage, pageIndex);
     } finally {
       diskCache.markDirty(fileId, pageIndex);
+      releasePage(pageIndex, true);
+    }
+  }
+
+  private static String dataFileType() {
+    return OGlobalConfiguration.DISK_CACHE_DIRECT_IO.getValueAsBoolean() ? OFileFactory.DIRECT : OFileFactory.CLASSIC;
+  }
+
+  private void updateClusterState(long sizeDiff, long recordsSizeDiff) throws IOException {
+    synchronized (clusterStateLock) {
+      size += sizeDiff;
+      recordsSize += recordsSizeDiff;
+
+      logClusterState();
+    }
+  }
+
+  private ReadWriteLock pageLatch(long pageIndex) {
+    int hash = (int) (pageIndex ^ (pageIndex >>> 32));
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    hash ^= (hash >>> 7) ^ (hash >>> 4);
+
+    return pageLatches[hash & (PAGE_LATCHES_COUNT - 1)];
+  }
+
+  /**
+   * Loads page from disk cache and acquires its latch, page should be released by {@link #releasePage(long, boolean)}.
+   */
+  private long loadPage(long pageIndex, boolean exclusive) throws IOException {
+    final ReadWriteLock latch = pageLatch(pageIndex);
+    final Lock lock = exclusive ? latch.writeLock() : latch.readLock();
+
+    lock.lock();
+    boolean loaded = false;
+    try {
+      final long pointer = diskCache.load(fileId, pageIndex);
+      loaded = true;
+      return pointer;
+    } finally {
+      if (!loaded)
+        lock.unlock();
+    }
+  }
+
+  private void releasePage(long pageIndex, boolean exclusive) {
+    try {
       diskCache.release(fileId, pageIndex);
+    } finally {
+      final ReadWriteLock latch = pageLatch(pageIndex);
+      if (exclusive)
+        latch.writeLock().unlock();
+      else
+        latch.readLock().unlock();
     }
   }
 
@@ -1075,7 +1214,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
       OLogSequenceNumber lsn = lastLsn.get();
       assert lsn != null;
 
-      lsn = writeAheadLog.log(new OUpdatePageRecord(pageIndex, id, lsn, pageChanges));
+      lsn = writeAheadLog.log(new OUpdatePageRecord(pageIndex, id, lsn, OPageDiffCoalescer.coalesce(pageChanges)));
 
       localPage.setLsn(lsn);
       lastLsn.set(lsn);
@@ -1122,6 +1261,8 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
 
         for (int i = 0; i < freePageLists.length; i++)
           freePageLists[i] = -1;
+
+        pagesFreeListIndexes.clear();
       } finally {
         releaseExclusiveLock();
       }
@@ -1161,7 +1302,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
       if (pageIndex >= pagesCount)
         return null;
 
-      long pointer = diskCache.load(fileId, pageIndex);
+      long pointer = loadPage(pageIndex, false);
       try {
         final OLocalPage localPage = new OLocalPage(pointer, false, OLocalPage.TrackMode.NONE);
         int recordPageOffset = localPage.getRecordPageOffset(recordPosition);
@@ -1184,7 +1325,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
 
         return physicalPosition;
       } finally {
-        diskCache.release(fileId, pageIndex);
+        releasePage(pageIndex, false);
       }
 
     } finally {
@@ -1242,7 +1383,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
     try {
       long pagesCount = diskCache.getFilledUpTo(fileId);
       for (long i = pagesCount - 1; i >= 0; i--) {
-        long pagePointer = diskCache.load(fileId, i);
+        long pagePointer = loadPage(i, false);
         try {
           final OLocalPage localPage = new OLocalPage(pagePointer, false, OLocalPage.TrackMode.NONE);
           final int recordsCount = localPage.getRecordsCount();
@@ -1263,7 +1404,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
             }
           }
         } finally {
-          diskCache.release(fileId, i);
+          releasePage(i, false);
         }
       }
 
@@ -1301,6 +1442,19 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
     }
   }
 
+  /**
+   * Writes state of cluster to the disk, unlike {@link #synch()} pages of cluster are not flushed.
+   */
+  public void storeState() throws IOException {
+    acquireSharedLock();
+    try {
+      storeClusterState();
+      clusterStateHolder.synch();
+    } finally {
+      releaseSharedLock();
+    }
+  }
+
   @Override
   public void setSoftlyClosed(boolean softlyClosed) throws IOException {
     acquireExclusiveLock();
@@ -1430,7 +1584,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
   private OPhysicalPosition[] findFirstPhysicalPosition(long pageIndex, int recordPosition) throws IOException {
     long pagesCount = diskCache.getFilledUpTo(fileId);
     pageLoop: for (long i = pageIndex; i < pagesCount; i++) {
-      long pointer = diskCache.load(fileId, i);
+      long pointer = loadPage(i, false);
 
       try {
         final OLocalPage localPage = new OLocalPage(pointer, false, OLocalPage.TrackMode.NONE);
@@ -1468,7 +1622,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
         }
 
       } finally {
-        diskCache.release(fileId, i);
+        releasePage(i, false);
       }
     }
 
@@ -1486,7 +1640,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
     }
 
     pageLoop: for (long i = endPageIndex; i >= 0; i--) {
-      long pointer = diskCache.load(fileId, i);
+      long pointer = loadPage(i, false);
       try {
         final OLocalPage localPage = new OLocalPage(pointer, false, OLocalPage.TrackMode.NONE);
 
@@ -1523,7 +1677,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
         }
 
       } finally {
-        diskCache.release(fileId, i);
+        releasePage(i, false);
       }
     }
 
@@ -1577,7 +1731,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
   private boolean checkFreePages() throws IOException {
     long filledUpTo = diskCache.getFilledUpTo(fileId);
     for (long i = 0; i < filledUpTo; i++) {
-      long pointer = diskCache.load(fileId, i);
+      long pointer = loadPage(i, false);
       int freePageIndex;
       try {
         final OLocalPage page = new OLocalPage(pointer, false, OLocalPage.TrackMode.NONE);
@@ -1585,7 +1739,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
         if (freePageIndex < 0)
           continue;
       } finally {
-        diskCache.release(fileId, i);
+        releasePage(i, false);
       }
 
       if (!findInFreeList(freePageIndex, i))
@@ -1600,7 +1754,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
     long prevPageIndex = -1;
     while (pageIndex != testPageIndex && pageIndex >= 0) {
       long nextPageIndex;
-      long pointer = diskCache.load(fileId, pageIndex);
+      long pointer = loadPage(pageIndex, false);
       try {
         final OLocalPage localPage = new OLocalPage(pointer, false, OLocalPage.TrackMode.NONE);
         assert prevPageIndex == localPage.getPrevPage();
@@ -1608,7 +1762,7 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
         prevPageIndex = pageIndex;
         nextPageIndex = localPage.getNextPage();
       } finally {
-        diskCache.release(fileId, pageIndex);
+        releasePage(pageIndex, false);
       }
 
       pageIndex = nextPageIndex;
@@ -1662,14 +1816,4 @@ public class OLocalPaginatedCluster extends OSharedResourceAdaptive implements O
       this.recordsSizeDiff = recordsSizeDiff;
     }
   }
-
-  private static final class FindFreePageResult {
-    private final long pageIndex;
-    private final int  freePageIndex;
-
-    private FindFreePageResult(long pageIndex, int freePageIndex) {
-      this.pageIndex = pageIndex;
-      this.freePageIndex = freePageIndex;
-    }
-  }
 }
@@ -19,15 +19,24 @@ package com.orientechnologies.orient.core.storage.impl.local.paginated;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
@@ -48,6 +57,7 @@ import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.config.OStorageClusterConfiguration;
 import com.orientechnologies.orient.core.config.OStorageConfiguration;
 import com.orientechnologies.orient.core.config.OStoragePhysicalClusterConfigurationLocal;
+import com.orientechnologies.orient.core.config.OStorageSegmentConfiguration;
 import com.orientechnologies.orient.core.db.record.ORecordOperation;
 import com.orientechnologies.orient.core.engine.local.OEngineLocal;
 import com.orientechnologies.orient.core.engine.local.OEngineLocalPaginated;
@@ -58,9 +68,16 @@ import com.orientechnologies.orient.core.exception.OStorageException;
 import com.orientechnologies.orient.core.id.OClusterPosition;
 import com.orientechnologies.orient.core.id.ORID;
 import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.index.OIndexInternal;
+import com.orientechnologies.orient.core.index.OIndexMVRBTreeAbstract;
+import com.orientechnologies.orient.core.index.OIndexManager;
+import com.orientechnologies.orient.core.index.hashindex.local.OAbstractLocalHashIndex;
 import com.orientechnologies.orient.core.index.hashindex.local.cache.O2QCache;
 import com.orientechnologies.orient.core.index.hashindex.local.cache.ODiskCache;
 import com.orientechnologies.orient.core.index.hashindex.local.cache.OPageDataVerificationError;
+import com.orientechnologies.orient.core.index.sbtree.local.OAbstractLocalSBTreeIndex;
+import com.orientechnologies.orient.core.index.sbtree.local.OSBTree;
 import com.orientechnologies.orient.core.memory.OMemoryWatchDog;
 import com.orientechnologies.orient.core.metadata.OMetadata;
 import com.orientechnologies.orient.core.storage.OCluster;
@@ -72,11 +89,14 @@ import com.orientechnologies.orient.core.storage.OStorage;
 import com.orientechnologies.orient.core.storage.OStorageOperationResult;
 import com.orientechnologies.orient.core.storage.impl.local.OClusterLocal;
 import com.orientechnologies.orient.core.storage.impl.local.ODataLocal;
+import com.orientechnologies.orient.core.storage.impl.local.OMultiFileSegment;
 import com.orientechnologies.orient.core.storage.impl.local.OStorageConfigurationSegment;
 import com.orientechnologies.orient.core.storage.impl.local.OStorageLocalAbstract;
 import com.orientechnologies.orient.core.storage.impl.local.OStorageVariableParser;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OAbstractCheckPointStartRecord;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OAbstractPageWALRecord;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OAtomicUnitEndRecord;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OAtomicUnitStartRecord;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OCheckpointEndRecord;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OClusterStateRecord;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.ODirtyPage;
@@ -87,6 +107,7 @@ import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OFuzzy
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OLogSequenceNumber;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OWALRecord;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OWriteAheadLog;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OFileUpdatePageRecord;
 import com.orientechnologies.orient.core.tx.OTransaction;
 import com.orientechnologies.orient.core.version.ORecordVersion;
 import com.orientechnologies.orient.core.version.OVersionFactory;
@@ -107,6 +128,9 @@ public class OLocalPaginatedStorage extends OStorageLocalAbstract {
   private final OStorageVariableParser              variableParser;
   private int                                       defaultClusterId        = -1;
 
+  private static final int                          RESTORE_QUEUE_SIZE      = 1024;
+  private static final long                         RESTORE_REPORT_INTERVAL = 10000;
+
   private static String[]                           ALL_FILE_EXTENSIONS     = { ".ocf", ".pls", ".pcl", ".oda", ".odh", ".otx",
       ".ocs", ".oef", ".oem", ".oet", ".wal", ".wmr"                       };
 
@@ -115,6 +139,12 @@ public class OLocalPaginatedStorage extends OStorageLocalAbstract {
   private ODiskCache                                diskCache;
   private OWriteAheadLog                            writeAheadLog;
 
+  /**
+   * Files which do not belong to clusters, like files of indexes, are opened on demand during restore from WAL and closed when
+   * restore is completed.
+   */
+  private final Map<String, Long>                   restoredFiles           = new HashMap<String, Long>();
+
   private final ScheduledExecutorService            fuzzyCheckpointExecutor = Executors
                                                                                 .newSingleThreadScheduledExecutor(new ThreadFactory() {
                                                                                   @Override
@@ -179,7 +209,18 @@ public class OLocalPaginatedStorage extends OStorageLocalAbstract {
 
     diskCache = new O2QCache(OGlobalConfiguration.DISK_CACHE_SIZE.getValueAsLong() * ONE_KB * ONE_KB,
         OGlobalConfiguration.DISK_CACHE_WRITE_QUEUE_LENGTH.getValueAsInteger(), directMemory, writeAheadLog,
-        OGlobalConfiguration.DISK_CACHE_PAGE_SIZE.getValueAsInteger() * ONE_KB, this, false);
+        OGlobalConfiguration.DISK_CACHE_PAGE_SIZE.getValueAsInteger() * ONE_KB, this, false,
+        OGlobalConfiguration.DISK_CACHE_CONCURRENCY_LEVEL.getValueAsInteger(),
+        OGlobalConfiguration.DISK_CACHE_WRITE_BEHIND_INTERVAL.getValueAsInteger(),
+        OGlobalConfiguration.DISK_CACHE_READ_AHEAD.getValueAsInteger(),
+        OGlobalConfiguration.DISK_CACHE_VERIFY_PAGES.getValueAsBoolean(),
+        OGlobalConfiguration.DISK_CACHE_SCRUBBER_RATE.getValueAsInteger(),
+        OGlobalConfiguration.DISK_CACHE_AUTHORITATIVE.getValueAsBoolean());
+
+    if (OGlobalConfiguration.DISK_CACHE_AUTHORITATIVE.getValueAsBoolean())
+      OLogManager.instance().info(this,
+          "Pages of storage %s bypass OS file cache, disk cache of %d megabytes is the only cache of storage pages", name,
+          OGlobalConfiguration.DISK_CACHE_SIZE.getValueAsLong());
   }
 
   public void open(final String iUserName, final String iUserPassword, final Map<String, Object> iProperties) {
@@ -245,6 +286,9 @@ public class OLocalPaginatedStorage extends OStorageLocalAbstract {
   }
 
   private void restoreIfNeeded() throws IOException {
+    if (restoreFromBackupIfNeeded())
+      return;
+
     boolean wasSoftlyClosed = true;
     for (OCluster cluster : clusters)
       if (cluster != null && !cluster.wasSoftlyClosed())
@@ -258,6 +302,31 @@ public class OLocalPaginatedStorage extends OStorageLocalAbstract {
 
   }
 
+  /**
+   * Storage which was restored from backup contains pages copied at different moments of time, they are made consistent by
+   * records of the WAL which were written together with backup.
+   * 
+   * @return <code>true</code> if storage was restored from backup.
+   */
+  private boolean restoreFromBackupIfNeeded() throws IOException {
+    if (!new File(getStoragePath(), OLocalPaginatedStorageBackup.WAL_RECORDS_FILE_NAME).exists())
+      return false;
+
+    if (writeAheadLog == null)
+      throw new OStorageException("Storage " + name
+          + " was restored from backup, but restore can not be completed because write ahead logging is switched off.");
+
+    OLogManager.instance().info(this, "Storage %s was restored from backup, records of write ahead log from backup will be applied.",
+        name);
+
+    final OLogSequenceNumber lsn = OLocalPaginatedStorageBackup.appendWALRecords(getStoragePath(), writeAheadLog);
+    if (lsn != null)
+      restoreFrom(lsn);
+
+    OLocalPaginatedStorageBackup.deleteWALRecords(getStoragePath());
+    return true;
+  }
+
   private void restoreFromWAL() throws IOException {
     if (writeAheadLog == null) {
       OLogManager.instance().error(this, "Restore is not possible because write ahead logging is switched off.");
@@ -275,6 +344,7 @@ public class OLocalPaginatedStorage extends OStorageLocalAbstract {
     if (lastCheckPoint == null) {
       OLogManager.instance().info(this, "Checkpoints are absent will restore from beginning.");
       restoreFromBegging();
+      return;
     }
 
     OWALRecord checkPointRecord = writeAheadLog.read(lastCheckPoint);
@@ -417,31 +487,172 @@ public class OLocalPaginatedStorage extends OStorageLocalAbstract {
   }
 
   private void restoreFrom(OLogSequenceNumber lsn) throws IOException {
-    while (lsn != null) {
-      OWALRecord walRecord = writeAheadLog.read(lsn);
-      if (walRecord instanceof OAbstractPageWALRecord)
-        restorePageWALRecord((OAbstractPageWALRecord) walRecord);
-      else if (walRecord instanceof OClusterStateRecord)
-        restoreClusterStateWALRecord((OClusterStateRecord) walRecord);
-      else if (walRecord instanceof OAbstractCheckPointStartRecord) {
-        // skip it
-      } else if (walRecord instanceof OCheckpointEndRecord) {
-        // skip it
-      } else if (walRecord instanceof OFuzzyCheckpointEndRecord) {
-        // skip it
-      } else if (walRecord instanceof ODirtyPagesRecord) {
-        // skip it
-      } else {
-        OLogManager.instance().error(this, "Unknown log record %s, will skip it.", walRecord.getClass().getName());
+    final int restoreThreads = OGlobalConfiguration.WAL_RESTORE_THREADS.getValueAsInteger();
+
+    final long timer = Orient.instance().getProfiler().startChrono();
+    final PageRestoreWorker[] workers = new PageRestoreWorker[Math.max(restoreThreads, 0)];
+    ExecutorService restoreExecutor = null;
+
+    if (workers.length > 1) {
+      restoreExecutor = Executors.newFixedThreadPool(workers.length, new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r);
+          thread.setDaemon(true);
+          thread.setName("WAL restore task");
+          return thread;
+        }
+      });
+
+      for (int i = 0; i < workers.length; i++) {
+        workers[i] = new PageRestoreWorker();
+        workers[i].future = restoreExecutor.submit(workers[i]);
+      }
+    }
+
+    long restoredRecords = 0;
+    long reportedRecords = 0;
+    long reportTime = System.currentTimeMillis();
+
+    boolean completed = false;
+    try {
+      while (lsn != null) {
+        OWALRecord walRecord = writeAheadLog.read(lsn);
+        if (walRecord instanceof OAbstractPageWALRecord) {
+          final OAbstractPageWALRecord pageRecord = (OAbstractPageWALRecord) walRecord;
+          if (restoreExecutor == null)
+            restorePageWALRecord(pageRecord);
+          else
+            workers[pageWorkerIndex(pageRecord, workers.length)].add(pageRecord);
+        } else if (walRecord instanceof OClusterStateRecord)
+          restoreClusterStateWALRecord((OClusterStateRecord) walRecord);
+        else if (walRecord instanceof OAbstractCheckPointStartRecord) {
+          // skip it
+        } else if (walRecord instanceof OCheckpointEndRecord) {
+          // skip it
+        } else if (walRecord instanceof OFuzzyCheckpointEndRecord) {
+          // skip it
+        } else if (walRecord instanceof ODirtyPagesRecord) {
+          // skip it
+        } else if (walRecord instanceof OAtomicUnitStartRecord || walRecord instanceof OAtomicUnitEndRecord) {
+          // skip it
+        } else {
+          OLogManager.instance().error(this, "Unknown log record %s, will skip it.", walRecord.getClass().getName());
+        }
+
+        restoredRecords++;
+        if ((restoredRecords & 0x3FF) == 0) {
+          final long now = System.currentTimeMillis();
+          if (now - reportTime >= RESTORE_REPORT_INTERVAL) {
+            OLogManager.instance().info(this, "%d WAL records are processed, %d records per second, current LSN is %s.",
+                restoredRecords, (restoredRecords - reportedRecords) * 1000 / (now - reportTime), lsn);
+
+            Orient.instance().getProfiler()
+                .updateCounter("db." + name + ".walRestore.records", "Number of WAL records processed during restore",
+                    restoredRecords - reportedRecords, "db.*.walRestore.records");
+
+            reportedRecords = restoredRecords;
+            reportTime = now;
+          }
+        }
+
+        lsn = writeAheadLog.next(lsn);
+      }
+
+      completed = true;
+    } finally {
+      try {
+        if (restoreExecutor != null)
+          finishRestoreWorkers(workers, restoreExecutor, completed);
+      } finally {
+        closeRestoredFiles();
+      }
+    }
+
+    Orient.instance().getProfiler()
+        .updateCounter("db." + name + ".walRestore.records", "Number of WAL records processed during restore",
+            restoredRecords - reportedRecords, "db.*.walRestore.records");
+    Orient.instance().getProfiler()
+        .stopChrono("db." + name + ".walRestore", "Restore storage from write ahead log", timer, "db.*.walRestore");
+
+    OLogManager.instance().info(this, "Restore of storage %s is completed, %d WAL records are processed.", name, restoredRecords);
+  }
+
+  /**
+   * Waits till all workers apply queued records, so restored files are not closed while they are used by workers. If records
+   * were not read till the end, errors of workers are only logged, so they do not hide the error which interrupted restore.
+   */
+  private void finishRestoreWorkers(PageRestoreWorker[] workers, ExecutorService restoreExecutor, boolean completed)
+      throws IOException {
+    for (PageRestoreWorker worker : workers)
+      worker.finish();
+
+    restoreExecutor.shutdown();
+
+    Throwable error = null;
+    for (PageRestoreWorker worker : workers) {
+      Throwable workerError = null;
+      try {
+        worker.future.get();
+      } catch (InterruptedException e) {
+        Thread.interrupted();
+        workerError = new OStorageException("Thread was interrupted during restore of storage " + name, e);
+      } catch (ExecutionException e) {
+        workerError = e.getCause();
       }
 
-      lsn = writeAheadLog.next(lsn);
+      if (workerError == null)
+        continue;
+
+      if (error == null && completed)
+        error = workerError;
+      else
+        OLogManager.instance().error(this, "Error during restore of storage %s", workerError, name);
+    }
+
+    if (error == null)
+      return;
+
+    if (error instanceof IOException)
+      throw (IOException) error;
+    if (error instanceof OStorageException)
+      throw (OStorageException) error;
+
+    throw new OStorageException("Error during restore of storage " + name, error);
+  }
+
+  private void closeRestoredFiles() throws IOException {
+    synchronized (restoredFiles) {
+      for (long fileId : restoredFiles.values())
+        diskCache.closeFile(fileId);
+
+      restoredFiles.clear();
     }
   }
 
+  /**
+   * Records of the same page are always applied by the same worker, so they are applied in the same order in which they were
+   * logged.
+   */
+  private static int pageWorkerIndex(OAbstractPageWALRecord pageRecord, int workers) {
+    final long pageIndex = pageRecord.getPageIndex();
+
+    final int fileHash;
+    if (pageRecord instanceof OFileUpdatePageRecord)
+      fileHash = ((OFileUpdatePageRecord) pageRecord).getFileName().hashCode();
+    else
+      fileHash = pageRecord.getClusterId();
+
+    int hash = 31 * fileHash + (int) (pageIndex ^ (pageIndex >>> 32));
+    hash ^= (hash >>> 20) ^ (hash >>> 12);
+    hash ^= (hash >>> 7) ^ (hash >>> 4);
+
+    return (hash & Integer.MAX_VALUE) % workers;
+  }
+
   private void restoreClusterStateWALRecord(OClusterStateRecord clusterStateRecord) {
     int clusterId = clusterStateRecord.getClusterId();
-    OLocalPaginatedCluster cluster = getClusterById(clusterId);
+    OLocalPaginatedCluster cluster = getRestoredCluster(clusterId);
 
     if (cluster == null)
       OLogManager.instance().error(this, "Cluster with id %d is absent, log record will be skipped.", clusterId);
@@ -450,8 +661,13 @@ public class OLocalPaginatedStorage extends OStorageLocalAbstract {
   }
 
   private void restorePageWALRecord(OAbstractPageWALRecord pageRecord) throws IOException {
+    if (pageRecord instanceof OFileUpdatePageRecord) {
+      restoreFilePageWALRecord((OFileUpdatePageRecord) pageRecord);
+      return;
+    }
+
     int clusterId = pageRecord.getClusterId();
-    OLocalPaginatedCluster cluster = getClusterById(clusterId);
+    OLocalPaginatedCluster cluster = getRestoredCluster(clusterId);
 
     if (cluster == null)
       OLogManager.instance().error(this, "Cluster with id %d is absent, log record will be skipped.", clusterId);
@@ -459,6 +675,109 @@ public class OLocalPaginatedStorage extends OStorageLocalAbstract {
       cluster.restorePage(pageRecord);
   }
 
+  private void restoreFilePageWALRecord(OFileUpdatePageRecord pageRecord) throws IOException {
+    final Long fileId = getRestoredFile(pageRecord.getFileName(), pageRecord.getFileExtension());
+    if (fileId == null) {
+      OLogManager.instance().error(this, "File %s%s is absent, log record will be skipped.", pageRecord.getFileName(),
+          pageRecord.getFileExtension());
+      return;
+    }
+
+    final long pageIndex = pageRecord.getPageIndex();
+    final long pagePointer = diskCache.load(fileId, pageIndex);
+    try {
+      // HEADER OF PAGES OF FILES HAS THE SAME LAYOUT AS HEADER OF PAGES OF CLUSTERS
+      final OLocalPage page = new OLocalPage(pagePointer, false, OLocalPage.TrackMode.NONE);
+      page.setLsn(pageRecord.getLsn());
+      page.restoreChanges(pageRecord.getChanges());
+    } finally {
+      diskCache.markDirty(fileId, pageIndex);
+      diskCache.release(fileId, pageIndex);
+    }
+  }
+
+  /**
+   * Files are opened only if they exist, so records of files which were deleted after they were logged are skipped.
+   */
+  private Long getRestoredFile(String fileName, String fileExtension) throws IOException {
+    synchronized (restoredFiles) {
+      final String key = fileName + fileExtension;
+
+      Long fileId = restoredFiles.get(key);
+      if (fileId != null)
+        return fileId;
+
+      final OStorageSegmentConfiguration fileConfiguration = OSBTree.createFileConfiguration(configuration, fileName);
+      if (!new OMultiFileSegment(this, fileConfiguration, fileExtension, 0).exists())
+        return null;
+
+      fileId = diskCache.openFile(fileConfiguration, fileExtension);
+      restoredFiles.put(key, fileId);
+
+      return fileId;
+    }
+  }
+
+  /**
+   * Restore is performed by {@link #open} which holds exclusive lock of storage, so clusters are read without lock, otherwise
+   * workers of parallel restore would wait for this lock forever.
+   */
+  private OLocalPaginatedCluster getRestoredCluster(int clusterId) {
+    if (clusterId < 0 || clusterId >= clusters.length)
+      return null;
+
+    return clusters[clusterId];
+  }
+
+  private final class PageRestoreWorker implements Callable<Void> {
+    private final BlockingQueue<OAbstractPageWALRecord> records = new ArrayBlockingQueue<OAbstractPageWALRecord>(
+                                                                    RESTORE_QUEUE_SIZE);
+    private volatile boolean                            finished;
+    private Future<Void>                                future;
+
+    private void add(OAbstractPageWALRecord pageRecord) {
+      try {
+        records.put(pageRecord);
+      } catch (InterruptedException e) {
+        Thread.interrupted();
+        throw new OStorageException("Thread was interrupted during restore of storage " + name, e);
+      }
+    }
+
+    private void finish() {
+      finished = true;
+    }
+
+    @Override
+    public Void call() throws Exception {
+      Exception error = null;
+
+      while (true) {
+        final OAbstractPageWALRecord pageRecord = records.poll(100, TimeUnit.MILLISECONDS);
+        if (pageRecord == null) {
+          if (finished && records.isEmpty())
+            break;
+
+          continue;
+        }
+
+        // queue is still drained after failure, so reader of WAL is never blocked
+        if (error == null) {
+          try {
+            restorePageWALRecord(pageRecord);
+          } catch (Exception e) {
+            error = e;
+          }
+        }
+      }
+
+      if (error != null)
+        throw error;
+
+      return null;
+    }
+  }
+
   public void create(final Map<String, Object> iProperties) {
     lock.acquireExclusiveLock();
     try {
@@ -1481,6 +1800,137 @@ public class OLocalPaginatedStorage extends OStorageLocalAbstract {
     modificationLock.allowModifications();
   }
 
+  /**
+   * Makes physical backup of storage. Storage remains accessible for reads and writes during backup. Storage and indexes are
+   * locked only for a short time at the beginning of backup, to find LSN from which records of the WAL should be included in
+   * backup, and at the end of backup, to flush indexes which are not logged to the WAL and to copy files of hash indexes and
+   * states of clusters.
+   * 
+   * @param sinceLsn
+   *          LSN returned by previous backup, only pages changed after it are written, or <code>null</code> if full backup
+   *          should be done.
+   * @return LSN which should be passed to the next incremental backup.
+   * @see OLocalPaginatedStorageBackup
+   */
+  public OLogSequenceNumber backup(OutputStream out, OLogSequenceNumber sinceLsn) {
+    if (writeAheadLog == null)
+      throw new OStorageException("Backup of storage '" + name + "' is impossible because WAL is switched off");
+
+    try {
+      final OLocalPaginatedStorageBackup backup = new OLocalPaginatedStorageBackup(getStoragePath(), out);
+      final List<OIndexInternal<?>> indexes = prepareIndexesToFreeze();
+
+      // pages changed before backup are written first, so backup does not need records of the WAL which were logged long ago
+      writeAheadLog.flush();
+      diskCache.writeDirtyPages();
+
+      final OLogSequenceNumber startLsn;
+      freezeIndexes(indexes);
+      try {
+        lock.acquireExclusiveLock();
+        try {
+          startLsn = getBackupStartLsn();
+        } finally {
+          lock.releaseExclusiveLock();
+        }
+      } finally {
+        releaseIndexes(indexes);
+      }
+
+      backup.writeHeader(sinceLsn, startLsn);
+      backup.writeStorageFiles();
+
+      final OLogSequenceNumber endLsn;
+      freezeIndexes(indexes);
+      try {
+        for (OIndexInternal<?> index : indexes)
+          if (!(index instanceof OAbstractLocalSBTreeIndex))
+            index.flush();
+
+        backup.writeHashIndexFiles();
+
+        lock.acquireExclusiveLock();
+        try {
+          for (OLocalPaginatedCluster cluster : clusters)
+            if (cluster != null)
+              cluster.storeState();
+          configuration.synch();
+
+          backup.writeStateFiles();
+
+          writeAheadLog.flush();
+          endLsn = writeAheadLog.getFlushedLSN();
+        } finally {
+          lock.releaseExclusiveLock();
+        }
+      } finally {
+        releaseIndexes(indexes);
+      }
+
+      backup.writeWALRecords(writeAheadLog, startLsn, endLsn);
+      backup.end();
+
+      return startLsn;
+    } catch (IOException e) {
+      throw new OStorageException("Error on backup of storage '" + name + "'", e);
+    }
+  }
+
+  /**
+   * Changes which were logged before returned LSN are already on the disk, pages which are changed after it are found in dirty
+   * pages table. Storage and indexes should be locked, so changes which are logged but are not applied to the pages yet are
+   * absent.
+   */
+  private OLogSequenceNumber getBackupStartLsn() throws IOException {
+    final Set<ODirtyPage> dirtyPages = diskCache.logDirtyPagesTable();
+    writeAheadLog.flush();
+
+    OLogSequenceNumber startLsn = writeAheadLog.getFlushedLSN();
+    for (ODirtyPage dirtyPage : dirtyPages)
+      if (startLsn == null || dirtyPage.getLsn().compareTo(startLsn) < 0)
+        startLsn = dirtyPage.getLsn();
+
+    final OLogSequenceNumber begin = writeAheadLog.begin();
+    if (startLsn != null && begin != null && startLsn.compareTo(begin) < 0)
+      startLsn = begin;
+
+    return startLsn;
+  }
+
+  private static void freezeIndexes(List<OIndexInternal<?>> indexes) {
+    for (OIndexInternal<?> index : indexes)
+      index.freeze(false);
+  }
+
+  private static void releaseIndexes(List<OIndexInternal<?>> indexes) {
+    for (OIndexInternal<?> index : indexes)
+      index.release();
+  }
+
+  /**
+   * Returns indexes which are stored in this storage sorted by name, so they are always locked in the same order.
+   */
+  private List<OIndexInternal<?>> prepareIndexesToFreeze() {
+    final List<OIndexInternal<?>> indexes = new ArrayList<OIndexInternal<?>>();
+    if (!existsResource(OIndexManager.class.getSimpleName()))
+      return indexes;
+
+    final OIndexManager indexManager = getResource(OIndexManager.class.getSimpleName(), null);
+    for (OIndex<?> index : indexManager.getIndexes()) {
+      final OIndexInternal<?> internal = index.getInternal();
+      if (internal instanceof OIndexMVRBTreeAbstract || internal instanceof OAbstractLocalSBTreeIndex
+          || internal instanceof OAbstractLocalHashIndex)
+        indexes.add(internal);
+    }
+
+    Collections.sort(indexes, new Comparator<OIndex<?>>() {
+      public int compare(OIndex<?> o1, OIndex<?> o2) {
+        return o1.getName().compareTo(o2.getName());
+      }
+    });
+    return indexes;
+  }
+
   public boolean isClusterSoftlyClosed(String clusterName) {
     lock.acquireSharedLock();
     try {
@@ -0,0 +1,476 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.orientechnologies.orient.core.storage.impl.local.paginated;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileFilter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import com.orientechnologies.common.directmemory.ODirectMemory;
+import com.orientechnologies.common.directmemory.ODirectMemoryFactory;
+import com.orientechnologies.common.serialization.types.OIntegerSerializer;
+import com.orientechnologies.orient.core.exception.OStorageException;
+import com.orientechnologies.orient.core.index.hashindex.local.OAbstractLocalHashIndex;
+import com.orientechnologies.orient.core.index.hashindex.local.cache.O2QCache;
+import com.orientechnologies.orient.core.index.sbtree.local.OAbstractLocalSBTreeIndex;
+import com.orientechnologies.orient.core.storage.fs.OFileClassic;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OAbstractPageWALRecord;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OClusterStateRecord;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OLogSequenceNumber;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OWALRecord;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OWALRecordsFactory;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OWriteAheadLog;
+
+/**
+ * Physical backup of paginated storage which is made while storage is modified.
+ *
+ * Files are copied as they are on the disk, so copy is fuzzy: pages may be copied before or after changes made during backup.
+ * To make backup consistent, records of the WAL starting from LSN taken at the beginning of backup are written after files, and
+ * are applied to the storage when it is opened first time after restore. Pages of clusters, trees and hash indexes are written
+ * page by page, and if backup is incremental only pages which LSN is not less than LSN of previous backup are written. Hash
+ * indexes are not logged to the WAL, so their files are written while indexes are frozen by {@link #writeHashIndexFiles()}.
+ * All other files of storage are small but are rewritten in place, so they are written as whole by {@link #writeStateFiles()}
+ * while storage is locked.
+ *
+ * Storage is restored by {@link #restore(String, List)} from full backup and chain of incremental backups made after it.
+ */
+public class OLocalPaginatedStorageBackup {
+  /**
+   * Records of the WAL from the last restored backup, they are appended to the WAL of restored storage and applied when storage
+   * is opened.
+   */
+  public static final String     WAL_RECORDS_FILE_NAME  = "backup.wrs";
+
+  private static final int       BACKUP_VERSION         = 2;
+
+  private static final byte      END_OF_BACKUP          = 0;
+  private static final byte      WHOLE_FILE             = 1;
+  private static final byte      PAGED_FILE             = 2;
+  private static final byte      WAL_RECORD             = 3;
+
+  private static final int       LSN_HEADER_SIZE        = 32;
+  private static final int       COPY_BUFFER_SIZE       = 64 * 1024;
+
+  private static final int       MAX_PAGE_READ_ATTEMPTS = 100;
+
+  private final ODirectMemory    directMemory           = ODirectMemoryFactory.INSTANCE.directMemory();
+
+  private final File             storageDirectory;
+  private final int              pageSize;
+
+  private final DataOutputStream out;
+  private OLogSequenceNumber     sinceLsn;
+
+  public OLocalPaginatedStorageBackup(String storagePath, OutputStream outputStream) {
+    this.storageDirectory = new File(storagePath);
+    this.pageSize = OLocalPage.PAGE_SIZE;
+    this.out = new DataOutputStream(new BufferedOutputStream(outputStream));
+  }
+
+  /**
+   * @param sinceLsn
+   *          LSN of previous backup, or <code>null</code> if full backup should be done.
+   * @param backupLsn
+   *          LSN from which records of the WAL are written by this backup, it will be used to create next incremental backup.
+   */
+  public void writeHeader(OLogSequenceNumber sinceLsn, OLogSequenceNumber backupLsn) throws IOException {
+    this.sinceLsn = sinceLsn;
+
+    out.writeInt(BACKUP_VERSION);
+    out.writeInt(pageSize);
+    writeLsn(out, sinceLsn);
+    writeLsn(out, backupLsn);
+  }
+
+  /**
+   * Writes paged files of clusters and trees. Storage may be modified while files are written.
+   */
+  public void writeStorageFiles() throws IOException {
+    writeFiles(new FileFilter() {
+      public boolean accept(File file) {
+        return isPagedFile(file.getName()) && !isHashIndexFile(file.getName());
+      }
+    });
+  }
+
+  /**
+   * Writes files of hash indexes, hash indexes should be flushed and frozen till this method is completed.
+   */
+  public void writeHashIndexFiles() throws IOException {
+    writeFiles(new FileFilter() {
+      public boolean accept(File file) {
+        return isHashIndexFile(file.getName());
+      }
+    });
+  }
+
+  /**
+   * Writes files of storage configuration and states of clusters, storage should be locked till this method is completed.
+   */
+  public void writeStateFiles() throws IOException {
+    writeFiles(new FileFilter() {
+      public boolean accept(File file) {
+        return !isPagedFile(file.getName()) && !isHashIndexFile(file.getName());
+      }
+    });
+  }
+
+  /**
+   * Writes records of the WAL which are needed to make copied pages consistent. Only records which are applied during restore
+   * from the WAL are written.
+   * 
+   * @param startLsn
+   *          LSN of the first record which should be written.
+   * @param endLsn
+   *          LSN of the last record which should be written, all changes of copied files should be logged before it.
+   */
+  public void writeWALRecords(OWriteAheadLog writeAheadLog, OLogSequenceNumber startLsn, OLogSequenceNumber endLsn)
+      throws IOException {
+    OLogSequenceNumber lsn = startLsn;
+    while (lsn != null && lsn.compareTo(endLsn) <= 0) {
+      final OWALRecord walRecord = writeAheadLog.read(lsn);
+      if (walRecord == null)
+        throw new OStorageException("Record of WAL with LSN " + lsn + " which is needed for backup is absent");
+
+      if (walRecord instanceof OAbstractPageWALRecord || walRecord instanceof OClusterStateRecord) {
+        final byte[] content = OWALRecordsFactory.INSTANCE.toStream(walRecord);
+
+        out.writeByte(WAL_RECORD);
+        out.writeInt(content.length);
+        out.write(content);
+      }
+
+      lsn = writeAheadLog.next(lsn);
+    }
+  }
+
+  public void end() throws IOException {
+    out.writeByte(END_OF_BACKUP);
+    out.flush();
+  }
+
+  /**
+   * Restores storage from full backup and chain of incremental backups, which should be passed in the same order as they were
+   * created. Storage should be closed during restore, files of storage which are absent in last backup are deleted together
+   * with WAL. Records of the WAL which are written by the last backup are applied when storage is opened.
+   */
+  public static void restore(String storagePath, List<InputStream> backups) throws IOException {
+    final File storageDirectory = new File(storagePath);
+    if (!storageDirectory.exists() && !storageDirectory.mkdirs())
+      throw new OStorageException("Can not create storage directory " + storagePath);
+
+    OLogSequenceNumber prevBackupLsn = null;
+    boolean firstBackup = true;
+
+    for (InputStream backup : backups) {
+      final DataInputStream in = new DataInputStream(new BufferedInputStream(backup));
+
+      final int version = in.readInt();
+      if (version != BACKUP_VERSION)
+        throw new OStorageException("Backup version " + version + " is not supported");
+
+      final int pageSize = in.readInt();
+      final OLogSequenceNumber sinceLsn = readLsn(in);
+      final OLogSequenceNumber backupLsn = readLsn(in);
+
+      if (firstBackup && sinceLsn != null)
+        throw new OStorageException("Restore should be started from full backup, but incremental backup was passed");
+
+      if (!firstBackup && (sinceLsn == null || !sinceLsn.equals(prevBackupLsn)))
+        throw new OStorageException("Incremental backup since LSN " + sinceLsn + " does not follow backup with LSN "
+            + prevBackupLsn);
+
+      final Set<String> restoredFiles = new HashSet<String>();
+      restoredFiles.add(WAL_RECORDS_FILE_NAME);
+
+      // only records of the last backup are applied, previous backups are covered by pages of backups which follow them
+      final DataOutputStream walRecords = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(new File(
+          storageDirectory, WAL_RECORDS_FILE_NAME))));
+      try {
+        byte entryType = in.readByte();
+        while (entryType != END_OF_BACKUP) {
+          if (entryType == WAL_RECORD) {
+            final byte[] content = new byte[in.readInt()];
+            in.readFully(content);
+
+            walRecords.writeInt(content.length);
+            walRecords.write(content);
+          } else {
+            final String fileName = in.readUTF();
+            restoredFiles.add(fileName);
+
+            final File file = new File(storageDirectory, fileName);
+            if (entryType == WHOLE_FILE)
+              restoreWholeFile(in, file);
+            else if (entryType == PAGED_FILE)
+              restorePagedFile(in, file, pageSize);
+            else
+              throw new OStorageException("Backup is broken, unknown entry type " + entryType);
+          }
+
+          entryType = in.readByte();
+        }
+      } finally {
+        walRecords.close();
+      }
+
+      final File[] files = storageDirectory.listFiles();
+      if (files != null)
+        for (File file : files)
+          if (file.isFile() && !restoredFiles.contains(file.getName()) && !file.delete())
+            throw new OStorageException("Can not delete file " + file + " which is absent in backup");
+
+      prevBackupLsn = backupLsn;
+      firstBackup = false;
+    }
+  }
+
+  /**
+   * Appends records of the WAL which were stored by {@link #restore(String, List)} to the WAL of restored storage.
+   * 
+   * @return LSN of the first appended record, or <code>null</code> if backup does not contain records of the WAL.
+   */
+  public static OLogSequenceNumber appendWALRecords(String storagePath, OWriteAheadLog writeAheadLog) throws IOException {
+    final File walRecordsFile = new File(storagePath, WAL_RECORDS_FILE_NAME);
+    OLogSequenceNumber firstLsn = null;
+
+    final DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(walRecordsFile)));
+    try {
+      long remaining = walRecordsFile.length();
+      while (remaining > 0) {
+        final byte[] content = new byte[in.readInt()];
+        in.readFully(content);
+
+        final OLogSequenceNumber lsn = writeAheadLog.log(OWALRecordsFactory.INSTANCE.fromStream(content));
+        if (firstLsn == null)
+          firstLsn = lsn;
+
+        remaining -= OIntegerSerializer.INT_SIZE + content.length;
+      }
+    } finally {
+      in.close();
+    }
+
+    return firstLsn;
+  }
+
+  /**
+   * Is called when records of the WAL stored by {@link #restore(String, List)} are applied to the storage.
+   */
+  public static void deleteWALRecords(String storagePath) {
+    final File walRecordsFile = new File(storagePath, WAL_RECORDS_FILE_NAME);
+    if (walRecordsFile.exists() && !walRecordsFile.delete())
+      throw new OStorageException("Can not delete file " + walRecordsFile + " of restored backup");
+  }
+
+  private void writeFiles(FileFilter filter) throws IOException {
+    final File[] files = storageDirectory.listFiles();
+    if (files == null)
+      throw new OStorageException("Can not list files of storage directory " + storageDirectory);
+
+    final long lsnPointer = directMemory.allocate(LSN_HEADER_SIZE);
+    try {
+      for (File file : files) {
+        final String fileName = file.getName();
+        if (!file.isFile() || isWALFile(fileName) || !filter.accept(file))
+          continue;
+
+        if (isPagedFile(fileName))
+          writePagedFile(file, lsnPointer);
+        else
+          writeWholeFile(file);
+      }
+    } finally {
+      directMemory.free(lsnPointer);
+    }
+  }
+
+  private void writePagedFile(File file, long lsnPointer) throws IOException {
+    final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      // header is read before length of file, so pages which are added later are not counted in it and are restored from WAL
+      final byte[] header = new byte[(int) Math.min(OFileClassic.readHeaderSize(randomAccessFile), randomAccessFile.length())];
+      randomAccessFile.seek(0);
+      randomAccessFile.readFully(header);
+
+      final long fileLength = randomAccessFile.length();
+
+      out.writeByte(PAGED_FILE);
+      out.writeUTF(file.getName());
+      out.writeLong(fileLength);
+
+      writeChunk(out, 0, header);
+
+      final byte[] page = new byte[pageSize];
+      for (long position = header.length; position + pageSize <= fileLength; position += pageSize) {
+        readPage(randomAccessFile, position, page, file);
+
+        if (sinceLsn == null || getPageLsn(page, lsnPointer).compareTo(sinceLsn) >= 0)
+          writeChunk(out, position, page);
+      }
+
+      out.writeLong(-1);
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  /**
+   * Page which is read while it is written by disk cache has broken checksum, such page is read again till write is completed.
+   */
+  private void readPage(RandomAccessFile randomAccessFile, long position, byte[] page, File file) throws IOException {
+    int attempts = 0;
+    while (true) {
+      randomAccessFile.seek(position);
+      randomAccessFile.readFully(page);
+
+      if (O2QCache.isPageIntact(page, pageSize))
+        return;
+
+      attempts++;
+      if (attempts >= MAX_PAGE_READ_ATTEMPTS)
+        throw new OStorageException("Page at position " + position + " of file " + file + " is broken and can not be backed up");
+
+      try {
+        Thread.sleep(1);
+      } catch (InterruptedException e) {
+        Thread.interrupted();
+        throw new OStorageException("Thread was interrupted during backup of file " + file, e);
+      }
+    }
+  }
+
+  private OLogSequenceNumber getPageLsn(byte[] page, long lsnPointer) throws IOException {
+    directMemory.set(lsnPointer, page, 0, LSN_HEADER_SIZE);
+    return new OLocalPage(lsnPointer, false, OLocalPage.TrackMode.NONE).getLsn();
+  }
+
+  private void writeWholeFile(File file) throws IOException {
+    final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "r");
+    try {
+      long remaining = randomAccessFile.length();
+
+      out.writeByte(WHOLE_FILE);
+      out.writeUTF(file.getName());
+      out.writeLong(remaining);
+
+      final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+      while (remaining > 0) {
+        final int len = (int) Math.min(buffer.length, remaining);
+        randomAccessFile.readFully(buffer, 0, len);
+        out.write(buffer, 0, len);
+
+        remaining -= len;
+      }
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private static void restorePagedFile(DataInputStream in, File file, int pageSize) throws IOException {
+    final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      randomAccessFile.setLength(in.readLong());
+
+      final byte[] buffer = new byte[Math.max(pageSize, OFileClassic.MAX_HEADER_SIZE)];
+      long position = in.readLong();
+      while (position >= 0) {
+        final int len = in.readInt();
+        in.readFully(buffer, 0, len);
+
+        randomAccessFile.seek(position);
+        randomAccessFile.write(buffer, 0, len);
+
+        position = in.readLong();
+      }
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private static void restoreWholeFile(DataInputStream in, File file) throws IOException {
+    final RandomAccessFile randomAccessFile = new RandomAccessFile(file, "rw");
+    try {
+      long remaining = in.readLong();
+      randomAccessFile.setLength(remaining);
+
+      final byte[] buffer = new byte[COPY_BUFFER_SIZE];
+      while (remaining > 0) {
+        final int len = (int) Math.min(buffer.length, remaining);
+        in.readFully(buffer, 0, len);
+        randomAccessFile.write(buffer, 0, len);
+
+        remaining -= len;
+      }
+    } finally {
+      randomAccessFile.close();
+    }
+  }
+
+  private static void writeChunk(DataOutputStream out, long position, byte[] content) throws IOException {
+    out.writeLong(position);
+    out.writeInt(content.length);
+    out.write(content);
+  }
+
+  private static void writeLsn(DataOutputStream out, OLogSequenceNumber lsn) throws IOException {
+    if (lsn == null) {
+      out.writeBoolean(false);
+      return;
+    }
+
+    out.writeBoolean(true);
+    out.writeInt(lsn.getSegment());
+    out.writeLong(lsn.getPosition());
+  }
+
+  private static OLogSequenceNumber readLsn(DataInputStream in) throws IOException {
+    if (!in.readBoolean())
+      return null;
+
+    return new OLogSequenceNumber(in.readInt(), in.readLong());
+  }
+
+  private static boolean isWALFile(String fileName) {
+    final String lowerCaseName = fileName.toLowerCase();
+    return lowerCaseName.endsWith(".wal") || lowerCaseName.endsWith(".wmr") || fileName.equals(WAL_RECORDS_FILE_NAME);
+  }
+
+  private static boolean isPagedFile(String fileName) {
+    return fileName.endsWith(OLocalPaginatedCluster.DEF_EXTENSION)
+        || fileName.endsWith(OAbstractLocalSBTreeIndex.DATA_FILE_EXTENSION)
+        || fileName.endsWith(OAbstractLocalHashIndex.BUCKET_FILE_EXTENSION);
+  }
+
+  private static boolean isHashIndexFile(String fileName) {
+    return fileName.endsWith(OAbstractLocalHashIndex.BUCKET_FILE_EXTENSION)
+        || fileName.endsWith(OAbstractLocalHashIndex.METADATA_CONFIGURATION_FILE_EXTENSION)
+        || fileName.endsWith(OAbstractLocalHashIndex.TREE_STATE_FILE_EXTENSION);
+  }
+}
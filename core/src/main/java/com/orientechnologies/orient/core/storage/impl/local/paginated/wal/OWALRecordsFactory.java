@@ -19,6 +19,7 @@ package com.orientechnologies.orient.core.storage.impl.local.paginated.wal;
 import java.util.HashMap;
 import java.util.Map;
 
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OFileUpdatePageRecord;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OUpdatePageRecord;
 
 /**
@@ -26,17 +27,26 @@ import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.update
  * @since 25.04.13
  */
 public class OWALRecordsFactory {
-  private Map<Byte, Class>               idToTypeMap = new HashMap<Byte, Class>();
-  private Map<Class, Byte>               typeToIdMap = new HashMap<Class, Byte>();
+  /**
+   * Type of update page records written before diffs could be compressed, they are only read.
+   */
+  private static final byte              LEGACY_UPDATE_PAGE_RECORD = 0;
+  private static final byte              UPDATE_PAGE_RECORD        = 10;
+  private static final byte              FILE_UPDATE_PAGE_RECORD   = 11;
 
-  public static final OWALRecordsFactory INSTANCE    = new OWALRecordsFactory();
+  private Map<Byte, Class>               idToTypeMap               = new HashMap<Byte, Class>();
+  private Map<Class, Byte>               typeToIdMap               = new HashMap<Class, Byte>();
+
+  public static final OWALRecordsFactory INSTANCE                  = new OWALRecordsFactory();
 
   public byte[] toStream(OWALRecord walRecord) {
     int contentSize = walRecord.serializedSize() + 1;
     byte[] content = new byte[contentSize];
 
-    if (walRecord instanceof OUpdatePageRecord)
-      content[0] = 0;
+    if (walRecord instanceof OFileUpdatePageRecord)
+      content[0] = FILE_UPDATE_PAGE_RECORD;
+    else if (walRecord instanceof OUpdatePageRecord)
+      content[0] = UPDATE_PAGE_RECORD;
     else if (walRecord instanceof OFuzzyCheckpointStartRecord)
       content[0] = 1;
     else if (walRecord instanceof OFuzzyCheckpointEndRecord)
@@ -68,9 +78,10 @@ public class OWALRecordsFactory {
   public OWALRecord fromStream(byte[] content) {
     OWALRecord walRecord;
     switch (content[0]) {
-    case 0:
-      walRecord = new OUpdatePageRecord();
-      break;
+    case LEGACY_UPDATE_PAGE_RECORD:
+      final OUpdatePageRecord updatePageRecord = new OUpdatePageRecord();
+      updatePageRecord.fromLegacyStream(content, 1);
+      return updatePageRecord;
     case 1:
       walRecord = new OFuzzyCheckpointStartRecord();
       break;
@@ -98,6 +109,12 @@ public class OWALRecordsFactory {
     case 9:
       walRecord = new OAtomicUnitEndRecord();
       break;
+    case UPDATE_PAGE_RECORD:
+      walRecord = new OUpdatePageRecord();
+      break;
+    case FILE_UPDATE_PAGE_RECORD:
+      walRecord = new OFileUpdatePageRecord();
+      break;
     default:
       if (idToTypeMap.containsKey(content[0]))
         try {
@@ -31,9 +31,13 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.zip.CRC32;
 
 import com.orientechnologies.common.directmemory.ODirectMemory;
@@ -81,6 +85,10 @@ public class OWriteAheadLog {
 
   private boolean                      closed;
 
+  private final Lock                   groupCommitLock      = new ReentrantLock();
+  private final Condition              groupCommitCondition = groupCommitLock.newCondition();
+  private boolean                      groupCommitInProgress;
+
   private static String calculateWalPath(OLocalPaginatedStorage storage) {
     String walPath = OGlobalConfiguration.WAL_LOCATION.getValueAsString();
     if (walPath == null)
@@ -196,6 +204,64 @@ public class OWriteAheadLog {
     }
   }
 
+  /**
+   * Waits till all records up to passed in LSN are flushed to the disk. Concurrent callers are grouped together: only one of
+   * them flushes WAL and all records logged so far are covered by single fsync, the rest of callers wait till flush is finished
+   * and are released as soon as flushed LSN passes their own LSN (group commit).
+   * 
+   * @param lsn
+   *          LSN of last record which should be durable.
+   */
+  public void flushTill(OLogSequenceNumber lsn) {
+    groupCommitLock.lock();
+    try {
+      while (true) {
+        final OLogSequenceNumber flushed = flushedLsn;
+        if (flushed != null && flushed.compareTo(lsn) >= 0)
+          return;
+
+        if (!groupCommitInProgress)
+          break;
+
+        groupCommitCondition.awaitUninterruptibly();
+      }
+
+      groupCommitInProgress = true;
+    } finally {
+      groupCommitLock.unlock();
+    }
+
+    try {
+      final Future<?> flushFuture;
+      synchronized (syncObject) {
+        checkForClose();
+        flushFuture = logSegments.get(logSegments.size() - 1).submitFlush();
+      }
+
+      // records are appended to the WAL while segment is flushed, they will be covered by the next group commit.
+      try {
+        flushFuture.get();
+      } catch (InterruptedException e) {
+        Thread.interrupted();
+        throw new OStorageException("Thread was interrupted during flush", e);
+      } catch (ExecutionException e) {
+        throw new OStorageException("Error during WAL flush.", e);
+      }
+    } finally {
+      groupCommitLock.lock();
+      try {
+        groupCommitInProgress = false;
+        groupCommitCondition.signalAll();
+      } finally {
+        groupCommitLock.unlock();
+      }
+    }
+
+    final OLogSequenceNumber flushed = flushedLsn;
+    if (flushed == null || flushed.compareTo(lsn) < 0)
+      throw new OStorageException("WAL log " + walLocation + " can not be flushed till LSN " + lsn);
+  }
+
   private void fixMasterRecords() throws IOException {
     if (firstMasterRecord != null) {
       int index = firstMasterRecord.getSegment() - logSegments.get(0).getOrder();
@@ -973,6 +1039,10 @@ public class OWriteAheadLog {
       }
     }
 
+    public Future<?> submitFlush() {
+      return commitExecutor.submit(new FlushTask());
+    }
+
     public void flush() {
       if (!commitExecutor.isShutdown()) {
         try {
@@ -26,6 +26,11 @@ public class OBinaryFullPageDiff extends OFullPageDiff<byte[]> {
     directMemory.set(pagePointer + pageOffset, newValue, 0, newValue.length);
   }
 
+  @Override
+  public int getChangedSize() {
+    return newValue.length;
+  }
+
   @Override
   public int serializedSize() {
     return super.serializedSize() + 2 * OIntegerSerializer.INT_SIZE + newValue.length + oldValue.length;
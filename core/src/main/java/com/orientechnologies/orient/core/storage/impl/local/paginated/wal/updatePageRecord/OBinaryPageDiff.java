@@ -36,6 +36,11 @@ public class OBinaryPageDiff extends OPageDiff<byte[]> {
     directMemory.set(pagePointer + pageOffset, newValue, 0, newValue.length);
   }
 
+  @Override
+  public int getChangedSize() {
+    return newValue.length;
+  }
+
   @Override
   public int serializedSize() {
     return super.serializedSize() + OIntegerSerializer.INT_SIZE + newValue.length;
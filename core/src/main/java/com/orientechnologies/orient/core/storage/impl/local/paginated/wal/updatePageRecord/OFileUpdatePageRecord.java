@@ -0,0 +1,108 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord;
+
+import java.util.List;
+
+import com.orientechnologies.common.serialization.types.OStringSerializer;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OLogSequenceNumber;
+
+/**
+ * Update of page of file which does not belong to any cluster, like file of index. File is identified by name and extension
+ * instead of id of cluster, id of cluster of such record is always <code>-1</code>.
+ */
+public class OFileUpdatePageRecord extends OUpdatePageRecord {
+  private String fileName;
+  private String fileExtension;
+
+  public OFileUpdatePageRecord() {
+  }
+
+  public OFileUpdatePageRecord(long pageIndex, String fileName, String fileExtension, OLogSequenceNumber prevUnitRecord,
+      List<OPageDiff<?>> diffs) {
+    super(pageIndex, -1, prevUnitRecord, diffs);
+    this.fileName = fileName;
+    this.fileExtension = fileExtension;
+  }
+
+  public String getFileName() {
+    return fileName;
+  }
+
+  public String getFileExtension() {
+    return fileExtension;
+  }
+
+  @Override
+  public int serializedSize() {
+    return super.serializedSize() + OStringSerializer.INSTANCE.getObjectSize(fileName)
+        + OStringSerializer.INSTANCE.getObjectSize(fileExtension);
+  }
+
+  @Override
+  public int toStream(byte[] content, int offset) {
+    offset = super.toStream(content, offset);
+
+    OStringSerializer.INSTANCE.serializeNative(fileName, content, offset);
+    offset += OStringSerializer.INSTANCE.getObjectSize(fileName);
+
+    OStringSerializer.INSTANCE.serializeNative(fileExtension, content, offset);
+    offset += OStringSerializer.INSTANCE.getObjectSize(fileExtension);
+
+    return offset;
+  }
+
+  @Override
+  public int fromStream(byte[] content, int offset) {
+    offset = super.fromStream(content, offset);
+
+    fileName = OStringSerializer.INSTANCE.deserializeNative(content, offset);
+    offset += OStringSerializer.INSTANCE.getObjectSize(fileName);
+
+    fileExtension = OStringSerializer.INSTANCE.deserializeNative(content, offset);
+    offset += OStringSerializer.INSTANCE.getObjectSize(fileExtension);
+
+    return offset;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o)
+      return true;
+    if (o == null || getClass() != o.getClass())
+      return false;
+    if (!super.equals(o))
+      return false;
+
+    OFileUpdatePageRecord that = (OFileUpdatePageRecord) o;
+
+    if (!fileName.equals(that.fileName))
+      return false;
+    if (!fileExtension.equals(that.fileExtension))
+      return false;
+
+    return true;
+  }
+
+  @Override
+  public int hashCode() {
+    int result = super.hashCode();
+    result = 31 * result + fileName.hashCode();
+    result = 31 * result + fileExtension.hashCode();
+    return result;
+  }
+}
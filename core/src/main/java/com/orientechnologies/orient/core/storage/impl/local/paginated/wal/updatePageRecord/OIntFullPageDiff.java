@@ -40,6 +40,11 @@ public class OIntFullPageDiff extends OFullPageDiff<Integer> {
     OIntegerSerializer.INSTANCE.serializeInDirectMemory(newValue, directMemory, pagePointer + pageOffset);
   }
 
+  @Override
+  public int getChangedSize() {
+    return OIntegerSerializer.INT_SIZE;
+  }
+
   @Override
   public int serializedSize() {
     return super.serializedSize() + 2 * OIntegerSerializer.INT_SIZE;
@@ -30,6 +30,11 @@ public class OIntPageDiff extends OPageDiff<Integer> {
     super(newValue, pageOffset);
   }
 
+  @Override
+  public int getChangedSize() {
+    return OIntegerSerializer.INT_SIZE;
+  }
+
   @Override
   public int serializedSize() {
     return super.serializedSize() + OIntegerSerializer.INT_SIZE;
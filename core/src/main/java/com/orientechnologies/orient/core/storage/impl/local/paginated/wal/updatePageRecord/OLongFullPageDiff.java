@@ -29,6 +29,11 @@ public class OLongFullPageDiff extends OFullPageDiff<Long> {
     super(newValue, pageOffset, oldValue);
   }
 
+  @Override
+  public int getChangedSize() {
+    return OLongSerializer.LONG_SIZE;
+  }
+
   @Override
   public int serializedSize() {
     return super.serializedSize() + 2 * OLongSerializer.LONG_SIZE;
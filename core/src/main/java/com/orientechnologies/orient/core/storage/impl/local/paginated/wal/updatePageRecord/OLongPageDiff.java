@@ -35,6 +35,11 @@ public class OLongPageDiff extends OPageDiff<Long> {
     OLongSerializer.INSTANCE.serializeInDirectMemory(newValue, directMemory, pagePointer + pageOffset);
   }
 
+  @Override
+  public int getChangedSize() {
+    return OLongSerializer.LONG_SIZE;
+  }
+
   @Override
   public int serializedSize() {
     return super.serializedSize() + OLongSerializer.LONG_SIZE;
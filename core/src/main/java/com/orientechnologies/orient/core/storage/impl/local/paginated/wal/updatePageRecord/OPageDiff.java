@@ -89,5 +89,10 @@ public abstract class OPageDiff<T> {
     return result;
   }
 
+  /**
+   * @return Amount of bytes of page which are changed by this diff.
+   */
+  public abstract int getChangedSize();
+
   public abstract void restorePageData(long pagePointer);
 }
@@ -0,0 +1,118 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+import com.orientechnologies.common.directmemory.ODirectMemory;
+import com.orientechnologies.common.directmemory.ODirectMemoryFactory;
+
+/**
+ * Merges diffs of single page which overlap or are adjacent to each other into single binary diff, so every changed region of
+ * page is logged only once and with single header. Diffs which do not intersect with others are left as is.
+ *
+ * Result of coalescing is applied to the page in any order, because diffs contained in it do not intersect.
+ */
+public class OPageDiffCoalescer {
+  private static final ODirectMemory directMemory = ODirectMemoryFactory.INSTANCE.directMemory();
+
+  public static List<OPageDiff<?>> coalesce(final List<OPageDiff<?>> diffs) {
+    if (diffs.size() < 2)
+      return diffs;
+
+    final Integer[] order = new Integer[diffs.size()];
+    for (int i = 0; i < order.length; i++)
+      order[i] = i;
+
+    Arrays.sort(order, new Comparator<Integer>() {
+      @Override
+      public int compare(Integer indexOne, Integer indexTwo) {
+        final int offsetOne = diffs.get(indexOne).getPageOffset();
+        final int offsetTwo = diffs.get(indexTwo).getPageOffset();
+
+        if (offsetOne != offsetTwo)
+          return offsetOne < offsetTwo ? -1 : 1;
+
+        return indexOne.compareTo(indexTwo);
+      }
+    });
+
+    final List<OPageDiff<?>> result = new ArrayList<OPageDiff<?>>(diffs.size());
+
+    int groupFrom = 0;
+    while (groupFrom < order.length) {
+      final OPageDiff<?> firstDiff = diffs.get(order[groupFrom]);
+
+      final int groupStart = firstDiff.getPageOffset();
+      int groupEnd = groupStart + firstDiff.getChangedSize();
+
+      int groupTo = groupFrom + 1;
+      while (groupTo < order.length) {
+        final OPageDiff<?> diff = diffs.get(order[groupTo]);
+        if (diff.getPageOffset() > groupEnd)
+          break;
+
+        groupEnd = Math.max(groupEnd, diff.getPageOffset() + diff.getChangedSize());
+        groupTo++;
+      }
+
+      if (groupTo - groupFrom == 1)
+        result.add(firstDiff);
+      else
+        result.add(mergeDiffs(diffs, Arrays.copyOfRange(order, groupFrom, groupTo), groupStart, groupEnd));
+
+      groupFrom = groupTo;
+    }
+
+    return result;
+  }
+
+  private static OPageDiff<?> mergeDiffs(List<OPageDiff<?>> diffs, Integer[] group, int groupStart, int groupEnd) {
+    // diffs should be applied in the same order as they were made, so later changes overwrite earlier ones
+    Arrays.sort(group);
+
+    boolean fullDiffs = true;
+    for (Integer index : group)
+      fullDiffs = fullDiffs && diffs.get(index) instanceof OFullPageDiff;
+
+    final int groupSize = groupEnd - groupStart;
+    final long buffer = directMemory.allocate(groupSize);
+    try {
+      final long pagePointer = buffer - groupStart;
+
+      for (Integer index : group)
+        diffs.get(index).restorePageData(pagePointer);
+
+      final byte[] newValue = directMemory.get(buffer, groupSize);
+      if (!fullDiffs)
+        return new OBinaryPageDiff(newValue, groupStart);
+
+      // every byte of region is covered by at least one diff, so reverting all of them in backward order restores the
+      // content page had before the first change
+      for (int i = group.length - 1; i >= 0; i--)
+        ((OFullPageDiff<?>) diffs.get(group[i])).revertPageData(pagePointer);
+
+      final byte[] oldValue = directMemory.get(buffer, groupSize);
+      return new OBinaryFullPageDiff(newValue, groupStart, oldValue);
+    } finally {
+      directMemory.free(buffer);
+    }
+  }
+}
@@ -19,8 +19,11 @@ package com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updat
 import java.util.ArrayList;
 import java.util.List;
 
+import org.iq80.snappy.Snappy;
+
 import com.orientechnologies.common.serialization.types.OByteSerializer;
 import com.orientechnologies.common.serialization.types.OIntegerSerializer;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OAbstractPageWALRecord;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OLogSequenceNumber;
 
@@ -29,7 +32,12 @@ import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OLogSe
  * @since 26.04.13
  */
 public class OUpdatePageRecord extends OAbstractPageWALRecord {
-  private List<OPageDiff<?>> diffs = new ArrayList<OPageDiff<?>>();
+  private static final int   MIN_COMPRESSION_SIZE = 256;
+
+  private List<OPageDiff<?>> diffs                = new ArrayList<OPageDiff<?>>();
+
+  private byte[]             serializedDiffs;
+  private boolean            compressed;
 
   public OUpdatePageRecord() {
   }
@@ -45,20 +53,76 @@ public class OUpdatePageRecord extends OAbstractPageWALRecord {
 
   @Override
   public int serializedSize() {
-    int serializedSize = super.serializedSize();
-    serializedSize += OIntegerSerializer.INT_SIZE + OByteSerializer.BYTE_SIZE * diffs.size();
-
-    for (OPageDiff diff : diffs) {
-      serializedSize += diff.serializedSize();
-    }
-
-    return serializedSize;
+    return super.serializedSize() + OByteSerializer.BYTE_SIZE + OIntegerSerializer.INT_SIZE + getSerializedDiffs().length;
   }
 
   @Override
   public int toStream(byte[] content, int offset) {
     offset = super.toStream(content, offset);
 
+    final byte[] serializedDiffs = getSerializedDiffs();
+
+    content[offset] = compressed ? (byte) 1 : 0;
+    offset++;
+
+    OIntegerSerializer.INSTANCE.serializeNative(serializedDiffs.length, content, offset);
+    offset += OIntegerSerializer.INT_SIZE;
+
+    System.arraycopy(serializedDiffs, 0, content, offset, serializedDiffs.length);
+    offset += serializedDiffs.length;
+
+    return offset;
+  }
+
+  @Override
+  public int fromStream(byte[] content, int offset) {
+    offset = super.fromStream(content, offset);
+
+    compressed = content[offset] == 1;
+    offset++;
+
+    final int serializedDiffsLength = OIntegerSerializer.INSTANCE.deserializeNative(content, offset);
+    offset += OIntegerSerializer.INT_SIZE;
+
+    final byte[] diffsContent;
+    if (compressed)
+      diffsContent = Snappy.uncompress(content, offset, serializedDiffsLength);
+    else {
+      diffsContent = new byte[serializedDiffsLength];
+      System.arraycopy(content, offset, diffsContent, 0, serializedDiffsLength);
+    }
+
+    offset += serializedDiffsLength;
+
+    deserializeDiffs(diffsContent, 0);
+
+    return offset;
+  }
+
+  /**
+   * Reads record written in format which was used before diffs could be compressed, diffs follow page position without
+   * compression flag and length. Such records are registered in WAL with own record type.
+   */
+  public int fromLegacyStream(byte[] content, int offset) {
+    offset = super.fromStream(content, offset);
+    return deserializeDiffs(content, offset);
+  }
+
+  /**
+   * Serialized diffs are cached because they are needed twice, to calculate size of record and to write it, and compression of
+   * them is not cheap.
+   */
+  private byte[] getSerializedDiffs() {
+    if (serializedDiffs != null)
+      return serializedDiffs;
+
+    int diffsSize = OIntegerSerializer.INT_SIZE + OByteSerializer.BYTE_SIZE * diffs.size();
+    for (OPageDiff diff : diffs)
+      diffsSize += diff.serializedSize();
+
+    final byte[] content = new byte[diffsSize];
+    int offset = 0;
+
     OIntegerSerializer.INSTANCE.serializeNative(diffs.size(), content, offset);
     offset += OIntegerSerializer.INT_SIZE;
 
@@ -70,13 +134,21 @@ public class OUpdatePageRecord extends OAbstractPageWALRecord {
       offset += diff.serializedSize();
     }
 
-    return offset;
-  }
+    compressed = false;
+    serializedDiffs = content;
 
-  @Override
-  public int fromStream(byte[] content, int offset) {
-    offset = super.fromStream(content, offset);
+    if (OGlobalConfiguration.WAL_COMPRESSION.getValueAsBoolean() && content.length >= MIN_COMPRESSION_SIZE) {
+      final byte[] compressedContent = Snappy.compress(content);
+      if (compressedContent.length < content.length) {
+        compressed = true;
+        serializedDiffs = compressedContent;
+      }
+    }
+
+    return serializedDiffs;
+  }
 
+  private int deserializeDiffs(byte[] content, int offset) {
     int size = OIntegerSerializer.INSTANCE.deserializeNative(content, offset);
     offset += OIntegerSerializer.INT_SIZE;
 
@@ -0,0 +1,181 @@
+package com.orientechnologies.orient.core.index;
+
+import java.io.File;
+import java.util.Collection;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+@Test
+public class IndexBulkRebuildTest {
+  private static final int    DOCUMENTS_COUNT = 5000;
+
+  private ODatabaseDocumentTx databaseDocumentTx;
+
+  private int                 rebuildThreads;
+  private int                 sortBuffer;
+
+  @BeforeClass
+  public void beforeClass() {
+    rebuildThreads = OGlobalConfiguration.INDEX_REBUILD_THREADS.getValueAsInteger();
+    sortBuffer = OGlobalConfiguration.INDEX_REBUILD_SORT_BUFFER.getValueAsInteger();
+
+    // SMALL BUFFER FORCES SORTED RUNS TO BE FLUSHED TO TEMPORARY FILES
+    OGlobalConfiguration.INDEX_REBUILD_THREADS.setValue(4);
+    OGlobalConfiguration.INDEX_REBUILD_SORT_BUFFER.setValue(100);
+
+    String buildDirectory = System.getProperty("buildDirectory");
+    if (buildDirectory == null || buildDirectory.isEmpty())
+      buildDirectory = ".";
+
+    databaseDocumentTx = new ODatabaseDocumentTx("plocal:" + buildDirectory + File.separator + "indexBulkRebuildTest");
+    if (databaseDocumentTx.exists()) {
+      databaseDocumentTx.open("admin", "admin");
+      databaseDocumentTx.drop();
+    }
+
+    databaseDocumentTx.create();
+
+    final OClass bulkClass = databaseDocumentTx.getMetadata().getSchema().createClass("BulkRebuild");
+    bulkClass.createProperty("id", OType.INTEGER);
+    bulkClass.createProperty("group", OType.INTEGER);
+    bulkClass.createProperty("text", OType.STRING);
+
+    bulkClass.createIndex("BulkRebuild.id", OClass.INDEX_TYPE.UNIQUE, "id");
+    bulkClass.createIndex("BulkRebuild.group", OClass.INDEX_TYPE.NOTUNIQUE, "group");
+    bulkClass.createIndex("BulkRebuild.text", OClass.INDEX_TYPE.FULLTEXT, "text");
+
+    for (int i = 0; i < DOCUMENTS_COUNT; i++) {
+      final ODocument document = new ODocument("BulkRebuild");
+      document.field("id", i);
+      document.field("group", i % 10);
+      document.field("text", "word" + (i % 100) + " common");
+      document.save();
+    }
+  }
+
+  @AfterClass
+  public void afterClass() {
+    OGlobalConfiguration.INDEX_REBUILD_THREADS.setValue(rebuildThreads);
+    OGlobalConfiguration.INDEX_REBUILD_SORT_BUFFER.setValue(sortBuffer);
+
+    if (databaseDocumentTx.isClosed())
+      databaseDocumentTx.open("admin", "admin");
+
+    databaseDocumentTx.drop();
+  }
+
+  public void testRebuildReplacesTreeAndKeepsContent() {
+    final OIndexManager indexManager = databaseDocumentTx.getMetadata().getIndexManager();
+
+    final OIndex<?> uniqueIndex = indexManager.getIndex("BulkRebuild.id");
+    final ORID uniqueIndexRid = uniqueIndex.getIdentity();
+
+    Assert.assertEquals(uniqueIndex.rebuild(), DOCUMENTS_COUNT);
+    Assert.assertEquals(indexManager.getIndex("BulkRebuild.group").rebuild(), DOCUMENTS_COUNT);
+    Assert.assertEquals(indexManager.getIndex("BulkRebuild.text").rebuild(), DOCUMENTS_COUNT);
+
+    Assert.assertFalse(uniqueIndex.getIdentity().equals(uniqueIndexRid));
+
+    assertIndexContent();
+
+    databaseDocumentTx.close();
+    databaseDocumentTx.open("admin", "admin");
+
+    assertIndexContent();
+  }
+
+  @Test(dependsOnMethods = "testRebuildReplacesTreeAndKeepsContent")
+  public void testIndexIsModifiedAfterRebuild() {
+    final ODocument document = new ODocument("BulkRebuild");
+    document.field("id", DOCUMENTS_COUNT);
+    document.field("group", 10);
+    document.field("text", "unique");
+    document.save();
+
+    final OIndexManager indexManager = databaseDocumentTx.getMetadata().getIndexManager();
+    Assert.assertEquals(((OIdentifiable) indexManager.getIndex("BulkRebuild.id").get(DOCUMENTS_COUNT)).getIdentity(),
+        document.getIdentity());
+    Assert.assertEquals(((Collection<?>) indexManager.getIndex("BulkRebuild.group").get(10)).size(), 1);
+    Assert.assertEquals(((Collection<?>) indexManager.getIndex("BulkRebuild.text").get("unique")).size(), 1);
+
+    document.delete();
+    Assert.assertNull(indexManager.getIndex("BulkRebuild.id").get(DOCUMENTS_COUNT));
+  }
+
+  @Test(dependsOnMethods = "testIndexIsModifiedAfterRebuild")
+  public void testRecordsCreatedDuringRebuildAreIndexed() throws Exception {
+    final String url = databaseDocumentTx.getURL();
+    final int createdCount = 500;
+
+    final Thread writer = new Thread() {
+      @Override
+      public void run() {
+        final ODatabaseDocumentTx database = new ODatabaseDocumentTx(url);
+        database.open("admin", "admin");
+        try {
+          for (int i = 0; i < createdCount; i++) {
+            final ODocument document = new ODocument("BulkRebuild");
+            document.field("id", DOCUMENTS_COUNT + 1 + i);
+            document.field("group", 11);
+            document.field("text", "concurrent");
+            document.save();
+          }
+        } finally {
+          database.close();
+        }
+      }
+    };
+
+    final OIndexManager indexManager = databaseDocumentTx.getMetadata().getIndexManager();
+    final OIndex<?> uniqueIndex = indexManager.getIndex("BulkRebuild.id");
+
+    writer.start();
+    uniqueIndex.rebuild();
+    writer.join();
+
+    Assert.assertEquals(uniqueIndex.getSize(), DOCUMENTS_COUNT + createdCount);
+    for (int i = 0; i < createdCount; i++) {
+      final OIdentifiable rid = (OIdentifiable) uniqueIndex.get(DOCUMENTS_COUNT + 1 + i);
+      Assert.assertNotNull(rid);
+
+      final ODocument document = rid.getRecord();
+      Assert.assertEquals(document.field("id"), DOCUMENTS_COUNT + 1 + i);
+    }
+  }
+
+  private void assertIndexContent() {
+    final OIndexManager indexManager = databaseDocumentTx.getMetadata().getIndexManager();
+
+    final OIndex<?> uniqueIndex = indexManager.getIndex("BulkRebuild.id");
+    Assert.assertEquals(uniqueIndex.getSize(), DOCUMENTS_COUNT);
+
+    for (int i = 0; i < DOCUMENTS_COUNT; i++) {
+      final OIdentifiable rid = (OIdentifiable) uniqueIndex.get(i);
+      Assert.assertNotNull(rid);
+
+      final ODocument document = rid.getRecord();
+      Assert.assertEquals(document.field("id"), i);
+    }
+
+    final OIndex<?> groupIndex = indexManager.getIndex("BulkRebuild.group");
+    Assert.assertEquals(groupIndex.getKeySize(), 10);
+    for (int i = 0; i < 10; i++)
+      Assert.assertEquals(((Collection<?>) groupIndex.get(i)).size(), DOCUMENTS_COUNT / 10);
+
+    final OIndex<?> textIndex = indexManager.getIndex("BulkRebuild.text");
+    Assert.assertEquals(textIndex.getKeySize(), 101);
+    Assert.assertEquals(((Collection<?>) textIndex.get("common")).size(), DOCUMENTS_COUNT);
+    Assert.assertEquals(((Collection<?>) textIndex.get("word7")).size(), DOCUMENTS_COUNT / 100);
+  }
+}
@@ -0,0 +1,219 @@
+package com.orientechnologies.orient.core.index;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class IndexFullTextSearchTest {
+  private static final int    FILLER_COUNT = 1000;
+
+  private ODatabaseDocumentTx databaseDocumentTx;
+  private boolean             termFrequencies;
+  private int                 rebuildThreads;
+
+  @BeforeClass
+  public void beforeClass() {
+    termFrequencies = OGlobalConfiguration.INDEX_FULLTEXT_TERM_FREQUENCIES.getValueAsBoolean();
+    rebuildThreads = OGlobalConfiguration.INDEX_REBUILD_THREADS.getValueAsInteger();
+    OGlobalConfiguration.INDEX_FULLTEXT_TERM_FREQUENCIES.setValue(true);
+
+    String buildDirectory = System.getProperty("buildDirectory");
+    if (buildDirectory == null || buildDirectory.isEmpty())
+      buildDirectory = ".";
+
+    databaseDocumentTx = new ODatabaseDocumentTx("plocal:" + buildDirectory + File.separator + "indexFullTextSearchTest");
+    if (databaseDocumentTx.exists()) {
+      databaseDocumentTx.open("admin", "admin");
+      databaseDocumentTx.drop();
+    }
+
+    databaseDocumentTx.create();
+
+    final OClass articleClass = databaseDocumentTx.getMetadata().getSchema().createClass("Article");
+    articleClass.createProperty("title", OType.STRING);
+    articleClass.createProperty("body", OType.STRING);
+    articleClass.createIndex("Article.body", OClass.INDEX_TYPE.FULLTEXT, "body");
+
+    for (int i = 0; i < FILLER_COUNT; i++)
+      article("filler" + i, "common filler text number" + i + " database");
+
+    article("graphs", "graph graph graph database");
+    article("graph", "graph database engine");
+    article("long", "graph engine with a lot of other words which are not related to anything else at all");
+    article("relational", "relational database engine");
+  }
+
+  @AfterClass
+  public void afterClass() {
+    OGlobalConfiguration.INDEX_FULLTEXT_TERM_FREQUENCIES.setValue(termFrequencies);
+    OGlobalConfiguration.INDEX_REBUILD_THREADS.setValue(rebuildThreads);
+
+    if (databaseDocumentTx.isClosed())
+      databaseDocumentTx.open("admin", "admin");
+
+    databaseDocumentTx.drop();
+  }
+
+  public void testSearchRanksByFrequency() {
+    final OIndexFullText index = getIndex();
+
+    assertTitles(index.search("graph", 10), "graphs", "graph", "long");
+    assertTitles(index.search("graph", 2), "graphs", "graph");
+
+    // RARE WORD WEIGHS MORE THAN FREQUENT ONE
+    assertTitles(index.search("relational database", 2), "relational", "graph");
+    Assert.assertTrue(index.search("absent", 10).isEmpty());
+
+    // CONDITION OF CONTAINSTEXT IS NOT CHANGED BY FREQUENCIES
+    Assert.assertEquals(
+        databaseDocumentTx.query(new OSQLSynchQuery<ODocument>("select from Article where body containstext 'engine'")).size(), 3);
+  }
+
+  @Test(dependsOnMethods = "testSearchRanksByFrequency")
+  public void testAverageLengthIsTakenOverWholeIndex() {
+    // 1000 FILLERS OF 5 WORDS AND 4 ARTICLES OF 4, 3, 13 AND 3 WORDS WITHOUT STOP WORDS
+    final int documents = FILLER_COUNT + 4;
+    final double averageLength = (FILLER_COUNT * 5 + 4 + 3 + 13 + 3) / (double) documents;
+
+    // RECORDS OF QUERIED WORD ARE SHORTER THAN THE AVERAGE RECORD OF INDEX
+    final double idf = Math.log(1 + (documents - 1 + 0.5) / (1 + 0.5));
+    final double expectedScore = idf * 2.2 / (1 + 1.2 * (0.25 + 0.75 * 3 / averageLength));
+
+    List<ODocument> hits = getIndex().search("relational", 10);
+    Assert.assertEquals(hits.size(), 1);
+    Assert.assertEquals((Double) hits.get(0).field("score"), expectedScore, 1e-9);
+
+    // STATISTICS ARE SAVED TOGETHER WITH THE INDEX
+    databaseDocumentTx.close();
+    databaseDocumentTx.open("admin", "admin");
+
+    hits = getIndex().search("relational", 10);
+    Assert.assertEquals((Double) hits.get(0).field("score"), expectedScore, 1e-9);
+  }
+
+  @Test(dependsOnMethods = "testAverageLengthIsTakenOverWholeIndex")
+  public void testSearchFunction() {
+    final List<ODocument> result = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(
+        "select search('Article.body', 'graph engine', 2) as hits"));
+    Assert.assertEquals(result.size(), 1);
+
+    final List<ODocument> hits = result.get(0).field("hits");
+    assertTitles(hits, "graph", "graphs");
+
+    final double firstScore = (Double) hits.get(0).field("score");
+    final double secondScore = (Double) hits.get(1).field("score");
+    Assert.assertTrue(firstScore > secondScore);
+  }
+
+  @Test(dependsOnMethods = "testSearchFunction")
+  public void testFrequenciesAreKeptAfterRebuild() {
+    databaseDocumentTx.close();
+    databaseDocumentTx.open("admin", "admin");
+
+    OGlobalConfiguration.INDEX_REBUILD_THREADS.setValue(2);
+    getIndex().rebuild();
+
+    assertTitles(getIndex().search("graph", 10), "graphs", "graph", "long");
+
+    final List<ODocument> result = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(
+        "select from Article where title = 'graphs'"));
+    result.get(0).field("body", "database engine").save();
+
+    assertTitles(getIndex().search("graph", 10), "graph", "long");
+    assertTitles(getIndex().search("engine", 1), "graphs");
+    Assert.assertEquals(((Collection<?>) getIndex().get("graph")).size(), 2);
+  }
+
+  @Test(dependsOnMethods = "testFrequenciesAreKeptAfterRebuild")
+  public void testRecordWhichIsNotSavedIsSavedOnPut() {
+    ODatabaseRecordThreadLocal.INSTANCE.set(databaseDocumentTx);
+
+    final ODocument document = new ODocument();
+    document.field("body", "unsaved note");
+
+    getIndex().put(document.field("body"), document);
+
+    Assert.assertTrue(document.getIdentity().isPersistent());
+    Assert.assertEquals(getIndex().get("unsaved"), Collections.singleton(document.getIdentity()));
+  }
+
+  @Test(dependsOnMethods = "testRecordWhichIsNotSavedIsSavedOnPut")
+  public void testRecordCreatedInTransactionIsIndexedOnCommit() {
+    // PAGINATED STORAGE DOES NOT SUPPORT TRANSACTIONS YET
+    final ODatabaseDocumentTx txDatabase = new ODatabaseDocumentTx("memory:indexFullTextSearchTxTest");
+    txDatabase.create();
+    try {
+      final OClass articleClass = txDatabase.getMetadata().getSchema().createClass("Article");
+      articleClass.createProperty("title", OType.STRING);
+      articleClass.createProperty("body", OType.STRING);
+      articleClass.createIndex("Article.body", OClass.INDEX_TYPE.FULLTEXT, "body");
+
+      final OIndexFullText index = (OIndexFullText) txDatabase.getMetadata().getIndexManager().getIndex("Article.body")
+          .getInternal();
+
+      txDatabase.begin();
+      final ODocument document = new ODocument("Article");
+      document.field("title", "transactional");
+      document.field("body", "transactional engine");
+      document.save();
+
+      final ODocument note = new ODocument();
+      note.field("body", "pending note");
+      index.put(note.field("body"), note);
+
+      Assert.assertTrue(note.getIdentity().isTemporary());
+      Assert.assertTrue(index.get("pending").isEmpty());
+      txDatabase.commit();
+
+      Assert.assertTrue(document.getIdentity().isPersistent());
+      assertTitles(index.search("transactional", 10), "transactional");
+      Assert.assertEquals(index.get("pending"), Collections.singleton(note.getIdentity()));
+
+      txDatabase.begin();
+      final ODocument rolledBack = new ODocument();
+      rolledBack.field("body", "discarded note");
+      index.put(rolledBack.field("body"), rolledBack);
+      txDatabase.rollback();
+
+      Assert.assertTrue(index.get("discarded").isEmpty());
+    } finally {
+      txDatabase.drop();
+      ODatabaseRecordThreadLocal.INSTANCE.set(databaseDocumentTx);
+    }
+  }
+
+  private OIndexFullText getIndex() {
+    return (OIndexFullText) databaseDocumentTx.getMetadata().getIndexManager().getIndex("Article.body").getInternal();
+  }
+
+  private void article(final String title, final String body) {
+    final ODocument document = new ODocument("Article");
+    document.field("title", title);
+    document.field("body", body);
+    document.save();
+  }
+
+  private static void assertTitles(final List<ODocument> hits, final String... titles) {
+    Assert.assertEquals(hits.size(), titles.length);
+    for (int i = 0; i < titles.length; i++) {
+      final ODocument record = ((OIdentifiable) hits.get(i).field("rid")).getRecord();
+      Assert.assertEquals(record.field("title"), titles[i]);
+    }
+  }
+}
@@ -0,0 +1,98 @@
+package com.orientechnologies.orient.core.index;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class IndexFullTextTest {
+  private static final int    DOCUMENTS_COUNT = 3000;
+
+  private ODatabaseDocumentTx databaseDocumentTx;
+
+  @BeforeClass
+  public void beforeClass() {
+    String buildDirectory = System.getProperty("buildDirectory");
+    if (buildDirectory == null || buildDirectory.isEmpty())
+      buildDirectory = ".";
+
+    databaseDocumentTx = new ODatabaseDocumentTx("plocal:" + buildDirectory + File.separator + "indexFullTextTest");
+    if (databaseDocumentTx.exists()) {
+      databaseDocumentTx.open("admin", "admin");
+      databaseDocumentTx.drop();
+    }
+
+    databaseDocumentTx.create();
+
+    final OClass textClass = databaseDocumentTx.getMetadata().getSchema().createClass("FullText");
+    textClass.createProperty("text", OType.STRING);
+    textClass.createIndex("FullText.text", OClass.INDEX_TYPE.FULLTEXT, "text");
+
+    for (int i = 0; i < DOCUMENTS_COUNT; i++) {
+      final ODocument document = new ODocument("FullText");
+      document.field("text", "common" + (i % 2 == 0 ? " even" : "") + (i % 3 == 0 ? " triple" : "") + " word" + i);
+      document.save();
+    }
+  }
+
+  @AfterClass
+  public void afterClass() {
+    if (databaseDocumentTx.isClosed())
+      databaseDocumentTx.open("admin", "admin");
+
+    databaseDocumentTx.drop();
+  }
+
+  public void testWordsAreStoredAsPostingLists() {
+    final OIndex<?> index = databaseDocumentTx.getMetadata().getIndexManager().getIndex("FullText.text");
+
+    Assert.assertEquals(((Collection<?>) index.get("common")).size(), DOCUMENTS_COUNT);
+    Assert.assertEquals(((Collection<?>) index.get("even")).size(), DOCUMENTS_COUNT / 2);
+    Assert.assertEquals(((Collection<?>) index.get("word7")).size(), 1);
+
+    databaseDocumentTx.close();
+    databaseDocumentTx.open("admin", "admin");
+
+    final OIndex<?> reopenedIndex = databaseDocumentTx.getMetadata().getIndexManager().getIndex("FullText.text");
+    Assert.assertEquals(((Collection<?>) reopenedIndex.get("triple")).size(), DOCUMENTS_COUNT / 3);
+  }
+
+  @Test(dependsOnMethods = "testWordsAreStoredAsPostingLists")
+  public void testMultiWordQueryIntersectsPostings() {
+    final OIndex<?> index = databaseDocumentTx.getMetadata().getIndexManager().getIndex("FullText.text");
+    Assert.assertEquals(((Collection<?>) index.get("even triple")).size(), DOCUMENTS_COUNT / 6);
+    Assert.assertEquals(((Collection<?>) index.get("common word12 even")).size(), 1);
+    Assert.assertTrue(((Collection<?>) index.get("word7 even")).isEmpty());
+
+    // RECORDS WHICH ARE FOUND BY INDEX ARE FILTERED BY THE CONDITION ITSELF
+    final List<ODocument> result = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(
+        "select from FullText where text containstext 'even triple'"));
+    Assert.assertEquals(result.size(), DOCUMENTS_COUNT / 6);
+    for (ODocument document : result)
+      Assert.assertTrue(((String) document.field("text")).contains("even triple"));
+  }
+
+  @Test(dependsOnMethods = "testMultiWordQueryIntersectsPostings")
+  public void testRemovedRecordsAreRemovedFromPostings() {
+    final List<ODocument> result = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(
+        "select from FullText where text containstext 'word6'"));
+    Assert.assertEquals(result.size(), 1);
+    result.get(0).delete();
+
+    final OIndex<?> index = databaseDocumentTx.getMetadata().getIndexManager().getIndex("FullText.text");
+    Assert.assertTrue(((Collection<?>) index.get("word6")).isEmpty());
+    Assert.assertEquals(((Collection<?>) index.get("even triple")).size(), DOCUMENTS_COUNT / 6 - 1);
+    Assert.assertEquals(((Collection<?>) index.get("common")).size(), DOCUMENTS_COUNT - 1);
+  }
+}
@@ -0,0 +1,165 @@
+package com.orientechnologies.orient.core.index;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+@Test
+public class IndexOnlineCreateTest {
+  private static final int    DOCUMENTS_COUNT = 5000;
+
+  private ODatabaseDocumentTx databaseDocumentTx;
+  private String              url;
+
+  private boolean             createOnline;
+
+  @BeforeClass
+  public void beforeClass() {
+    createOnline = OGlobalConfiguration.INDEX_CREATE_ONLINE.getValueAsBoolean();
+    OGlobalConfiguration.INDEX_CREATE_ONLINE.setValue(true);
+
+    String buildDirectory = System.getProperty("buildDirectory");
+    if (buildDirectory == null || buildDirectory.isEmpty())
+      buildDirectory = ".";
+
+    url = "plocal:" + buildDirectory + File.separator + "indexOnlineCreateTest";
+
+    databaseDocumentTx = new ODatabaseDocumentTx(url);
+    if (databaseDocumentTx.exists()) {
+      databaseDocumentTx.open("admin", "admin");
+      databaseDocumentTx.drop();
+    }
+
+    databaseDocumentTx.create();
+
+    final OClass onlineClass = databaseDocumentTx.getMetadata().getSchema().createClass("OnlineCreate");
+    onlineClass.createProperty("id", OType.INTEGER);
+    onlineClass.createProperty("group", OType.INTEGER);
+
+    for (int i = 0; i < DOCUMENTS_COUNT; i++) {
+      final ODocument document = new ODocument("OnlineCreate");
+      document.field("id", i);
+      document.field("group", i % 10);
+      document.save();
+    }
+  }
+
+  @AfterClass
+  public void afterClass() {
+    OGlobalConfiguration.INDEX_CREATE_ONLINE.setValue(createOnline);
+
+    if (databaseDocumentTx.isClosed())
+      databaseDocumentTx.open("admin", "admin");
+
+    databaseDocumentTx.drop();
+  }
+
+  public void testIndexContainsChangesMadeDuringCreation() throws Exception {
+    final AtomicBoolean stop = new AtomicBoolean();
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    final Future<Integer> writer = executor.submit(new Callable<Integer>() {
+      public Integer call() throws Exception {
+        final ODatabaseDocumentTx db = new ODatabaseDocumentTx(url);
+        db.open("admin", "admin");
+        try {
+          int id = DOCUMENTS_COUNT;
+          while (!stop.get()) {
+            // NEW RECORD
+            final ODocument document = new ODocument("OnlineCreate");
+            document.field("id", id);
+            document.field("group", id % 10);
+            document.save();
+
+            // KEY OF EXISTING RECORD IS MOVED OUT OF THE RANGE OF INITIAL KEYS
+            final ODocument updated = db.load(document.getIdentity());
+            updated.field("id", -id);
+            updated.save();
+
+            id++;
+          }
+
+          return id;
+        } finally {
+          db.close();
+        }
+      }
+    });
+
+    try {
+      final OClass onlineClass = databaseDocumentTx.getMetadata().getSchema().getClass("OnlineCreate");
+      onlineClass.createIndex("OnlineCreate.id", OClass.INDEX_TYPE.UNIQUE, "id");
+      onlineClass.createIndex("OnlineCreate.group", OClass.INDEX_TYPE.NOTUNIQUE, "group");
+    } finally {
+      stop.set(true);
+    }
+
+    final int lastId = writer.get();
+    executor.shutdown();
+
+    final OIndexManager indexManager = databaseDocumentTx.getMetadata().getIndexManager();
+    final OIndex<?> idIndex = indexManager.getIndex("OnlineCreate.id");
+    final OIndex<?> groupIndex = indexManager.getIndex("OnlineCreate.group");
+
+    Assert.assertFalse(idIndex.isRebuiding());
+    Assert.assertFalse(groupIndex.isRebuiding());
+
+    Assert.assertEquals(idIndex.getSize(), lastId);
+
+    for (int i = 0; i < DOCUMENTS_COUNT; i++)
+      assertIdIndexed(idIndex, i);
+
+    for (int i = DOCUMENTS_COUNT; i < lastId; i++) {
+      assertIdIndexed(idIndex, -i);
+      Assert.assertNull(idIndex.get(i));
+    }
+
+    long groupSize = 0;
+    for (int i = 0; i < 10; i++)
+      groupSize += ((Collection<?>) groupIndex.get(i)).size();
+    Assert.assertEquals(groupSize, lastId);
+
+    final Set<OIndex<?>> involvedIndexes = databaseDocumentTx.getMetadata().getSchema().getClass("OnlineCreate")
+        .getInvolvedIndexes("id");
+    Assert.assertEquals(involvedIndexes.size(), 1);
+  }
+
+  @Test(dependsOnMethods = "testIndexContainsChangesMadeDuringCreation")
+  public void testDuplicatedKeyIsCheckedAfterCreation() {
+    final ODocument document = new ODocument("OnlineCreate");
+    document.field("id", 0);
+    document.field("group", 0);
+
+    try {
+      document.save();
+      Assert.fail();
+    } catch (OIndexException e) {
+      Assert.assertTrue(true);
+    }
+  }
+
+  private static void assertIdIndexed(final OIndex<?> idIndex, final int id) {
+    final OIdentifiable rid = (OIdentifiable) idIndex.get(id);
+    Assert.assertNotNull(rid);
+
+    final ODocument document = rid.getRecord();
+    Assert.assertEquals(document.field("id"), id);
+  }
+}
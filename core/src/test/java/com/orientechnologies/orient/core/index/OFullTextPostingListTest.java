@@ -0,0 +1,135 @@
+package com.orientechnologies.orient.core.index;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.util.MersenneTwisterFast;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
+import com.orientechnologies.orient.core.id.ORecordId;
+
+@Test
+public class OFullTextPostingListTest {
+  public void testAddRemoveContains() {
+    final MersenneTwisterFast random = new MersenneTwisterFast(42);
+
+    final OFullTextPostingList postingList = new OFullTextPostingList();
+    final TreeSet<OIdentifiable> expected = new TreeSet<OIdentifiable>();
+
+    for (int i = 0; i < 10000; i++) {
+      final ORecordId rid = rid(random.nextInt(5) + 9, random.nextInt(20000));
+      Assert.assertEquals(postingList.add(rid), expected.add(rid));
+    }
+
+    for (int i = 0; i < 5000; i++) {
+      final ORecordId rid = rid(random.nextInt(5) + 9, random.nextInt(20000));
+      Assert.assertEquals(postingList.remove(rid), expected.remove(rid));
+    }
+
+    Assert.assertEquals(postingList.size(), expected.size());
+    Assert.assertEquals(new ArrayList<OIdentifiable>(postingList), new ArrayList<OIdentifiable>(expected));
+
+    for (int i = 0; i < 1000; i++) {
+      final ORecordId rid = rid(random.nextInt(7) + 8, random.nextInt(20000));
+      Assert.assertEquals(postingList.contains(rid), expected.contains(rid));
+    }
+  }
+
+  public void testSerialization() {
+    final OFullTextPostingList postingList = new OFullTextPostingList();
+    for (int i = 0; i < 1000; i++)
+      postingList.add(rid(i % 3 + 10, i * 7L + 1000000000000L));
+
+    final byte[] stream = postingList.toStream();
+    // DELTA ENCODED RIDS TAKE LESS THAN 3 BYTES EACH
+    Assert.assertTrue(stream.length < 3 * postingList.size(), "Posting list takes " + stream.length + " bytes");
+
+    final OFullTextPostingList loaded = new OFullTextPostingList().fromStream(stream);
+    Assert.assertEquals(loaded.size(), postingList.size());
+    Assert.assertEquals(new ArrayList<OIdentifiable>(loaded), new ArrayList<OIdentifiable>(postingList));
+  }
+
+  public void testIteratorRemove() {
+    final OFullTextPostingList postingList = new OFullTextPostingList();
+    for (int i = 0; i < 1000; i++)
+      postingList.add(rid(10, i));
+
+    final Iterator<OIdentifiable> iterator = postingList.iterator();
+    while (iterator.hasNext())
+      if (iterator.next().getIdentity().getClusterPosition().longValue() % 2 == 0)
+        iterator.remove();
+
+    Assert.assertEquals(postingList.size(), 500);
+    for (OIdentifiable rid : postingList)
+      Assert.assertEquals(rid.getIdentity().getClusterPosition().longValue() % 2, 1);
+  }
+
+  public void testIntersect() {
+    final OFullTextPostingList multiplesOfTwo = new OFullTextPostingList();
+    final OFullTextPostingList multiplesOfThree = new OFullTextPostingList();
+    final OFullTextPostingList rare = new OFullTextPostingList();
+
+    for (int i = 0; i < 30000; i++) {
+      if (i % 2 == 0)
+        multiplesOfTwo.add(rid(10, i));
+      if (i % 3 == 0)
+        multiplesOfThree.add(rid(10, i));
+    }
+
+    rare.add(rid(9, 6));
+    rare.add(rid(10, 12));
+    rare.add(rid(10, 13));
+    rare.add(rid(10, 29994));
+    rare.add(rid(11, 6));
+
+    final Set<OIdentifiable> result = OFullTextPostingList.intersect(Arrays.asList(multiplesOfTwo, multiplesOfThree, rare));
+    Assert.assertEquals(new ArrayList<OIdentifiable>(result), Arrays.<OIdentifiable> asList(rid(10, 12), rid(10, 29994)));
+
+    final Set<OIdentifiable> expected = new HashSet<OIdentifiable>(multiplesOfTwo);
+    expected.retainAll(multiplesOfThree);
+    Assert.assertEquals(OFullTextPostingList.intersect(Arrays.asList(multiplesOfTwo, multiplesOfThree)), expected);
+  }
+
+  public void testFrequencies() {
+    final OFullTextPostingList postingList = new OFullTextPostingList(true);
+    long lengthSum = 0;
+    for (int i = 0; i < 1000; i++) {
+      postingList.add(rid(10, i * 3), i % 5 + 1, i % 50 + 10);
+      lengthSum += i % 50 + 10;
+    }
+
+    // FREQUENCY AND LENGTH OF PRESENT RECORD ARE REPLACED
+    Assert.assertFalse(postingList.add(rid(10, 3), 7, 20));
+    lengthSum += 20 - 11;
+
+    Assert.assertTrue(postingList.remove(rid(10, 6)));
+    lengthSum -= 12;
+
+    final OFullTextPostingList loaded = new OFullTextPostingList().fromStream(postingList.toStream());
+    Assert.assertTrue(loaded.isWithFrequencies());
+    Assert.assertEquals(loaded.size(), 999);
+    Assert.assertEquals(loaded.getLengthSum(), lengthSum);
+
+    Assert.assertEquals(loaded.getFrequency(rid(10, 0)), 1);
+    Assert.assertEquals(loaded.getFrequency(rid(10, 3)), 7);
+    Assert.assertEquals(loaded.getFrequency(rid(10, 6)), 0);
+    Assert.assertEquals(loaded.getFrequency(rid(10, 2997)), 5);
+
+    // LISTS WITHOUT FREQUENCIES KEEP THE FORMAT OF PREVIOUS VERSION
+    final OFullTextPostingList withoutFrequencies = new OFullTextPostingList();
+    withoutFrequencies.add(rid(10, 1), 3, 10);
+    Assert.assertEquals(withoutFrequencies.toStream()[0], 1);
+    Assert.assertEquals(new OFullTextPostingList().fromStream(withoutFrequencies.toStream()).getFrequency(rid(10, 1)), 1);
+  }
+
+  private static ORecordId rid(int clusterId, long position) {
+    return new ORecordId(clusterId, OClusterPositionFactory.INSTANCE.valueOf(position));
+  }
+}
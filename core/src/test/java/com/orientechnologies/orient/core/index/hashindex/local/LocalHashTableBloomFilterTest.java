@@ -0,0 +1,121 @@
+package com.orientechnologies.orient.core.index.hashindex.local;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.profiler.OProfiler;
+import com.orientechnologies.common.serialization.types.OIntegerSerializer;
+import com.orientechnologies.common.serialization.types.OStringSerializer;
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.storage.impl.local.OStorageLocal;
+
+@Test
+public class LocalHashTableBloomFilterTest {
+  private static final int                  KEYS_COUNT = 100000;
+
+  private ODatabaseDocumentTx               databaseDocumentTx;
+  private OLocalHashTable<Integer, String>  localHashTable;
+  private OMurmurHash3HashFunction<Integer> murmurHash3HashFunction;
+
+  private int                               bitsPerKey;
+  private boolean                           profilerWasRecording;
+  private String                            profilerPrefix;
+
+  @BeforeClass
+  public void beforeClass() {
+    bitsPerKey = OGlobalConfiguration.HASH_TABLE_BLOOM_FILTER_BITS_PER_KEY.getValueAsInteger();
+    OGlobalConfiguration.HASH_TABLE_BLOOM_FILTER_BITS_PER_KEY.setValue(10);
+
+    profilerWasRecording = Orient.instance().getProfiler().isRecording();
+    if (!profilerWasRecording)
+      Orient.instance().getProfiler().startRecording();
+
+    String buildDirectory = System.getProperty("buildDirectory");
+    if (buildDirectory == null)
+      buildDirectory = ".";
+
+    databaseDocumentTx = new ODatabaseDocumentTx("local:" + buildDirectory + "/localHashTableBloomFilterTest");
+    if (databaseDocumentTx.exists()) {
+      databaseDocumentTx.open("admin", "admin");
+      databaseDocumentTx.drop();
+    }
+
+    databaseDocumentTx.create();
+
+    murmurHash3HashFunction = new OMurmurHash3HashFunction<Integer>();
+    murmurHash3HashFunction.setValueSerializer(OIntegerSerializer.INSTANCE);
+
+    localHashTable = createHashTable();
+    localHashTable.create("localHashTableBloomFilterTest", OIntegerSerializer.INSTANCE, OStringSerializer.INSTANCE,
+        (OStorageLocal) databaseDocumentTx.getStorage());
+
+    profilerPrefix = "db." + databaseDocumentTx.getStorage().getName() + ".hashTable.localHashTableBloomFilterTest.bloomFilter.";
+  }
+
+  @AfterClass
+  public void afterClass() throws Exception {
+    OGlobalConfiguration.HASH_TABLE_BLOOM_FILTER_BITS_PER_KEY.setValue(bitsPerKey);
+    if (!profilerWasRecording)
+      Orient.instance().getProfiler().stopRecording();
+
+    localHashTable.clear();
+    localHashTable.delete();
+    databaseDocumentTx.drop();
+  }
+
+  public void testAbsentKeysAreFiltered() {
+    for (int i = 0; i < KEYS_COUNT; i++)
+      localHashTable.put(i * 2, i * 2 + "");
+
+    for (int i = 0; i < KEYS_COUNT; i++)
+      Assert.assertEquals(localHashTable.get(i * 2), i * 2 + "");
+
+    final OProfiler profiler = Orient.instance().getProfiler();
+    final long filteredBefore = Math.max(profiler.getCounter(profilerPrefix + "filtered"), 0);
+    final long falsePositivesBefore = Math.max(profiler.getCounter(profilerPrefix + "falsePositives"), 0);
+
+    for (int i = 0; i < KEYS_COUNT; i++)
+      Assert.assertNull(localHashTable.get(i * 2 + 1));
+
+    final long filtered = profiler.getCounter(profilerPrefix + "filtered") - filteredBefore;
+    final long falsePositives = Math.max(profiler.getCounter(profilerPrefix + "falsePositives"), 0) - falsePositivesBefore;
+
+    Assert.assertEquals(filtered + falsePositives, KEYS_COUNT);
+    Assert.assertTrue(falsePositives < KEYS_COUNT / 20, "Too many false positives " + falsePositives);
+
+    final double falsePositiveRate = (Double) profiler.getHookValue(profilerPrefix + "falsePositiveRate");
+    Assert.assertTrue(falsePositiveRate < 0.05);
+  }
+
+  @Test(dependsOnMethods = "testAbsentKeysAreFiltered")
+  public void testFilterIsRebuiltOnLoad() {
+    for (int i = 0; i < KEYS_COUNT; i += 2)
+      localHashTable.remove(i * 2);
+
+    localHashTable.close();
+
+    localHashTable = createHashTable();
+    localHashTable.load("localHashTableBloomFilterTest", (OStorageLocal) databaseDocumentTx.getStorage());
+
+    final OProfiler profiler = Orient.instance().getProfiler();
+    final long filteredBefore = Math.max(profiler.getCounter(profilerPrefix + "filtered"), 0);
+
+    for (int i = 0; i < KEYS_COUNT; i++)
+      if (i % 2 == 0)
+        Assert.assertNull(localHashTable.get(i * 2));
+      else
+        Assert.assertEquals(localHashTable.get(i * 2), i * 2 + "");
+
+    // REMOVED KEYS ARE NOT PRESENT IN THE REBUILT FILTER
+    Assert.assertTrue(profiler.getCounter(profilerPrefix + "filtered") - filteredBefore > KEYS_COUNT / 2 * 0.95);
+  }
+
+  private OLocalHashTable<Integer, String> createHashTable() {
+    return new OLocalHashTable<Integer, String>(OAbstractLocalHashIndex.METADATA_CONFIGURATION_FILE_EXTENSION,
+        OAbstractLocalHashIndex.TREE_STATE_FILE_EXTENSION, OAbstractLocalHashIndex.BUCKET_FILE_EXTENSION, murmurHash3HashFunction);
+  }
+}
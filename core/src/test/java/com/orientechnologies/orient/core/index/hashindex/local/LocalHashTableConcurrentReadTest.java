@@ -0,0 +1,175 @@
+package com.orientechnologies.orient.core.index.hashindex.local;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.serialization.types.OIntegerSerializer;
+import com.orientechnologies.common.serialization.types.OStringSerializer;
+import com.orientechnologies.common.util.MersenneTwisterFast;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.storage.impl.local.OStorageLocal;
+
+@Test
+public class LocalHashTableConcurrentReadTest {
+  private static final int                 STABLE_KEYS_COUNT = 100000;
+  private static final int                 READERS_COUNT     = 4;
+
+  private ODatabaseDocumentTx              databaseDocumentTx;
+  private OLocalHashTable<Integer, String> localHashTable;
+
+  @BeforeClass
+  public void beforeClass() {
+    String buildDirectory = System.getProperty("buildDirectory");
+    if (buildDirectory == null)
+      buildDirectory = ".";
+
+    databaseDocumentTx = new ODatabaseDocumentTx("local:" + buildDirectory + "/localHashTableConcurrentReadTest");
+    if (databaseDocumentTx.exists()) {
+      databaseDocumentTx.open("admin", "admin");
+      databaseDocumentTx.drop();
+    }
+
+    databaseDocumentTx.create();
+
+    OMurmurHash3HashFunction<Integer> murmurHash3HashFunction = new OMurmurHash3HashFunction<Integer>();
+    murmurHash3HashFunction.setValueSerializer(OIntegerSerializer.INSTANCE);
+
+    localHashTable = new OLocalHashTable<Integer, String>(OAbstractLocalHashIndex.METADATA_CONFIGURATION_FILE_EXTENSION,
+        OAbstractLocalHashIndex.TREE_STATE_FILE_EXTENSION, OAbstractLocalHashIndex.BUCKET_FILE_EXTENSION, murmurHash3HashFunction);
+
+    localHashTable.create("localHashTableConcurrentReadTest", OIntegerSerializer.INSTANCE, OStringSerializer.INSTANCE,
+        (OStorageLocal) databaseDocumentTx.getStorage());
+  }
+
+  @AfterClass
+  public void afterClass() throws Exception {
+    localHashTable.clear();
+    localHashTable.delete();
+    databaseDocumentTx.drop();
+  }
+
+  public void testReadsDuringSplitsAndMerges() throws Exception {
+    for (int i = 0; i < STABLE_KEYS_COUNT; i++)
+      localHashTable.put(i * 2, i * 2 + "");
+
+    final AtomicBoolean stop = new AtomicBoolean();
+    final ExecutorService executor = Executors.newFixedThreadPool(READERS_COUNT + 1);
+
+    final List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+    for (int n = 0; n < READERS_COUNT; n++)
+      readers.add(executor.submit(new Callable<Integer>() {
+        public Integer call() throws Exception {
+          final MersenneTwisterFast random = new MersenneTwisterFast();
+          int reads = 0;
+
+          while (!stop.get()) {
+            final int key = random.nextInt(STABLE_KEYS_COUNT * 2);
+            final String value = localHashTable.get(key);
+
+            if (key % 2 == 0)
+              Assert.assertEquals(value, key + "");
+            else if (value != null)
+              Assert.assertEquals(value, key + "");
+
+            reads++;
+          }
+
+          return reads;
+        }
+      }));
+
+    // ODD KEYS ARE ADDED AND REMOVED TO CAUSE SPLITS AND MERGES OF BUCKETS WHICH CONTAIN EVEN KEYS
+    final Future<Void> writer = executor.submit(new Callable<Void>() {
+      public Void call() throws Exception {
+        try {
+          for (int n = 0; n < 3; n++) {
+            for (int i = 0; i < STABLE_KEYS_COUNT; i++)
+              localHashTable.put(i * 2 + 1, i * 2 + 1 + "");
+
+            for (int i = 0; i < STABLE_KEYS_COUNT; i++)
+              localHashTable.remove(i * 2 + 1);
+          }
+        } finally {
+          stop.set(true);
+        }
+
+        return null;
+      }
+    });
+
+    writer.get();
+    for (Future<Integer> reader : readers)
+      Assert.assertTrue(reader.get() > 0);
+
+    executor.shutdown();
+
+    Assert.assertEquals(localHashTable.size(), STABLE_KEYS_COUNT);
+    for (int i = 0; i < STABLE_KEYS_COUNT; i++)
+      Assert.assertEquals(localHashTable.get(i * 2), i * 2 + "");
+  }
+
+  @Test(dependsOnMethods = "testReadsDuringSplitsAndMerges")
+  public void testReadsDuringClear() throws Exception {
+    final AtomicBoolean stop = new AtomicBoolean();
+    final ExecutorService executor = Executors.newFixedThreadPool(READERS_COUNT + 1);
+
+    final List<Future<Integer>> readers = new ArrayList<Future<Integer>>();
+    for (int n = 0; n < READERS_COUNT; n++)
+      readers.add(executor.submit(new Callable<Integer>() {
+        public Integer call() throws Exception {
+          final MersenneTwisterFast random = new MersenneTwisterFast();
+          int reads = 0;
+
+          while (!stop.get()) {
+            final int key = random.nextInt(STABLE_KEYS_COUNT * 2);
+            final String value = localHashTable.get(key);
+
+            if (value != null)
+              Assert.assertEquals(value, key + "");
+
+            reads++;
+          }
+
+          return reads;
+        }
+      }));
+
+    // FILES OF BUCKETS ARE TRUNCATED BY CLEAR WHILE READERS LOAD PAGES WITHOUT LOCK
+    final Future<Void> writer = executor.submit(new Callable<Void>() {
+      public Void call() throws Exception {
+        try {
+          for (int n = 0; n < 5; n++) {
+            localHashTable.clear();
+
+            for (int i = 0; i < STABLE_KEYS_COUNT; i++)
+              localHashTable.put(i * 2, i * 2 + "");
+          }
+        } finally {
+          stop.set(true);
+        }
+
+        return null;
+      }
+    });
+
+    writer.get();
+    for (Future<Integer> reader : readers)
+      Assert.assertTrue(reader.get() > 0);
+
+    executor.shutdown();
+
+    Assert.assertEquals(localHashTable.size(), STABLE_KEYS_COUNT);
+    for (int i = 0; i < STABLE_KEYS_COUNT; i++)
+      Assert.assertEquals(localHashTable.get(i * 2), i * 2 + "");
+  }
+}
@@ -1,6 +1,8 @@
 package com.orientechnologies.orient.core.index.hashindex.local;
 
+import java.util.ArrayList;
 import java.util.HashSet;
+import java.util.List;
 import java.util.Set;
 
 import com.orientechnologies.common.directmemory.ODirectMemoryFactory;
@@ -214,4 +216,25 @@ public class LocalHashTableTest {
         Assert.assertEquals(localHashTable.get(KEYS_COUNT + i), "" + (KEYS_COUNT + i));
     }
   }
+
+  public void testGetEntries() {
+    for (int i = 0; i < KEYS_COUNT; i += 2)
+      localHashTable.put(i, i + "");
+
+    final List<Integer> keys = new ArrayList<Integer>();
+    for (int i = 0; i < 10000; i++)
+      keys.add(i);
+
+    final List<OHashIndexBucket.Entry<Integer, String>> entries = localHashTable.getEntries(keys, -1);
+    Assert.assertEquals(entries.size(), 5000);
+
+    final Set<Integer> foundKeys = new HashSet<Integer>();
+    for (OHashIndexBucket.Entry<Integer, String> entry : entries) {
+      Assert.assertEquals(entry.value, entry.key + "");
+      Assert.assertTrue(foundKeys.add(entry.key));
+      Assert.assertTrue(entry.key % 2 == 0);
+    }
+
+    Assert.assertEquals(localHashTable.getEntries(keys, 100).size(), 100);
+  }
 }
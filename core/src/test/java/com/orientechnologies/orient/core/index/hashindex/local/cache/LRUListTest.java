@@ -274,6 +274,40 @@ public class LRUListTest {
     }
   }
 
+  public void testUnusedEntriesAreCounted() {
+    LRUList lruList = new LRUList();
+    Assert.assertFalse(lruList.hasUnusedEntries());
+
+    LRUEntry first = lruList.putToMRU(1, 10, 100, false, new OLogSequenceNumber(0, 0));
+    LRUEntry second = lruList.putToMRU(1, 20, 200, false, new OLogSequenceNumber(0, 0));
+    Assert.assertTrue(lruList.hasUnusedEntries());
+
+    lruList.incrementUsageCounter(first);
+    lruList.incrementUsageCounter(first);
+    lruList.incrementUsageCounter(second);
+    Assert.assertFalse(lruList.hasUnusedEntries());
+
+    // ENTRY WHICH IS ALREADY IN LIST DOES NOT CHANGE ITS USAGE
+    lruList.putToMRU(1, 10, 100, false, new OLogSequenceNumber(0, 0));
+    Assert.assertFalse(lruList.hasUnusedEntries());
+
+    lruList.decrementUsageCounter(first);
+    Assert.assertFalse(lruList.hasUnusedEntries());
+
+    lruList.decrementUsageCounter(first);
+    Assert.assertTrue(lruList.hasUnusedEntries());
+
+    assertLRUEntry(lruList.removeLRU(), 1, 10, 100);
+    Assert.assertFalse(lruList.hasUnusedEntries());
+
+    lruList.decrementUsageCounter(second);
+    Assert.assertTrue(lruList.hasUnusedEntries());
+
+    lruList.remove(1, 20);
+    Assert.assertFalse(lruList.hasUnusedEntries());
+    Assert.assertEquals(lruList.size(), 0);
+  }
+
   private void assertLRUEntry(LRUEntry lruEntry, long fileId, long filePosition, long dataPointer) {
     Assert.assertEquals(lruEntry.fileId, fileId);
     Assert.assertEquals(lruEntry.pageIndex, filePosition);
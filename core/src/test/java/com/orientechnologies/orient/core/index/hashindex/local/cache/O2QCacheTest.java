@@ -21,7 +21,9 @@ import com.orientechnologies.common.serialization.types.OLongSerializer;
 import com.orientechnologies.orient.core.Orient;
 import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.config.OStorageSegmentConfiguration;
+import com.orientechnologies.orient.core.exception.OStorageException;
 import com.orientechnologies.orient.core.storage.fs.OFileClassic;
+import com.orientechnologies.orient.core.storage.fs.OFileDirect;
 import com.orientechnologies.orient.core.storage.fs.OFileFactory;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.OLocalPaginatedStorage;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.ODirtyPage;
@@ -527,6 +529,278 @@ public class O2QCacheTest {
     }
   }
 
+  public void testSeveralSegmentsFlushAllPages() throws Exception {
+    closeBufferAndDeleteFile();
+
+    buffer = new O2QCache(4 * 64 * (8 + systemOffset), 15000, directMemory, null, 8 + systemOffset, storageLocal, true, 4, 0);
+    Assert.assertEquals(buffer.getSegmentsCount(), 4);
+
+    long fileId = buffer.openFile(fileConfiguration, ".tst");
+
+    for (int i = 0; i < 1024; i++) {
+      long pointer = buffer.load(fileId, i);
+      buffer.markDirty(fileId, i);
+      directMemory.set(pointer + systemOffset, new byte[] { (byte) i, 1, 2, seed, 4, 5, 6, (byte) (i >> 8) }, 0, 8);
+      buffer.release(fileId, i);
+    }
+
+    Assert.assertEquals(buffer.getFilledUpTo(fileId), 1024);
+    buffer.flushBuffer();
+
+    for (int i = 0; i < 1024; i++)
+      assertFile(i, new byte[] { (byte) i, 1, 2, seed, 4, 5, 6, (byte) (i >> 8) }, new OLogSequenceNumber(0, 0));
+  }
+
+  public void testSegmentsCountIsDecreasedForSmallCache() throws Exception {
+    closeBufferAndDeleteFile();
+
+    buffer = new O2QCache(4 * (8 + systemOffset), 15000, directMemory, null, 8 + systemOffset, storageLocal, true, 16, 0);
+    Assert.assertEquals(buffer.getSegmentsCount(), 1);
+  }
+
+  public void testDirectIOCacheCreatesFilesWithAlignedPages() throws Exception {
+    closeBufferAndDeleteFile();
+
+    buffer = new O2QCache(4 * (8 + systemOffset), 15000, directMemory, null, 8 + systemOffset, storageLocal, true, 1, 0, 0, false,
+        0, true);
+
+    long fileId = buffer.openFile(fileConfiguration, ".tst");
+
+    for (int i = 0; i < 4; i++) {
+      long pointer = buffer.load(fileId, i);
+      buffer.markDirty(fileId, i);
+      directMemory.set(pointer + systemOffset, new byte[] { (byte) i, 1, 2, seed, 4, 5, 6, (byte) i }, 0, 8);
+      buffer.release(fileId, i);
+    }
+
+    buffer.flushBuffer();
+
+    File file = new File(storageLocal.getConfiguration().getDirectory() + "/o2QCacheTest.0.tst");
+    Assert.assertEquals(file.length(), OFileDirect.DIRECT_HEADER_SIZE + 4 * (8 + systemOffset));
+
+    for (int i = 0; i < 4; i++)
+      assertFile(i, new byte[] { (byte) i, 1, 2, seed, 4, 5, 6, (byte) i }, new OLogSequenceNumber(0, 0));
+  }
+
+  public void testWriteBehindFlushesEvictedAndDirtyPages() throws Exception {
+    closeBufferAndDeleteFile();
+
+    buffer = new O2QCache(4 * (8 + systemOffset), 15000, directMemory, null, 8 + systemOffset, storageLocal, true, 1, 3600000);
+
+    long fileId = buffer.openFile(fileConfiguration, ".tst");
+
+    for (int i = 0; i < 8; i++) {
+      long pointer = buffer.load(fileId, i);
+      buffer.markDirty(fileId, i);
+      directMemory.set(pointer + systemOffset, new byte[] { (byte) i, 1, 2, seed, 4, 5, 6, (byte) i }, 0, 8);
+      buffer.release(fileId, i);
+    }
+
+    Assert.assertTrue(buffer.getWriteQueueSize() > 0);
+    Assert.assertEquals(buffer.getDirtyPagesCount(), 8);
+
+    buffer.flushWriteBehind();
+
+    Assert.assertEquals(buffer.getWriteQueueSize(), 0);
+    Assert.assertEquals(buffer.getDirtyPagesCount(), 0);
+
+    for (int i = 0; i < 8; i++)
+      assertFile(i, new byte[] { (byte) i, 1, 2, seed, 4, 5, 6, (byte) i }, new OLogSequenceNumber(0, 0));
+
+    for (int i = 0; i < 8; i++) {
+      long pointer = buffer.load(fileId, i);
+      Assert.assertEquals(directMemory.get(pointer + systemOffset, 8), new byte[] { (byte) i, 1, 2, seed, 4, 5, 6, (byte) i });
+      buffer.release(fileId, i);
+    }
+  }
+
+  public void testWriteBehindFlushesPagesOfAllSegments() throws Exception {
+    closeBufferAndDeleteFile();
+
+    buffer = new O2QCache(4 * 64 * (8 + systemOffset), 16, directMemory, null, 8 + systemOffset, storageLocal, true, 4, 3600000);
+    Assert.assertEquals(buffer.getSegmentsCount(), 4);
+
+    long fileId = buffer.openFile(fileConfiguration, ".tst");
+
+    for (int i = 0; i < 1024; i++) {
+      long pointer = buffer.load(fileId, i);
+      buffer.markDirty(fileId, i);
+      directMemory.set(pointer + systemOffset, new byte[] { (byte) i, 1, 2, seed, 4, 5, 6, (byte) i }, 0, 8);
+      buffer.release(fileId, i);
+
+      // high-water mark of write queue is shared by all segments
+      Assert.assertTrue(buffer.getWriteQueueSize() <= 16 + 4);
+    }
+
+    Assert.assertTrue(buffer.getWriteQueueSize() > 0);
+
+    buffer.flushWriteBehind();
+
+    Assert.assertEquals(buffer.getWriteQueueSize(), 0);
+    Assert.assertEquals(buffer.getDirtyPagesCount(), 0);
+
+    for (int i = 0; i < 1024; i++)
+      assertFile(i, new byte[] { (byte) i, 1, 2, seed, 4, 5, 6, (byte) i }, new OLogSequenceNumber(0, 0));
+  }
+
+  public void testWriteBehindSkipsPagesWhichAreNotFlushedToWAL() throws Exception {
+    closeBufferAndDeleteFile();
+
+    File file = new File(storageLocal.getConfiguration().getDirectory());
+    if (!file.exists())
+      file.mkdir();
+
+    writeAheadLog = new OWriteAheadLog(1024, -1, 10 * 1024, 100L * 1024 * 1024 * 1024, storageLocal);
+
+    buffer = new O2QCache(4 * (8 + systemOffset), 15000, directMemory, writeAheadLog, 8 + systemOffset, storageLocal, true, 1,
+        3600000);
+
+    long fileId = buffer.openFile(fileConfiguration, ".tst");
+
+    long pointer = buffer.load(fileId, 0);
+    setLsn(pointer, writeAheadLog.log(new WriteAheadLogTest.TestRecord(30, false)));
+    buffer.markDirty(fileId, 0);
+    buffer.release(fileId, 0);
+
+    buffer.flushWriteBehind();
+    Assert.assertEquals(buffer.getDirtyPagesCount(), 1);
+
+    writeAheadLog.flush();
+
+    buffer.flushWriteBehind();
+    Assert.assertEquals(buffer.getDirtyPagesCount(), 0);
+  }
+
+  public void testSequentialScanReadsAheadAndDoesNotPromotePages() throws Exception {
+    closeBufferAndDeleteFile();
+
+    buffer = new O2QCache(16 * (8 + systemOffset), 15000, directMemory, null, 8 + systemOffset, storageLocal, true, 1, 0, 4);
+
+    long fileId = buffer.openFile(fileConfiguration, ".tst");
+
+    for (int i = 0; i < 64; i++) {
+      long pointer = buffer.load(fileId, i);
+      buffer.markDirty(fileId, i);
+      directMemory.set(pointer + systemOffset, new byte[] { (byte) i, 1, 2, seed, 4, 5, 6, (byte) i }, 0, 8);
+      buffer.release(fileId, i);
+    }
+
+    buffer.clear();
+
+    LRUList am = buffer.getAm();
+    LRUList a1in = buffer.getA1in();
+    LRUList a1out = buffer.getA1out();
+
+    for (int i = 0; i < 4; i++) {
+      buffer.load(fileId, i);
+      buffer.release(fileId, i);
+    }
+
+    for (int i = 4; i < 8; i++)
+      Assert.assertTrue(a1in.contains(fileId, i));
+
+    for (int i = 4; i < 32; i++) {
+      long pointer = buffer.load(fileId, i);
+      Assert.assertEquals(directMemory.get(pointer + systemOffset, 8), new byte[] { (byte) i, 1, 2, seed, 4, 5, 6, (byte) i });
+      buffer.release(fileId, i);
+    }
+
+    buffer.load(fileId, 40);
+    buffer.release(fileId, 40);
+
+    Assert.assertEquals(am.size(), 0);
+
+    for (int n = 0; n < 2; n++) {
+      for (int i = 0; i < 32; i++) {
+        long pointer = buffer.load(fileId, i);
+        Assert.assertEquals(directMemory.get(pointer + systemOffset, 8), new byte[] { (byte) i, 1, 2, seed, 4, 5, 6, (byte) i });
+        buffer.release(fileId, i);
+      }
+
+      buffer.load(fileId, 40);
+      buffer.release(fileId, 40);
+    }
+
+    Assert.assertTrue(am.contains(fileId, 40));
+
+    for (int i = 3; i < 32; i++) {
+      Assert.assertFalse(am.contains(fileId, i));
+      Assert.assertFalse(a1out.contains(fileId, i));
+    }
+  }
+
+  public void testBrokenPageIsDetectedOnLoad() throws Exception {
+    closeBufferAndDeleteFile();
+
+    buffer = new O2QCache(4 * (8 + systemOffset), 15000, directMemory, null, 8 + systemOffset, storageLocal, true, 1, 0, 0, true,
+        0);
+
+    long fileId = buffer.openFile(fileConfiguration, ".tst");
+
+    for (int i = 0; i < 6; i++) {
+      long pointer = buffer.load(fileId, i);
+      buffer.markDirty(fileId, i);
+      directMemory.set(pointer + systemOffset, new byte[] { (byte) i, 1, 2, seed, 4, 5, 6, 7 }, 0, 8);
+      buffer.release(fileId, i);
+    }
+
+    buffer.clear();
+
+    updateFilePage(2, systemOffset + 2, new byte[] { 13 });
+
+    for (int i = 0; i < 6; i++) {
+      if (i == 2) {
+        try {
+          buffer.load(fileId, i);
+          Assert.fail();
+        } catch (OStorageException e) {
+        }
+
+        continue;
+      }
+
+      long pointer = buffer.load(fileId, i);
+      Assert.assertEquals(directMemory.get(pointer + systemOffset, 8), new byte[] { (byte) i, 1, 2, seed, 4, 5, 6, 7 });
+      buffer.release(fileId, i);
+    }
+
+    OPageDataVerificationError[] brokenPages = buffer.getBrokenPages();
+    Assert.assertEquals(brokenPages.length, 1);
+    Assert.assertEquals(brokenPages[0], new OPageDataVerificationError(false, true, 2, "o2QCacheTest"));
+  }
+
+  public void testScrubberDetectsBrokenPages() throws Exception {
+    closeBufferAndDeleteFile();
+
+    buffer = new O2QCache(4 * (8 + systemOffset), 15000, directMemory, null, 8 + systemOffset, storageLocal, true, 1, 0, 0, false,
+        1000);
+
+    long fileId = buffer.openFile(fileConfiguration, ".tst");
+
+    for (int i = 0; i < 6; i++) {
+      long pointer = buffer.load(fileId, i);
+      buffer.markDirty(fileId, i);
+      directMemory.set(pointer + systemOffset, new byte[] { (byte) i, 1, 2, seed, 4, 5, 6, 7 }, 0, 8);
+      buffer.release(fileId, i);
+    }
+
+    buffer.flushBuffer();
+
+    updateFilePage(1, 0, new byte[] { 13 });
+    updateFilePage(4, systemOffset + 3, new byte[] { 13 });
+
+    long endTime = System.currentTimeMillis() + 10000;
+    while (buffer.getBrokenPages().length < 2 && System.currentTimeMillis() < endTime)
+      Thread.sleep(100);
+
+    Set<OPageDataVerificationError> brokenPages = new HashSet<OPageDataVerificationError>(Arrays.asList(buffer.getBrokenPages()));
+    Set<OPageDataVerificationError> expectedBrokenPages = new HashSet<OPageDataVerificationError>();
+    expectedBrokenPages.add(new OPageDataVerificationError(true, false, 1, "o2QCacheTest"));
+    expectedBrokenPages.add(new OPageDataVerificationError(false, true, 4, "o2QCacheTest"));
+
+    Assert.assertEquals(brokenPages, expectedBrokenPages);
+  }
+
   public void testDataVerificationOK() throws Exception {
     long fileId = buffer.openFile(fileConfiguration, ".tst");
 
@@ -0,0 +1,285 @@
+package com.orientechnologies.orient.core.index.sbtree.local;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.collection.OCompositeKey;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.index.OIndexException;
+import com.orientechnologies.orient.core.index.OSimpleKeyIndexDefinition;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+
+@Test
+public class SBTreeIndexTest {
+  private static final int    KEYS_COUNT = 100000;
+
+  private ODatabaseDocumentTx databaseDocumentTx;
+
+  @BeforeClass
+  public void beforeClass() {
+    String buildDirectory = System.getProperty("buildDirectory");
+    if (buildDirectory == null || buildDirectory.isEmpty())
+      buildDirectory = ".";
+
+    databaseDocumentTx = new ODatabaseDocumentTx("plocal:" + buildDirectory + File.separator + "sbTreeIndexTest");
+    if (databaseDocumentTx.exists()) {
+      databaseDocumentTx.open("admin", "admin");
+      databaseDocumentTx.drop();
+    }
+
+    databaseDocumentTx.create();
+  }
+
+  @AfterClass
+  public void afterClass() {
+    if (databaseDocumentTx.isClosed())
+      databaseDocumentTx.open("admin", "admin");
+
+    databaseDocumentTx.drop();
+  }
+
+  public void testIndexSupportsRangeQueriesAndSurvivesReopen() {
+    OIndex<?> index = databaseDocumentTx
+        .getMetadata()
+        .getIndexManager()
+        .createIndex("sbTreeIndex", OClass.INDEX_TYPE.UNIQUE_SBTREE.toString(), new OSimpleKeyIndexDefinition(OType.INTEGER),
+            null, null);
+
+    for (int i = 0; i < KEYS_COUNT; i++)
+      index.put(i, rid(i));
+
+    databaseDocumentTx.close();
+    databaseDocumentTx.open("admin", "admin");
+
+    index = databaseDocumentTx.getMetadata().getIndexManager().getIndex("sbTreeIndex");
+    Assert.assertEquals(index.getSize(), KEYS_COUNT);
+
+    for (int i = 0; i < KEYS_COUNT; i++)
+      Assert.assertEquals(index.get(i), rid(i));
+
+    final Collection<OIdentifiable> values = index.getValuesBetween(100, true, 199, true);
+    Assert.assertEquals(values.size(), 100);
+    for (int i = 100; i < 200; i++)
+      Assert.assertTrue(values.contains(rid(i)));
+
+    Assert.assertEquals(index.getValuesMajor(KEYS_COUNT - 10, true, 5).size(), 5);
+
+    final Collection<ODocument> entries = index.getEntriesMinor(10, false);
+    Assert.assertEquals(entries.size(), 10);
+    for (ODocument entry : entries)
+      Assert.assertTrue((Integer) entry.field("key") < 10);
+  }
+
+  public void testIteratorsFollowOrderOfKeys() {
+    final int keysCount = 10000;
+
+    final OIndex<?> index = databaseDocumentTx
+        .getMetadata()
+        .getIndexManager()
+        .createIndex("sbTreeIteratedIndex", OClass.INDEX_TYPE.UNIQUE_SBTREE.toString(),
+            new OSimpleKeyIndexDefinition(OType.INTEGER), null, null);
+    Assert.assertTrue(index.supportsOrderedIterations());
+
+    for (int i = 0; i < keysCount; i++)
+      index.put(i, rid(i));
+
+    // LEAVES OF REMOVED KEYS ARE MERGED, ITERATORS FOLLOW CHANGED LINKS BETWEEN SIBLINGS
+    for (int i = 0; i < keysCount; i++)
+      if (i % 2 == 0 || (i > 2000 && i < 4000))
+        index.remove(i);
+
+    int expected = 1;
+    final Iterator<? extends Map.Entry<Object, ?>> entriesIterator = index.iterator();
+    while (entriesIterator.hasNext()) {
+      final Map.Entry<Object, ?> entry = entriesIterator.next();
+      Assert.assertEquals(entry.getKey(), expected);
+      Assert.assertEquals(entry.getValue(), rid(expected));
+      expected = nextKey(expected, 2);
+    }
+    Assert.assertEquals(expected, keysCount + 1);
+
+    expected = keysCount - 1;
+    for (Iterator<OIdentifiable> iterator = index.valuesInverseIterator(); iterator.hasNext(); expected = nextKey(expected, -2))
+      Assert.assertEquals(iterator.next(), rid(expected));
+    Assert.assertEquals(expected, -1);
+
+    int keys = 0;
+    for (Object key : index.keys()) {
+      Assert.assertEquals(((Integer) key) % 2, 1);
+      keys++;
+    }
+    Assert.assertEquals(keys, index.getSize());
+
+    Assert.assertEquals(index.remove(rid(4001)), 1);
+    Assert.assertNull(index.get(4001));
+  }
+
+  public void testCompositeKeyRanges() {
+    final OIndex<?> index = databaseDocumentTx
+        .getMetadata()
+        .getIndexManager()
+        .createIndex("sbTreeCompositeIndex", OClass.INDEX_TYPE.UNIQUE_SBTREE.toString(),
+            new OSimpleKeyIndexDefinition(OType.INTEGER, OType.INTEGER), null, null);
+
+    for (int i = 0; i < 100; i++)
+      for (int j = 0; j < 100; j++)
+        index.put(new OCompositeKey(i, j), rid(i * 100 + j));
+
+    Collection<OIdentifiable> values = index.getValuesBetween(new OCompositeKey(10), true, new OCompositeKey(12), true);
+    Assert.assertEquals(values.size(), 300);
+    for (int i = 1000; i < 1300; i++)
+      Assert.assertTrue(values.contains(rid(i)));
+
+    values = index.getValuesBetween(new OCompositeKey(10, 50), true, new OCompositeKey(11, 49), true);
+    Assert.assertEquals(values.size(), 100);
+    for (int i = 1050; i < 1150; i++)
+      Assert.assertTrue(values.contains(rid(i)));
+
+    values = index.getValuesBetween(new OCompositeKey(10), false, new OCompositeKey(12), false);
+    Assert.assertEquals(values.size(), 100);
+    for (int i = 1100; i < 1200; i++)
+      Assert.assertTrue(values.contains(rid(i)));
+
+    Assert.assertEquals(index.getValuesMajor(new OCompositeKey(97), false).size(), 200);
+    Assert.assertEquals(index.getValuesMajor(new OCompositeKey(97, 50), true).size(), 250);
+
+    final Collection<ODocument> entries = index.getEntriesMinor(new OCompositeKey(2), false);
+    Assert.assertEquals(entries.size(), 200);
+    for (ODocument entry : entries)
+      Assert.assertTrue((Integer) ((OCompositeKey) entry.field("key")).getKeys().get(0) < 2);
+  }
+
+  public void testAutomaticUniqueIndex() {
+    final OClass uniqueClass = databaseDocumentTx.getMetadata().getSchema().createClass("SBTreeUniqueTest");
+    uniqueClass.createProperty("id", OType.INTEGER);
+    uniqueClass.createIndex("SBTreeUniqueTest.id", OClass.INDEX_TYPE.UNIQUE_SBTREE, "id");
+
+    final OIndex<?> index = databaseDocumentTx.getMetadata().getIndexManager().getIndex("SBTreeUniqueTest.id");
+    Assert.assertTrue(index.isAutomatic());
+
+    final ODocument[] documents = new ODocument[100];
+    for (int i = 0; i < documents.length; i++) {
+      documents[i] = new ODocument("SBTreeUniqueTest");
+      documents[i].field("id", i);
+      documents[i].save();
+    }
+
+    Assert.assertEquals(index.getSize(), 100);
+    for (int i = 0; i < documents.length; i++)
+      Assert.assertEquals(index.get(i), documents[i].getIdentity());
+
+    try {
+      final ODocument duplicate = new ODocument("SBTreeUniqueTest");
+      duplicate.field("id", 10);
+      duplicate.save();
+      Assert.fail();
+    } catch (OIndexException e) {
+    }
+
+    documents[10].field("id", 1000);
+    documents[10].save();
+    Assert.assertNull(index.get(10));
+    Assert.assertEquals(index.get(1000), documents[10].getIdentity());
+
+    documents[20].delete();
+    Assert.assertNull(index.get(20));
+
+    databaseDocumentTx.begin();
+    documents[30].field("id", 2000);
+    documents[30].save();
+    databaseDocumentTx.rollback();
+
+    Assert.assertEquals(index.get(30), documents[30].getIdentity());
+    Assert.assertNull(index.get(2000));
+    Assert.assertEquals(index.getSize(), 99);
+  }
+
+  public void testAutomaticNotUniqueIndex() {
+    final OClass notUniqueClass = databaseDocumentTx.getMetadata().getSchema().createClass("SBTreeNotUniqueTest");
+    notUniqueClass.createProperty("group", OType.INTEGER);
+    notUniqueClass.createIndex("SBTreeNotUniqueTest.group", OClass.INDEX_TYPE.NOTUNIQUE_SBTREE, "group");
+
+    final OIndex<?> index = databaseDocumentTx.getMetadata().getIndexManager().getIndex("SBTreeNotUniqueTest.group");
+    Assert.assertTrue(index.isAutomatic());
+
+    final ODocument[] documents = new ODocument[1000];
+    for (int i = 0; i < documents.length; i++) {
+      documents[i] = new ODocument("SBTreeNotUniqueTest");
+      documents[i].field("group", i % 10);
+      documents[i].save();
+    }
+
+    Assert.assertEquals(index.getSize(), 1000);
+    Assert.assertEquals(index.getKeySize(), 10);
+
+    Collection<?> values = (Collection<?>) index.get(3);
+    Assert.assertEquals(values.size(), 100);
+    for (int i = 3; i < documents.length; i += 10)
+      Assert.assertTrue(values.contains(documents[i].getIdentity()));
+
+    Assert.assertEquals(index.count(3), 100);
+    Assert.assertFalse(index.contains(10));
+    Assert.assertEquals(index.getValuesBetween(2, true, 4, false).size(), 200);
+    Assert.assertEquals(index.getValuesMajor(8, false).size(), 100);
+    Assert.assertEquals(index.getEntriesMinor(1, true).size(), 200);
+
+    int expectedKey = 0;
+    for (Iterator<? extends Map.Entry<Object, ?>> iterator = index.iterator(); iterator.hasNext();) {
+      final Map.Entry<Object, ?> entry = iterator.next();
+      Assert.assertEquals(entry.getKey(), expectedKey);
+      Assert.assertEquals(((Collection<?>) entry.getValue()).size(), 100);
+      expectedKey++;
+    }
+    Assert.assertEquals(expectedKey, 10);
+
+    expectedKey = 0;
+    for (Object key : index.keys()) {
+      Assert.assertEquals(key, expectedKey);
+      expectedKey++;
+    }
+    Assert.assertEquals(expectedKey, 10);
+
+    documents[3].field("group", 100);
+    documents[3].save();
+    documents[13].delete();
+
+    values = (Collection<?>) index.get(3);
+    Assert.assertEquals(values.size(), 98);
+    Assert.assertFalse(values.contains(documents[3].getIdentity()));
+    Assert.assertEquals(index.get(100), Collections.singleton(documents[3].getIdentity()));
+
+    databaseDocumentTx.begin();
+    documents[23].delete();
+    databaseDocumentTx.rollback();
+
+    Assert.assertEquals(index.count(3), 98);
+    Assert.assertEquals(index.getSize(), 999);
+  }
+
+  private static int nextKey(int key, int step) {
+    key += step;
+    // KEYS IN THE MIDDLE ARE REMOVED
+    if (key > 2000 && key < 4000)
+      key = step > 0 ? 4001 : 1999;
+    return key;
+  }
+
+  private static ORID rid(int position) {
+    return new ORecordId(1, OClusterPositionFactory.INSTANCE.valueOf(position));
+  }
+}
@@ -0,0 +1,261 @@
+package com.orientechnologies.orient.core.index.sbtree.local;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.serialization.types.OIntegerSerializer;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.serialization.serializer.binary.impl.OLinkSerializer;
+import com.orientechnologies.orient.core.storage.impl.local.OStorageLocalAbstract;
+
+@Test
+public class SBTreeTest {
+  private static final int                KEYS_COUNT = 100000;
+
+  private ODatabaseDocumentTx             databaseDocumentTx;
+  private OSBTree<Integer, OIdentifiable> sbTree;
+
+  @BeforeClass
+  public void beforeClass() {
+    String buildDirectory = System.getProperty("buildDirectory");
+    if (buildDirectory == null || buildDirectory.isEmpty())
+      buildDirectory = ".";
+
+    databaseDocumentTx = new ODatabaseDocumentTx("plocal:" + buildDirectory + File.separator + "sbTreeTest");
+    if (databaseDocumentTx.exists()) {
+      databaseDocumentTx.open("admin", "admin");
+      databaseDocumentTx.drop();
+    }
+
+    databaseDocumentTx.create();
+
+    sbTree = new OSBTree<Integer, OIdentifiable>(OAbstractLocalSBTreeIndex.DATA_FILE_EXTENSION);
+    sbTree.create("sbTreeTest", OIntegerSerializer.INSTANCE, OLinkSerializer.INSTANCE,
+        (OStorageLocalAbstract) databaseDocumentTx.getStorage());
+  }
+
+  @AfterMethod
+  public void afterMethod() {
+    sbTree.clear();
+  }
+
+  @AfterClass
+  public void afterClass() {
+    sbTree.delete();
+
+    if (databaseDocumentTx.isClosed())
+      databaseDocumentTx.open("admin", "admin");
+
+    databaseDocumentTx.drop();
+  }
+
+  public void testKeyPut() {
+    for (int i = 0; i < KEYS_COUNT; i++)
+      sbTree.put(i, rid(i));
+
+    Assert.assertEquals(sbTree.size(), KEYS_COUNT);
+
+    for (int i = 0; i < KEYS_COUNT; i++)
+      Assert.assertEquals(sbTree.get(i), rid(i), i + " key is absent");
+
+    for (int i = KEYS_COUNT; i < 2 * KEYS_COUNT; i++)
+      Assert.assertNull(sbTree.get(i));
+
+    Assert.assertEquals(sbTree.firstKey(), Integer.valueOf(0));
+    Assert.assertEquals(sbTree.lastKey(), Integer.valueOf(KEYS_COUNT - 1));
+  }
+
+  public void testKeyPutReverseOrder() {
+    for (int i = KEYS_COUNT - 1; i >= 0; i--)
+      sbTree.put(i, rid(i));
+
+    for (int i = 0; i < KEYS_COUNT; i++)
+      Assert.assertEquals(sbTree.get(i), rid(i), i + " key is absent");
+
+    Assert.assertEquals(sbTree.size(), KEYS_COUNT);
+  }
+
+  public void testKeyReplace() {
+    for (int i = 0; i < KEYS_COUNT; i++)
+      sbTree.put(i, rid(i));
+
+    for (int i = 0; i < KEYS_COUNT; i++)
+      sbTree.put(i, rid(i + KEYS_COUNT));
+
+    Assert.assertEquals(sbTree.size(), KEYS_COUNT);
+
+    for (int i = 0; i < KEYS_COUNT; i++)
+      Assert.assertEquals(sbTree.get(i), rid(i + KEYS_COUNT));
+  }
+
+  public void testKeyDelete() {
+    for (int i = 0; i < KEYS_COUNT; i++)
+      sbTree.put(i, rid(i));
+
+    for (int i = 0; i < KEYS_COUNT; i++)
+      if (i % 3 != 0)
+        Assert.assertEquals(sbTree.remove(i), rid(i));
+
+    Assert.assertEquals(sbTree.size(), KEYS_COUNT / 3 + 1);
+
+    for (int i = 0; i < KEYS_COUNT; i++)
+      if (i % 3 == 0)
+        Assert.assertEquals(sbTree.get(i), rid(i));
+      else
+        Assert.assertNull(sbTree.get(i));
+
+    Assert.assertNull(sbTree.remove(1));
+  }
+
+  public void testKeyDeleteRandomOrder() {
+    final List<Integer> keys = new ArrayList<Integer>();
+    for (int i = 0; i < KEYS_COUNT; i++) {
+      sbTree.put(i, rid(i));
+      keys.add(i);
+    }
+
+    Collections.shuffle(keys, new Random(42));
+    final List<Integer> removedKeys = keys.subList(0, KEYS_COUNT - 100);
+    for (int key : removedKeys)
+      Assert.assertEquals(sbTree.remove(key), rid(key));
+
+    final List<Integer> expected = new ArrayList<Integer>(keys.subList(KEYS_COUNT - 100, KEYS_COUNT));
+    Collections.sort(expected);
+
+    final List<Integer> found = new ArrayList<Integer>();
+    sbTree.loadEntriesMajor(-1, false, new KeysListener(found));
+    Assert.assertEquals(found, expected);
+
+    Assert.assertEquals(sbTree.size(), 100);
+    Assert.assertEquals(sbTree.firstKey(), expected.get(0));
+    Assert.assertEquals(sbTree.lastKey(), expected.get(99));
+
+    for (int key : removedKeys)
+      Assert.assertNull(sbTree.get(key));
+  }
+
+  public void testPagesOfRemovedKeysAreReused() {
+    for (int i = 0; i < KEYS_COUNT; i++)
+      sbTree.put(i, rid(i));
+
+    sbTree.flush();
+    final long fileSize = dataFile().length();
+    Assert.assertTrue(fileSize > 0);
+
+    for (int i = 0; i < KEYS_COUNT; i++)
+      sbTree.remove(i);
+
+    Assert.assertEquals(sbTree.size(), 0);
+    Assert.assertNull(sbTree.firstKey());
+    Assert.assertNull(sbTree.lastKey());
+
+    // BUCKETS ARE MERGED UNTIL ROOT IS THE ONLY LEAF, SO PAGES FOR KEYS OF ANOTHER RANGE ARE TAKEN FROM THE LIST OF FREE PAGES
+    for (int i = KEYS_COUNT; i < 2 * KEYS_COUNT; i++)
+      sbTree.put(i, rid(i));
+
+    sbTree.flush();
+    Assert.assertEquals(dataFile().length(), fileSize);
+
+    for (int i = KEYS_COUNT; i < 2 * KEYS_COUNT; i++)
+      Assert.assertEquals(sbTree.get(i), rid(i));
+  }
+
+  public void testRangeQueries() {
+    for (int i = 0; i < KEYS_COUNT; i += 2)
+      sbTree.put(i, rid(i));
+
+    // KEYS AT THE START OF THE RANGE ARE REMOVED TO CHECK THAT EMPTY PAGES ARE SKIPPED
+    for (int i = 0; i < KEYS_COUNT / 2; i += 2)
+      sbTree.remove(i);
+
+    Assert.assertEquals(loadBetween(KEYS_COUNT / 2, true, KEYS_COUNT / 2 + 100, true), range(KEYS_COUNT / 2,
+        KEYS_COUNT / 2 + 100));
+    Assert.assertEquals(loadBetween(KEYS_COUNT / 2, false, KEYS_COUNT / 2 + 100, false), range(KEYS_COUNT / 2 + 2,
+        KEYS_COUNT / 2 + 98));
+    Assert.assertEquals(loadBetween(KEYS_COUNT / 2 - 1, true, KEYS_COUNT / 2 + 101, true), range(KEYS_COUNT / 2,
+        KEYS_COUNT / 2 + 100));
+    Assert.assertEquals(loadBetween(0, true, 10, true), range(0, -2));
+
+    final List<Integer> major = new ArrayList<Integer>();
+    sbTree.loadEntriesMajor(KEYS_COUNT - 10, false, new KeysListener(major));
+    Assert.assertEquals(major, range(KEYS_COUNT - 8, KEYS_COUNT - 2));
+
+    final List<Integer> minor = new ArrayList<Integer>();
+    sbTree.loadEntriesMinor(KEYS_COUNT / 2 + 10, true, new KeysListener(minor));
+    Assert.assertEquals(minor, range(KEYS_COUNT / 2, KEYS_COUNT / 2 + 10));
+
+    Assert.assertEquals(sbTree.firstKey(), Integer.valueOf(KEYS_COUNT / 2));
+  }
+
+  public void testLoadEntriesOfKeys() {
+    for (int i = 0; i < KEYS_COUNT; i += 2)
+      sbTree.put(i, rid(i));
+
+    final List<Integer> keys = new ArrayList<Integer>();
+    for (int i = KEYS_COUNT + 10; i >= -10; i--)
+      keys.add(i);
+
+    final List<Integer> found = new ArrayList<Integer>();
+    sbTree.loadEntries(keys, new KeysListener(found));
+    Assert.assertEquals(found, range(0, KEYS_COUNT - 2));
+
+    final List<Integer> limited = new ArrayList<Integer>();
+    sbTree.loadEntries(keys, new OSBTree.RangeResultListener<Integer, OIdentifiable>() {
+      public boolean addResult(OSBTreeBucket.Entry<Integer, OIdentifiable> entry) {
+        limited.add(entry.key);
+        return limited.size() < 10;
+      }
+    });
+    Assert.assertEquals(limited, range(0, 18));
+  }
+
+  private List<Integer> loadBetween(int from, boolean fromInclusive, int to, boolean toInclusive) {
+    final List<Integer> keys = new ArrayList<Integer>();
+    sbTree.loadEntriesBetween(from, fromInclusive, to, toInclusive, new KeysListener(keys));
+    return keys;
+  }
+
+  private File dataFile() {
+    final String storagePath = ((OStorageLocalAbstract) databaseDocumentTx.getStorage()).getStoragePath();
+    return new File(storagePath, "sbTreeTest.0" + OAbstractLocalSBTreeIndex.DATA_FILE_EXTENSION);
+  }
+
+  private static List<Integer> range(int from, int to) {
+    final List<Integer> keys = new ArrayList<Integer>();
+    for (int i = from; i <= to; i += 2)
+      keys.add(i);
+
+    return keys;
+  }
+
+  private static ORID rid(int position) {
+    return new ORecordId(1, OClusterPositionFactory.INSTANCE.valueOf(position));
+  }
+
+  private static final class KeysListener implements OSBTree.RangeResultListener<Integer, OIdentifiable> {
+    private final List<Integer> keys;
+
+    private KeysListener(List<Integer> keys) {
+      this.keys = keys;
+    }
+
+    public boolean addResult(OSBTreeBucket.Entry<Integer, OIdentifiable> entry) {
+      Assert.assertEquals(entry.value, rid(entry.key));
+      keys.add(entry.key);
+      return true;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class CompiledConditionTest {
+  private static final int    PRODUCTS_COUNT = 200;
+
+  private ODatabaseDocumentTx databaseDocumentTx;
+
+  @BeforeClass
+  public void beforeClass() {
+    databaseDocumentTx = new ODatabaseDocumentTx("memory:compiledConditionTest");
+    databaseDocumentTx.create();
+
+    final OClass productClass = databaseDocumentTx.getMetadata().getSchema().createClass("Product");
+    productClass.createProperty("code", OType.INTEGER);
+    productClass.createProperty("stock", OType.LONG);
+    productClass.createProperty("name", OType.STRING);
+
+    for (int i = 0; i < PRODUCTS_COUNT; i++) {
+      final ODocument product = new ODocument("Product");
+      product.field("code", i);
+      product.field("stock", (long) (i % 25));
+      if (i % 7 != 0)
+        product.field("name", "product" + (i % 13));
+      product.save();
+    }
+  }
+
+  @AfterClass
+  public void afterClass() {
+    databaseDocumentTx.drop();
+  }
+
+  public void testComparisons() {
+    assertSameResult("select from Product where code = 10", 1);
+    assertSameResult("select from Product where code <> 10", PRODUCTS_COUNT - 1);
+    assertSameResult("select from Product where code < 50", 50);
+    assertSameResult("select from Product where code >= 150", 50);
+    assertSameResult("select from Product where name = 'product3'", -1);
+    assertSameResult("select from Product where name > 'product5'", -1);
+    assertSameResult("select from Product where name <> 'product3'", -1);
+  }
+
+  public void testLogicalOperators() {
+    assertSameResult("select from Product where code < 100 and stock = 3", 4);
+    assertSameResult("select from Product where code < 10 or stock > 20", -1);
+    assertSameResult("select from Product where not (code < 100)", 100);
+    assertSameResult("select from Product where (code < 20 or code > 180) and name <> 'product1'", -1);
+    assertSameResult("select from Product where name is null and code < 50", 8);
+  }
+
+  public void testValuesOfDifferentTypes() {
+    assertSameResult("select from Product where stock = 3", 8);
+    assertSameResult("select from Product where code > 100000000000", 0);
+    assertSameResult("select from Product where code < 10.5", 11);
+    assertSameResult("select from Product where code = '10'", 1);
+    assertSameResult("select from Product where stock <= 1.0", 16);
+  }
+
+  public void testParameters() {
+    final String query = "select from Product where code >= ? and stock < ? and name <> ?";
+
+    final boolean compileConditions = OGlobalConfiguration.COMMAND_COMPILE_CONDITIONS.getValueAsBoolean();
+    try {
+      OGlobalConfiguration.COMMAND_COMPILE_CONDITIONS.setValue(false);
+      final List<String> expected = codes(databaseDocumentTx.<List<ODocument>> query(new OSQLSynchQuery<ODocument>(query), 20,
+          10L, "product2"));
+      Assert.assertFalse(expected.isEmpty());
+
+      OGlobalConfiguration.COMMAND_COMPILE_CONDITIONS.setValue(true);
+      Assert.assertEquals(
+          codes(databaseDocumentTx.<List<ODocument>> query(new OSQLSynchQuery<ODocument>(query), 20, 10L, "product2")), expected);
+      Assert.assertEquals(
+          codes(databaseDocumentTx.<List<ODocument>> query(new OSQLSynchQuery<ODocument>(query), 20L, 10, "product2")), expected);
+    } finally {
+      OGlobalConfiguration.COMMAND_COMPILE_CONDITIONS.setValue(compileConditions);
+    }
+  }
+
+  public void testNotCompiledOperators() {
+    assertSameResult("select from Product where name like 'product1%'", -1);
+    assertSameResult("select from Product where code in [1, 2, 3] or name matches 'product1.*'", -1);
+    assertSameResult("select from Product where code between 10 and 20 and name is not null", -1);
+    assertSameResult("select from Product where code.asString() = '10'", 1);
+  }
+
+  private void assertSameResult(final String iQuery, final int iExpectedSize) {
+    final boolean compileConditions = OGlobalConfiguration.COMMAND_COMPILE_CONDITIONS.getValueAsBoolean();
+    try {
+      OGlobalConfiguration.COMMAND_COMPILE_CONDITIONS.setValue(false);
+      final List<String> interpreted = codes(databaseDocumentTx.<List<ODocument>> query(new OSQLSynchQuery<ODocument>(iQuery)));
+
+      OGlobalConfiguration.COMMAND_COMPILE_CONDITIONS.setValue(true);
+      final List<String> compiled = codes(databaseDocumentTx.<List<ODocument>> query(new OSQLSynchQuery<ODocument>(iQuery)));
+
+      Assert.assertEquals(compiled, interpreted, iQuery);
+      if (iExpectedSize > -1)
+        Assert.assertEquals(compiled.size(), iExpectedSize, iQuery);
+    } finally {
+      OGlobalConfiguration.COMMAND_COMPILE_CONDITIONS.setValue(compileConditions);
+    }
+  }
+
+  private static List<String> codes(final List<ODocument> iResult) {
+    final List<String> codes = new ArrayList<String>();
+    for (ODocument product : iResult)
+      codes.add(String.valueOf(product.field("code")));
+    Collections.sort(codes);
+    return codes;
+  }
+}
@@ -0,0 +1,105 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class CoveringIndexQueryTest {
+  private static final int    PERSONS_COUNT = 1000;
+
+  private ODatabaseDocumentTx databaseDocumentTx;
+
+  @BeforeClass
+  public void beforeClass() {
+    databaseDocumentTx = new ODatabaseDocumentTx("memory:coveringIndexQueryTest");
+    databaseDocumentTx.create();
+
+    final OClass personClass = databaseDocumentTx.getMetadata().getSchema().createClass("Person");
+    personClass.createProperty("name", OType.STRING);
+    personClass.createProperty("surname", OType.STRING);
+    personClass.createProperty("age", OType.INTEGER);
+    personClass.createProperty("city", OType.STRING);
+
+    personClass.createIndex("Person.name", OClass.INDEX_TYPE.NOTUNIQUE, "name");
+    personClass.createIndex("Person.surnameAge", OClass.INDEX_TYPE.NOTUNIQUE, "surname", "age");
+
+    for (int i = 0; i < PERSONS_COUNT; i++) {
+      final ODocument person = new ODocument("Person");
+      person.field("name", "name" + (i % 100));
+      person.field("surname", "surname" + (i % 10));
+      person.field("age", i % 50);
+      person.field("city", "city" + (i % 7));
+      person.save();
+    }
+  }
+
+  @AfterClass
+  public void afterClass() {
+    databaseDocumentTx.drop();
+  }
+
+  public void testProjectionOfIndexedField() {
+    final List<ODocument> result = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(
+        "select name, @rid as rid from Person where name between 'name10' and 'name12'"));
+    Assert.assertEquals(result.size(), 3 * PERSONS_COUNT / 100);
+
+    final Set<String> names = new HashSet<String>();
+    for (ODocument document : result) {
+      final String name = document.field("name");
+      names.add(name);
+
+      final ODocument person = ((OIdentifiable) document.field("rid")).getRecord();
+      Assert.assertEquals(person.field("name"), name);
+    }
+
+    Assert.assertEquals(names.size(), 3);
+    Assert.assertEquals(explain("select name from Person where name between 'name10' and 'name12'").field("coveringIndexUsed"),
+        1L);
+  }
+
+  public void testProjectionOfCompositeIndexFields() {
+    final String query = "select surname, age from Person where surname = 'surname3' and age > 40";
+
+    final List<ODocument> result = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(query));
+    Assert.assertEquals(result.size(), 20);
+    for (ODocument document : result) {
+      Assert.assertEquals(document.field("surname"), "surname3");
+      Assert.assertTrue((Integer) document.field("age") > 40);
+    }
+
+    Assert.assertEquals(explain(query).field("coveringIndexUsed"), 1L);
+  }
+
+  public void testNotIndexedFieldsAreReadFromRecords() {
+    final String projectionQuery = "select name, city from Person where name = 'name5'";
+    final List<ODocument> result = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(projectionQuery));
+    Assert.assertEquals(result.size(), PERSONS_COUNT / 100);
+    for (ODocument document : result)
+      Assert.assertNotNull(document.field("city"));
+
+    Assert.assertNull(explain(projectionQuery).field("coveringIndexUsed"));
+
+    final String conditionQuery = "select name from Person where name = 'name5' and city = 'city5'";
+    Assert.assertEquals(databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(conditionQuery)).size(), 2);
+    Assert.assertNull(explain(conditionQuery).field("coveringIndexUsed"));
+
+    Assert.assertNull(explain("select from Person where name = 'name5'").field("coveringIndexUsed"));
+  }
+
+  private ODocument explain(final String query) {
+    return databaseDocumentTx.command(new OCommandSQL("explain " + query)).execute();
+  }
+}
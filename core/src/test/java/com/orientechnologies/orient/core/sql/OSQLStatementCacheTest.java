@@ -0,0 +1,244 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class OSQLStatementCacheTest {
+  private static final String URL          = "memory:statementCacheTest";
+  private static final int    ORDERS_COUNT = 100;
+
+  private ODatabaseDocumentTx databaseDocumentTx;
+  private OSQLStatementCache  statementCache;
+  private int                 cacheSize;
+
+  @BeforeClass
+  public void beforeClass() {
+    cacheSize = OGlobalConfiguration.COMMAND_STATEMENT_CACHE_SIZE.getValueAsInteger();
+    OGlobalConfiguration.COMMAND_STATEMENT_CACHE_SIZE.setValue(500);
+
+    databaseDocumentTx = new ODatabaseDocumentTx(URL);
+    databaseDocumentTx.create();
+
+    final OClass orderClass = databaseDocumentTx.getMetadata().getSchema().createClass("StatementOrder");
+    orderClass.createProperty("customer", OType.INTEGER);
+    orderClass.createProperty("amount", OType.INTEGER);
+
+    for (int i = 0; i < ORDERS_COUNT; i++) {
+      final ODocument order = new ODocument("StatementOrder");
+      order.field("customer", i % 10);
+      order.field("amount", i);
+      order.save();
+    }
+
+    statementCache = OSQLEngine.getInstance().getStatementCache();
+  }
+
+  @BeforeMethod
+  public void beforeMethod() {
+    statementCache.clear();
+  }
+
+  @AfterClass
+  public void afterClass() {
+    statementCache.clear();
+    databaseDocumentTx.drop();
+    OGlobalConfiguration.COMMAND_STATEMENT_CACHE_SIZE.setValue(cacheSize);
+  }
+
+  public void testParsedConditionIsReusedWithNewParameters() {
+    final OSQLSynchQuery<ODocument> query = new OSQLSynchQuery<ODocument>(
+        "select from StatementOrder where customer = ? and amount >= ? order by amount");
+
+    for (int customer = 0; customer < 10; customer++) {
+      final List<ODocument> result = databaseDocumentTx.query(query, customer, 50);
+      Assert.assertEquals(result.size(), 5);
+      for (ODocument order : result) {
+        Assert.assertEquals(order.field("customer"), customer);
+        Assert.assertTrue((Integer) order.field("amount") >= 50);
+      }
+
+      Assert.assertEquals(statementCache.size(), 1);
+    }
+
+    final List<ODocument> result = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(
+        "select from StatementOrder where customer = :customer and amount > :amount order by amount"), 3, 90);
+    Assert.assertEquals(result.size(), 1);
+    Assert.assertEquals(result.get(0).field("amount"), 93);
+  }
+
+  public void testConditionsChangedByExecutionAreNotCached() {
+    Assert.assertEquals(
+        databaseDocumentTx.query(
+            new OSQLSynchQuery<ODocument>("select from StatementOrder where amount in (select amount from StatementOrder "
+                + "where customer = 1)")).size(), 10);
+    Assert.assertEquals(
+        databaseDocumentTx.query(new OSQLSynchQuery<ODocument>("select from StatementOrder where amount.asInteger() = 20")).size(),
+        1);
+
+    // ONLY THE CONDITION OF SUB-QUERY IS KEPT
+    Assert.assertEquals(statementCache.size(), 1);
+  }
+
+  public void testConditionsWithFunctionsWithoutArgumentsAreNotCached() {
+    // SYSDATE() IS REPLACED BY ITS VALUE WHEN THE CONDITION IS OPTIMIZED
+    final String query = "select from StatementOrder where customer = 2 and sysdate() is not null";
+    for (int i = 0; i < 2; i++)
+      Assert.assertEquals(databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(query)).size(), 10);
+
+    Assert.assertEquals(statementCache.size(), 0);
+  }
+
+  public void testConditionsAreKeptPerDatabase() {
+    Assert.assertEquals(
+        databaseDocumentTx.query(new OSQLSynchQuery<ODocument>("select from StatementOrder where customer = 3")).size(), 10);
+
+    Assert.assertNull(statementCache.borrow("otherDatabase", metadataVersion(), " customer = 3"));
+    Assert.assertNotNull(statementCache.borrow(databaseDocumentTx.getName(), metadataVersion(), " customer = 3"));
+  }
+
+  public void testConditionsAreNotReusedAfterSchemaChange() {
+    final String query = "select from StatementOrder where customer = 4";
+    Assert.assertEquals(databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(query)).size(), 10);
+    final long version = metadataVersion();
+
+    databaseDocumentTx.getMetadata().getSchema().createClass("StatementCustomer");
+    try {
+      Assert.assertTrue(metadataVersion() != version);
+      Assert.assertNull(statementCache.borrow(databaseDocumentTx.getName(), metadataVersion(), " customer = 4"));
+      Assert.assertEquals(databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(query)).size(), 10);
+      Assert.assertNotNull(statementCache.borrow(databaseDocumentTx.getName(), metadataVersion(), " customer = 4"));
+    } finally {
+      databaseDocumentTx.getMetadata().getSchema().dropClass("StatementCustomer");
+    }
+  }
+
+  public void testIndexPlanIsReusedUntilIndexesAreChanged() {
+    final String query = "select from StatementOrder where amount = ?";
+    Assert.assertEquals(databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(query), 7).size(), 1);
+
+    final OSQLIndexPlan scanPlan = statementCache.getPlan(databaseDocumentTx.getName(), metadataVersion(), query);
+    Assert.assertSame(scanPlan, OSQLIndexPlan.NO_INDEX);
+
+    final OClass orderClass = databaseDocumentTx.getMetadata().getSchema().getClass("StatementOrder");
+    orderClass.getProperty("amount").createIndex(OClass.INDEX_TYPE.NOTUNIQUE);
+    try {
+      Assert.assertNull(statementCache.getPlan(databaseDocumentTx.getName(), metadataVersion(), query));
+
+      for (int amount = 0; amount < 3; amount++) {
+        final List<ODocument> result = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(query), amount);
+        Assert.assertEquals(result.size(), 1);
+        Assert.assertEquals(result.get(0).field("amount"), amount);
+
+        final OSQLIndexPlan indexPlan = statementCache.getPlan(databaseDocumentTx.getName(), metadataVersion(), query);
+        Assert.assertNotNull(indexPlan);
+        Assert.assertEquals(indexPlan.getIndexName(), "StatementOrder.amount");
+      }
+
+      // SUB-CONDITIONS BOUND TO NULL ARE NOT RESOLVED BY INDEXES, BUT THE STATEMENT CAN STILL BE EXECUTED
+      Assert.assertEquals(databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(query), (Object) null).size(), 0);
+    } finally {
+      databaseDocumentTx.getMetadata().getIndexManager().dropIndex("StatementOrder.amount");
+    }
+
+    Assert.assertNull(statementCache.getPlan(databaseDocumentTx.getName(), metadataVersion(), query));
+  }
+
+  public void testConditionIsReleasedByIterator() {
+    final OCommandExecutorSQLSelect executor = new OCommandExecutorSQLSelect();
+    executor.parse(new OSQLSynchQuery<ODocument>("select from StatementOrder where customer = 6"));
+
+    int count = 0;
+    for (OIdentifiable record : executor) {
+      Assert.assertEquals(((ODocument) record.getRecord()).field("customer"), 6);
+      count++;
+    }
+
+    Assert.assertEquals(count, 10);
+    Assert.assertEquals(statementCache.size(), 1);
+    Assert.assertNotNull(statementCache.borrow(databaseDocumentTx.getName(), metadataVersion(), " customer = 6"));
+  }
+
+  public void testLeastRecentlyUsedStatementsAreRemoved() {
+    OGlobalConfiguration.COMMAND_STATEMENT_CACHE_SIZE.setValue(2);
+    try {
+      for (int customer = 0; customer < 5; customer++)
+        Assert.assertEquals(
+            databaseDocumentTx.query(new OSQLSynchQuery<ODocument>("select from StatementOrder where customer = " + customer))
+                .size(), 10);
+
+      Assert.assertEquals(statementCache.size(), 2);
+      // TEXT OF CONDITION STARTS RIGHT AFTER THE WHERE KEYWORD
+      Assert.assertNotNull(statementCache.borrow(databaseDocumentTx.getName(), metadataVersion(), " customer = 4"));
+      Assert.assertNull(statementCache.borrow(databaseDocumentTx.getName(), metadataVersion(), " customer = 0"));
+
+      OGlobalConfiguration.COMMAND_STATEMENT_CACHE_SIZE.setValue(0);
+      Assert.assertEquals(
+          databaseDocumentTx.query(new OSQLSynchQuery<ODocument>("select from StatementOrder where customer = 5")).size(), 10);
+      Assert.assertNull(statementCache.borrow(databaseDocumentTx.getName(), metadataVersion(), " customer = 5"));
+    } finally {
+      OGlobalConfiguration.COMMAND_STATEMENT_CACHE_SIZE.setValue(500);
+    }
+  }
+
+  public void testConcurrentExecutions() throws Exception {
+    final ExecutorService executorService = Executors.newFixedThreadPool(4);
+    try {
+      final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+      for (int n = 0; n < 4; n++)
+        futures.add(executorService.submit(new Callable<Void>() {
+          public Void call() throws Exception {
+            final ODatabaseDocumentTx db = new ODatabaseDocumentTx(URL);
+            db.open("admin", "admin");
+            try {
+              final OSQLSynchQuery<ODocument> query = new OSQLSynchQuery<ODocument>(
+                  "select from StatementOrder where customer = ? and amount < ?");
+              for (int i = 0; i < 200; i++) {
+                final int customer = i % 10;
+                final List<ODocument> result = db.query(query, customer, 50);
+                Assert.assertEquals(result.size(), 5);
+                for (ODocument order : result)
+                  Assert.assertEquals(order.field("customer"), customer);
+              }
+            } finally {
+              db.close();
+            }
+            return null;
+          }
+        }));
+
+      for (Future<Void> future : futures)
+        future.get();
+    } finally {
+      executorService.shutdown();
+    }
+
+    // EVERY THREAD GIVES BACK AT MOST ONE PARSED CONDITION
+    int reusable = 0;
+    while (statementCache.borrow(databaseDocumentTx.getName(), metadataVersion(), " customer = ? and amount < ?") != null)
+      reusable++;
+    Assert.assertTrue(reusable >= 1 && reusable <= 4);
+  }
+
+  private long metadataVersion() {
+    return OSQLStatementCache.getMetadataVersion(databaseDocumentTx);
+  }
+}
@@ -0,0 +1,114 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class OrderByIndexQueryTest {
+  private static final int    EVENTS_COUNT = 1000;
+
+  private ODatabaseDocumentTx databaseDocumentTx;
+
+  @BeforeClass
+  public void beforeClass() {
+    databaseDocumentTx = new ODatabaseDocumentTx("memory:orderByIndexQueryTest");
+    databaseDocumentTx.create();
+
+    final OClass eventClass = databaseDocumentTx.getMetadata().getSchema().createClass("Event");
+    eventClass.createProperty("ts", OType.LONG);
+    eventClass.createProperty("kind", OType.STRING);
+    eventClass.createProperty("source", OType.STRING);
+
+    eventClass.createIndex("Event.ts", OClass.INDEX_TYPE.NOTUNIQUE, "ts");
+    eventClass.createIndex("Event.source", OClass.INDEX_TYPE.NOTUNIQUE, "source");
+
+    for (int i = 0; i < EVENTS_COUNT; i++) {
+      final ODocument event = new ODocument("Event");
+      event.field("ts", (long) ((i * 7) % EVENTS_COUNT));
+      event.field("kind", "kind" + (i % 3));
+      event.field("source", "source" + (i % 10));
+      event.save();
+    }
+  }
+
+  @AfterClass
+  public void afterClass() {
+    databaseDocumentTx.drop();
+  }
+
+  public void testDescendingOrderWithLimitStopsEarly() {
+    final String query = "select from Event order by ts desc limit 20";
+
+    final List<ODocument> result = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(query));
+    Assert.assertEquals(result.size(), 20);
+    for (int i = 0; i < result.size(); i++)
+      Assert.assertEquals(result.get(i).field("ts"), (long) (EVENTS_COUNT - 1 - i));
+
+    final ODocument explain = explain(query);
+    Assert.assertEquals(explain.field("orderByIndexUsed"), 1L);
+    Assert.assertEquals(explain.field("documentReads"), 20L);
+  }
+
+  public void testAscendingOrderWithNotIndexedFilter() {
+    final String query = "select from Event where kind = 'kind1' order by ts asc skip 2 limit 10";
+
+    final List<Long> expected = new ArrayList<Long>();
+    for (int i = 0; i < EVENTS_COUNT; i++)
+      if (i % 3 == 1)
+        expected.add((long) ((i * 7) % EVENTS_COUNT));
+    Collections.sort(expected);
+
+    final List<ODocument> result = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(query));
+    Assert.assertEquals(result.size(), 10);
+    for (int i = 0; i < result.size(); i++) {
+      Assert.assertEquals(result.get(i).field("kind"), "kind1");
+      Assert.assertEquals(result.get(i).field("ts"), expected.get(i + 2));
+    }
+
+    Assert.assertEquals(explain(query).field("orderByIndexUsed"), 1L);
+  }
+
+  public void testIndexedFilterIsPreferred() {
+    final String query = "select from Event where source = 'source3' order by ts desc limit 5";
+
+    final List<ODocument> result = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(query));
+    Assert.assertEquals(result.size(), 5);
+
+    long lastTs = Long.MAX_VALUE;
+    for (ODocument event : result) {
+      Assert.assertEquals(event.field("source"), "source3");
+      final long ts = event.<Long> field("ts");
+      Assert.assertTrue(ts < lastTs);
+      lastTs = ts;
+    }
+
+    Assert.assertNull(explain(query).field("orderByIndexUsed"));
+  }
+
+  public void testMixedDirectionsAreSorted() {
+    final String query = "select from Event order by ts asc, kind desc limit 5";
+
+    final List<ODocument> result = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(query));
+    Assert.assertEquals(result.size(), 5);
+    for (int i = 0; i < result.size(); i++)
+      Assert.assertEquals(result.get(i).field("ts"), (long) i);
+
+    Assert.assertNull(explain(query).field("orderByIndexUsed"));
+  }
+
+  private ODocument explain(final String query) {
+    return databaseDocumentTx.command(new OCommandSQL("explain " + query)).execute();
+  }
+}
@@ -0,0 +1,226 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.exception.OException;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.ODatabaseRecordThreadLocal;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.exception.OSecurityAccessException;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.metadata.security.ODatabaseSecurityResources;
+import com.orientechnologies.orient.core.metadata.security.ORole;
+import com.orientechnologies.orient.core.metadata.security.OSecurity;
+import com.orientechnologies.orient.core.metadata.security.OUser;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+import com.orientechnologies.orient.core.storage.OStorage;
+
+@Test
+public class ParallelScanQueryTest {
+  private static final int    MEASURES_COUNT = 30000;
+
+  private ODatabaseDocumentTx databaseDocumentTx;
+  private int                 threads;
+
+  @BeforeClass
+  public void beforeClass() {
+    threads = OGlobalConfiguration.COMMAND_PARALLEL_SCAN_THREADS.getValueAsInteger();
+    OGlobalConfiguration.COMMAND_PARALLEL_SCAN_THREADS.setValue(4);
+
+    databaseDocumentTx = new ODatabaseDocumentTx("memory:parallelScanQueryTest");
+    databaseDocumentTx.create();
+
+    final OClass measureClass = databaseDocumentTx.getMetadata().getSchema().createClass("Measure");
+    measureClass.addClusterId(databaseDocumentTx.addCluster("measure_2", OStorage.CLUSTER_TYPE.MEMORY));
+    measureClass.createProperty("value", OType.INTEGER);
+    measureClass.createProperty("sensor", OType.STRING);
+
+    for (int i = 0; i < MEASURES_COUNT; i++) {
+      final ODocument measure = new ODocument("Measure");
+      measure.field("value", i);
+      measure.field("sensor", "sensor" + (i % 7));
+      measure.save(i % 3 == 0 ? "measure_2" : "measure");
+    }
+  }
+
+  @AfterClass
+  public void afterClass() {
+    OGlobalConfiguration.COMMAND_PARALLEL_SCAN_THREADS.setValue(threads);
+    databaseDocumentTx.drop();
+  }
+
+  public void testSameResultOfSequentialScan() {
+    assertSameResult("select from Measure where sensor = 'sensor3' and value > 1000", -1);
+    assertSameResult("select from Measure where value < 100 or value >= 29950", 150);
+    assertSameResult("select from Measure", MEASURES_COUNT);
+    assertSameResult("select from cluster:measure_2 where sensor = 'sensor1'", -1);
+  }
+
+  public void testLimitAndSkip() {
+    assertSameResult("select from Measure where sensor = 'sensor5' skip 100 limit 50", 50);
+    assertSameResult("select from Measure where value >= 20000 limit 10", 10);
+  }
+
+  public void testAggregationsAndOrder() {
+    assertSameResult("select count(*) as total, sum(value) as amount from Measure where sensor <> 'sensor0'", 1);
+    assertSameResult("select sensor, count(*) as total from Measure where value > 15000 group by sensor", 7);
+    assertSameResult("select from Measure where sensor = 'sensor2' order by value desc limit 20", 20);
+  }
+
+  public void testParameters() {
+    final String query = "select from Measure where sensor = ? and value between ? and ?";
+
+    final List<String> expected = values(databaseDocumentTx.<List<ODocument>> query(new OSQLSynchQuery<ODocument>(query),
+        "sensor4", 1000, 20000));
+    Assert.assertFalse(expected.isEmpty());
+
+    Assert.assertEquals(
+        values(databaseDocumentTx.<List<ODocument>> query(new OSQLSynchQuery<ODocument>(query + " parallel"), "sensor4", 1000,
+            20000)), expected);
+  }
+
+  public void testParallelScanIsUsed() {
+    ODocument explain = databaseDocumentTx.command(new OCommandSQL("explain select from Measure where value > 10 parallel"))
+        .execute();
+    // CLUSTERS ARE SPLIT IN MANY SMALL RANGES, SO ALL THE THREADS ARE USED
+    Assert.assertEquals(explain.field("parallelScanThreads"), 4L);
+    Assert.assertEquals(explain.field("documentReads"), (long) MEASURES_COUNT);
+
+    // CONDITIONS WITH SUB-QUERIES ARE EVALUATED BY THE CURRENT THREAD
+    explain = databaseDocumentTx.command(
+        new OCommandSQL("explain select from Measure where value in (select value from Measure where value < 3) parallel"))
+        .execute();
+    Assert.assertNull(explain.field("parallelScanThreads"));
+  }
+
+  public void testScanIsStoppedWhenLimitIsReached() {
+    final ODocument explain = databaseDocumentTx.command(new OCommandSQL("explain select from Measure limit 10 parallel"))
+        .execute();
+    Assert.assertEquals(explain.field("parallelScanThreads"), 4L);
+
+    // WORKERS SCAN ONLY A FEW RANGES AHEAD OF THE RECORDS RETURNED TO THE COMMAND
+    Assert.assertTrue((Long) explain.field("documentReads") < MEASURES_COUNT / 2);
+  }
+
+  public void testCommandDoesNotWaitForBusyThreads() {
+    final OSQLParallelClusterScan scan = new OSQLParallelClusterScan(databaseDocumentTx, databaseDocumentTx.getMetadata()
+        .getSchema().getClass("Measure").getClusterIds(), 4, true, null, null, null);
+    // WORKERS OF THE SCAN KEEP ALL THE THREADS OF THE POOL UNTIL IT IS CLOSED
+    Assert.assertEquals(scan.start(4), 4);
+    try {
+      final ODocument explain = databaseDocumentTx.command(new OCommandSQL("explain select from Measure where value > 10 parallel"))
+          .execute();
+      Assert.assertNull(explain.field("parallelScanThreads"));
+      Assert.assertEquals(explain.field("documentReads"), (long) MEASURES_COUNT);
+    } finally {
+      scan.close();
+    }
+
+    final ODocument explain = databaseDocumentTx.command(new OCommandSQL("explain select from Measure where value > 10 parallel"))
+        .execute();
+    Assert.assertEquals(explain.field("parallelScanThreads"), 4L);
+  }
+
+  public void testRecordsAreReadByUserOfCommand() {
+    final String query = "select from Measure where sensor = 'sensor6' and value > 25000";
+    final List<String> expected = values(databaseDocumentTx.<List<ODocument>> query(new OSQLSynchQuery<ODocument>(query)));
+
+    final OUser admin = databaseDocumentTx.getUser();
+    databaseDocumentTx.setUser(databaseDocumentTx.getMetadata().getSecurity().getUser("reader"));
+    try {
+      for (int i = 0; i < 3; i++)
+        // DATABASES OF THE WORKERS ARE REUSED BY NEXT COMMANDS
+        Assert.assertEquals(values(databaseDocumentTx.<List<ODocument>> query(new OSQLSynchQuery<ODocument>(query + " parallel"))),
+            expected);
+    } finally {
+      databaseDocumentTx.setUser(admin);
+    }
+  }
+
+  public void testRestrictedUserReadsOnlyPermittedClusters() {
+    final OSecurity security = databaseDocumentTx.getMetadata().getSecurity();
+    final ORole role = security.createRole("measureReader", ORole.ALLOW_MODES.DENY_ALL_BUT);
+    role.addRule(ODatabaseSecurityResources.DATABASE, ORole.PERMISSION_READ);
+    role.addRule(ODatabaseSecurityResources.SCHEMA, ORole.PERMISSION_READ);
+    role.addRule(ODatabaseSecurityResources.ALL_CLASSES, ORole.PERMISSION_READ);
+    role.addRule(ODatabaseSecurityResources.ALL_CLUSTERS, ORole.PERMISSION_READ);
+    role.addRule(ODatabaseSecurityResources.CLUSTER + ".measure_2", ORole.PERMISSION_NONE);
+    role.addRule(ODatabaseSecurityResources.COMMAND, ORole.PERMISSION_READ);
+    role.save();
+    security.createUser("measureReader", "measureReader", "measureReader");
+    // INDEXES ARE SAVED ON CLOSE, THE NEW USER IS NOT ALLOWED TO UPDATE THEM
+    databaseDocumentTx.getMetadata().getIndexManager().flush();
+
+    final String query = "select from cluster:measure where sensor = 'sensor2'";
+    final List<String> expected = values(databaseDocumentTx.<List<ODocument>> query(new OSQLSynchQuery<ODocument>(query)));
+    Assert.assertFalse(expected.isEmpty());
+
+    final ODatabaseDocumentTx restrictedDatabase = new ODatabaseDocumentTx(databaseDocumentTx.getURL());
+    restrictedDatabase.open("measureReader", "measureReader");
+    try {
+      // WORKERS OPEN THEIR DATABASES WITH THE USER OF THE COMMAND
+      final ODocument explain = restrictedDatabase.command(new OCommandSQL("explain " + query + " parallel")).execute();
+      Assert.assertEquals(explain.field("parallelScanThreads"), 4L);
+      Assert.assertEquals(values(restrictedDatabase.<List<ODocument>> query(new OSQLSynchQuery<ODocument>(query + " parallel"))),
+          expected);
+
+      try {
+        restrictedDatabase.query(new OSQLSynchQuery<ODocument>("select from Measure where sensor = 'sensor2' parallel"));
+        Assert.fail();
+      } catch (OException e) {
+        Throwable cause = e;
+        while (cause != null && !(cause instanceof OSecurityAccessException))
+          cause = cause.getCause();
+        Assert.assertNotNull(cause, "Records of cluster measure_2 have been read");
+      }
+    } finally {
+      restrictedDatabase.close();
+      ODatabaseRecordThreadLocal.INSTANCE.set(databaseDocumentTx);
+    }
+  }
+
+  private void assertSameResult(final String iQuery, final int iExpectedSize) {
+    final List<String> sequential = values(databaseDocumentTx.<List<ODocument>> query(new OSQLSynchQuery<ODocument>(iQuery)));
+
+    final List<String> parallel = values(databaseDocumentTx.<List<ODocument>> query(new OSQLSynchQuery<ODocument>(iQuery
+        + " parallel")));
+    Assert.assertEquals(parallel, sequential, iQuery);
+
+    final boolean parallelScan = OGlobalConfiguration.COMMAND_PARALLEL_SCAN.getValueAsBoolean();
+    OGlobalConfiguration.COMMAND_PARALLEL_SCAN.setValue(true);
+    try {
+      Assert.assertEquals(values(databaseDocumentTx.<List<ODocument>> query(new OSQLSynchQuery<ODocument>(iQuery))), sequential,
+          iQuery);
+    } finally {
+      OGlobalConfiguration.COMMAND_PARALLEL_SCAN.setValue(parallelScan);
+    }
+
+    if (iExpectedSize > -1)
+      Assert.assertEquals(sequential.size(), iExpectedSize, iQuery);
+  }
+
+  private static List<String> values(final List<ODocument> iResult) {
+    // RECORDS ARE RETURNED IN THE SAME ORDER OF THE SEQUENTIAL SCAN
+    final List<String> values = new ArrayList<String>();
+    for (ODocument document : iResult) {
+      final List<String> fieldNames = new ArrayList<String>(Arrays.asList(document.fieldNames()));
+      Collections.sort(fieldNames);
+
+      final StringBuilder value = new StringBuilder(document.getIdentity().toString());
+      for (String fieldName : fieldNames)
+        value.append(' ').append(fieldName).append('=').append(document.field(fieldName));
+      values.add(value.toString());
+    }
+    return values;
+  }
+}
@@ -0,0 +1,128 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class SpillQueryTest {
+  private static final int    ORDERS_COUNT = 5000;
+  private static final long   SMALL_BUDGET = 4096;
+
+  private ODatabaseDocumentTx databaseDocumentTx;
+
+  @BeforeClass
+  public void beforeClass() {
+    databaseDocumentTx = new ODatabaseDocumentTx("memory:spillQueryTest");
+    databaseDocumentTx.create();
+
+    final OClass orderClass = databaseDocumentTx.getMetadata().getSchema().createClass("Order");
+    orderClass.createProperty("number", OType.INTEGER);
+    orderClass.createProperty("amount", OType.INTEGER);
+    orderClass.createProperty("customer", OType.STRING);
+
+    for (int i = 0; i < ORDERS_COUNT; i++) {
+      final ODocument order = new ODocument("Order");
+      order.field("number", i);
+      // MANY ORDERS HAVE THE SAME AMOUNT TO CHECK THE SORTING IS STABLE
+      order.field("amount", (i * 7919) % 300);
+      order.field("customer", "customer" + (i % 800));
+      order.save();
+    }
+  }
+
+  @AfterClass
+  public void afterClass() {
+    databaseDocumentTx.drop();
+  }
+
+  public void testOrderBy() {
+    assertSameResult("select from Order order by amount", ORDERS_COUNT);
+    assertSameResult("select from Order order by amount desc, customer", ORDERS_COUNT);
+    assertSameResult("select number, amount from Order where customer > 'customer5' order by amount desc", -1);
+  }
+
+  public void testOrderByWithLimit() {
+    assertSameResult("select from Order order by amount limit 10", 10);
+    assertSameResult("select from Order order by amount desc skip 100 limit 50", 50);
+    assertSameResult("select number, amount from Order order by amount asc skip 4990 limit 100", 10);
+  }
+
+  public void testGroupBy() {
+    assertSameResult("select customer, count(*) as total, sum(amount) as amount from Order group by customer", 800);
+    assertSameResult(
+        "select customer, max(amount) as amount from Order where number > 1000 group by customer order by amount asc, customer", 800);
+    assertSameResult("select customer, amount, count(*) as total from Order group by customer, amount order by customer asc, amount",
+        -1);
+  }
+
+  public void testGroupByWithLimit() {
+    assertSameResult("select customer, sum(number) as total from Order group by customer order by total desc limit 5", 5);
+  }
+
+  public void testSpilling() {
+    final OCommandSQL sort = new OCommandSQL("explain select from Order order by amount");
+    sort.getContext().setMemoryBudget(SMALL_BUDGET);
+    ODocument explain = databaseDocumentTx.command(sort).execute();
+    Assert.assertTrue((Long) explain.field("sortRuns") > 1);
+
+    // THE FIRST RESULTS ARE KEPT IN MEMORY
+    final OCommandSQL topResults = new OCommandSQL("explain select from Order order by amount limit 5");
+    topResults.getContext().setMemoryBudget(SMALL_BUDGET);
+    explain = databaseDocumentTx.command(topResults).execute();
+    Assert.assertNull(explain.field("sortRuns"));
+
+    final OCommandSQL group = new OCommandSQL("explain select customer, count(*) from Order group by customer");
+    group.getContext().setMemoryBudget(SMALL_BUDGET);
+    explain = databaseDocumentTx.command(group).execute();
+    Assert.assertTrue((Long) explain.field("groupPartitions") > 1);
+  }
+
+  private void assertSameResult(final String iQuery, final int iExpectedSize) {
+    final OSQLSynchQuery<ODocument> unbounded = new OSQLSynchQuery<ODocument>(iQuery);
+    unbounded.getContext().setMemoryBudget(0);
+    final List<String> expected = values(databaseDocumentTx.<List<ODocument>> query(unbounded));
+
+    final OSQLSynchQuery<ODocument> bounded = new OSQLSynchQuery<ODocument>(iQuery);
+    bounded.getContext().setMemoryBudget(SMALL_BUDGET);
+    final List<String> result = values(databaseDocumentTx.<List<ODocument>> query(bounded));
+
+    if (iQuery.contains(" group by ") && !iQuery.contains(" order by ")) {
+      // GROUPS WRITTEN IN TEMPORARY FILES ARE RETURNED AFTER THE OTHERS
+      Collections.sort(expected);
+      Collections.sort(result);
+    }
+
+    Assert.assertEquals(result, expected, iQuery);
+
+    if (iExpectedSize > -1)
+      Assert.assertEquals(expected.size(), iExpectedSize, iQuery);
+  }
+
+  private static List<String> values(final List<ODocument> iResult) {
+    final List<String> values = new ArrayList<String>();
+    for (ODocument document : iResult) {
+      final List<String> fieldNames = new ArrayList<String>(Arrays.asList(document.fieldNames()));
+      Collections.sort(fieldNames);
+
+      // PROJECTIONS OF GROUPS WRITTEN IN TEMPORARY FILES GET DIFFERENT TEMPORARY RIDS
+      final StringBuilder value = new StringBuilder(document.getIdentity().isPersistent() ? document.getIdentity().toString() : "");
+      for (String fieldName : fieldNames)
+        value.append(' ').append(fieldName).append('=').append(document.field(fieldName));
+      values.add(value.toString());
+    }
+    return values;
+  }
+}
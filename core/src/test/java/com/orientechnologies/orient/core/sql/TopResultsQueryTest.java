@@ -0,0 +1,77 @@
+package com.orientechnologies.orient.core.sql;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterClass;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+@Test
+public class TopResultsQueryTest {
+  private static final int    ITEMS_COUNT = 3000;
+
+  private ODatabaseDocumentTx databaseDocumentTx;
+
+  @BeforeClass
+  public void beforeClass() {
+    databaseDocumentTx = new ODatabaseDocumentTx("memory:topResultsQueryTest");
+    databaseDocumentTx.create();
+
+    final OClass itemClass = databaseDocumentTx.getMetadata().getSchema().createClass("Item");
+    itemClass.createProperty("number", OType.INTEGER);
+    itemClass.createProperty("price", OType.INTEGER);
+
+    for (int i = 0; i < ITEMS_COUNT; i++) {
+      final ODocument item = new ODocument("Item");
+      item.field("number", i);
+      // THE SAME PRICE IS REPEATED TO CHECK THE FIRST READ RECORDS WIN
+      item.field("price", (i * 31) % 200);
+      item.save();
+    }
+  }
+
+  @AfterClass
+  public void afterClass() {
+    databaseDocumentTx.drop();
+  }
+
+  public void testSameResultOfFullSort() {
+    assertFirstResults("select from Item order by price", 0, 10);
+    assertFirstResults("select from Item order by price desc", 0, 25);
+    assertFirstResults("select from Item where number > 100 order by price asc", 40, 15);
+    assertFirstResults("select number, price from Item order by price desc, number desc", 7, 30);
+    assertFirstResults("select from Item order by price asc", 2990, 100);
+  }
+
+  public void testDiscardedRecordsLeaveTheCache() {
+    databaseDocumentTx.getLevel1Cache().clear();
+
+    final List<ODocument> result = databaseDocumentTx.query(new OSQLSynchQuery<ODocument>(
+        "select from Item order by price desc limit 5"));
+    Assert.assertEquals(result.size(), 5);
+    Assert.assertTrue(databaseDocumentTx.getLevel1Cache().getSize() <= 5);
+  }
+
+  private void assertFirstResults(final String iQuery, final int iSkip, final int iLimit) {
+    final List<String> all = values(databaseDocumentTx.<List<ODocument>> query(new OSQLSynchQuery<ODocument>(iQuery)));
+    final List<String> expected = all.subList(Math.min(iSkip, all.size()), Math.min(iSkip + iLimit, all.size()));
+
+    final String query = iQuery + (iSkip > 0 ? " skip " + iSkip : "") + " limit " + iLimit;
+    Assert.assertEquals(values(databaseDocumentTx.<List<ODocument>> query(new OSQLSynchQuery<ODocument>(query))), expected, query);
+  }
+
+  private static List<String> values(final List<ODocument> iResult) {
+    final List<String> values = new ArrayList<String>();
+    for (ODocument document : iResult)
+      values.add(document.field("number") + ":" + document.field("price"));
+    return values;
+  }
+}
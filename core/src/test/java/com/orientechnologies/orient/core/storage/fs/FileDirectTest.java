@@ -0,0 +1,180 @@
+package com.orientechnologies.orient.core.storage.fs;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.Assert;
+import org.testng.SkipException;
+import org.testng.annotations.BeforeClass;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.io.OIOException;
+import com.orientechnologies.common.serialization.types.OIntegerSerializer;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.sun.jna.Platform;
+
+@Test
+public class FileDirectTest {
+  private static final int PAGE_SIZE = 64 * 1024;
+
+  private String           buildDirectory;
+
+  @BeforeClass
+  public void beforeClass() {
+    OGlobalConfiguration.FILE_LOCK.setValue(Boolean.FALSE);
+    buildDirectory = System.getProperty("buildDirectory");
+    if (buildDirectory == null || buildDirectory.isEmpty())
+      buildDirectory = ".";
+  }
+
+  public void testWriteAndReadPages() throws Exception {
+    if (!Platform.isLinux())
+      throw new SkipException("Direct I/O is supported only under Linux");
+
+    final Random random = new Random();
+
+    final byte[][] pages = new byte[4][PAGE_SIZE];
+    for (byte[] page : pages)
+      random.nextBytes(page);
+
+    OFileDirect fileDirectOne = new OFileDirect();
+    fileDirectOne.init(buildDirectory + File.separator + "fileDirect.tst", "rw");
+    fileDirectOne.create(-1);
+    Assert.assertTrue(fileDirectOne.isDirectIO());
+
+    fileDirectOne.allocateSpace(pages.length * PAGE_SIZE + OIntegerSerializer.INT_SIZE);
+    for (int i = 0; i < pages.length; i++)
+      fileDirectOne.write(i * PAGE_SIZE, pages[i], PAGE_SIZE, 0);
+
+    fileDirectOne.writeInt(pages.length * PAGE_SIZE, 12);
+
+    final byte[] content = new byte[PAGE_SIZE];
+    fileDirectOne.read(PAGE_SIZE, content, PAGE_SIZE, 0);
+    Assert.assertEquals(content, pages[1]);
+
+    Assert.assertTrue(fileDirectOne.isDirectIO());
+    Assert.assertEquals(fileDirectOne.getDirectOperations(), pages.length + 1);
+
+    fileDirectOne.close();
+
+    OFileDirect fileDirectTwo = new OFileDirect();
+    fileDirectTwo.init(buildDirectory + File.separator + "fileDirect.tst", "rw");
+    Assert.assertTrue(fileDirectTwo.open());
+
+    for (int i = 0; i < pages.length; i++) {
+      fileDirectTwo.read(i * PAGE_SIZE, content, PAGE_SIZE, 0);
+      Assert.assertEquals(content, pages[i]);
+    }
+
+    final byte[] unalignedContent = new byte[16];
+    fileDirectTwo.read(PAGE_SIZE + 3, unalignedContent, unalignedContent.length, 0);
+    for (int i = 0; i < unalignedContent.length; i++)
+      Assert.assertEquals(unalignedContent[i], pages[1][i + 3]);
+
+    Assert.assertEquals(fileDirectTwo.readInt(pages.length * PAGE_SIZE), 12);
+
+    // SMALL VALUES ARE READ THROUGH OS FILE CACHE
+    Assert.assertTrue(fileDirectTwo.isDirectIO());
+    Assert.assertEquals(fileDirectTwo.getDirectOperations(), pages.length);
+
+    fileDirectTwo.delete();
+  }
+
+  public void testConcurrentReadsToOffsetOfArray() throws Exception {
+    if (!Platform.isLinux())
+      throw new SkipException("Direct I/O is supported only under Linux");
+
+    final Random random = new Random();
+
+    final byte[][] pages = new byte[8][PAGE_SIZE];
+    for (byte[] page : pages)
+      random.nextBytes(page);
+
+    final OFileDirect fileDirect = new OFileDirect();
+    fileDirect.init(buildDirectory + File.separator + "fileDirectConcurrent.tst", "rw");
+    fileDirect.create(-1);
+    try {
+      fileDirect.allocateSpace(pages.length * PAGE_SIZE);
+      for (int i = 0; i < pages.length; i++)
+        fileDirect.write(i * PAGE_SIZE, pages[i], PAGE_SIZE, 0);
+
+      // BUFFER OF FILE IS SHARED BY READERS, EVERY READER COPIES ITS PAGE TO THE MIDDLE OF ITS OWN ARRAY
+      final ExecutorService executor = Executors.newFixedThreadPool(4);
+      try {
+        final List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int n = 0; n < 4; n++)
+          futures.add(executor.submit(new Callable<Void>() {
+            public Void call() throws Exception {
+              final Random random = new Random();
+              final byte[] content = new byte[PAGE_SIZE + 10];
+              for (int i = 0; i < 1000; i++) {
+                final int pageIndex = random.nextInt(pages.length);
+                fileDirect.read(pageIndex * PAGE_SIZE, content, PAGE_SIZE, 5);
+                Assert.assertEquals(Arrays.copyOfRange(content, 5, PAGE_SIZE + 5), pages[pageIndex]);
+              }
+              return null;
+            }
+          }));
+
+        for (Future<Void> future : futures)
+          future.get();
+      } finally {
+        executor.shutdown();
+      }
+
+      Assert.assertTrue(fileDirect.isDirectIO());
+      Assert.assertEquals(fileDirect.getDirectOperations(), pages.length + 4 * 1000);
+    } finally {
+      fileDirect.delete();
+    }
+  }
+
+  public void testPagesAreReadableByClassicFile() throws Exception {
+    final Random random = new Random();
+
+    final byte[] page = new byte[PAGE_SIZE];
+    random.nextBytes(page);
+
+    OFileDirect fileDirect = new OFileDirect();
+    fileDirect.init(buildDirectory + File.separator + "fileDirectClassic.tst", "rw");
+    fileDirect.create(-1);
+
+    fileDirect.allocateSpace(2 * PAGE_SIZE);
+    fileDirect.write(PAGE_SIZE, page, PAGE_SIZE, 0);
+    fileDirect.close();
+
+    Assert.assertEquals(new File(buildDirectory + File.separator + "fileDirectClassic.tst").length(), OFileDirect.DIRECT_HEADER_SIZE
+        + 2 * PAGE_SIZE);
+
+    OFileClassic fileClassic = new OFileClassic();
+    fileClassic.init(buildDirectory + File.separator + "fileDirectClassic.tst", "rw");
+    Assert.assertTrue(fileClassic.open());
+    Assert.assertEquals(fileClassic.getFilledUpTo(), 2 * PAGE_SIZE);
+
+    final byte[] content = new byte[PAGE_SIZE];
+    fileClassic.read(PAGE_SIZE, content, PAGE_SIZE, 0);
+    Assert.assertEquals(content, page);
+
+    fileClassic.delete();
+  }
+
+  @Test(expectedExceptions = OIOException.class)
+  public void testWriteOutsideOfFileIsRejected() throws Exception {
+    OFileDirect fileDirect = new OFileDirect();
+    fileDirect.init(buildDirectory + File.separator + "fileDirectBounds.tst", "rw");
+    fileDirect.create(-1);
+    try {
+      fileDirect.allocateSpace(PAGE_SIZE);
+      fileDirect.write(PAGE_SIZE, new byte[PAGE_SIZE], PAGE_SIZE, 0);
+    } finally {
+      fileDirect.delete();
+    }
+  }
+}
@@ -9,10 +9,17 @@ import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.NavigableMap;
 import java.util.Set;
 import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.testng.Assert;
 import org.testng.annotations.AfterClass;
@@ -473,6 +480,81 @@ public class LocalPaginatedClusterTest {
     Assert.assertEquals(paginatedCluster.getEntries(), (long) (1.5 * records - deletedRecords));
   }
 
+  public void testConcurrentAddUpdateAndRemoveRecords() throws Exception {
+    final int threads = 4;
+    final int records = 2000;
+    final long seed = System.currentTimeMillis();
+
+    System.out.println("testConcurrentAddUpdateAndRemoveRecords seed : " + seed);
+
+    final Map<OClusterPosition, byte[]> positionRecordMap = new ConcurrentHashMap<OClusterPosition, byte[]>();
+    final ORecordVersion recordVersion = OVersionFactory.instance().createVersion();
+    recordVersion.increment();
+    recordVersion.increment();
+
+    final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+
+    for (int n = 0; n < threads; n++) {
+      final long threadSeed = seed + n;
+      futures.add(executorService.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws Exception {
+          final MersenneTwisterFast mersenneTwisterFast = new MersenneTwisterFast(threadSeed);
+          final List<OClusterPosition> positions = new ArrayList<OClusterPosition>();
+          startLatch.await();
+
+          for (int i = 0; i < records; i++) {
+            byte[] record = new byte[mersenneTwisterFast.nextInt(2 * OLocalPage.MAX_RECORD_SIZE) + 1];
+            mersenneTwisterFast.nextBytes(record);
+
+            final OPhysicalPosition physicalPosition = paginatedCluster.createRecord(record, recordVersion, (byte) 2);
+            Assert.assertNull(positionRecordMap.put(physicalPosition.clusterPosition, record));
+            positions.add(physicalPosition.clusterPosition);
+          }
+
+          int deletedRecords = 0;
+          for (OClusterPosition clusterPosition : positions) {
+            if (mersenneTwisterFast.nextBoolean()) {
+              // position may be reused by other thread as soon as record is deleted
+              positionRecordMap.remove(clusterPosition);
+              Assert.assertTrue(paginatedCluster.deleteRecord(clusterPosition));
+              deletedRecords++;
+            } else if (mersenneTwisterFast.nextBoolean()) {
+              byte[] record = new byte[mersenneTwisterFast.nextInt(2 * OLocalPage.MAX_RECORD_SIZE) + 1];
+              mersenneTwisterFast.nextBytes(record);
+
+              paginatedCluster.updateRecord(clusterPosition, record, recordVersion, (byte) 2);
+              positionRecordMap.put(clusterPosition, record);
+            }
+          }
+
+          return deletedRecords;
+        }
+      }));
+    }
+
+    startLatch.countDown();
+
+    int deletedRecords = 0;
+    for (Future<Integer> future : futures)
+      deletedRecords += future.get();
+
+    executorService.shutdown();
+
+    Assert.assertEquals(paginatedCluster.getEntries(), threads * records - deletedRecords);
+    Assert.assertEquals(positionRecordMap.size(), threads * records - deletedRecords);
+
+    for (Map.Entry<OClusterPosition, byte[]> entry : positionRecordMap.entrySet()) {
+      ORawBuffer rawBuffer = paginatedCluster.readRecord(entry.getKey());
+      Assert.assertNotNull(rawBuffer);
+
+      Assert.assertEquals(rawBuffer.buffer, entry.getValue());
+      Assert.assertEquals(rawBuffer.recordType, 2);
+    }
+  }
+
   public void testUpdateOneSmallRecord() throws IOException {
     byte[] smallRecord = new byte[] { 1, 2, 3, 4, 5, 6, 7, 8, 9, 0 };
     ORecordVersion recordVersion = OVersionFactory.instance().createVersion();
@@ -0,0 +1,243 @@
+package com.orientechnologies.orient.core.storage.impl.local.paginated;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.db.record.OIdentifiable;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.index.OSimpleKeyIndexDefinition;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.storage.fs.OFileDirect;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OLogSequenceNumber;
+
+@Test
+public class LocalPaginatedStorageBackupTest {
+  private String              buildDirectory;
+  private ODatabaseDocumentTx databaseDocumentTx;
+
+  @BeforeMethod
+  public void beforeMethod() {
+    buildDirectory = System.getProperty("buildDirectory");
+    if (buildDirectory == null || buildDirectory.isEmpty())
+      buildDirectory = ".";
+
+    deleteDirectory(new File(buildDirectory + "/backupTest"));
+    deleteDirectory(new File(buildDirectory + "/backupTestRestored"));
+
+    databaseDocumentTx = new ODatabaseDocumentTx("plocal:" + buildDirectory + "/backupTest");
+    databaseDocumentTx.create();
+    databaseDocumentTx.getMetadata().getSchema().createClass("BackupTest");
+  }
+
+  @AfterMethod
+  public void afterMethod() {
+    if (!databaseDocumentTx.isClosed())
+      databaseDocumentTx.drop();
+  }
+
+  public void testFullAndIncrementalBackupRestore() throws Exception {
+    fullAndIncrementalBackupRestore();
+  }
+
+  public void testBackupRestoreOfDirectIOClusters() throws Exception {
+    databaseDocumentTx.drop();
+
+    OGlobalConfiguration.DISK_CACHE_DIRECT_IO.setValue(true);
+    try {
+      databaseDocumentTx = new ODatabaseDocumentTx("plocal:" + buildDirectory + "/backupTest");
+      databaseDocumentTx.create();
+      databaseDocumentTx.getMetadata().getSchema().createClass("BackupTest");
+
+      final int pageSize = OGlobalConfiguration.DISK_CACHE_PAGE_SIZE.getValueAsInteger() * 1024;
+      for (File file : new File(buildDirectory + "/backupTest").listFiles())
+        if (file.getName().endsWith(".pcl"))
+          Assert.assertEquals(file.length() % pageSize, OFileDirect.DIRECT_HEADER_SIZE);
+
+      fullAndIncrementalBackupRestore();
+    } finally {
+      OGlobalConfiguration.DISK_CACHE_DIRECT_IO.setValue(false);
+    }
+  }
+
+  public void testBackupOfModifiedStorage() throws Exception {
+    final OClass backupClass = databaseDocumentTx.getMetadata().getSchema().getClass("BackupTest");
+    backupClass.createProperty("value", OType.INTEGER);
+    backupClass.createIndex("BackupTest.value", OClass.INDEX_TYPE.UNIQUE_SBTREE, "value");
+    databaseDocumentTx.getMetadata().getIndexManager()
+        .createIndex("backupTestHash", OClass.INDEX_TYPE.UNIQUE_HASH.toString(), new OSimpleKeyIndexDefinition(OType.INTEGER), null,
+            null);
+
+    final OLocalPaginatedStorage storage = (OLocalPaginatedStorage) databaseDocumentTx.getStorage();
+    final AtomicBoolean stop = new AtomicBoolean();
+    final AtomicInteger written = new AtomicInteger();
+    final List<InputStream> backups = new ArrayList<InputStream>();
+
+    final ExecutorService executor = Executors.newSingleThreadExecutor();
+    final Future<Void> writer = executor.submit(new Callable<Void>() {
+      @Override
+      public Void call() throws Exception {
+        final ODatabaseDocumentTx db = new ODatabaseDocumentTx("plocal:" + buildDirectory + "/backupTest");
+        db.open("admin", "admin");
+        try {
+          final OIndex<?> hashIndex = db.getMetadata().getIndexManager().getIndex("backupTestHash");
+          for (int i = 0; !stop.get(); i++) {
+            final ODocument document = new ODocument("BackupTest").field("value", i).save();
+            hashIndex.put(i, document);
+            written.incrementAndGet();
+          }
+        } finally {
+          db.close();
+        }
+
+        return null;
+      }
+    });
+
+    final int writtenBeforeLastBackup;
+    try {
+      while (written.get() < 1000)
+        Thread.sleep(10);
+
+      ByteArrayOutputStream fullBackup = new ByteArrayOutputStream();
+      OLogSequenceNumber lsn = storage.backup(fullBackup, null);
+      backups.add(new ByteArrayInputStream(fullBackup.toByteArray()));
+
+      final int writtenAfterFullBackup = written.get();
+      while (written.get() < writtenAfterFullBackup + 1000)
+        Thread.sleep(10);
+
+      writtenBeforeLastBackup = written.get();
+      ByteArrayOutputStream incrementalBackup = new ByteArrayOutputStream();
+      storage.backup(incrementalBackup, lsn);
+      backups.add(new ByteArrayInputStream(incrementalBackup.toByteArray()));
+    } finally {
+      stop.set(true);
+      writer.get();
+      executor.shutdown();
+    }
+
+    OLocalPaginatedStorageBackup.restore(buildDirectory + "/backupTestRestored", backups);
+
+    ODatabaseDocumentTx restoredDatabase = new ODatabaseDocumentTx("plocal:" + buildDirectory + "/backupTestRestored");
+    restoredDatabase.open("admin", "admin");
+    try {
+      Assert.assertFalse(new File(buildDirectory + "/backupTestRestored", OLocalPaginatedStorageBackup.WAL_RECORDS_FILE_NAME)
+          .exists());
+
+      // backup contains all documents written before it was started and may contain documents written during backup
+      final Set<Integer> values = new HashSet<Integer>();
+      for (ODocument document : restoredDatabase.browseClass("BackupTest"))
+        Assert.assertTrue(values.add((Integer) document.field("value")));
+
+      final int restored = values.size();
+      Assert.assertTrue(restored >= writtenBeforeLastBackup);
+
+      final OIndex<?> sbTreeIndex = restoredDatabase.getMetadata().getIndexManager().getIndex("BackupTest.value");
+      final OIndex<?> hashIndex = restoredDatabase.getMetadata().getIndexManager().getIndex("backupTestHash");
+      Assert.assertEquals(sbTreeIndex.getSize(), restored);
+      Assert.assertTrue(hashIndex.getSize() == restored || hashIndex.getSize() == restored - 1);
+
+      for (int i = 0; i < restored; i++) {
+        Assert.assertTrue(values.contains(i));
+
+        final OIdentifiable rid = (OIdentifiable) sbTreeIndex.get(i);
+        Assert.assertNotNull(rid);
+        Assert.assertEquals((Integer) ((ODocument) rid.getRecord()).field("value"), (Integer) i);
+
+        if (i < hashIndex.getSize())
+          Assert.assertEquals(hashIndex.get(i), rid.getIdentity());
+      }
+    } finally {
+      restoredDatabase.drop();
+    }
+  }
+
+  private void fullAndIncrementalBackupRestore() throws Exception {
+    final OLocalPaginatedStorage storage = (OLocalPaginatedStorage) databaseDocumentTx.getStorage();
+    final Map<ORID, Integer> documents = new HashMap<ORID, Integer>();
+    final List<InputStream> backups = new ArrayList<InputStream>();
+
+    for (int i = 0; i < 1000; i++)
+      documents.put(new ODocument("BackupTest").field("value", i).save().getIdentity(), i);
+
+    ByteArrayOutputStream fullBackup = new ByteArrayOutputStream();
+    OLogSequenceNumber lsn = storage.backup(fullBackup, null);
+    backups.add(new ByteArrayInputStream(fullBackup.toByteArray()));
+
+    for (int n = 0; n < 2; n++) {
+      for (int i = 0; i < 100; i++)
+        documents.put(new ODocument("BackupTest").field("value", -i).save().getIdentity(), -i);
+
+      int counter = 0;
+      for (Map.Entry<ORID, Integer> entry : documents.entrySet()) {
+        if (counter++ % 10 != 0)
+          continue;
+
+        ODocument document = databaseDocumentTx.load(entry.getKey());
+        document.field("value", entry.getValue() + 1);
+        document.save();
+
+        entry.setValue(entry.getValue() + 1);
+      }
+
+      ByteArrayOutputStream incrementalBackup = new ByteArrayOutputStream();
+      lsn = storage.backup(incrementalBackup, lsn);
+      Assert.assertTrue(incrementalBackup.size() < fullBackup.size());
+
+      backups.add(new ByteArrayInputStream(incrementalBackup.toByteArray()));
+    }
+
+    OLocalPaginatedStorageBackup.restore(buildDirectory + "/backupTestRestored", backups);
+
+    ODatabaseDocumentTx restoredDatabase = new ODatabaseDocumentTx("plocal:" + buildDirectory + "/backupTestRestored");
+    restoredDatabase.open("admin", "admin");
+    try {
+      Assert.assertEquals(restoredDatabase.countClass("BackupTest"), documents.size());
+
+      for (Map.Entry<ORID, Integer> entry : documents.entrySet()) {
+        ODocument document = restoredDatabase.load(entry.getKey());
+        Assert.assertNotNull(document);
+        Assert.assertEquals((Integer) document.field("value"), entry.getValue());
+      }
+    } finally {
+      restoredDatabase.drop();
+    }
+  }
+
+  private void deleteDirectory(File directory) {
+    final File[] files = directory.listFiles();
+    if (files != null)
+      for (File file : files)
+        if (file.isDirectory())
+          deleteDirectory(file);
+        else
+          Assert.assertTrue(file.delete());
+
+    if (directory.exists())
+      Assert.assertTrue(directory.delete());
+  }
+}
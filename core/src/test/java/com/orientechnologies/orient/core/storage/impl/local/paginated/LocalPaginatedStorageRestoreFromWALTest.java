@@ -0,0 +1,292 @@
+package com.orientechnologies.orient.core.storage.impl.local.paginated;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.testng.Assert;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.exception.OException;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.id.OClusterPositionFactory;
+import com.orientechnologies.orient.core.id.ORID;
+import com.orientechnologies.orient.core.id.ORecordId;
+import com.orientechnologies.orient.core.index.OIndex;
+import com.orientechnologies.orient.core.index.OSimpleKeyIndexDefinition;
+import com.orientechnologies.orient.core.metadata.schema.OClass;
+import com.orientechnologies.orient.core.metadata.schema.OType;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OLogSequenceNumber;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OWALRecord;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.OWALRecordsFactory;
+
+/**
+ * Copies files of storage which was not closed and checks that the copy is restored from WAL with both single threaded and
+ * parallel restore and with write-behind of disk cache switched on. Content of SB-tree index is restored together with records.
+ */
+@Test
+public class LocalPaginatedStorageRestoreFromWALTest {
+  private String              buildDirectory;
+  private ODatabaseDocumentTx databaseDocumentTx;
+  private int                 restoreThreads;
+  private int                 writeBehindInterval;
+
+  @BeforeMethod
+  public void beforeMethod() {
+    restoreThreads = OGlobalConfiguration.WAL_RESTORE_THREADS.getValueAsInteger();
+    writeBehindInterval = OGlobalConfiguration.DISK_CACHE_WRITE_BEHIND_INTERVAL.getValueAsInteger();
+
+    buildDirectory = System.getProperty("buildDirectory");
+    if (buildDirectory == null || buildDirectory.isEmpty())
+      buildDirectory = ".";
+
+    deleteDirectory(new File(buildDirectory + "/restoreFromWALTest"));
+    deleteDirectory(new File(buildDirectory + "/restoreFromWALTestCopy"));
+  }
+
+  @AfterMethod
+  public void afterMethod() {
+    OGlobalConfiguration.WAL_RESTORE_THREADS.setValue(restoreThreads);
+    OGlobalConfiguration.DISK_CACHE_WRITE_BEHIND_INTERVAL.setValue(writeBehindInterval);
+
+    if (databaseDocumentTx != null && !databaseDocumentTx.isClosed())
+      databaseDocumentTx.drop();
+  }
+
+  public void testSingleThreadedRestore() throws Exception {
+    OGlobalConfiguration.WAL_RESTORE_THREADS.setValue(1);
+    restoreCopyOfOpenStorage();
+  }
+
+  public void testParallelRestore() throws Exception {
+    OGlobalConfiguration.WAL_RESTORE_THREADS.setValue(4);
+    restoreCopyOfOpenStorage();
+  }
+
+  public void testRestoreWithWriteBehind() throws Exception {
+    OGlobalConfiguration.DISK_CACHE_WRITE_BEHIND_INTERVAL.setValue(100);
+    OGlobalConfiguration.WAL_RESTORE_THREADS.setValue(4);
+    restoreCopyOfOpenStorage();
+  }
+
+  public void testRestoreIsStoppedWhenWALCanNotBeRead() throws Exception {
+    OGlobalConfiguration.WAL_RESTORE_THREADS.setValue(4);
+    OWALRecordsFactory.INSTANCE.registerNewRecord((byte) 129, BrokenRecord.class);
+
+    databaseDocumentTx = new ODatabaseDocumentTx("plocal:" + buildDirectory + "/restoreFromWALTest");
+    databaseDocumentTx.create();
+    databaseDocumentTx.getMetadata().getSchema().createClass("RestoreTest");
+
+    final OLocalPaginatedStorage storage = (OLocalPaginatedStorage) databaseDocumentTx.getStorage();
+    storage.synch();
+
+    // RECORD WHICH CAN NOT BE READ IS LOGGED IN THE MIDDLE OF CHANGES WHICH ARE APPLIED BY WORKERS OF RESTORE
+    for (int i = 0; i < 2000; i++) {
+      if (i == 1000)
+        storage.getWALInstance().log(new BrokenRecord());
+
+      final ODocument document = new ODocument("RestoreTest");
+      document.field("value", i);
+      document.field("data", new byte[i % 300]);
+      document.save();
+    }
+
+    storage.getWALInstance().flush();
+    copyDirectory(new File(buildDirectory + "/restoreFromWALTest"), new File(buildDirectory + "/restoreFromWALTestCopy"));
+
+    databaseDocumentTx.drop();
+
+    databaseDocumentTx = new ODatabaseDocumentTx("plocal:" + buildDirectory + "/restoreFromWALTestCopy");
+    try {
+      databaseDocumentTx.open("admin", "admin");
+      Assert.fail();
+    } catch (OException e) {
+    }
+
+    // WORKERS ARE STOPPED BEFORE RESTORED FILES ARE CLOSED AND THE ERROR IS THROWN
+    for (Thread thread : Thread.getAllStackTraces().keySet())
+      Assert.assertFalse(thread.isAlive() && thread.getName().equals("WAL restore task"));
+  }
+
+  public void testRestoreOfClearedIndex() throws Exception {
+    OGlobalConfiguration.WAL_RESTORE_THREADS.setValue(4);
+
+    databaseDocumentTx = new ODatabaseDocumentTx("plocal:" + buildDirectory + "/restoreFromWALTest");
+    databaseDocumentTx.create();
+
+    OIndex<?> index = databaseDocumentTx
+        .getMetadata()
+        .getIndexManager()
+        .createIndex("RestoreTestIndex", OClass.INDEX_TYPE.UNIQUE_SBTREE.toString(), new OSimpleKeyIndexDefinition(OType.INTEGER),
+            null, null);
+
+    final OLocalPaginatedStorage storage = (OLocalPaginatedStorage) databaseDocumentTx.getStorage();
+    databaseDocumentTx.getMetadata().getIndexManager().flush();
+    storage.synch();
+
+    for (int i = 0; i < 10000; i++)
+      index.put(i, new ORecordId(1, OClusterPositionFactory.INSTANCE.valueOf(i)));
+
+    // FILE OF INDEX IS TRUNCATED, CHANGES MADE BEFORE CLEAR ARE STILL IN WAL
+    index.clear();
+    for (int i = 0; i < 100; i++)
+      index.put(-i, new ORecordId(1, OClusterPositionFactory.INSTANCE.valueOf(i)));
+
+    storage.getWALInstance().flush();
+    copyDirectory(new File(buildDirectory + "/restoreFromWALTest"), new File(buildDirectory + "/restoreFromWALTestCopy"));
+
+    databaseDocumentTx.drop();
+
+    databaseDocumentTx = new ODatabaseDocumentTx("plocal:" + buildDirectory + "/restoreFromWALTestCopy");
+    databaseDocumentTx.open("admin", "admin");
+
+    index = databaseDocumentTx.getMetadata().getIndexManager().getIndex("RestoreTestIndex");
+    Assert.assertEquals(index.getSize(), 100);
+    for (int i = 0; i < 100; i++)
+      Assert.assertEquals(index.get(-i), new ORecordId(1, OClusterPositionFactory.INSTANCE.valueOf(i)));
+    Assert.assertNull(index.get(5000));
+  }
+
+  private void restoreCopyOfOpenStorage() throws Exception {
+    databaseDocumentTx = new ODatabaseDocumentTx("plocal:" + buildDirectory + "/restoreFromWALTest");
+    databaseDocumentTx.create();
+    databaseDocumentTx.getMetadata().getSchema().createClass("RestoreTest");
+
+    OIndex<?> index = databaseDocumentTx
+        .getMetadata()
+        .getIndexManager()
+        .createIndex("RestoreTestIndex", OClass.INDEX_TYPE.UNIQUE_SBTREE.toString(), new OSimpleKeyIndexDefinition(OType.INTEGER),
+            null, null);
+
+    // INDEXES AND STATE OF CLUSTERS ARE WRITTEN TO THE DISK, CHANGES WHICH FOLLOW ARE KEPT IN DISK CACHE AND WAL ONLY
+    final OLocalPaginatedStorage storage = (OLocalPaginatedStorage) databaseDocumentTx.getStorage();
+    databaseDocumentTx.getMetadata().getIndexManager().flush();
+    storage.synch();
+
+    final Map<ORID, Integer> documents = new HashMap<ORID, Integer>();
+    for (int i = 0; i < 2000; i++) {
+      final ODocument document = new ODocument("RestoreTest");
+      document.field("value", i);
+      document.field("data", new byte[i % 300]);
+      document.save();
+      documents.put(document.getIdentity(), i);
+      index.put(i, document.getIdentity());
+    }
+
+    int n = 0;
+    for (ORID rid : documents.keySet().toArray(new ORID[documents.size()])) {
+      final ODocument document = databaseDocumentTx.load(rid);
+      if (n % 3 == 0) {
+        index.remove(document.<Integer> field("value"));
+        document.delete();
+        documents.remove(rid);
+      } else if (n % 3 == 1) {
+        index.remove(document.<Integer> field("value"));
+        index.put(-n, rid);
+        document.field("value", -n);
+        document.save();
+        documents.put(rid, -n);
+      }
+      n++;
+    }
+
+    // STORAGE IS NOT CLOSED, SO ITS COPY IS RESTORED FROM WAL WHEN IT IS OPENED
+    storage.getWALInstance().flush();
+    copyDirectory(new File(buildDirectory + "/restoreFromWALTest"), new File(buildDirectory + "/restoreFromWALTestCopy"));
+
+    databaseDocumentTx.drop();
+
+    databaseDocumentTx = new ODatabaseDocumentTx("plocal:" + buildDirectory + "/restoreFromWALTestCopy");
+    databaseDocumentTx.open("admin", "admin");
+
+    Assert.assertEquals(databaseDocumentTx.countClass("RestoreTest"), documents.size());
+    for (Map.Entry<ORID, Integer> entry : documents.entrySet()) {
+      final ODocument document = databaseDocumentTx.load(entry.getKey());
+      Assert.assertNotNull(document);
+      Assert.assertEquals(document.field("value"), entry.getValue());
+    }
+
+    index = databaseDocumentTx.getMetadata().getIndexManager().getIndex("RestoreTestIndex");
+    Assert.assertEquals(index.getSize(), documents.size());
+    for (Map.Entry<ORID, Integer> entry : documents.entrySet())
+      Assert.assertEquals(index.get(entry.getValue()), entry.getKey());
+  }
+
+  public static final class BrokenRecord implements OWALRecord {
+    private OLogSequenceNumber lsn;
+
+    @Override
+    public int toStream(byte[] content, int offset) {
+      content[offset] = 0;
+      return offset + 1;
+    }
+
+    @Override
+    public int fromStream(byte[] content, int offset) {
+      throw new IllegalStateException("Record can not be read");
+    }
+
+    @Override
+    public int serializedSize() {
+      return 1;
+    }
+
+    @Override
+    public boolean isUpdateMasterRecord() {
+      return false;
+    }
+
+    @Override
+    public OLogSequenceNumber getLsn() {
+      return lsn;
+    }
+
+    @Override
+    public void setLsn(OLogSequenceNumber lsn) {
+      this.lsn = lsn;
+    }
+  }
+
+  private static void copyDirectory(final File source, final File destination) throws IOException {
+    destination.mkdirs();
+
+    final byte[] buffer = new byte[64 * 1024];
+    for (File file : source.listFiles()) {
+      if (file.isDirectory())
+        continue;
+
+      final InputStream in = new FileInputStream(file);
+      try {
+        final OutputStream out = new FileOutputStream(new File(destination, file.getName()));
+        try {
+          int read;
+          while ((read = in.read(buffer)) > 0)
+            out.write(buffer, 0, read);
+        } finally {
+          out.close();
+        }
+      } finally {
+        in.close();
+      }
+    }
+  }
+
+  private static void deleteDirectory(final File directory) {
+    if (!directory.exists())
+      return;
+
+    for (File file : directory.listFiles())
+      file.delete();
+
+    directory.delete();
+  }
+}
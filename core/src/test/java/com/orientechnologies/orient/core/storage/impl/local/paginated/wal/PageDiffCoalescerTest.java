@@ -0,0 +1,119 @@
+package com.orientechnologies.orient.core.storage.impl.local.paginated.wal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.testng.Assert;
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.directmemory.ODirectMemory;
+import com.orientechnologies.common.directmemory.ODirectMemoryFactory;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OBinaryFullPageDiff;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OBinaryPageDiff;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OFullPageDiff;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OIntFullPageDiff;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OIntPageDiff;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OLongFullPageDiff;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OLongPageDiff;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OPageDiff;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OPageDiffCoalescer;
+
+@Test
+public class PageDiffCoalescerTest {
+  private static final int    PAGE_SIZE    = 256;
+
+  private final ODirectMemory directMemory = ODirectMemoryFactory.INSTANCE.directMemory();
+
+  public void testNotIntersectedDiffsAreNotChanged() {
+    List<OPageDiff<?>> diffs = new ArrayList<OPageDiff<?>>();
+
+    diffs.add(new OIntPageDiff(19, 42));
+    diffs.add(new OBinaryPageDiff(new byte[] { 7, 4, 8 }, 13));
+    diffs.add(new OLongPageDiff(37L, 213));
+
+    List<OPageDiff<?>> coalescedDiffs = OPageDiffCoalescer.coalesce(diffs);
+
+    Assert.assertEquals(coalescedDiffs.size(), 3);
+    Assert.assertTrue(coalescedDiffs.containsAll(diffs));
+  }
+
+  public void testForwardDiffsAreCoalesced() {
+    List<OPageDiff<?>> diffs = new ArrayList<OPageDiff<?>>();
+
+    diffs.add(new OIntPageDiff(19, 42));
+    diffs.add(new OBinaryPageDiff(new byte[] { 7, 4, 8 }, 13));
+    diffs.add(new OIntPageDiff(20, 42));
+    diffs.add(new OLongPageDiff(37L, 46));
+    diffs.add(new OBinaryPageDiff(new byte[] { 1, 2, 3, 4, 5, 6 }, 10));
+    diffs.add(new OLongPageDiff(38L, 150));
+
+    List<OPageDiff<?>> coalescedDiffs = OPageDiffCoalescer.coalesce(diffs);
+    Assert.assertEquals(coalescedDiffs.size(), 3);
+
+    assertSamePageContent(diffs, coalescedDiffs);
+  }
+
+  public void testFullDiffsAreCoalesced() {
+    List<OPageDiff<?>> diffs = new ArrayList<OPageDiff<?>>();
+
+    diffs.add(new OIntFullPageDiff(19, 42, 3));
+    diffs.add(new OBinaryFullPageDiff(new byte[] { 7, 4, 8 }, 13, new byte[] { 12, 10, 8 }));
+    diffs.add(new OIntFullPageDiff(20, 42, 19));
+    diffs.add(new OLongFullPageDiff(37L, 44, 11L));
+    diffs.add(new OBinaryFullPageDiff(new byte[] { 1, 2, 3, 4, 5, 6 }, 10, new byte[] { 9, 9, 9, 7, 4, 8 }));
+    diffs.add(new OLongFullPageDiff(38L, 150, 12L));
+
+    List<OPageDiff<?>> coalescedDiffs = OPageDiffCoalescer.coalesce(diffs);
+    Assert.assertEquals(coalescedDiffs.size(), 3);
+
+    for (OPageDiff<?> diff : coalescedDiffs)
+      Assert.assertTrue(diff instanceof OFullPageDiff);
+
+    assertSamePageContent(diffs, coalescedDiffs);
+
+    List<OFullPageDiff<?>> fullDiffs = new ArrayList<OFullPageDiff<?>>();
+    for (OPageDiff<?> diff : diffs)
+      fullDiffs.add((OFullPageDiff<?>) diff);
+
+    List<OFullPageDiff<?>> coalescedFullDiffs = new ArrayList<OFullPageDiff<?>>();
+    for (OPageDiff<?> diff : coalescedDiffs)
+      coalescedFullDiffs.add((OFullPageDiff<?>) diff);
+
+    long pagePointer = directMemory.allocate(new byte[PAGE_SIZE]);
+    long coalescedPagePointer = directMemory.allocate(new byte[PAGE_SIZE]);
+    try {
+      for (OPageDiff<?> diff : diffs) {
+        diff.restorePageData(pagePointer);
+        diff.restorePageData(coalescedPagePointer);
+      }
+
+      for (int i = fullDiffs.size() - 1; i >= 0; i--)
+        fullDiffs.get(i).revertPageData(pagePointer);
+
+      for (OFullPageDiff<?> diff : coalescedFullDiffs)
+        diff.revertPageData(coalescedPagePointer);
+
+      Assert.assertEquals(directMemory.get(coalescedPagePointer, PAGE_SIZE), directMemory.get(pagePointer, PAGE_SIZE));
+    } finally {
+      directMemory.free(pagePointer);
+      directMemory.free(coalescedPagePointer);
+    }
+  }
+
+  private void assertSamePageContent(List<OPageDiff<?>> diffs, List<OPageDiff<?>> coalescedDiffs) {
+    long pagePointer = directMemory.allocate(new byte[PAGE_SIZE]);
+    long coalescedPagePointer = directMemory.allocate(new byte[PAGE_SIZE]);
+    try {
+      for (OPageDiff<?> diff : diffs)
+        diff.restorePageData(pagePointer);
+
+      for (OPageDiff<?> diff : coalescedDiffs)
+        diff.restorePageData(coalescedPagePointer);
+
+      Assert.assertEquals(directMemory.get(coalescedPagePointer, PAGE_SIZE), directMemory.get(pagePointer, PAGE_SIZE));
+    } finally {
+      directMemory.free(pagePointer);
+      directMemory.free(coalescedPagePointer);
+    }
+  }
+}
@@ -6,8 +6,10 @@ import java.util.List;
 import org.testng.Assert;
 import org.testng.annotations.Test;
 
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OBinaryFullPageDiff;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OBinaryPageDiff;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OFileUpdatePageRecord;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OIntFullPageDiff;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OIntPageDiff;
 import com.orientechnologies.orient.core.storage.impl.local.paginated.wal.updatePageRecord.OLongFullPageDiff;
@@ -72,4 +74,85 @@ public class UpdatePageRecordTest {
     Assert.assertEquals(restoredUpdatePageRecord, serializedUpdatePageRecord);
   }
 
+  public void testSerializationCompressed() {
+    final boolean compression = OGlobalConfiguration.WAL_COMPRESSION.getValueAsBoolean();
+    OGlobalConfiguration.WAL_COMPRESSION.setValue(true);
+    try {
+      OLogSequenceNumber lsn = new OLogSequenceNumber(5, 100);
+      List<OPageDiff<?>> diffs = new ArrayList<OPageDiff<?>>();
+
+      for (int i = 0; i < 100; i++) {
+        diffs.add(new OIntPageDiff(19, 42 + i * 4));
+        diffs.add(new OLongFullPageDiff(37L, 1024 + i * 8, 45L));
+      }
+
+      diffs.add(new OBinaryPageDiff(new byte[1024], 4096));
+
+      OUpdatePageRecord serializedUpdatePageRecord = new OUpdatePageRecord(12, 100, lsn, diffs);
+
+      byte[] content = new byte[serializedUpdatePageRecord.serializedSize() + 1];
+
+      int toStreamOffset = serializedUpdatePageRecord.toStream(content, 1);
+      Assert.assertEquals(toStreamOffset, content.length);
+
+      OUpdatePageRecord restoredUpdatePageRecord = new OUpdatePageRecord();
+      int fromStreamOffset = restoredUpdatePageRecord.fromStream(content, 1);
+      Assert.assertEquals(fromStreamOffset, content.length);
+
+      Assert.assertEquals(restoredUpdatePageRecord, serializedUpdatePageRecord);
+
+      OGlobalConfiguration.WAL_COMPRESSION.setValue(false);
+      Assert.assertTrue(content.length < new OUpdatePageRecord(12, 100, lsn, diffs).serializedSize());
+    } finally {
+      OGlobalConfiguration.WAL_COMPRESSION.setValue(compression);
+    }
+  }
+
+  public void testLegacyFormatIsRead() {
+    final boolean compression = OGlobalConfiguration.WAL_COMPRESSION.getValueAsBoolean();
+    OGlobalConfiguration.WAL_COMPRESSION.setValue(false);
+    try {
+      OLogSequenceNumber lsn = new OLogSequenceNumber(5, 100);
+      List<OPageDiff<?>> diffs = new ArrayList<OPageDiff<?>>();
+
+      diffs.add(new OBinaryPageDiff(new byte[] { 7, 4, 8 }, 13));
+      diffs.add(new OIntPageDiff(19, 42));
+      diffs.add(new OLongFullPageDiff(37L, 213, 45L));
+
+      OUpdatePageRecord serializedUpdatePageRecord = new OUpdatePageRecord(12, 100, lsn, diffs);
+      byte[] content = OWALRecordsFactory.INSTANCE.toStream(serializedUpdatePageRecord);
+
+      int diffsSize = 4 + diffs.size();
+      for (OPageDiff<?> diff : diffs)
+        diffsSize += diff.serializedSize();
+
+      // LEGACY FORMAT HAS NEITHER COMPRESSION FLAG NOR LENGTH OF DIFFS
+      int positionSize = content.length - 1 - 5 - diffsSize;
+      byte[] legacyContent = new byte[content.length - 5];
+      System.arraycopy(content, 1, legacyContent, 1, positionSize);
+      System.arraycopy(content, 1 + positionSize + 5, legacyContent, 1 + positionSize, diffsSize);
+
+      Assert.assertEquals(OWALRecordsFactory.INSTANCE.fromStream(legacyContent), serializedUpdatePageRecord);
+      Assert.assertEquals(OWALRecordsFactory.INSTANCE.fromStream(content), serializedUpdatePageRecord);
+    } finally {
+      OGlobalConfiguration.WAL_COMPRESSION.setValue(compression);
+    }
+  }
+
+  public void testFileUpdatePageRecordSerialization() {
+    OLogSequenceNumber lsn = new OLogSequenceNumber(5, 100);
+    List<OPageDiff<?>> diffs = new ArrayList<OPageDiff<?>>();
+
+    diffs.add(new OBinaryPageDiff(new byte[] { 7, 4, 8 }, 13));
+    diffs.add(new OIntPageDiff(19, 42));
+    diffs.add(new OLongPageDiff(37L, 213));
+
+    OFileUpdatePageRecord serializedUpdatePageRecord = new OFileUpdatePageRecord(12, "index", ".sbt", lsn, diffs);
+    byte[] content = OWALRecordsFactory.INSTANCE.toStream(serializedUpdatePageRecord);
+
+    OWALRecord restoredRecord = OWALRecordsFactory.INSTANCE.fromStream(content);
+    Assert.assertTrue(restoredRecord instanceof OFileUpdatePageRecord);
+    Assert.assertEquals(restoredRecord, serializedUpdatePageRecord);
+    Assert.assertEquals(((OFileUpdatePageRecord) restoredRecord).getClusterId(), -1);
+  }
 }
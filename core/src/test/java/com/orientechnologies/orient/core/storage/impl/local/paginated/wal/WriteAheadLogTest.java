@@ -12,6 +12,11 @@ import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 import org.testng.Assert;
 import org.testng.annotations.AfterClass;
@@ -687,6 +692,71 @@ public class WriteAheadLogTest {
     Assert.assertEquals(writeAheadLog.getFlushedLSN(), walRecord.getLsn());
   }
 
+  public void testFlushTill() throws Exception {
+    OWALRecord walRecord = new TestRecord(ONE_KB, false);
+    final OLogSequenceNumber firstLSN = writeAheadLog.log(walRecord);
+
+    walRecord = new TestRecord(ONE_KB, false);
+    writeAheadLog.log(walRecord);
+
+    Assert.assertNull(writeAheadLog.getFlushedLSN());
+
+    writeAheadLog.flushTill(firstLSN);
+
+    Assert.assertEquals(writeAheadLog.getFlushedLSN(), walRecord.getLsn());
+
+    writeAheadLog.close();
+
+    writeAheadLog = createWAL();
+
+    Assert.assertEquals(writeAheadLog.getFlushedLSN(), walRecord.getLsn());
+  }
+
+  public void testFlushTillConcurrentCommits() throws Exception {
+    final int threads = 8;
+    final int commits = 100;
+
+    final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final List<Future<OLogSequenceNumber>> futures = new ArrayList<Future<OLogSequenceNumber>>();
+
+    for (int i = 0; i < threads; i++)
+      futures.add(executorService.submit(new Callable<OLogSequenceNumber>() {
+        @Override
+        public OLogSequenceNumber call() throws Exception {
+          final Random random = new Random();
+          startLatch.await();
+
+          OLogSequenceNumber lsn = null;
+          for (int n = 0; n < commits; n++) {
+            lsn = writeAheadLog.log(new TestRecord(random.nextInt(ONE_KB) + 2 * OIntegerSerializer.INT_SIZE + 4, false));
+            writeAheadLog.flushTill(lsn);
+
+            Assert.assertTrue(writeAheadLog.getFlushedLSN().compareTo(lsn) >= 0);
+          }
+
+          return lsn;
+        }
+      }));
+
+    startLatch.countDown();
+
+    OLogSequenceNumber lastLSN = null;
+    for (Future<OLogSequenceNumber> future : futures) {
+      OLogSequenceNumber lsn = future.get();
+      if (lastLSN == null || lastLSN.compareTo(lsn) < 0)
+        lastLSN = lsn;
+    }
+
+    executorService.shutdown();
+
+    writeAheadLog.close(false);
+
+    writeAheadLog = createWAL();
+
+    Assert.assertTrue(writeAheadLog.getFlushedLSN().compareTo(lastLSN) >= 0);
+  }
+
   public void testFirstMasterRecordIsBrokenSingleRecord() throws Exception {
     writeAheadLog.log(new TestRecord(30, false));
 
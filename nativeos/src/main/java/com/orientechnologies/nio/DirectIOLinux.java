@@ -0,0 +1,87 @@
+/*
+ * Copyright 1999-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.orientechnologies.nio;
+
+import com.sun.jna.Library;
+import com.sun.jna.Native;
+import com.sun.jna.NativeLong;
+import com.sun.jna.Pointer;
+
+/**
+ * Functions of C library which are needed to read and write files bypassing OS file cache under Linux (files are opened with
+ * {@code O_DIRECT} flag). Buffers, offsets and sizes of read/write operations should be aligned by size of block of file system.
+ */
+public interface DirectIOLinux extends Library {
+  // #define EINVAL 22 /* Invalid argument */ Buffer, offset or size of operation are not aligned, or file system does not support
+  // O_DIRECT flag.
+  static final int      EINVAL   = 22;
+
+  static final int      O_RDONLY = 00;
+  static final int      O_RDWR   = 02;
+
+  DirectIOLinux         INSTANCE = (DirectIOLinux) Native.loadLibrary("c", DirectIOLinux.class);
+
+  /**
+   * Opens file, details of this function you can find on {@see http://www.kernel.org/doc/man-pages/online/pages/man2/open.2.html}
+   *
+   * @return file descriptor or -1 in case of error.
+   */
+  int open(String path, int flags);
+
+  int close(int fd);
+
+  /**
+   * Reads data from given position of file, position of file descriptor is not changed so it can be used by several threads.
+   *
+   * @return amount of read bytes or -1 in case of error.
+   */
+  NativeLong pread64(int fd, Pointer buffer, NativeLong count, long offset);
+
+  /**
+   * Writes data to the given position of file, position of file descriptor is not changed so it can be used by several threads.
+   *
+   * @return amount of written bytes or -1 in case of error.
+   */
+  NativeLong pwrite64(int fd, Pointer buffer, NativeLong count, long offset);
+
+  static final class Flags {
+    private Flags() {
+    }
+
+    /**
+     * Value of {@code O_DIRECT} flag differs between architectures.
+     *
+     * @return value of flag or -1 if architecture is not known.
+     */
+    public static int directFlag() {
+      final String arch = System.getProperty("os.arch");
+      if (arch == null)
+        return -1;
+
+      if (arch.equals("amd64") || arch.equals("x86_64") || arch.equals("i386") || arch.equals("i686") || arch.equals("x86"))
+        return 040000;
+
+      if (arch.equals("aarch64") || arch.startsWith("arm"))
+        return 0200000;
+
+      if (arch.startsWith("ppc"))
+        return 0400000;
+
+      return -1;
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.test.database.speed;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.directmemory.ODirectMemory;
+import com.orientechnologies.common.directmemory.ODirectMemoryFactory;
+import com.orientechnologies.orient.core.Orient;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.config.OStorageSegmentConfiguration;
+import com.orientechnologies.orient.core.index.hashindex.local.cache.O2QCache;
+import com.orientechnologies.orient.core.storage.fs.OFileFactory;
+import com.orientechnologies.orient.core.storage.impl.local.paginated.OLocalPaginatedStorage;
+
+/**
+ * Measures throughput of cache hits of {@link O2QCache} for different amount of threads. All pages fit in cache, so only
+ * contention on cache structures is measured.
+ */
+@Test(enabled = false)
+public class O2QCacheMultiThreadSpeedTest {
+  private static final int   PAGE_SIZE        = 4 * 1024;
+  private static final int   PAGE_COUNT       = 16 * 1024;
+  private static final int   OPERATIONS_COUNT = 2000000;
+
+  private final ODirectMemory directMemory     = ODirectMemoryFactory.INSTANCE.directMemory();
+
+  public static void main(String[] args) throws Exception {
+    new O2QCacheMultiThreadSpeedTest().testHitThroughput();
+  }
+
+  @Test(enabled = false)
+  public void testHitThroughput() throws Exception {
+    OGlobalConfiguration.FILE_LOCK.setValue(Boolean.FALSE);
+
+    String buildDirectory = System.getProperty("buildDirectory", ".");
+    final OLocalPaginatedStorage storageLocal = (OLocalPaginatedStorage) Orient.instance().loadStorage(
+        "plocal:" + buildDirectory + "/O2QCacheMultiThreadSpeedTest");
+
+    final int maxThreads = Runtime.getRuntime().availableProcessors() * 2;
+    final int[] concurrencyLevels = new int[] { 1, OGlobalConfiguration.DISK_CACHE_CONCURRENCY_LEVEL.getValueAsInteger() };
+
+    for (int concurrencyLevel : concurrencyLevels) {
+      System.out.println("Concurrency level of cache : " + concurrencyLevel);
+
+      for (int threads = 1; threads <= maxThreads; threads <<= 1) {
+        final OStorageSegmentConfiguration fileConfiguration = new OStorageSegmentConfiguration(storageLocal.getConfiguration(),
+            "o2QCacheSpeedTest", 0);
+        fileConfiguration.fileType = OFileFactory.CLASSIC;
+        fileConfiguration.fileMaxSize = "10000Mb";
+
+        final O2QCache cache = new O2QCache(2L * PAGE_COUNT * PAGE_SIZE, 15000, directMemory, null, PAGE_SIZE, storageLocal,
+            false, concurrencyLevel, 0);
+        final long fileId = cache.openFile(fileConfiguration, ".tst");
+
+        for (int i = 0; i < PAGE_COUNT; i++) {
+          cache.load(fileId, i);
+          cache.release(fileId, i);
+        }
+
+        final long throughput = measure(cache, fileId, threads);
+        System.out.println("Threads : " + threads + ", hits per second : " + throughput);
+
+        cache.deleteFile(fileId);
+        cache.close();
+      }
+    }
+
+    storageLocal.delete();
+  }
+
+  private long measure(final O2QCache cache, final long fileId, final int threads) throws Exception {
+    final ExecutorService executorService = Executors.newFixedThreadPool(threads);
+    final CountDownLatch startLatch = new CountDownLatch(1);
+    final List<Future<Void>> futures = new ArrayList<Future<Void>>(threads);
+
+    for (int i = 0; i < threads; i++)
+      futures.add(executorService.submit(new Callable<Void>() {
+        @Override
+        public Void call() throws Exception {
+          final Random random = new Random();
+          startLatch.await();
+
+          for (int n = 0; n < OPERATIONS_COUNT; n++) {
+            final long pageIndex = random.nextInt(PAGE_COUNT);
+            cache.load(fileId, pageIndex);
+            cache.release(fileId, pageIndex);
+          }
+
+          return null;
+        }
+      }));
+
+    final long start = System.nanoTime();
+    startLatch.countDown();
+
+    for (Future<Void> future : futures)
+      future.get();
+
+    final long time = System.nanoTime() - start;
+    executorService.shutdown();
+
+    return (long) threads * OPERATIONS_COUNT * 1000000000L / time;
+  }
+}
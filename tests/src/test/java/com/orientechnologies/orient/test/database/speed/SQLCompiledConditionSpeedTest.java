@@ -0,0 +1,79 @@
+/*
+ * Copyright 2010-2012 Luca Garulli (l.garulli--at--orientechnologies.com)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.orientechnologies.orient.test.database.speed;
+
+import java.util.List;
+
+import org.testng.annotations.Test;
+
+import com.orientechnologies.common.test.SpeedTestMonoThread;
+import com.orientechnologies.orient.core.config.OGlobalConfiguration;
+import com.orientechnologies.orient.core.db.document.ODatabaseDocumentTx;
+import com.orientechnologies.orient.core.record.impl.ODocument;
+import com.orientechnologies.orient.core.sql.query.OSQLSynchQuery;
+
+/**
+ * Compares the evaluation of the same WHERE condition by the interpreter and by the compiled condition tree. Pass
+ * <code>-Dcompiled=true</code> to evaluate compiled conditions.
+ */
+@Test(enabled = false)
+public class SQLCompiledConditionSpeedTest extends SpeedTestMonoThread {
+  private static final int    RECORDS = 100000;
+
+  private ODatabaseDocumentTx database;
+
+  public static void main(String[] iArgs) throws InstantiationException, IllegalAccessException {
+    SQLCompiledConditionSpeedTest test = new SQLCompiledConditionSpeedTest();
+    test.data.go(test);
+  }
+
+  public SQLCompiledConditionSpeedTest() {
+    super(50);
+  }
+
+  @Override
+  public void init() {
+    OGlobalConfiguration.COMMAND_COMPILE_CONDITIONS.setValue(Boolean.getBoolean("compiled"));
+
+    database = new ODatabaseDocumentTx("memory:compiledConditionSpeedTest");
+    database.create();
+
+    database.getMetadata().getSchema().createClass("Account");
+    for (int i = 0; i < RECORDS; i++) {
+      final ODocument account = new ODocument("Account");
+      account.field("id", i);
+      account.field("balance", (long) (i % 1000));
+      account.field("country", "country" + (i % 50));
+      account.save();
+    }
+  }
+
+  @Override
+  public void cycle() {
+    final List<ODocument> result = database.query(new OSQLSynchQuery<ODocument>(
+        "select from Account where balance >= 500 and (country = 'country7' or country = 'country11') and id <> 10"));
+
+    if (result.isEmpty())
+      throw new IllegalStateException("Accounts not found");
+  }
+
+  @Override
+  public void deinit() {
+    database.drop();
+
+    System.out.println("Conditions evaluated " + (Boolean.getBoolean("compiled") ? "by compiled tree" : "by interpreter"));
+  }
+}